@@ -20,35 +20,53 @@
  */
 package com.github.mrstampy.pprspray.core.handler;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import rx.Scheduler;
-import rx.functions.Action0;
-import rx.schedulers.Schedulers;
-
 import com.github.mrstampy.kitchensync.message.inbound.AbstractInboundKiSyHandler;
 import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
 import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
 import com.github.mrstampy.kitchensync.stream.StreamerAckRegister;
+import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
+import com.github.mrstampy.pprspray.core.streamer.chunk.MediaPeerContext;
 import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
+import com.github.mrstampy.pprspray.core.streamer.util.StripedExecutor;
+import com.github.mrstampy.pprspray.core.streamer.util.VirtualThreads;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * The Class AbstractInboundMediaHandler is the superclass for all
  * {@link AbstractInboundKiSyHandler}s. It provides the structure to convert an
  * array of bytes (an inbound message) to its appropriate
  * {@link AbstractMediaChunk} implementation. The resulting object is then
- * posted on the {@link ChunkEventBus}.
+ * posted on the {@link ChunkEventBus}.<br>
+ * <br>
+ * If {@link #isPooledChunks()} and the implementation supports it the chunk is
+ * obtained from a pool via {@link #createPooledChunk(ByteBuf)}; consumers are
+ * then responsible for invoking {@link AbstractMediaChunk#release()}, as the
+ * {@link AbstractChunkReceiver} does once the message has been rehydrated.<br>
+ * <br>
+ * Messages are processed on the stripe of a {@link StripedExecutor} selected by
+ * their media hash, preserving the order of messages within a stream with a
+ * bounded number of threads. The executor is shared by all handlers unless
+ * {@link #setExecutor(StripedExecutor)} is invoked. If {@link #isInline()} the
+ * message is processed on the invoking (channel) thread instead. If
+ * {@link VirtualThreads#isEnabled()} the default executor's stripes are
+ * {@link #VIRTUAL_STRIPE_COUNT} virtual threads.
  *
  * @param <AMC>
  *          the generic type
  * @see ByteArrayInboundMessageManager#addMessageHandlers(com.github.mrstampy.kitchensync.message.inbound.KiSyInboundMesssageHandler...)
+ * @see MediaPeerContext
  */
 public abstract class AbstractInboundMediaHandler<AMC extends AbstractMediaChunk> extends
 		AbstractInboundKiSyHandler<byte[]> {
@@ -56,7 +74,19 @@ public abstract class AbstractInboundMediaHandler<AMC extends AbstractMediaChunk
 
 	private static final long serialVersionUID = -575695328821545145L;
 
-	private Scheduler svc = Schedulers.from(Executors.newCachedThreadPool());
+	/** The Constant VIRTUAL_STRIPE_COUNT. */
+	public static final int VIRTUAL_STRIPE_COUNT = 1024;
+
+	private static final StripedExecutor DEFAULT_EXECUTOR = VirtualThreads.isEnabled() ? new StripedExecutor(
+			VIRTUAL_STRIPE_COUNT, VirtualThreads.newThreadFactory("pprspray-inbound-")) : new StripedExecutor(Runtime
+			.getRuntime().availableProcessors(), new ThreadFactoryBuilder().setDaemon(true)
+			.setNameFormat("Inbound Media Handler %d").build());
+
+	private StripedExecutor executor = DEFAULT_EXECUTOR;
+
+	private volatile boolean inline;
+
+	private volatile boolean pooledChunks;
 
 	/*
 	 * (non-Javadoc)
@@ -67,7 +97,7 @@ public abstract class AbstractInboundMediaHandler<AMC extends AbstractMediaChunk
 	 */
 	@Override
 	public boolean canHandleMessage(byte[] message) {
-		return MediaStreamerUtils.isMediaType(message, getType());
+		return MediaStreamerUtils.getHeader(message).isMediaType(getType());
 	}
 
 	/*
@@ -94,16 +124,14 @@ public abstract class AbstractInboundMediaHandler<AMC extends AbstractMediaChunk
 	@Override
 	protected final void onReceive(final byte[] message, final KiSyChannel channel, final InetSocketAddress sender)
 			throws Exception {
-		svc.createWorker().schedule(new Action0() {
+		Runnable task = new Runnable() {
 
 			@Override
-			public void call() {
+			public void run() {
 				try {
-					AMC chunk = createChunk(message);
+					AMC chunk = newChunk(message);
 
-					chunk.setChannelPort(channel.getPort());
-					chunk.setRemote(sender);
-					chunk.setLocal(channel.localAddress());
+					chunk.setPeerContext(MediaPeerContext.getContext(channel, sender));
 
 					if (log.isTraceEnabled()) log.trace("Received chunk {}", chunk);
 
@@ -114,7 +142,35 @@ public abstract class AbstractInboundMediaHandler<AMC extends AbstractMediaChunk
 					log.error("Unexpected exception", e);
 				}
 			}
-		});
+		};
+
+		if (isInline()) {
+			task.run();
+		} else {
+			getExecutor().execute(getStripeKey(message), task);
+		}
+	}
+
+	/**
+	 * Returns the key used to select the {@link StripedExecutor} stripe, the
+	 * media hash of the message.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the stripe key
+	 */
+	protected int getStripeKey(byte[] message) {
+		MediaHeaderFlyweight header = MediaStreamerUtils.getHeader(message);
+
+		return header.hasHeader() ? header.getMediaHash() : 0;
+	}
+
+	private AMC newChunk(byte[] message) {
+		if (!isPooledChunks()) return createChunk(message);
+
+		AMC chunk = createPooledChunk(Unpooled.wrappedBuffer(message));
+
+		return chunk == null ? createChunk(message) : chunk;
 	}
 
 	/**
@@ -153,6 +209,40 @@ public abstract class AbstractInboundMediaHandler<AMC extends AbstractMediaChunk
 	 */
 	protected abstract AMC createChunk(byte[] message);
 
+	/**
+	 * Creates a pooled chunk backed by the message, null if pooling is not
+	 * supported by the implementation. Default returns null.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the amc
+	 */
+	protected AMC createPooledChunk(ByteBuf message) {
+		return null;
+	}
+
+	/**
+	 * Checks if pooled chunks are to be created.
+	 *
+	 * @return true, if checks if is pooled chunks
+	 * @see #createPooledChunk(ByteBuf)
+	 */
+	public boolean isPooledChunks() {
+		return pooledChunks;
+	}
+
+	/**
+	 * Set to true to create pooled chunks which are recycled once released.
+	 * Only enable if all consumers of the chunks release them after use and do
+	 * not retain references. Defaults to false.
+	 *
+	 * @param pooledChunks
+	 *          the pooled chunks
+	 */
+	public void setPooledChunks(boolean pooledChunks) {
+		this.pooledChunks = pooledChunks;
+	}
+
 	/**
 	 * Gets the type.
 	 *
@@ -160,4 +250,59 @@ public abstract class AbstractInboundMediaHandler<AMC extends AbstractMediaChunk
 	 */
 	protected abstract MediaStreamType getType();
 
+	/**
+	 * Returns the key expected at the start of the custom header for messages of
+	 * {@link #getType()} handled by this handler, null if none. Default returns
+	 * null.
+	 *
+	 * @return the custom header key
+	 * @see MediaDatagramDispatcher
+	 */
+	protected byte[] getCustomHeaderKey() {
+		return null;
+	}
+
+	/**
+	 * Gets the executor.
+	 *
+	 * @return the executor
+	 */
+	public StripedExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor on which messages are processed. Defaults to an executor
+	 * shared by all handlers with one stripe per processor.
+	 *
+	 * @param executor
+	 *          the executor
+	 */
+	public void setExecutor(StripedExecutor executor) {
+		if (executor == null) throw new IllegalArgumentException("Executor cannot be null");
+		this.executor = executor;
+	}
+
+	/**
+	 * Checks if messages are processed inline on the receiving thread.
+	 *
+	 * @return true, if checks if is inline
+	 */
+	public boolean isInline() {
+		return inline;
+	}
+
+	/**
+	 * Set to true to decode, acknowledge and post messages on the thread which
+	 * received them, typically the channel's event loop. Avoids a thread hop per
+	 * message at the cost of blocking the event loop for the duration of
+	 * processing. Defaults to false.
+	 *
+	 * @param inline
+	 *          the inline
+	 */
+	public void setInline(boolean inline) {
+		this.inline = inline;
+	}
+
 }
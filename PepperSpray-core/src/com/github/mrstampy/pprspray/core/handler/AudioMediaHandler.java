@@ -20,6 +20,8 @@
  */
 package com.github.mrstampy.pprspray.core.handler;
 
+import io.netty.buffer.ByteBuf;
+
 import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.audio.DefaultAudioChunk;
@@ -44,6 +46,17 @@ public class AudioMediaHandler extends AbstractInboundMediaHandler<DefaultAudioC
 		return new DefaultAudioChunk(message);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler#
+	 * createPooledChunk(io.netty.buffer.ByteBuf)
+	 */
+	@Override
+	protected DefaultAudioChunk createPooledChunk(ByteBuf message) {
+		return DefaultAudioChunk.newInstance(message);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
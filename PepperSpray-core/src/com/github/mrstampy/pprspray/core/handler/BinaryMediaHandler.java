@@ -20,6 +20,8 @@
  */
 package com.github.mrstampy.pprspray.core.handler;
 
+import io.netty.buffer.ByteBuf;
+
 import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.binary.DefaultBinaryChunk;
@@ -56,4 +58,15 @@ public class BinaryMediaHandler extends AbstractInboundMediaHandler<DefaultBinar
 		return new DefaultBinaryChunk(message);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler#
+	 * createPooledChunk(io.netty.buffer.ByteBuf)
+	 */
+	@Override
+	protected DefaultBinaryChunk createPooledChunk(ByteBuf message) {
+		return DefaultBinaryChunk.newInstance(message);
+	}
+
 }
@@ -20,6 +20,8 @@
  */
 package com.github.mrstampy.pprspray.core.handler;
 
+import io.netty.buffer.ByteBuf;
+
 import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.file.DefaultFileChunk;
@@ -44,6 +46,17 @@ public class FileMediaHandler extends AbstractInboundMediaHandler<DefaultFileChu
 		return new DefaultFileChunk(message);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler#
+	 * createPooledChunk(io.netty.buffer.ByteBuf)
+	 */
+	@Override
+	protected DefaultFileChunk createPooledChunk(ByteBuf message) {
+		return DefaultFileChunk.newInstance(message);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
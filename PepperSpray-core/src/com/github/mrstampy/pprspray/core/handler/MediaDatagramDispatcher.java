@@ -0,0 +1,228 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.handler;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.kitchensync.message.inbound.AbstractInboundKiSyHandler;
+import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
+
+/**
+ * The Class MediaDatagramDispatcher is a single inbound handler which replaces
+ * the registration of each {@link AbstractInboundMediaHandler} with the
+ * {@link ByteArrayInboundMessageManager}. Each datagram is classified once from
+ * its header - the {@link MediaStreamType} ordinal or end of message value is
+ * used as an index and custom header keys (ie. JSON and XML) are matched in
+ * place - and routed directly to the handler which creates the chunk.
+ * Malformed or foreign datagrams are rejected without creating a chunk or
+ * throwing an exception. Classification reads the header in place and is
+ * repeated by {@link #canHandleMessage(byte[])} and
+ * {@link #onReceive(byte[], KiSyChannel, InetSocketAddress)}, no state being
+ * kept between the two.
+ * 
+ * @see MediaHeaderFlyweight#isValidChunk()
+ * @see MediaHeaderFlyweight#isValidFooter()
+ * @see ByteArrayInboundMessageManager#addMessageHandlers(com.github.mrstampy.kitchensync.message.inbound.KiSyInboundMesssageHandler...)
+ */
+public class MediaDatagramDispatcher extends AbstractInboundKiSyHandler<byte[]> {
+	private static final Logger log = LoggerFactory.getLogger(MediaDatagramDispatcher.class);
+
+	private static final long serialVersionUID = 2930683614381474474L;
+
+	private static final AbstractInboundMediaHandler<?>[] NONE = new AbstractInboundMediaHandler<?>[0];
+
+	private final Map<MediaStreamType, AbstractInboundMediaHandler<?>> handlers = new EnumMap<>(MediaStreamType.class);
+
+	private final Map<MediaStreamType, AbstractInboundMediaHandler<?>[]> customHeaderHandlers = new EnumMap<>(
+			MediaStreamType.class);
+
+	private volatile AbstractInboundMediaHandler<?> footerHandler;
+
+	/**
+	 * The Constructor, adding the default handlers for all
+	 * {@link MediaStreamType}s, JSON and XML text and {@link MediaFooterHandler}
+	 * .
+	 */
+	public MediaDatagramDispatcher() {
+		//@formatter:off
+		this(new AudioMediaHandler(),
+				new BinaryMediaHandler(),
+				new FileMediaHandler(),
+				new TextMediaHandler(),
+				new JsonMediaHandler(),
+				new XmlMediaHandler(),
+				new WebcamMediaHandler(),
+				new NegotiationHandler(),
+				new NegotiationAckHandler(),
+				new MediaFooterHandler());
+		//@formatter:on
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param handlers
+	 *          the handlers
+	 * @see #addHandler(AbstractInboundMediaHandler)
+	 */
+	public MediaDatagramDispatcher(AbstractInboundMediaHandler<?>... handlers) {
+		for (AbstractInboundMediaHandler<?> handler : handlers) {
+			addHandler(handler);
+		}
+	}
+
+	/**
+	 * Adds the handler, replacing any handler previously added for the same
+	 * {@link AbstractInboundMediaHandler#getType()} and
+	 * {@link AbstractInboundMediaHandler#getCustomHeaderKey()}. A
+	 * {@link MediaFooterHandler} receives all footers. Handlers are expected to
+	 * be added before the dispatcher is registered.
+	 *
+	 * @param handler
+	 *          the handler
+	 */
+	public synchronized void addHandler(AbstractInboundMediaHandler<?> handler) {
+		if (handler == null) throw new IllegalArgumentException("Handler cannot be null");
+
+		if (handler instanceof MediaFooterHandler) {
+			footerHandler = handler;
+			return;
+		}
+
+		byte[] key = handler.getCustomHeaderKey();
+		if (key == null) {
+			handlers.put(handler.getType(), handler);
+		} else {
+			addCustomHeaderHandler(handler, key);
+		}
+	}
+
+	private void addCustomHeaderHandler(AbstractInboundMediaHandler<?> handler, byte[] key) {
+		AbstractInboundMediaHandler<?>[] existing = getCustomHeaderHandlers(handler.getType());
+
+		for (int i = 0; i < existing.length; i++) {
+			if (Arrays.equals(key, existing[i].getCustomHeaderKey())) {
+				AbstractInboundMediaHandler<?>[] replaced = existing.clone();
+				replaced[i] = handler;
+				customHeaderHandlers.put(handler.getType(), replaced);
+				return;
+			}
+		}
+
+		AbstractInboundMediaHandler<?>[] added = Arrays.copyOf(existing, existing.length + 1);
+		added[existing.length] = handler;
+
+		customHeaderHandlers.put(handler.getType(), added);
+	}
+
+	private AbstractInboundMediaHandler<?>[] getCustomHeaderHandlers(MediaStreamType type) {
+		AbstractInboundMediaHandler<?>[] keyed = customHeaderHandlers.get(type);
+
+		return keyed == null ? NONE : keyed;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.kitchensync.message.inbound.KiSyInboundMesssageHandler
+	 * #canHandleMessage(java.lang.Object)
+	 */
+	@Override
+	public boolean canHandleMessage(byte[] message) {
+		return route(message) != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.kitchensync.message.inbound.KiSyInboundMesssageHandler
+	 * #getExecutionOrder()
+	 */
+	@Override
+	public int getExecutionOrder() {
+		return DEFAULT_EXECUTION_ORDER;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.kitchensync.message.inbound.AbstractInboundKiSyHandler
+	 * #onReceive(java.lang.Object,
+	 * com.github.mrstampy.kitchensync.netty.channel.KiSyChannel,
+	 * java.net.InetSocketAddress)
+	 */
+	@Override
+	protected void onReceive(byte[] message, KiSyChannel channel, InetSocketAddress sender) throws Exception {
+		AbstractInboundMediaHandler<?> handler = route(message);
+
+		if (handler == null) {
+			log.trace("Discarding unrecognized message of length {} from {}", message == null ? 0 : message.length, sender);
+			return;
+		}
+
+		handler.onReceive(message, channel, sender);
+	}
+
+	/**
+	 * Returns the handler for the message, null if the message is malformed or
+	 * no handler has been added for it.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the abstract inbound media handler
+	 */
+	protected AbstractInboundMediaHandler<?> route(byte[] message) {
+		MediaHeaderFlyweight header = MediaStreamerUtils.getHeader(message);
+
+		if (header.isValidChunk()) return routeChunk(header);
+
+		return header.isValidFooter() ? footerHandler : null;
+	}
+
+	private AbstractInboundMediaHandler<?> routeChunk(MediaHeaderFlyweight header) {
+		MediaStreamType type = header.getMediaStreamType();
+		int headerLength = header.getHeaderLength();
+
+		AbstractInboundMediaHandler<?>[] keyed = getCustomHeaderHandlers(type);
+		for (int i = 0; i < keyed.length; i++) {
+			byte[] key = keyed[i].getCustomHeaderKey();
+			if (headerLength >= MediaStreamerUtils.DEFAULT_HEADER_LENGTH + key.length && header.isCustomHeader(key)) {
+				return keyed[i];
+			}
+		}
+
+		return handlers.get(type);
+	}
+
+}
@@ -23,6 +23,7 @@ package com.github.mrstampy.pprspray.core.handler;
 import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
@@ -43,9 +44,22 @@ public class MediaFooterHandler extends AbstractInboundMediaHandler<MediaFooterC
 	 */
 	@Override
 	public boolean canHandleMessage(byte[] message) {
-		boolean applicable = MediaStreamerUtils.getMediaStreamTypeAsFooter(message) != null;
+		return MediaStreamerUtils.getHeader(message).isFooter();
+	}
+
+	/**
+	 * Returns the media hash of the footer so that it is processed on the same
+	 * stripe as, and after, the chunks of its message.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the stripe key
+	 */
+	@Override
+	protected int getStripeKey(byte[] message) {
+		MediaHeaderFlyweight header = MediaStreamerUtils.getHeader(message);
 
-		return applicable;
+		return header.isValidFooter() ? header.getFooterMediaHash() : 0;
 	}
 
 	/*
@@ -21,6 +21,7 @@
 package com.github.mrstampy.pprspray.core.handler;
 
 import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
+import com.github.mrstampy.pprspray.core.receiver.multicast.MulticastMembership;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationAckChunk;
 
@@ -44,6 +45,21 @@ public class NegotiationAckHandler extends AbstractInboundMediaHandler<Negotiati
 		return new NegotiationAckChunk(message);
 	}
 
+	/**
+	 * Suppresses any pending multicast acknowledgements of the chunk's media hash
+	 * before posting.
+	 *
+	 * @param chunk
+	 *          the chunk
+	 * @see MulticastMembership#ackObserved(int)
+	 */
+	@Override
+	protected void post(NegotiationAckChunk chunk) {
+		MulticastMembership.ackObserved(chunk.getMediaHash());
+
+		super.post(chunk);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -20,6 +20,8 @@
  */
 package com.github.mrstampy.pprspray.core.handler;
 
+import io.netty.buffer.ByteBuf;
+
 import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.text.DefaultTextChunk;
@@ -56,6 +58,17 @@ public class TextMediaHandler extends AbstractInboundMediaHandler<DefaultTextChu
 		return new DefaultTextChunk(message);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler#
+	 * createPooledChunk(io.netty.buffer.ByteBuf)
+	 */
+	@Override
+	protected DefaultTextChunk createPooledChunk(ByteBuf message) {
+		return DefaultTextChunk.newInstance(message);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -20,6 +20,8 @@
  */
 package com.github.mrstampy.pprspray.core.handler;
 
+import io.netty.buffer.ByteBuf;
+
 import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.webcam.DefaultWebcamChunk;
@@ -44,6 +46,17 @@ public class WebcamMediaHandler extends AbstractInboundMediaHandler<DefaultWebca
 		return new DefaultWebcamChunk(message);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler#
+	 * createPooledChunk(io.netty.buffer.ByteBuf)
+	 */
+	@Override
+	protected DefaultWebcamChunk createPooledChunk(ByteBuf message) {
+		return DefaultWebcamChunk.newInstance(message);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
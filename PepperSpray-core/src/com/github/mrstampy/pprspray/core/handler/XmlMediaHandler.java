@@ -23,6 +23,8 @@ package com.github.mrstampy.pprspray.core.handler;
 import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.text.DefaultXmlChunk;
+import com.github.mrstampy.pprspray.core.streamer.text.DefaultXmlChunkProcessor;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
@@ -42,7 +44,9 @@ public class XmlMediaHandler extends AbstractInboundMediaHandler<DefaultXmlChunk
 	 */
 	@Override
 	public boolean canHandleMessage(byte[] message) {
-		return super.canHandleMessage(message) && MediaStreamerUtils.isXmlMessage(message);
+		MediaHeaderFlyweight header = MediaStreamerUtils.getHeader(message);
+
+		return header.isMediaType(getType()) && header.isCustomHeader(getCustomHeaderKey());
 	}
 
 	/*
@@ -79,4 +83,15 @@ public class XmlMediaHandler extends AbstractInboundMediaHandler<DefaultXmlChunk
 		return MediaStreamType.TEXT;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler#
+	 * getCustomHeaderKey()
+	 */
+	@Override
+	protected byte[] getCustomHeaderKey() {
+		return DefaultXmlChunkProcessor.XML_KEY_BYTES;
+	}
+
 }
@@ -21,21 +21,29 @@
 package com.github.mrstampy.pprspray.core.receiver;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import rx.Scheduler;
 import rx.functions.Action0;
+import rx.functions.Action1;
 import rx.schedulers.Schedulers;
 
 import com.github.mrstampy.pprspray.core.receiver.event.ReceiverEvent;
@@ -44,37 +52,170 @@ import com.github.mrstampy.pprspray.core.receiver.event.ReceiverEventType;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
 import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.MediaChunkListener;
 import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
-import com.google.common.eventbus.Subscribe;
+import com.github.mrstampy.pprspray.core.streamer.util.MpscRingBuffer;
+import com.github.mrstampy.pprspray.core.streamer.util.VirtualThreads;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * AbstractMediaReceivers aggregate {@link AbstractMediaChunk}s received on the
  * {@link ChunkEventBus} and on end of message apply any transformations
  * necessary to the chunks, creating a single byte array of the processed data
- * and sending a {@link MediaEvent} to the {@link MediaEventBus}.
+ * and sending a {@link MediaEvent} to the {@link MediaEventBus}.<br>
+ * <br>
+ * Chunks and footers are queued on a bounded, lock free ring buffer owned by
+ * the receiver and drained in batches by a worker pool shared by all receivers
+ * and sized to the number of processors. A receiver's queue is drained by one
+ * worker at a time, preserving the order in which chunks were posted. The
+ * {@link ChunkOverflowPolicy} applies to chunks should the queue fill; footers
+ * are always queued, the posting thread waiting for room if necessary. If
+ * {@link VirtualThreads#isEnabled()} each drain and finalization executes on a
+ * new virtual thread.<br>
+ * <br>
+ * With {@link #setCompositeRehydration(boolean)} enabled the chunks' payloads
+ * are assembled into a {@link CompositeByteBuf} without copying and passed to a
+ * {@link BufferMediaTransformer}, the result posted as a buffered
+ * {@link MediaEvent}.<br>
+ * <br>
+ * Should the {@link MediaProcessor} registered for the media hash be a
+ * {@link ProgressiveMediaProcessor} the contiguous prefix of each message is
+ * passed to it as the chunks arrive and released, the receiver holding only
+ * those chunks received out of order. Messages of senders which do not flag
+ * the first chunk are passed to it on finalization.<br>
+ * <br>
+ * Incomplete messages, ie. those for which the {@link MediaFooterChunk} has
+ * been lost, are evicted once older than the
+ * {@link #setPartialMessageTtlMillis(long)} or, oldest first, should the bytes
+ * held exceed the receiver's {@link #setMaxPendingBytes(long)}. Should the
+ * bytes held by all receivers exceed the
+ * {@link #setGlobalMaxPendingBytes(long)} messages of the receiver with the
+ * lowest {@link #setEvictionPriority(int)} are evicted, oldest first. Each
+ * eviction is posted as a {@link ReceiverEventType#EVICT} {@link ReceiverEvent}
+ * .<br>
+ * <br>
+ * The hashes of the last {@link #MAX_FINALIZED_MESSAGES} finalized or evicted
+ * messages are remembered for the {@link #setPartialMessageTtlMillis(long)},
+ * late and duplicate chunks and footers for them being released on arrival.
  *
  * @param <AMC>
  *          the generic type
  */
-public abstract class AbstractChunkReceiver<AMC extends AbstractMediaChunk> {
+public abstract class AbstractChunkReceiver<AMC extends AbstractMediaChunk> implements MediaChunkListener<AMC> {
 	private static final Logger log = LoggerFactory.getLogger(AbstractChunkReceiver.class);
 
+	/** The Constant DEFAULT_QUEUE_CAPACITY. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+	/** The Constant DEFAULT_BATCH_SIZE. */
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	/** The Constant DEFAULT_MIN_FINALIZE_MILLIS. */
+	public static final long DEFAULT_MIN_FINALIZE_MILLIS = 5;
+
+	/** The Constant DEFAULT_MAX_FINALIZE_MILLIS. */
+	public static final long DEFAULT_MAX_FINALIZE_MILLIS = 1000;
+
+	/** The Constant DEFAULT_MAX_PENDING_BYTES. */
+	public static final long DEFAULT_MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+	/** The Constant DEFAULT_PARTIAL_MESSAGE_TTL_MILLIS. */
+	public static final long DEFAULT_PARTIAL_MESSAGE_TTL_MILLIS = 10000;
+
+	/** The Constant MAX_FINALIZED_MESSAGES. */
+	public static final int MAX_FINALIZED_MESSAGES = 1024;
+
+	/** The Constant EVICTION_SWEEP_MILLIS. */
+	public static final long EVICTION_SWEEP_MILLIS = 1000;
+
+	private static final ExecutorService DELIVERY_SVC = VirtualThreads.isEnabled() ? VirtualThreads.newExecutor()
+			: Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactoryBuilder()
+					.setDaemon(true).setNameFormat("Chunk Receiver %d").build());
+
+	private static final Scheduler FINALIZE_SVC = Schedulers.from(DELIVERY_SVC);
+
+	private static final ScheduledExecutorService SWEEP_SVC = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+					.setNameFormat("Chunk Receiver Eviction").build());
+
+	private static final Set<AbstractChunkReceiver<?>> RECEIVERS = Collections
+			.newSetFromMap(new ConcurrentHashMap<AbstractChunkReceiver<?>, Boolean>());
+
+	private static final AtomicLong GLOBAL_PENDING_BYTES = new AtomicLong();
+	private static final AtomicLong GLOBAL_EVICTION_COUNT = new AtomicLong();
+	private static volatile long globalMaxPendingBytes = Runtime.getRuntime().maxMemory() / 4;
+
+	static {
+		SWEEP_SVC.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				sweep();
+			}
+		}, EVICTION_SWEEP_MILLIS, EVICTION_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
 	private MediaStreamType type;
 	private int mediaHash;
 
 	private MediaTransformer transformer;
 
 	private AtomicBoolean open = new AtomicBoolean(false);
+	private final AtomicBoolean destroyed = new AtomicBoolean(false);
 
-	/** The incoming. */
-	protected Map<Integer, ConcurrentSkipListSet<AMC>> incoming = new ConcurrentHashMap<>();
+	/** The incoming messages keyed by message hash. */
+	protected Map<Integer, ChunkReassemblyBuffer<AMC>> incoming = new ConcurrentHashMap<>();
 
-	/** The svc. */
-	protected Scheduler svc = Schedulers.from(Executors.newSingleThreadExecutor());
+	/** The svc, shared by all receivers. */
+	protected Scheduler svc = FINALIZE_SVC;
 
 	private int finalizeAwaitValue = 0;
 	private TimeUnit finalizeUnits = TimeUnit.SECONDS;
 
+	private final MpscRingBuffer<AbstractMediaChunk> queue;
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private volatile ChunkOverflowPolicy overflowPolicy = ChunkOverflowPolicy.DROP;
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+	private final AtomicLong overflowCount = new AtomicLong();
+
+	private volatile long minFinalizeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_FINALIZE_MILLIS);
+	private volatile long maxFinalizeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_FINALIZE_MILLIS);
+	private volatile double reorderDepth;
+	private volatile double arrivalInterval;
+
+	private volatile boolean compositeRehydration;
+
+	private volatile long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+	private volatile long partialMessageTtlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PARTIAL_MESSAGE_TTL_MILLIS);
+	private volatile int evictionPriority;
+	private final AtomicLong pendingBytes = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private final Map<Integer, Long> finalized = new LinkedHashMap<Integer, Long>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<Integer, Long> eldest) {
+			return size() > MAX_FINALIZED_MESSAGES;
+		}
+	};
+
+	private final Runnable drainer = new Runnable() {
+
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	private final Action1<AbstractMediaChunk> deliverer = new Action1<AbstractMediaChunk>() {
+
+		@Override
+		public void call(AbstractMediaChunk t) {
+			deliver(t);
+		}
+	};
+
 	/**
 	 * The Constructor.
 	 *
@@ -84,30 +225,155 @@ public abstract class AbstractChunkReceiver<AMC extends AbstractMediaChunk> {
 	 *          the media hash
 	 */
 	protected AbstractChunkReceiver(MediaStreamType type, int mediaHash) {
+		this(type, mediaHash, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param type
+	 *          the type
+	 * @param mediaHash
+	 *          the media hash
+	 * @param queueCapacity
+	 *          the capacity of the chunk queue, rounded up to a power of two
+	 */
+	protected AbstractChunkReceiver(MediaStreamType type, int mediaHash, int queueCapacity) {
+		queue = new MpscRingBuffer<AbstractMediaChunk>(queueCapacity);
+
 		setType(type);
 		setMediaHash(mediaHash);
 		setTransformer(new NoTransformTransformer());
 
 		ChunkEventBus.register(this);
+		RECEIVERS.add(this);
 	}
 
 	/**
-	 * Receive.
+	 * Queues the chunk for delivery to {@link #receiveImpl(AbstractMediaChunk)}.
 	 *
 	 * @param chunk
 	 *          the chunk
-	 * @see ChunkEventBus#register(Object)
+	 * @see ChunkEventBus#register(MediaChunkListener)
 	 */
-	@Subscribe
 	public void receive(AMC chunk) {
+		enqueue(chunk);
+	}
+
+	/**
+	 * Queues the footer for delivery to {@link #endOfMessageImpl(MediaFooterChunk)}
+	 * after all chunks previously received.
+	 *
+	 * @param eom
+	 *          the eom
+	 * @see ChunkEventBus#register(MediaChunkListener)
+	 */
+	public void endOfMessage(MediaFooterChunk eom) {
+		enqueue(eom);
+	}
+
+	private void enqueue(AbstractMediaChunk chunk) {
+		if (isDestroyed()) {
+			chunk.release();
+			return;
+		}
+
+		if (!queue.offer(chunk)) overflow(chunk);
+
+		scheduleDrain();
+	}
+
+	private void overflow(AbstractMediaChunk chunk) {
+		overflowCount.incrementAndGet();
+
+		// footers are always admitted, in order, lest the message never finalize
+		if (chunk instanceof MediaFooterChunk) {
+			await(chunk);
+			return;
+		}
+
+		switch (getOverflowPolicy()) {
+		case BLOCK:
+			await(chunk);
+			break;
+		case CLOSE:
+			log.warn("Queue full for type {}, hash {}, closing", getType(), getMediaHash());
+			chunk.release();
+			close();
+			break;
+		default:
+			log.trace("Queue full for type {}, hash {}, dropping sequence {}", getType(), getMediaHash(),
+					chunk.getSequence());
+			chunk.release();
+			break;
+		}
+	}
+
+	private void await(AbstractMediaChunk chunk) {
+		while (!queue.offer(chunk)) {
+			if (isDestroyed()) {
+				chunk.release();
+				return;
+			}
+
+			scheduleDrain();
+			LockSupport.parkNanos(10000);
+		}
+	}
+
+	private void scheduleDrain() {
+		if (draining.compareAndSet(false, true)) DELIVERY_SVC.execute(drainer);
+	}
+
+	private void drain() {
+		try {
+			queue.drain(deliverer, getBatchSize());
+
+			// release any buffer created by a chunk delivered while destroying
+			if (isDestroyed()) clear();
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		} finally {
+			draining.set(false);
+			if (!queue.isEmpty()) scheduleDrain();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void deliver(AbstractMediaChunk chunk) {
+		if (isDestroyed()) {
+			chunk.release();
+			return;
+		}
+
+		if (chunk instanceof MediaFooterChunk) {
+			deliverFooter((MediaFooterChunk) chunk);
+		} else {
+			deliverChunk((AMC) chunk);
+		}
+	}
+
+	private void deliverChunk(AMC chunk) {
 		try {
 			boolean applicable = isApplicable(chunk);
 
-			if (!applicable) return;
+			if (!applicable) {
+				chunk.release();
+				return;
+			}
 
 			receiveImpl(chunk);
 		} catch (Exception e) {
 			log.error("Unexpected exception", e);
+			releaseQuietly(chunk);
+		}
+	}
+
+	private void releaseQuietly(AbstractMediaChunk chunk) {
+		try {
+			chunk.release();
+		} catch (Exception e) {
+			log.trace("Chunk already released", e);
 		}
 	}
 
@@ -137,32 +403,86 @@ public abstract class AbstractChunkReceiver<AMC extends AbstractMediaChunk> {
 	 *          the chunk
 	 */
 	protected void add(AMC chunk) {
+		if (isDestroyed()) {
+			chunk.release();
+			return;
+		}
+
+		if (isFinalized(chunk.getMessageHash())) {
+			log.trace("Discarding late sequence {} for message {}", chunk.getSequence(), chunk.getMessageHash());
+			chunk.release();
+			return;
+		}
+
 		if (!isOpen()) open();
-		ConcurrentSkipListSet<AMC> set = getSet(chunk.getMessageHash());
+		ChunkReassemblyBuffer<AMC> buffer = getBuffer(chunk.getMessageHash());
 		log.trace("Adding sequence {} for message {}", chunk.getSequence(), chunk.getMessageHash());
-		set.add(chunk);
-	}
+		if (buffer.add(chunk)) {
+			addPending(chunk.getDataLength());
 
-	private ConcurrentSkipListSet<AMC> getSet(int messageHash) {
-		ConcurrentSkipListSet<AMC> set = incoming.get(messageHash);
+			ProgressiveMediaProcessor pmp = getProgressiveProcessor();
+			if (pmp != null) deliverProgressive(buffer, pmp);
 
-		if (set == null) {
-			set = new ConcurrentSkipListSet<>();
-			incoming.put(messageHash, set);
+			if (buffer.isComplete()) {
+				finalizeMessage(chunk.getMessageHash());
+			} else {
+				enforceBudgets();
+			}
+			return;
 		}
 
-		return set;
+		log.trace("Discarding sequence {} for message {}", chunk.getSequence(), chunk.getMessageHash());
+		chunk.release();
+	}
+
+	private void deliverProgressive(final ChunkReassemblyBuffer<AMC> buffer, final ProgressiveMediaProcessor pmp) {
+		final int messageHash = buffer.getMessageHash();
+
+		buffer.drain(new Action1<AMC>() {
+
+			@Override
+			public void call(AMC chunk) {
+				int length = chunk.getDataLength();
+				addPending(-length);
+
+				try {
+					ByteBuf payload = chunk.getPayload();
+					if (payload != null && payload.isReadable()) {
+						pmp.onChunk(messageHash, buffer.getDrainedLength() - length, payload);
+					}
+				} catch (Exception e) {
+					log.error("Unexpected exception", e);
+				} finally {
+					chunk.release();
+				}
+			}
+		});
 	}
 
 	/**
-	 * End of message.
+	 * Gets the {@link ProgressiveMediaProcessor} registered on the
+	 * {@link MediaEventBus} for the media hash, null if none.
 	 *
-	 * @param eom
-	 *          the eom
-	 * @see ChunkEventBus#register(Object)
+	 * @return the progressive processor
 	 */
-	@Subscribe
-	public void endOfMessage(MediaFooterChunk eom) {
+	protected ProgressiveMediaProcessor getProgressiveProcessor() {
+		MediaProcessor mp = MediaEventBus.get(getMediaHash());
+
+		return mp instanceof ProgressiveMediaProcessor ? (ProgressiveMediaProcessor) mp : null;
+	}
+
+	private ChunkReassemblyBuffer<AMC> getBuffer(int messageHash) {
+		ChunkReassemblyBuffer<AMC> buffer = incoming.get(messageHash);
+
+		if (buffer == null) {
+			buffer = new ChunkReassemblyBuffer<>();
+			incoming.put(messageHash, buffer);
+		}
+
+		return buffer;
+	}
+
+	private void deliverFooter(MediaFooterChunk eom) {
 		if (!isApplicable(eom)) return;
 
 		try {
@@ -198,54 +518,384 @@ public abstract class AbstractChunkReceiver<AMC extends AbstractMediaChunk> {
 	protected abstract void endOfMessageImpl(MediaFooterChunk eom);
 
 	/**
-	 * Finalize message.
+	 * Finalize message. If the footer carries the chunk count and message length
+	 * the message is finalized as soon as all its chunks are present, else after
+	 * the larger of the finalize await value and the
+	 * {@link #getAdaptiveFinalizeNanos()}. Footers without counts are finalized
+	 * after the finalize await value.
 	 *
 	 * @param eom
 	 *          the eom
 	 */
 	protected void finalizeMessage(final MediaFooterChunk eom) {
-		if (!incoming.containsKey(eom.getMessageHash())) return;
+		final int messageHash = eom.getMessageHash();
+
+		if (isFinalized(messageHash)) return;
+
+		if (!eom.hasCounts()) {
+			if (!incoming.containsKey(messageHash)) return;
+
+			scheduleFinalize(messageHash, getFinalizeAwaitValue(), getFinalizeUnits());
+			return;
+		}
+
+		ChunkReassemblyBuffer<AMC> buffer = getBuffer(messageHash);
+		buffer.expect(eom.getChunkCount(), eom.getMessageLength());
 
+		if (buffer.isComplete()) {
+			finalizeMessage(messageHash);
+		} else {
+			long await = Math.max(getFinalizeUnits().toNanos(getFinalizeAwaitValue()), getAdaptiveFinalizeNanos());
+			log.trace("Awaiting {} missing chunks for message {}, {} ns", eom.getChunkCount() - buffer.size(),
+					messageHash, await);
+			scheduleFinalize(messageHash, await, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void scheduleFinalize(final int messageHash, long await, TimeUnit units) {
 		svc.createWorker().schedule(new Action0() {
 
 			@Override
 			public void call() {
-				finalizeMessage(eom.getMessageHash());
+				finalizeMessage(messageHash);
 			}
-		}, getFinalizeAwaitValue(), getFinalizeUnits());
+		}, await, units);
 	}
 
 	private void finalizeMessage(int messageHash) {
-		ConcurrentSkipListSet<AMC> set = incoming.remove(messageHash);
+		// tombstone first, chunks arriving once the buffer is removed are dropped
+		tombstone(messageHash);
+
+		ProgressiveMediaProcessor pmp = getProgressiveProcessor();
+
+		// senders which have not negotiated the first chunk flag
+		ChunkReassemblyBuffer<AMC> unflagged = pmp == null ? null : incoming.get(messageHash);
+		if (unflagged != null && unflagged.assumeFirstReceived()) deliverProgressive(unflagged, pmp);
 
-		log.trace("Rehydrating {} for message hash {}", set.size(), messageHash);
+		ChunkReassemblyBuffer<AMC> buffer = removeBuffer(messageHash);
+		if (buffer == null) return;
 
-		write(set);
+		observe(buffer);
+
+		if (pmp != null || buffer.getDrainedCount() > 0) {
+			completeProgressive(buffer, pmp);
+			return;
+		}
+
+		log.trace("Rehydrating {} for message hash {}, {} missing", buffer.size(), messageHash, buffer.getMissingCount());
+
+		write(buffer);
+	}
+
+	private void completeProgressive(ChunkReassemblyBuffer<AMC> buffer, ProgressiveMediaProcessor pmp) {
+		int messageHash = buffer.getMessageHash();
+		long length = buffer.getDrainedLength();
+
+		boolean complete;
+		if (buffer.hasExpectation()) {
+			complete = buffer.isComplete();
+		} else {
+			complete = buffer.size() == 0 && buffer.getDrainedCount() > 0;
+		}
+
+		if (!complete) {
+			log.debug("Aborting message {} for type {}, hash {}: {} chunks undelivered", messageHash, getType(),
+					getMediaHash(), buffer.size());
+		}
+
+		buffer.release();
+
+		if (pmp == null) {
+			log.debug("No progressive processor for message {} of type {}, hash {}", messageHash, getType(), getMediaHash());
+			return;
+		}
+
+		try {
+			if (complete) {
+				pmp.onComplete(messageHash, length);
+			} else {
+				pmp.onAbort(messageHash, length);
+			}
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		}
+	}
+
+	private void observe(ChunkReassemblyBuffer<AMC> buffer) {
+		reorderDepth += (buffer.getMaxReorderDepth() - reorderDepth) / 8;
+
+		long interval = buffer.getMeanArrivalInterval();
+		if (interval > 0) arrivalInterval += (interval - arrivalInterval) / 8;
+	}
+
+	/**
+	 * Returns the time to await missing chunks once a {@link MediaFooterChunk}
+	 * carrying counts has been received, derived from the smoothed reorder depth
+	 * and chunk arrival interval observed by this receiver and bounded by the
+	 * minimum and maximum finalize values.
+	 *
+	 * @return the adaptive finalize nanos
+	 * @see #setMinFinalizeMillis(long)
+	 * @see #setMaxFinalizeMillis(long)
+	 */
+	public long getAdaptiveFinalizeNanos() {
+		long adaptive = (long) ((2 * reorderDepth + 2) * arrivalInterval);
+
+		return Math.min(maxFinalizeNanos, Math.max(minFinalizeNanos, adaptive));
+	}
+
+	/**
+	 * Sets the minimum time to await missing chunks when the footer carries
+	 * counts. Defaults to {@link #DEFAULT_MIN_FINALIZE_MILLIS}.
+	 *
+	 * @param millis
+	 *          the millis
+	 */
+	public void setMinFinalizeMillis(long millis) {
+		if (millis < 0) throw new IllegalArgumentException("Minimum must be >= 0, was " + millis);
+		minFinalizeNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Sets the maximum time to await missing chunks when the footer carries
+	 * counts. Defaults to {@link #DEFAULT_MAX_FINALIZE_MILLIS}.
+	 *
+	 * @param millis
+	 *          the millis
+	 */
+	public void setMaxFinalizeMillis(long millis) {
+		if (millis < 0) throw new IllegalArgumentException("Maximum must be >= 0, was " + millis);
+		maxFinalizeNanos = TimeUnit.MILLISECONDS.toNanos(millis);
 	}
 
 	/**
 	 * Clear.
 	 */
 	public void clear() {
-		incoming.clear();
+		for (Integer messageHash : incoming.keySet()) {
+			ChunkReassemblyBuffer<AMC> buffer = removeBuffer(messageHash);
+			if (buffer != null) buffer.release();
+		}
+	}
+
+	private void tombstone(int messageHash) {
+		synchronized (finalized) {
+			finalized.remove(messageHash);
+			finalized.put(messageHash, System.nanoTime());
+		}
+	}
+
+	private boolean isFinalized(int messageHash) {
+		synchronized (finalized) {
+			Long when = finalized.get(messageHash);
+			if (when == null) return false;
+
+			if (System.nanoTime() - when <= getPartialMessageTtlNanos()) return true;
+
+			finalized.remove(messageHash);
+			return false;
+		}
+	}
+
+	private ChunkReassemblyBuffer<AMC> removeBuffer(int messageHash) {
+		ChunkReassemblyBuffer<AMC> buffer = incoming.remove(messageHash);
+		if (buffer != null) retire(buffer);
+
+		return buffer;
+	}
+
+	private void retire(ChunkReassemblyBuffer<AMC> buffer) {
+		buffer.close();
+		addPending(-buffer.getDataLength());
+	}
+
+	private void addPending(long bytes) {
+		pendingBytes.addAndGet(bytes);
+		GLOBAL_PENDING_BYTES.addAndGet(bytes);
+	}
+
+	private void enforceBudgets() {
+		while (pendingBytes.get() > getMaxPendingBytes()) {
+			if (!evictOldest()) break;
+		}
+
+		enforceGlobalBudget();
+	}
+
+	private static void enforceGlobalBudget() {
+		while (GLOBAL_PENDING_BYTES.get() > globalMaxPendingBytes) {
+			AbstractChunkReceiver<?> victim = null;
+			long victimCreated = 0;
+
+			for (AbstractChunkReceiver<?> receiver : RECEIVERS) {
+				Entry<Integer, ?> oldest = receiver.getOldest();
+				if (oldest == null) continue;
+
+				long created = ((ChunkReassemblyBuffer<?>) oldest.getValue()).getCreated();
+				if (victim == null || receiver.getEvictionPriority() < victim.getEvictionPriority()
+						|| (receiver.getEvictionPriority() == victim.getEvictionPriority() && created - victimCreated < 0)) {
+					victim = receiver;
+					victimCreated = created;
+				}
+			}
+
+			if (victim == null || !victim.evictOldest()) return;
+		}
+	}
+
+	private static void sweep() {
+		long now = System.nanoTime();
+
+		try {
+			for (AbstractChunkReceiver<?> receiver : RECEIVERS) {
+				receiver.evictExpired(now);
+			}
+
+			enforceGlobalBudget();
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		}
+	}
+
+	private void evictExpired(long now) {
+		long ttl = Math.max(getPartialMessageTtlNanos(), getFinalizeUnits().toNanos(getFinalizeAwaitValue())
+				+ maxFinalizeNanos);
+
+		for (Entry<Integer, ChunkReassemblyBuffer<AMC>> e : incoming.entrySet()) {
+			if (now - e.getValue().getCreated() > ttl) evict(e.getKey(), e.getValue());
+		}
+	}
+
+	private Entry<Integer, ChunkReassemblyBuffer<AMC>> getOldest() {
+		Entry<Integer, ChunkReassemblyBuffer<AMC>> oldest = null;
+
+		for (Entry<Integer, ChunkReassemblyBuffer<AMC>> e : incoming.entrySet()) {
+			if (oldest == null || e.getValue().getCreated() - oldest.getValue().getCreated() < 0) oldest = e;
+		}
+
+		return oldest;
+	}
+
+	private boolean evictOldest() {
+		Entry<Integer, ChunkReassemblyBuffer<AMC>> oldest = getOldest();
+
+		return oldest != null && evict(oldest.getKey(), oldest.getValue());
+	}
+
+	private boolean evict(int messageHash, ChunkReassemblyBuffer<AMC> buffer) {
+		if (!incoming.remove(messageHash, buffer)) return false;
+
+		tombstone(messageHash);
+		retire(buffer);
+
+		int bytes = buffer.getDataLength();
+		log.debug("Evicting message {} for type {}, hash {}: {} chunks, {} bytes, {} missing", messageHash, getType(),
+				getMediaHash(), buffer.size(), bytes, buffer.getMissingCount());
+
+		if (buffer.getDrainedCount() > 0) abortProgressive(messageHash, buffer.getDrainedLength());
+
+		buffer.release();
+
+		evictionCount.incrementAndGet();
+		GLOBAL_EVICTION_COUNT.incrementAndGet();
+
+		ReceiverEventBus.post(new ReceiverEvent(ReceiverEventType.EVICT, getMediaHash(), messageHash, bytes));
+
+		return true;
+	}
+
+	private void abortProgressive(int messageHash, long offset) {
+		ProgressiveMediaProcessor pmp = getProgressiveProcessor();
+		if (pmp == null) return;
+
+		try {
+			pmp.onAbort(messageHash, offset);
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		}
 	}
 
 	/**
-	 * Writes the {@link AbstractMediaChunk}s in the ordered set as a
+	 * Writes the {@link AbstractMediaChunk}s in the ordered buffer as a
 	 * {@link MediaEvent} on the {@link MediaEventBus}. It is invoked indirectly
-	 * when a {@link MediaFooterChunk} has been received.
+	 * when a {@link MediaFooterChunk} has been received. The chunks are
+	 * {@link AbstractMediaChunk#release()}d once rehydrated.
 	 *
-	 * @param array
-	 *          the array
+	 * @param buffer
+	 *          the buffer
+	 * @see #setCompositeRehydration(boolean)
 	 */
-	protected void write(Set<AMC> set) {
+	protected void write(ChunkReassemblyBuffer<AMC> buffer) {
 		try {
-			byte[] b = rehydrateAndTransform(set);
+			if (isCompositeRehydration() && getTransformer() instanceof BufferMediaTransformer) {
+				writeComposite(buffer);
+			} else {
+				byte[] b = rehydrateAndTransform(buffer);
 
-			if (hasTransformed(b)) MediaEventBus.post(new MediaEvent(getType(), getMediaHash(), b));
+				if (hasTransformed(b)) MediaEventBus.post(new MediaEvent(getType(), getMediaHash(), buffer.getMessageHash(), b));
+			}
 		} catch (Exception e) {
 			log.error("Unexpected exception, closing", e);
 			close();
+		} finally {
+			buffer.release();
+		}
+	}
+
+	/**
+	 * Writes the chunk as a {@link MediaEvent} on the {@link MediaEventBus}
+	 * without reassembly, for chunks which are self contained messages. The chunk
+	 * is {@link AbstractMediaChunk#release()}d once written.
+	 *
+	 * @param chunk
+	 *          the chunk
+	 * @see #setCompositeRehydration(boolean)
+	 */
+	protected void writeChunk(AMC chunk) {
+		if (!isOpen()) open();
+
+		try {
+			ByteBuf payload = chunk.getPayload();
+			if (payload == null || !payload.isReadable()) return;
+
+			if (isCompositeRehydration() && getTransformer() instanceof BufferMediaTransformer) {
+				writeComposite(payload.slice().retain(), chunk.getMessageHash());
+			} else {
+				byte[] b = new byte[payload.readableBytes()];
+				payload.getBytes(payload.readerIndex(), b);
+				b = transform(b);
+
+				if (hasTransformed(b)) {
+					MediaEventBus.post(new MediaEvent(getType(), getMediaHash(), chunk.getMessageHash(), b));
+				}
+			}
+		} catch (Exception e) {
+			log.error("Unexpected exception, closing", e);
+			close();
+		} finally {
+			chunk.release();
+		}
+	}
+
+	private void writeComposite(ChunkReassemblyBuffer<AMC> buffer) {
+		writeComposite(rehydrateComposite(buffer), buffer.getMessageHash());
+	}
+
+	private void writeComposite(ByteBuf b, int messageHash) {
+		ByteBuf transformed = null;
+
+		try {
+			transformed = ((BufferMediaTransformer) getTransformer()).transform(b, getMediaHash());
+		} finally {
+			if (transformed != b) b.release();
+		}
+
+		if (transformed == null) return;
+
+		if (transformed.isReadable()) {
+			MediaEventBus.post(new MediaEvent(getType(), getMediaHash(), messageHash, transformed));
+		} else {
+			transformed.release();
 		}
 	}
 
@@ -254,53 +904,92 @@ public abstract class AbstractChunkReceiver<AMC extends AbstractMediaChunk> {
 	}
 
 	/**
-	 * Rehydrate and transform.
+	 * Rehydrate and transform, copying the chunks' payloads once into an array
+	 * of the exact message length.
 	 *
-	 * @param array
-	 *          the array
+	 * @param buffer
+	 *          the buffer
 	 * @return the byte[]
 	 * @see #setTransformer(MediaTransformer)
 	 */
-	protected byte[] rehydrateAndTransform(Set<AMC> set) {
-		int size = calcSize(set);
-		ByteBuf buf = Unpooled.buffer(size);
+	protected byte[] rehydrateAndTransform(ChunkReassemblyBuffer<AMC> buffer) {
+		byte[] b = new byte[buffer.getDataLength()];
+
+		int pos = 0;
+		for (AMC chunk : buffer) {
+			ByteBuf payload = chunk.getPayload();
+			if (payload == null) continue;
 
-		for (AMC chunk : set) {
-			buf.writeBytes(chunk.getData());
+			int len = payload.readableBytes();
+			payload.getBytes(payload.readerIndex(), b, pos, len);
+			pos += len;
 		}
 
-		return transform(buf.array());
+		return transform(b);
 	}
 
-	private byte[] transform(byte[] rehydrated) {
-		return getTransformer() == null ? rehydrated : getTransformer().transform(rehydrated, getMediaHash());
-	}
+	/**
+	 * Rehydrates the chunks' payloads as a {@link CompositeByteBuf} of retained
+	 * slices, valid after the chunks have been released. The caller owns the
+	 * returned buffer.
+	 *
+	 * @param buffer
+	 *          the buffer
+	 * @return the byte buf
+	 */
+	protected ByteBuf rehydrateComposite(ChunkReassemblyBuffer<AMC> buffer) {
+		CompositeByteBuf composite = Unpooled.compositeBuffer(Math.max(2, buffer.size()));
 
-	private int calcSize(Set<AMC> set) {
-		int size = 0;
-		for (AMC chunk : set) {
-			size += chunk.getData().length;
+		int length = 0;
+		for (AMC chunk : buffer) {
+			ByteBuf payload = chunk.getPayload();
+			if (payload == null || !payload.isReadable()) continue;
+
+			composite.addComponent(payload.slice().retain());
+			length += payload.readableBytes();
 		}
 
-		return size;
+		return composite.writerIndex(length);
+	}
+
+	private byte[] transform(byte[] rehydrated) {
+		return getTransformer() == null ? rehydrated : getTransformer().transform(rehydrated, getMediaHash());
 	}
 
 	/**
-	 * Destroy.
+	 * Destroy. Chunks queued but not yet delivered are released and chunks
+	 * subsequently received are discarded.
 	 * 
-	 * @see ChunkEventBus#unregister(Object)
+	 * @see ChunkEventBus#unregister(MediaChunkListener)
 	 */
 	public void destroy() {
+		if (!destroyed.compareAndSet(false, true)) return;
+
 		close();
 		ChunkEventBus.unregister(this);
+		RECEIVERS.remove(this);
+		clear();
+
+		// chunks still queued are released by the worker as they are drained
+		scheduleDrain();
+
 		notifyDestroy();
 	}
 
+	/**
+	 * Checks if is destroyed.
+	 *
+	 * @return true, if checks if is destroyed
+	 */
+	public boolean isDestroyed() {
+		return destroyed.get();
+	}
+
 	/**
 	 * Open.
 	 */
 	public void open() {
-		if (isOpen()) return;
+		if (isOpen() || isDestroyed()) return;
 
 		setOpen(true);
 	}
@@ -462,4 +1151,216 @@ public abstract class AbstractChunkReceiver<AMC extends AbstractMediaChunk> {
 		this.finalizeUnits = finalizeUnits;
 	}
 
+	/**
+	 * Gets the max pending bytes.
+	 *
+	 * @return the max pending bytes
+	 */
+	public long getMaxPendingBytes() {
+		return maxPendingBytes;
+	}
+
+	/**
+	 * Sets the maximum number of bytes held in incomplete messages by this
+	 * receiver, beyond which the oldest are evicted. Defaults to
+	 * {@link #DEFAULT_MAX_PENDING_BYTES}.
+	 *
+	 * @param maxPendingBytes
+	 *          the max pending bytes
+	 */
+	public void setMaxPendingBytes(long maxPendingBytes) {
+		if (maxPendingBytes <= 0) {
+			throw new IllegalArgumentException("Max pending bytes must be > 0, was " + maxPendingBytes);
+		}
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	/**
+	 * Gets the partial message ttl nanos.
+	 *
+	 * @return the partial message ttl nanos
+	 */
+	public long getPartialMessageTtlNanos() {
+		return partialMessageTtlNanos;
+	}
+
+	/**
+	 * Sets the time after which an incomplete message is evicted. Messages
+	 * awaiting finalization are held for at least the finalize await value and
+	 * the maximum finalize value. Defaults to
+	 * {@link #DEFAULT_PARTIAL_MESSAGE_TTL_MILLIS}.
+	 *
+	 * @param millis
+	 *          the millis
+	 */
+	public void setPartialMessageTtlMillis(long millis) {
+		if (millis <= 0) throw new IllegalArgumentException("Ttl must be > 0, was " + millis);
+		partialMessageTtlNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Gets the eviction priority.
+	 *
+	 * @return the eviction priority
+	 */
+	public int getEvictionPriority() {
+		return evictionPriority;
+	}
+
+	/**
+	 * Sets the eviction priority. Should the global pending bytes exceed the
+	 * {@link #getGlobalMaxPendingBytes()} messages of the receiver with the
+	 * lowest priority are evicted first. Defaults to zero.
+	 *
+	 * @param evictionPriority
+	 *          the eviction priority
+	 */
+	public void setEvictionPriority(int evictionPriority) {
+		this.evictionPriority = evictionPriority;
+	}
+
+	/**
+	 * Gets the number of bytes held in incomplete messages.
+	 *
+	 * @return the pending bytes
+	 */
+	public long getPendingBytes() {
+		return pendingBytes.get();
+	}
+
+	/**
+	 * Gets the number of incomplete messages evicted.
+	 *
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Gets the global max pending bytes.
+	 *
+	 * @return the global max pending bytes
+	 */
+	public static long getGlobalMaxPendingBytes() {
+		return globalMaxPendingBytes;
+	}
+
+	/**
+	 * Sets the maximum number of bytes held in incomplete messages by all
+	 * receivers. Defaults to a quarter of the maximum heap.
+	 *
+	 * @param maxPendingBytes
+	 *          the max pending bytes
+	 */
+	public static void setGlobalMaxPendingBytes(long maxPendingBytes) {
+		if (maxPendingBytes <= 0) {
+			throw new IllegalArgumentException("Max pending bytes must be > 0, was " + maxPendingBytes);
+		}
+		globalMaxPendingBytes = maxPendingBytes;
+	}
+
+	/**
+	 * Gets the number of bytes held in incomplete messages by all receivers.
+	 *
+	 * @return the global pending bytes
+	 */
+	public static long getGlobalPendingBytes() {
+		return GLOBAL_PENDING_BYTES.get();
+	}
+
+	/**
+	 * Gets the number of incomplete messages evicted by all receivers.
+	 *
+	 * @return the global eviction count
+	 */
+	public static long getGlobalEvictionCount() {
+		return GLOBAL_EVICTION_COUNT.get();
+	}
+
+	/**
+	 * Checks if is composite rehydration.
+	 *
+	 * @return true, if checks if is composite rehydration
+	 */
+	public boolean isCompositeRehydration() {
+		return compositeRehydration;
+	}
+
+	/**
+	 * If true and the {@link #getTransformer()} is a
+	 * {@link BufferMediaTransformer} messages are rehydrated as a
+	 * {@link CompositeByteBuf} of the chunks' payloads and posted as buffered
+	 * {@link MediaEvent}s, else the payloads are copied into a byte array.
+	 * Defaults to false.
+	 *
+	 * @param compositeRehydration
+	 *          the composite rehydration
+	 * @see MediaEvent#getBuffer()
+	 */
+	public void setCompositeRehydration(boolean compositeRehydration) {
+		this.compositeRehydration = compositeRehydration;
+	}
+
+	/**
+	 * Gets the overflow policy.
+	 *
+	 * @return the overflow policy
+	 */
+	public ChunkOverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Sets the policy applied when the chunk queue is full. Defaults to
+	 * {@link ChunkOverflowPolicy#DROP}. Footers are not subject to the policy.
+	 *
+	 * @param overflowPolicy
+	 *          the overflow policy
+	 */
+	public void setOverflowPolicy(ChunkOverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null) throw new IllegalArgumentException("Overflow policy cannot be null");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Gets the batch size.
+	 *
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the maximum number of chunks delivered per drain of the queue before
+	 * the worker is yielded to other receivers. Defaults to
+	 * {@link #DEFAULT_BATCH_SIZE}.
+	 *
+	 * @param batchSize
+	 *          the batch size
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be > 0, was " + batchSize);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Gets the number of chunks currently queued.
+	 *
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Gets the number of times the queue has been full on receipt of a chunk.
+	 *
+	 * @return the overflow count
+	 */
+	public long getOverflowCount() {
+		return overflowCount.get();
+	}
+
 }
@@ -26,6 +26,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
 import com.github.mrstampy.pprspray.core.receiver.event.ReceiverEvent;
 import com.github.mrstampy.pprspray.core.receiver.event.ReceiverEventBus;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
@@ -90,6 +91,8 @@ public abstract class AbstractMediaProcessor implements MediaProcessor {
 			mediaEventImpl(event);
 		} catch (Exception e) {
 			log.error("Unexpected exception", e);
+		} finally {
+			event.release();
 		}
 	}
 
@@ -97,6 +100,9 @@ public abstract class AbstractMediaProcessor implements MediaProcessor {
 	 * The {@link MediaEvent} object contains a discrete array of data received
 	 * from a remote connection for use by the implementation. At this point it
 	 * has been appropriately transformed (ie. decrypted) and can be used as-is.
+	 * Buffered events are {@link MediaEvent#release()}d on return; retain the
+	 * {@link MediaEvent#getBuffer()} should it be required beyond the
+	 * invocation.
 	 *
 	 * @param event
 	 *          the event
@@ -191,7 +197,11 @@ public abstract class AbstractMediaProcessor implements MediaProcessor {
 			log.error("Unexpected exception", e);
 		}
 
-		MediaStreamerUtils.sendTerminationEvent(getMediaHash(), getLocal(), getRemote());
+		// members of a multicast group leave silently, the sender streams on
+		KiSyChannel channel = MediaStreamerUtils.getChannel(getLocal());
+		if (channel == null || channel.isMulticastChannel()) return;
+
+		MediaStreamerUtils.sendTerminationEvent(getMediaHash(), channel, getRemote());
 	}
 
 	/*
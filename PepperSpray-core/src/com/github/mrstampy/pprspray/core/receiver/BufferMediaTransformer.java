@@ -0,0 +1,47 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.receiver;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Implement to transform the rehydrated data as a {@link ByteBuf}, avoiding
+ * the copy into a byte array. Used by {@link AbstractChunkReceiver}s for which
+ * composite rehydration is enabled; the data is a composite of the chunks'
+ * payloads and is not guaranteed to be contiguous. Should a different buffer
+ * be returned the receiver releases the data.
+ * 
+ * @see AbstractChunkReceiver#setCompositeRehydration(boolean)
+ * @see MediaEvent#getBuffer()
+ */
+public interface BufferMediaTransformer extends MediaTransformer {
+
+	/**
+	 * Transform.
+	 *
+	 * @param data
+	 *          the data
+	 * @param mediaHash
+	 *          the media hash
+	 * @return the byte buf, null or empty if nothing is to be posted
+	 */
+	ByteBuf transform(ByteBuf data, int mediaHash);
+}
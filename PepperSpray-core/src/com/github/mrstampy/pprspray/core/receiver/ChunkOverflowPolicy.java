@@ -0,0 +1,38 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.receiver;
+
+/**
+ * The Enum ChunkOverflowPolicy defines the action taken when an
+ * {@link AbstractChunkReceiver}'s queue of undelivered chunks is full. Footers
+ * are not subject to the policy; the posting thread waits until there is room.
+ * 
+ * <ul>
+ * <li>DROP - the incoming chunk is discarded and released</li>
+ * <li>BLOCK - the posting thread waits until there is room</li>
+ * <li>CLOSE - the incoming chunk is discarded and the receiver is closed</li>
+ * </ul>
+ * 
+ * @see AbstractChunkReceiver#setOverflowPolicy(ChunkOverflowPolicy)
+ */
+public enum ChunkOverflowPolicy {
+	DROP, BLOCK, CLOSE;
+}
@@ -0,0 +1,477 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.receiver;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import rx.functions.Action1;
+
+import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
+
+/**
+ * The Class ChunkReassemblyBuffer holds the {@link AbstractMediaChunk}s of a
+ * single message in an array indexed by the chunk's sequence relative to the
+ * lowest sequence received. As the sequences of a message are contiguous
+ * insertion and duplicate detection are O(1) and iteration is in sequence
+ * order. The array grows in either direction as chunks arrive out of order.<br>
+ * <br>
+ * Once the {@link AbstractMediaChunk#isFirstChunk()} has been received the
+ * contiguous prefix of the message can be {@link #drain(Action1)}ed as it
+ * arrives, bounding the chunks held to those received out of order. Chunks of
+ * senders which do not flag the first chunk can be drained once
+ * {@link #assumeFirstReceived()}.<br>
+ * <br>
+ * Once {@link #close()}d no further chunks are accepted.
+ * 
+ * @param <AMC>
+ *          the generic type
+ * @see AbstractChunkReceiver#add(AbstractMediaChunk)
+ */
+public class ChunkReassemblyBuffer<AMC extends AbstractMediaChunk> implements Iterable<AMC> {
+
+	/** The Constant DEFAULT_CAPACITY. */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * The Constant MAX_SPAN, the maximum number of sequences a single message can
+	 * span.
+	 */
+	public static final int MAX_SPAN = 1 << 20;
+
+	private AbstractMediaChunk[] chunks;
+	private long base;
+	private int span;
+	private int count;
+	private int dataLength;
+	private int messageHash;
+	private boolean closed;
+
+	private boolean firstReceived;
+	private int drainedCount;
+	private long drainedLength;
+
+	private int expectedChunkCount = -1;
+	private int expectedLength = -1;
+
+	private long maxReorderDepth;
+	private long lastArrival;
+
+	private final long created = System.nanoTime();
+
+	/**
+	 * The Constructor.
+	 */
+	public ChunkReassemblyBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param capacity
+	 *          the initial capacity
+	 */
+	public ChunkReassemblyBuffer(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("Capacity must be > 0, was " + capacity);
+
+		chunks = new AbstractMediaChunk[capacity];
+	}
+
+	/**
+	 * Adds the chunk, returning false if a chunk of the same sequence is present,
+	 * if the sequence is too distant from those present or if the buffer is
+	 * closed.
+	 *
+	 * @param chunk
+	 *          the chunk
+	 * @return true, if added
+	 */
+	public synchronized boolean add(AMC chunk) {
+		if (closed) return false;
+
+		long sequence = chunk.getSequence();
+
+		if (firstReceived && sequence < base) return false;
+
+		if (count == 0 && !firstReceived) {
+			base = sequence;
+			span = 0;
+			messageHash = chunk.getMessageHash();
+		} else if (count > 0) {
+			long depth = base + span - 1 - sequence;
+			if (depth > maxReorderDepth) maxReorderDepth = depth;
+		}
+
+		long offset = sequence - base;
+
+		if (offset < 0) {
+			if (!prepend(-offset)) return false;
+			offset = 0;
+		} else if (offset >= MAX_SPAN) {
+			return false;
+		}
+
+		int idx = (int) offset;
+		ensureCapacity(idx + 1);
+
+		if (chunks[idx] != null) return false;
+
+		chunks[idx] = chunk;
+		count++;
+		dataLength += chunk.getDataLength();
+		if (idx >= span) span = idx + 1;
+		lastArrival = System.nanoTime();
+
+		if (chunk.isFirstChunk() && idx == 0) firstReceived = true;
+
+		return true;
+	}
+
+	/**
+	 * Removes the chunks of the contiguous prefix of the message in sequence
+	 * order, passing each to the action. Nothing is drained until the first chunk
+	 * of the message has been received, nor once {@link #close()}d.
+	 *
+	 * @param action
+	 *          the action
+	 * @return the number of chunks drained
+	 * @see #getDrainedLength()
+	 */
+	public synchronized int drain(Action1<? super AMC> action) {
+		if (closed || !firstReceived) return 0;
+
+		int i = 0;
+		while (i < span && chunks[i] != null) {
+			@SuppressWarnings("unchecked")
+			AMC chunk = (AMC) chunks[i];
+			chunks[i] = null;
+			i++;
+
+			count--;
+			dataLength -= chunk.getDataLength();
+			drainedCount++;
+			drainedLength += chunk.getDataLength();
+
+			action.call(chunk);
+		}
+
+		if (i == 0) return 0;
+
+		System.arraycopy(chunks, i, chunks, 0, span - i);
+		for (int j = Math.max(i, span - i); j < span; j++) {
+			chunks[j] = null;
+		}
+
+		base += i;
+		span -= i;
+
+		return i;
+	}
+
+	/**
+	 * Returns true if the first chunk of the message has been received.
+	 *
+	 * @return true, if checks if is first received
+	 */
+	public synchronized boolean isFirstReceived() {
+		return firstReceived;
+	}
+
+	/**
+	 * Takes the lowest sequence received as the first of the message, for
+	 * senders which do not flag the first chunk.
+	 *
+	 * @return true, if the first chunk had not been received and is now assumed
+	 */
+	public synchronized boolean assumeFirstReceived() {
+		if (closed || firstReceived || count == 0) return false;
+
+		firstReceived = true;
+
+		return true;
+	}
+
+	/**
+	 * Gets the number of chunks drained.
+	 *
+	 * @return the drained count
+	 * @see #drain(Action1)
+	 */
+	public synchronized int getDrainedCount() {
+		return drainedCount;
+	}
+
+	/**
+	 * Gets the total data length of the chunks drained, ie. the offset in the
+	 * message of the next chunk to drain.
+	 *
+	 * @return the drained length
+	 * @see #drain(Action1)
+	 */
+	public synchronized long getDrainedLength() {
+		return drainedLength;
+	}
+
+	/**
+	 * Sets the expected chunk count and length of the message, as received in
+	 * the message's footer.
+	 *
+	 * @param chunkCount
+	 *          the chunk count
+	 * @param length
+	 *          the length
+	 * @see #isComplete()
+	 */
+	public synchronized void expect(int chunkCount, int length) {
+		this.expectedChunkCount = chunkCount;
+		this.expectedLength = length;
+	}
+
+	/**
+	 * Returns true if the expected chunk count and length are known.
+	 *
+	 * @return true, if successful
+	 * @see #expect(int, int)
+	 */
+	public synchronized boolean hasExpectation() {
+		return expectedChunkCount >= 0 && expectedLength >= 0;
+	}
+
+	/**
+	 * Returns true if the expectation is known and all chunks of the message are
+	 * present.
+	 *
+	 * @return true, if checks if is complete
+	 * @see #expect(int, int)
+	 */
+	public synchronized boolean isComplete() {
+		if (!hasExpectation()) return false;
+
+		return span == count && count + drainedCount >= expectedChunkCount
+				&& dataLength + drainedLength >= expectedLength;
+	}
+
+	/**
+	 * Returns the largest number of sequences by which a chunk arrived behind the
+	 * highest sequence already present.
+	 *
+	 * @return the max reorder depth
+	 */
+	public synchronized long getMaxReorderDepth() {
+		return maxReorderDepth;
+	}
+
+	/**
+	 * Returns the mean interval in nanoseconds between the arrival of chunks, zero
+	 * if fewer than two have arrived.
+	 *
+	 * @return the mean arrival interval
+	 */
+	public synchronized long getMeanArrivalInterval() {
+		return count < 2 ? 0 : (lastArrival - created) / (count - 1);
+	}
+
+	private boolean prepend(long shift) {
+		if (shift + span > MAX_SPAN) return false;
+
+		int s = (int) shift;
+		AbstractMediaChunk[] grown = chunks.length >= span + s ? chunks : new AbstractMediaChunk[newCapacity(span + s)];
+
+		System.arraycopy(chunks, 0, grown, s, span);
+		if (grown == chunks) {
+			for (int i = 0; i < s && i < span; i++) {
+				grown[i] = null;
+			}
+		}
+
+		chunks = grown;
+		base -= shift;
+		span += s;
+
+		return true;
+	}
+
+	private void ensureCapacity(int required) {
+		if (required <= chunks.length) return;
+
+		AbstractMediaChunk[] grown = new AbstractMediaChunk[newCapacity(required)];
+		System.arraycopy(chunks, 0, grown, 0, span);
+		chunks = grown;
+	}
+
+	private int newCapacity(int required) {
+		return Math.min(MAX_SPAN, Math.max(required, chunks.length << 1));
+	}
+
+	/**
+	 * Returns true if a chunk of the sequence is present.
+	 *
+	 * @param sequence
+	 *          the sequence
+	 * @return true, if successful
+	 */
+	public synchronized boolean contains(long sequence) {
+		long offset = sequence - base;
+
+		return count > 0 && offset >= 0 && offset < span && chunks[(int) offset] != null;
+	}
+
+	/**
+	 * Closes the buffer to further additions.
+	 */
+	public synchronized void close() {
+		closed = true;
+	}
+
+	/**
+	 * Checks if is closed.
+	 *
+	 * @return true, if checks if is closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Releases all chunks and empties the buffer.
+	 *
+	 * @see AbstractMediaChunk#release()
+	 */
+	public synchronized void release() {
+		for (int i = 0; i < span; i++) {
+			if (chunks[i] != null) chunks[i].release();
+			chunks[i] = null;
+		}
+
+		count = 0;
+		span = 0;
+		dataLength = 0;
+	}
+
+	/**
+	 * Returns the number of chunks present.
+	 *
+	 * @return the int
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the total data length of the chunks present.
+	 *
+	 * @return the data length
+	 */
+	public synchronized int getDataLength() {
+		return dataLength;
+	}
+
+	/**
+	 * Returns the number of sequences between the lowest and highest received
+	 * for which no chunk is present.
+	 *
+	 * @return the missing count
+	 */
+	public synchronized int getMissingCount() {
+		return span - count;
+	}
+
+	/**
+	 * Gets the message hash of the chunks, zero if none have been added.
+	 *
+	 * @return the message hash
+	 */
+	public synchronized int getMessageHash() {
+		return messageHash;
+	}
+
+	/**
+	 * Gets the lowest sequence received.
+	 *
+	 * @return the first sequence
+	 */
+	public synchronized long getFirstSequence() {
+		return base;
+	}
+
+	/**
+	 * Gets the highest sequence received.
+	 *
+	 * @return the last sequence
+	 */
+	public synchronized long getLastSequence() {
+		return base + span - 1;
+	}
+
+	/**
+	 * Returns the value of {@link System#nanoTime()} when the buffer was
+	 * created.
+	 *
+	 * @return the created
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * Iterates over the chunks present in sequence order. The buffer must not be
+	 * modified during iteration, ie. iterate once {@link #close()}d.
+	 *
+	 * @return the iterator
+	 */
+	@Override
+	public Iterator<AMC> iterator() {
+		return new Iterator<AMC>() {
+			private int idx = next(0);
+
+			private int next(int from) {
+				while (from < span && chunks[from] == null) {
+					from++;
+				}
+
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return idx < span;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public AMC next() {
+				if (!hasNext()) throw new NoSuchElementException();
+
+				AMC chunk = (AMC) chunks[idx];
+				idx = next(idx + 1);
+
+				return chunk;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+}
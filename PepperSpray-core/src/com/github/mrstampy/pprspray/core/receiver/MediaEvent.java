@@ -20,16 +20,33 @@
  */
 package com.github.mrstampy.pprspray.core.receiver;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 
 /**
- * The Class MediaEvent.
+ * The Class MediaEvent. Events created from a {@link ByteBuf} by receivers
+ * using composite rehydration hold the chunks' payloads without copying;
+ * contiguous bytes are created on first request of {@link #getProcessed()} or
+ * {@link #getContiguous()}. Such events must be {@link #release()}d once
+ * processed, which the {@link AbstractMediaProcessor} does on return from
+ * {@link AbstractMediaProcessor#mediaEventImpl(MediaEvent)}.
+ * 
+ * @see AbstractChunkReceiver#setCompositeRehydration(boolean)
  */
 public class MediaEvent {
 
 	private MediaStreamType type;
 	private int mediaHash;
+	private int messageHash;
 	private byte[] processed;
+	private ByteBuf buffer;
+	private boolean released;
 
 	/**
 	 * The Constructor.
@@ -42,11 +59,63 @@ public class MediaEvent {
 	 *          the processed data
 	 */
 	public MediaEvent(MediaStreamType type, int mediaHash, byte[] processed) {
+		this(type, mediaHash, 0, processed);
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param type
+	 *          the type
+	 * @param mediaHash
+	 *          the media hash used to identify the source of the data
+	 * @param messageHash
+	 *          the message hash
+	 * @param processed
+	 *          the processed data
+	 */
+	public MediaEvent(MediaStreamType type, int mediaHash, int messageHash, byte[] processed) {
 		this.type = type;
 		this.mediaHash = mediaHash;
+		this.messageHash = messageHash;
 		this.processed = processed;
 	}
 
+	/**
+	 * The Constructor, taking ownership of the buffer.
+	 *
+	 * @param type
+	 *          the type
+	 * @param mediaHash
+	 *          the media hash used to identify the source of the data
+	 * @param buffer
+	 *          the processed data
+	 */
+	public MediaEvent(MediaStreamType type, int mediaHash, ByteBuf buffer) {
+		this(type, mediaHash, 0, buffer);
+	}
+
+	/**
+	 * The Constructor, taking ownership of the buffer.
+	 *
+	 * @param type
+	 *          the type
+	 * @param mediaHash
+	 *          the media hash used to identify the source of the data
+	 * @param messageHash
+	 *          the message hash
+	 * @param buffer
+	 *          the processed data
+	 */
+	public MediaEvent(MediaStreamType type, int mediaHash, int messageHash, ByteBuf buffer) {
+		if (buffer == null) throw new IllegalArgumentException("Buffer cannot be null");
+
+		this.type = type;
+		this.mediaHash = mediaHash;
+		this.messageHash = messageHash;
+		this.buffer = buffer;
+	}
+
 	/**
 	 * Checks if is applicable.
 	 *
@@ -79,12 +148,105 @@ public class MediaEvent {
 	}
 
 	/**
-	 * Gets the processed.
+	 * Gets the hash of the message from which the data was rehydrated, zero if
+	 * unknown. Streamers draw message hashes from a per-stream sequence, so the
+	 * difference between the hashes of two messages is the difference in their
+	 * position in the stream.
+	 *
+	 * @return the message hash
+	 */
+	public int getMessageHash() {
+		return messageHash;
+	}
+
+	/**
+	 * Gets the processed data, copied once from the buffer if created from a
+	 * {@link ByteBuf}.
 	 *
 	 * @return the processed
 	 */
-	public byte[] getProcessed() {
+	public synchronized byte[] getProcessed() {
+		if (processed == null && buffer != null) {
+			checkReleased();
+			processed = new byte[buffer.readableBytes()];
+			buffer.getBytes(buffer.readerIndex(), processed);
+		}
+
 		return processed;
 	}
 
+	/**
+	 * Gets the processed data as a buffer, wrapping the byte array if not
+	 * created from a {@link ByteBuf}. The buffer may be a
+	 * {@link CompositeByteBuf}; it is valid until the event is
+	 * {@link #release()}d.
+	 *
+	 * @return the buffer
+	 */
+	public synchronized ByteBuf getBuffer() {
+		if (buffer == null) return processed == null ? null : Unpooled.wrappedBuffer(processed);
+
+		checkReleased();
+
+		return buffer;
+	}
+
+	/**
+	 * Gets the processed data as a {@link ByteBuffer}, flattening a composite of
+	 * more than one component.
+	 *
+	 * @return the byte buffer
+	 */
+	public ByteBuffer getByteBuffer() {
+		ByteBuf buf = getContiguous();
+
+		return buf == null ? null : buf.nioBuffer();
+	}
+
+	/**
+	 * Gets the processed data as a contiguous buffer. A composite of more than
+	 * one component is flattened once into a pooled buffer of exactly the
+	 * readable length, replacing the composite.
+	 *
+	 * @return the contiguous
+	 */
+	public synchronized ByteBuf getContiguous() {
+		ByteBuf buf = getBuffer();
+		if (buf == null || !(buf instanceof CompositeByteBuf) || ((CompositeByteBuf) buf).numComponents() <= 1) {
+			return buf;
+		}
+
+		int len = buf.readableBytes();
+		ByteBuf flat = PooledByteBufAllocator.DEFAULT.buffer(len, len);
+		flat.writeBytes(buf, buf.readerIndex(), len);
+
+		buf.release();
+		buffer = flat;
+
+		return flat;
+	}
+
+	/**
+	 * Returns true if the event was created from a {@link ByteBuf}.
+	 *
+	 * @return true, if checks if is buffered
+	 */
+	public boolean isBuffered() {
+		return buffer != null;
+	}
+
+	/**
+	 * Releases the buffer, if any. Subsequent invocations have no effect.
+	 */
+	public synchronized void release() {
+		if (buffer == null || released) return;
+
+		released = true;
+		buffer.release();
+	}
+
+	private void checkReleased() {
+		if (released) throw new IllegalStateException("Media event for hash " + mediaHash + " has been released");
+	}
+
 }
@@ -50,12 +50,19 @@ public class MediaEventBus {
 	private static final AsyncEventBus BUS = new AsyncEventBus("Media Event Bus", Executors.newCachedThreadPool());
 
 	/**
-	 * Post.
+	 * Post. {@link MediaEvent#isBuffered()} events for which no
+	 * {@link MediaProcessor} is registered are released rather than posted.
 	 *
 	 * @param event
 	 *          the event
 	 */
 	public static void post(MediaEvent event) {
+		if (event.isBuffered() && !contains(event.getMediaHash())) {
+			log.trace("No media processor for hash {}, releasing event", event.getMediaHash());
+			event.release();
+			return;
+		}
+
 		BUS.post(event);
 	}
 
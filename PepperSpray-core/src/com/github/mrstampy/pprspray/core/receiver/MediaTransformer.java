@@ -24,7 +24,7 @@ package com.github.mrstampy.pprspray.core.receiver;
  * Implement to transform the given byte array as required.
  * 
  * @see AbstractChunkReceiver#setTransformer(MediaTransformer)
- * @see AbstractChunkReceiver#rehydrateAndTransform(java.util.Set)
+ * @see AbstractChunkReceiver#rehydrateAndTransform(ChunkReassemblyBuffer)
  */
 public interface MediaTransformer {
 
@@ -20,11 +20,13 @@
  */
 package com.github.mrstampy.pprspray.core.receiver;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * The Class NoTransformTransformer is the default 'transformer', returning the
- * array of bytes as it is received.
+ * array of bytes or buffer as it is received.
  */
-public class NoTransformTransformer implements MediaTransformer {
+public class NoTransformTransformer implements BufferMediaTransformer {
 
 	/*
 	 * (non-Javadoc)
@@ -38,4 +40,16 @@ public class NoTransformTransformer implements MediaTransformer {
 		return data;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.receiver.BufferMediaTransformer#transform
+	 * (io.netty.buffer.ByteBuf, int)
+	 */
+	@Override
+	public ByteBuf transform(ByteBuf data, int mediaHash) {
+		return data;
+	}
+
 }
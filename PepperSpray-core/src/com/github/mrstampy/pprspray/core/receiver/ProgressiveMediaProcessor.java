@@ -0,0 +1,77 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.receiver;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A {@link MediaProcessor} which, once registered on the {@link MediaEventBus},
+ * receives the data of each message progressively: the
+ * {@link AbstractChunkReceiver} passes the contiguous prefix of the message to
+ * {@link #onChunk(int, long, ByteBuf)} as its chunks arrive rather than
+ * reassembling the message and posting a {@link MediaEvent}. The data held by
+ * the receiver is bounded by the chunks received out of order, not by the size
+ * of the message.<br>
+ * <br>
+ * The methods are invoked in order for a given message on the receiver's
+ * delivery thread; the time spent in {@link #onChunk(int, long, ByteBuf)}
+ * backpressures the receiver's queue.
+ * 
+ * @see AbstractChunkReceiver#setOverflowPolicy(ChunkOverflowPolicy)
+ */
+public interface ProgressiveMediaProcessor extends MediaProcessor {
+
+	/**
+	 * Invoked with the next contiguous data of the message. The data is released
+	 * on return; retain it should it be required thereafter.
+	 *
+	 * @param messageHash
+	 *          the message hash
+	 * @param offset
+	 *          the offset of the data in the message
+	 * @param data
+	 *          the data
+	 */
+	void onChunk(int messageHash, long offset, ByteBuf data);
+
+	/**
+	 * Invoked once all the data of the message has been passed to
+	 * {@link #onChunk(int, long, ByteBuf)}.
+	 *
+	 * @param messageHash
+	 *          the message hash
+	 * @param length
+	 *          the length of the message
+	 */
+	void onComplete(int messageHash, long length);
+
+	/**
+	 * Invoked should the message be abandoned incomplete, ie. evicted or
+	 * finalized with chunks missing.
+	 *
+	 * @param messageHash
+	 *          the message hash
+	 * @param offset
+	 *          the length of the data passed to
+	 *          {@link #onChunk(int, long, ByteBuf)}
+	 */
+	void onAbort(int messageHash, long offset);
+}
@@ -29,7 +29,12 @@ import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
 
 /**
  * Instances are registered on the {@link ChunkEventBus} and aggregate
- * {@link DefaultAudioChunk}s to {@link MediaEvent}s.
+ * {@link DefaultAudioChunk}s to {@link MediaEvent}s. Chunks of a continuous
+ * stream are self contained frames and are written as they arrive, without
+ * awaiting a footer; the frames' message hashes order them for playout.
+ * 
+ * @see DefaultAudioChunk#isContinuous()
+ * @see JitterBuffer
  */
 public class AudioReceiver extends AbstractChunkReceiver<DefaultAudioChunk> {
 
@@ -51,7 +56,11 @@ public class AudioReceiver extends AbstractChunkReceiver<DefaultAudioChunk> {
 	 * (com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk)
 	 */
 	protected void receiveImpl(DefaultAudioChunk chunk) {
-		add(chunk);
+		if (chunk.isContinuous()) {
+			writeChunk(chunk);
+		} else {
+			add(chunk);
+		}
 	}
 
 	/*
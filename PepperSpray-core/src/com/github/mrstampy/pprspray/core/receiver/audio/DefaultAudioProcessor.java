@@ -21,6 +21,7 @@
 package com.github.mrstampy.pprspray.core.receiver.audio;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -42,14 +43,30 @@ import com.github.mrstampy.pprspray.core.receiver.MediaEvent;
  * <br>
  * It is expected that an audio connection would stream an audio encoded stream
  * ie. mp3, opus, ogg vorbis and a {@link AbstractMediaProcessor} implementation
- * would be created to handle the reception of the data.
+ * would be created to handle the reception of the data.<br>
+ * <br>
+ * Received audio passes through a {@link JitterBuffer} ordering it by message
+ * sequence, or by arrival should the sender's message hashes not be sequential;
+ * a dedicated playout thread writes the buffered frames, or their concealment,
+ * to the line.
  */
 public class DefaultAudioProcessor extends AbstractMediaProcessor {
 	private static final Logger log = LoggerFactory.getLogger(DefaultAudioProcessor.class);
 
 	private AudioFormat audioFormat;
 	private Mixer.Info mixerInfo;
-	private SourceDataLine dataLine;
+	private volatile SourceDataLine dataLine;
+
+	private JitterBuffer jitterBuffer;
+	private volatile Thread playout;
+
+	private final Runnable playoutLoop = new Runnable() {
+
+		@Override
+		public void run() {
+			playout();
+		}
+	};
 
 	/**
 	 * The Constructor.
@@ -71,6 +88,8 @@ public class DefaultAudioProcessor extends AbstractMediaProcessor {
 
 		setAudioFormat(audioFormat);
 		setMixerInfo(mixerInfo);
+
+		jitterBuffer = new JitterBuffer(audioFormat);
 	}
 
 	/*
@@ -81,16 +100,47 @@ public class DefaultAudioProcessor extends AbstractMediaProcessor {
 	 */
 	@Override
 	protected void mediaEventImpl(MediaEvent event) throws Exception {
-		if (!isOpen()) open();
+		if (dataLine == null || !dataLine.isOpen()) {
+			setOpen(false);
+			open();
+		}
+
+		if (!jitterBuffer.offer(event.getMessageHash(), event.getProcessed())) {
+			log.trace("Discarded audio message {} for hash {}", event.getMessageHash(), getMediaHash());
+		}
+	}
 
+	private void playout() {
 		try {
-			log.debug("writing");
-			dataLine.write(event.getProcessed(), 0, event.getProcessed().length);
+			while (playout == Thread.currentThread() && !jitterBuffer.isClosed()) {
+				byte[] frame = jitterBuffer.take(100, TimeUnit.MILLISECONDS);
+
+				SourceDataLine line = dataLine;
+				if (frame != null && line != null) line.write(frame, 0, frame.length);
+			}
+		} catch (InterruptedException e) {
+			log.trace("Playout interrupted for {}", getMediaHash());
 		} catch (Exception e) {
 			log.error("Unexpected exception", e);
 		}
 	}
 
+	private void startPlayout() {
+		stopPlayout();
+
+		playout = new Thread(playoutLoop, "Audio Playout " + getMediaHash());
+		playout.setDaemon(true);
+		playout.setPriority(Thread.MAX_PRIORITY);
+		playout.start();
+	}
+
+	private void stopPlayout() {
+		Thread t = playout;
+		playout = null;
+
+		if (t != null && t != Thread.currentThread()) t.interrupt();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -109,6 +159,8 @@ public class DefaultAudioProcessor extends AbstractMediaProcessor {
 
 				@Override
 				public void update(LineEvent event) {
+					if (event.getLine() != dataLine) return;
+
 					setOpen(event.getType() == LineEvent.Type.START);
 				}
 			});
@@ -116,6 +168,9 @@ public class DefaultAudioProcessor extends AbstractMediaProcessor {
 			dataLine.open(getAudioFormat());
 			dataLine.start();
 
+			setOpen(true);
+			startPlayout();
+
 			return true;
 		} catch (Exception e) {
 			log.error("Could not open audio processor for {}", getMediaHash(), e);
@@ -133,10 +188,31 @@ public class DefaultAudioProcessor extends AbstractMediaProcessor {
 	 */
 	@Override
 	protected boolean closeImpl() {
+		stopPlayout();
 		closeDataLine();
 		return true;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.receiver.AbstractMediaProcessor#destroy()
+	 */
+	@Override
+	public void destroy() {
+		super.destroy();
+		jitterBuffer.close();
+	}
+
+	/**
+	 * Gets the jitter buffer, exposing its depth and loss statistics.
+	 *
+	 * @return the jitter buffer
+	 */
+	public JitterBuffer getJitterBuffer() {
+		return jitterBuffer;
+	}
+
 	private void closeDataLine() {
 		if (dataLine != null) dataLine.close();
 	}
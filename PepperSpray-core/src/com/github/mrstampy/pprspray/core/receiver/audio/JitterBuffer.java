@@ -0,0 +1,617 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.receiver.audio;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+
+import com.github.mrstampy.pprspray.core.receiver.MediaEvent;
+
+/**
+ * The Class JitterBuffer reorders received audio frames by their
+ * {@link MediaEvent#getMessageHash()} sequence and releases them for playout
+ * at a steady rate. Playout begins once {@link #getTargetDepth()} frames are
+ * buffered; the target adapts to the interarrival jitter measured as per RFC
+ * 3550, between {@link #getMinDepth()} and {@link #getMaxDepth()}. A raised
+ * target takes effect when playout next rebuffers, a lowered one by trimming
+ * the frames in excess. Frames
+ * missing at their turn are concealed by repeating the last frame played,
+ * faded by half per consecutive concealment for PCM audio; after
+ * {@link #getMaxConcealed()} consecutive concealments of an empty buffer
+ * playout pauses to rebuffer. Frames arriving after their turn are discarded
+ * as late, and frames in excess of the target are trimmed to bound latency.<br>
+ * <br>
+ * Senders predating per-stream message sequences hash each message randomly;
+ * after {@link #UNSEQUENCED_THRESHOLD} consecutive frames outside the span of
+ * the buffer the sequences are disregarded and frames are played in order of
+ * arrival, see {@link #isSequenced()}.<br>
+ * <br>
+ * {@link #offer(int, byte[])} and {@link #take(long, TimeUnit)} are safe for
+ * use by one producer and one consumer. Concealed frames returned by
+ * {@link #take(long, TimeUnit)} are valid until the next invocation.
+ * 
+ * @see DefaultAudioProcessor
+ */
+public class JitterBuffer {
+
+	/** The Constant DEFAULT_CAPACITY. */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/** The Constant DEFAULT_MIN_DEPTH. */
+	public static final int DEFAULT_MIN_DEPTH = 2;
+
+	/** The Constant DEFAULT_MAX_DEPTH. */
+	public static final int DEFAULT_MAX_DEPTH = 32;
+
+	/** The Constant DEFAULT_MAX_CONCEALED. */
+	public static final int DEFAULT_MAX_CONCEALED = 5;
+
+	/**
+	 * The Constant UNSEQUENCED_THRESHOLD, the number of consecutive frames
+	 * outside the span of the buffer after which frames are played in order of
+	 * arrival.
+	 */
+	public static final int UNSEQUENCED_THRESHOLD = 3;
+
+	private static final int TRIM_HYSTERESIS = 2;
+	private static final double JITTER_MULTIPLIER = 3;
+
+	private final AudioFormat audioFormat;
+	private final double nanosPerByte;
+
+	private final byte[][] frames;
+	private final int[] sequences;
+	private final int mask;
+
+	private int minDepth;
+	private int maxDepth;
+	private int maxConcealed = DEFAULT_MAX_CONCEALED;
+
+	private int next;
+	private int highest;
+	private int depth;
+	private int targetDepth;
+	private boolean started;
+	private boolean buffering = true;
+	private boolean closed;
+	private boolean sequenced = true;
+	private int outOfSpan;
+
+	private byte[] last;
+	private byte[] concealment;
+	private int concealedRun;
+
+	private long lastArrival;
+	private int lastSequence;
+	private double frameNanos;
+	private double jitter;
+
+	private long played;
+	private long concealed;
+	private long late;
+	private long lost;
+	private long trimmed;
+	private long underruns;
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param audioFormat
+	 *          the audio format
+	 */
+	public JitterBuffer(AudioFormat audioFormat) {
+		this(audioFormat, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param audioFormat
+	 *          the audio format
+	 * @param capacity
+	 *          the maximum number of sequences spanned by the buffer, rounded up
+	 *          to the next power of two
+	 */
+	public JitterBuffer(AudioFormat audioFormat, int capacity) {
+		if (audioFormat == null) throw new IllegalArgumentException("Audio format cannot be null");
+		if (capacity < 2 || capacity > (1 << 16)) {
+			throw new IllegalArgumentException("Capacity must be > 1 and <= 2^16, was " + capacity);
+		}
+
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+
+		this.audioFormat = audioFormat;
+		this.frames = new byte[size][];
+		this.sequences = new int[size];
+		this.mask = size - 1;
+
+		this.maxDepth = Math.min(DEFAULT_MAX_DEPTH, size / 2);
+		this.minDepth = Math.min(DEFAULT_MIN_DEPTH, maxDepth);
+		this.targetDepth = minDepth;
+
+		double bytesPerSecond = (double) audioFormat.getFrameSize() * audioFormat.getFrameRate();
+		this.nanosPerByte = bytesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / bytesPerSecond : 0;
+	}
+
+	/**
+	 * Adds the frame of the sequence, returning false if it is late, a duplicate
+	 * or the buffer is closed. A frame too far ahead of those buffered
+	 * resynchronizes the buffer to its sequence. The sequence is disregarded if
+	 * the buffer is not {@link #isSequenced()}.
+	 *
+	 * @param sequence
+	 *          the sequence
+	 * @param frame
+	 *          the frame
+	 * @return true, if added
+	 */
+	public synchronized boolean offer(int sequence, byte[] frame) {
+		if (closed || frame == null || frame.length == 0) return false;
+
+		if (started && sequenced) checkSpan(sequence);
+
+		if (!sequenced) sequence = started ? increment(highest) : 0;
+
+		estimateJitter(sequence, frame.length, System.nanoTime());
+
+		if (!started) {
+			started = true;
+			next = sequence;
+			highest = sequence;
+		}
+
+		int offset = distance(sequence, next);
+
+		if (offset < 0) {
+			if (!buffering || played > 0 || distance(highest, sequence) > mask) {
+				late++;
+				return false;
+			}
+
+			next = sequence;
+			offset = 0;
+		} else if (offset > mask) {
+			resync(sequence);
+			offset = 0;
+		}
+
+		int idx = sequence & mask;
+		if (frames[idx] != null && sequences[idx] == sequence) return false;
+
+		frames[idx] = frame;
+		sequences[idx] = sequence;
+		depth++;
+		if (distance(sequence, highest) > 0) highest = sequence;
+
+		if (buffering && depth >= targetDepth) notifyAll();
+
+		return true;
+	}
+
+	/**
+	 * Returns the next frame for playout, a concealment frame if it is missing,
+	 * blocking while buffering. Returns null if the timeout elapses or the
+	 * buffer is {@link #close()}d.
+	 *
+	 * @param timeout
+	 *          the timeout
+	 * @param unit
+	 *          the unit
+	 * @return the byte[]
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public synchronized byte[] take(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		while (!closed) {
+			if (buffering) {
+				if (depth < targetDepth || depth == 0) {
+					long wait = deadline - System.nanoTime();
+					if (wait <= 0) return null;
+
+					TimeUnit.NANOSECONDS.timedWait(this, wait);
+					continue;
+				}
+
+				startPlayout();
+			}
+
+			trim();
+
+			byte[] frame = remove(next);
+			if (frame != null) {
+				next = increment(next);
+				played++;
+				concealedRun = 0;
+				last = frame;
+
+				return frame;
+			}
+
+			if (depth == 0 && concealedRun >= maxConcealed) {
+				underruns++;
+				buffering = true;
+				continue;
+			}
+
+			if (depth > 0) lost++;
+			next = increment(next);
+
+			return conceal();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Closes the buffer, releasing any {@link #take(long, TimeUnit)}.
+	 */
+	public synchronized void close() {
+		closed = true;
+		clear();
+		notifyAll();
+	}
+
+	/**
+	 * Checks if is closed.
+	 *
+	 * @return true, if checks if is closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	private void startPlayout() {
+		for (int i = 0; i <= mask; i++) {
+			int sequence = next + i & Integer.MAX_VALUE;
+			int idx = sequence & mask;
+
+			if (frames[idx] != null && sequences[idx] == sequence) {
+				next = sequence;
+				break;
+			}
+		}
+
+		buffering = false;
+		concealedRun = 0;
+	}
+
+	private void trim() {
+		if (depth <= targetDepth + TRIM_HYSTERESIS) return;
+
+		if (remove(next) != null) trimmed++;
+		next = increment(next);
+	}
+
+	private byte[] remove(int sequence) {
+		int idx = sequence & mask;
+		byte[] frame = frames[idx];
+
+		if (frame == null || sequences[idx] != sequence) return null;
+
+		frames[idx] = null;
+		depth--;
+
+		return frame;
+	}
+
+	private void checkSpan(int sequence) {
+		if (Math.abs(distance(sequence, highest)) <= mask) {
+			outOfSpan = 0;
+			return;
+		}
+
+		if (++outOfSpan < UNSEQUENCED_THRESHOLD) return;
+
+		sequenced = false;
+		started = false;
+		lastArrival = 0;
+		resync(0);
+	}
+
+	private void resync(int sequence) {
+		clear();
+
+		next = sequence;
+		highest = sequence;
+		buffering = true;
+	}
+
+	private void clear() {
+		for (int i = 0; i <= mask; i++) {
+			frames[i] = null;
+		}
+
+		depth = 0;
+	}
+
+	private byte[] conceal() {
+		concealed++;
+		concealedRun++;
+
+		if (last == null) return null;
+
+		if (concealment == null || concealment.length != last.length) concealment = new byte[last.length];
+
+		fade(last, concealment, 1.0 / (1 << Math.min(concealedRun, 16)));
+
+		return concealment;
+	}
+
+	private void fade(byte[] src, byte[] dst, double gain) {
+		Encoding encoding = audioFormat.getEncoding();
+		int bits = audioFormat.getSampleSizeInBits();
+		boolean signed = Encoding.PCM_SIGNED.equals(encoding);
+
+		if (!signed && !Encoding.PCM_UNSIGNED.equals(encoding) || (bits != 8 && bits != 16)) {
+			System.arraycopy(src, 0, dst, 0, src.length);
+			return;
+		}
+
+		if (bits == 8) {
+			for (int i = 0; i < src.length; i++) {
+				int sample = signed ? src[i] : (src[i] & 0xff) - 128;
+				sample = (int) (sample * gain);
+				dst[i] = (byte) (signed ? sample : sample + 128);
+			}
+
+			return;
+		}
+
+		boolean bigEndian = audioFormat.isBigEndian();
+		for (int i = 0; i + 1 < src.length; i += 2) {
+			int hi = bigEndian ? i : i + 1;
+			int lo = bigEndian ? i + 1 : i;
+
+			int sample = (src[hi] << 8) | (src[lo] & 0xff);
+			if (!signed) sample = (sample & 0xffff) - 32768;
+
+			sample = (int) (sample * gain);
+			if (!signed) sample += 32768;
+
+			dst[hi] = (byte) (sample >> 8);
+			dst[lo] = (byte) sample;
+		}
+	}
+
+	private void estimateJitter(int sequence, int length, long arrival) {
+		if (lastArrival != 0) {
+			int steps = distance(sequence, lastSequence);
+			long elapsed = arrival - lastArrival;
+
+			double expected = nanosPerByte > 0 ? nanosPerByte * length : frameNanos;
+			if (nanosPerByte <= 0 && steps > 0) {
+				double interval = elapsed / (double) steps;
+				frameNanos = frameNanos == 0 ? interval : frameNanos + (interval - frameNanos) / 16;
+			}
+
+			if (expected > 0) {
+				double deviation = Math.abs(elapsed - steps * expected);
+				jitter += (deviation - jitter) / 16;
+
+				int target = minDepth + (int) Math.ceil(JITTER_MULTIPLIER * jitter / expected);
+				targetDepth = Math.max(minDepth, Math.min(maxDepth, target));
+			}
+		}
+
+		lastArrival = arrival;
+		lastSequence = sequence;
+	}
+
+	private static int distance(int a, int b) {
+		return (a - b) << 1 >> 1;
+	}
+
+	private static int increment(int sequence) {
+		return sequence + 1 & Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Gets the number of frames buffered.
+	 *
+	 * @return the depth
+	 */
+	public synchronized int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Gets the number of frames to buffer before playout, as adapted to the
+	 * measured jitter.
+	 *
+	 * @return the target depth
+	 */
+	public synchronized int getTargetDepth() {
+		return targetDepth;
+	}
+
+	/**
+	 * Gets the smoothed interarrival jitter in nanoseconds.
+	 *
+	 * @return the jitter nanos
+	 */
+	public synchronized long getJitterNanos() {
+		return (long) jitter;
+	}
+
+	/**
+	 * Checks if the frames are ordered by sequence, false if the sender's message
+	 * hashes were found not to be sequential and frames are played in order of
+	 * arrival.
+	 *
+	 * @return true, if checks if is sequenced
+	 */
+	public synchronized boolean isSequenced() {
+		return sequenced;
+	}
+
+	/**
+	 * Checks if buffering, ie. playout has not begun or has paused.
+	 *
+	 * @return true, if checks if is buffering
+	 */
+	public synchronized boolean isBuffering() {
+		return buffering;
+	}
+
+	/**
+	 * Gets the number of frames played.
+	 *
+	 * @return the played count
+	 */
+	public synchronized long getPlayedCount() {
+		return played;
+	}
+
+	/**
+	 * Gets the number of concealment frames played.
+	 *
+	 * @return the concealed count
+	 */
+	public synchronized long getConcealedCount() {
+		return concealed;
+	}
+
+	/**
+	 * Gets the number of frames discarded for arriving after their turn.
+	 *
+	 * @return the late count
+	 */
+	public synchronized long getLateCount() {
+		return late;
+	}
+
+	/**
+	 * Gets the number of frames missing at their turn while later frames were
+	 * buffered.
+	 *
+	 * @return the lost count
+	 */
+	public synchronized long getLostCount() {
+		return lost;
+	}
+
+	/**
+	 * Gets the number of frames discarded to reduce the depth to the target.
+	 *
+	 * @return the trimmed count
+	 */
+	public synchronized long getTrimmedCount() {
+		return trimmed;
+	}
+
+	/**
+	 * Gets the number of times playout paused to rebuffer.
+	 *
+	 * @return the underrun count
+	 */
+	public synchronized long getUnderrunCount() {
+		return underruns;
+	}
+
+	/**
+	 * Resets the statistics.
+	 */
+	public synchronized void resetStatistics() {
+		played = 0;
+		concealed = 0;
+		late = 0;
+		lost = 0;
+		trimmed = 0;
+		underruns = 0;
+	}
+
+	/**
+	 * Gets the min depth.
+	 *
+	 * @return the min depth
+	 */
+	public synchronized int getMinDepth() {
+		return minDepth;
+	}
+
+	/**
+	 * Sets the min depth.
+	 *
+	 * @param minDepth
+	 *          the min depth
+	 */
+	public synchronized void setMinDepth(int minDepth) {
+		if (minDepth < 1 || minDepth > maxDepth) {
+			throw new IllegalArgumentException("Min depth must be > 0 and <= " + maxDepth + ", was " + minDepth);
+		}
+
+		this.minDepth = minDepth;
+		if (targetDepth < minDepth) targetDepth = minDepth;
+	}
+
+	/**
+	 * Gets the max depth.
+	 *
+	 * @return the max depth
+	 */
+	public synchronized int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Sets the max depth, no greater than half the capacity.
+	 *
+	 * @param maxDepth
+	 *          the max depth
+	 */
+	public synchronized void setMaxDepth(int maxDepth) {
+		if (maxDepth < minDepth || maxDepth > frames.length / 2) {
+			throw new IllegalArgumentException("Max depth must be >= " + minDepth + " and <= " + frames.length / 2
+					+ ", was " + maxDepth);
+		}
+
+		this.maxDepth = maxDepth;
+		if (targetDepth > maxDepth) targetDepth = maxDepth;
+	}
+
+	/**
+	 * Gets the maximum number of consecutive concealments of an empty buffer
+	 * before playout pauses to rebuffer.
+	 *
+	 * @return the max concealed
+	 */
+	public synchronized int getMaxConcealed() {
+		return maxConcealed;
+	}
+
+	/**
+	 * Sets the maximum number of consecutive concealments of an empty buffer
+	 * before playout pauses to rebuffer.
+	 *
+	 * @param maxConcealed
+	 *          the max concealed
+	 */
+	public synchronized void setMaxConcealed(int maxConcealed) {
+		if (maxConcealed < 0) throw new IllegalArgumentException("Max concealed must be >= 0, was " + maxConcealed);
+
+		this.maxConcealed = maxConcealed;
+	}
+
+}
@@ -30,6 +30,8 @@ public class ReceiverEvent {
 
 	private ReceiverEventType type;
 	private int mediaHash;
+	private int messageHash;
+	private int bytes;
 
 	/**
 	 * The Constructor.
@@ -44,6 +46,24 @@ public class ReceiverEvent {
 		this.mediaHash = mediaHash;
 	}
 
+	/**
+	 * The Constructor for {@link ReceiverEventType#EVICT} events.
+	 *
+	 * @param type
+	 *          the type
+	 * @param mediaHash
+	 *          the media hash
+	 * @param messageHash
+	 *          the message hash of the evicted message
+	 * @param bytes
+	 *          the number of bytes evicted
+	 */
+	public ReceiverEvent(ReceiverEventType type, int mediaHash, int messageHash, int bytes) {
+		this(type, mediaHash);
+		this.messageHash = messageHash;
+		this.bytes = bytes;
+	}
+
 	/**
 	 * Checks if is applicable.
 	 *
@@ -72,4 +92,23 @@ public class ReceiverEvent {
 	public int getMediaHash() {
 		return mediaHash;
 	}
+
+	/**
+	 * Gets the message hash, set for {@link ReceiverEventType#EVICT} events.
+	 *
+	 * @return the message hash
+	 */
+	public int getMessageHash() {
+		return messageHash;
+	}
+
+	/**
+	 * Gets the number of bytes evicted, set for {@link ReceiverEventType#EVICT}
+	 * events.
+	 *
+	 * @return the bytes
+	 */
+	public int getBytes() {
+		return bytes;
+	}
 }
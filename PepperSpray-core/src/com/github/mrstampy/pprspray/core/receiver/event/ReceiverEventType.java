@@ -24,8 +24,9 @@ import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
 
 /**
  * The Enum ReceiverEventType defines the various states in the lifecycle of an
- * {@link AbstractChunkReceiver}.
+ * {@link AbstractChunkReceiver}. {@link #EVICT} is generated when an
+ * incomplete message is discarded.
  */
 public enum ReceiverEventType {
-	OPEN, CLOSE, DESTROY;
+	OPEN, CLOSE, DESTROY, EVICT;
 }
@@ -0,0 +1,127 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.receiver.file;
+
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * The Class ByteRangeSet records the byte ranges of a file received, merging
+ * adjacent and overlapping ranges. As chunks largely arrive in order the set
+ * typically holds a handful of ranges regardless of the size of the file.
+ * Duplicate ranges are not counted twice.
+ */
+public class ByteRangeSet {
+
+	private final TreeMap<Long, Long> ranges = new TreeMap<>();
+	private long coveredLength;
+
+	/**
+	 * Adds the range [start, end).
+	 *
+	 * @param start
+	 *          the start, inclusive
+	 * @param end
+	 *          the end, exclusive
+	 */
+	public synchronized void add(long start, long end) {
+		if (start < 0 || end < start) {
+			throw new IllegalArgumentException("Invalid range [" + start + ", " + end + ")");
+		}
+
+		if (start == end) return;
+
+		Entry<Long, Long> floor = ranges.floorEntry(start);
+		if (floor != null && floor.getValue() >= start) {
+			if (floor.getValue() >= end) return;
+
+			start = floor.getKey();
+			coveredLength -= floor.getValue() - floor.getKey();
+			ranges.remove(floor.getKey());
+		}
+
+		Entry<Long, Long> next = ranges.ceilingEntry(start);
+		while (next != null && next.getKey() <= end) {
+			end = Math.max(end, next.getValue());
+			coveredLength -= next.getValue() - next.getKey();
+			ranges.remove(next.getKey());
+
+			next = ranges.ceilingEntry(start);
+		}
+
+		ranges.put(start, end);
+		coveredLength += end - start;
+	}
+
+	/**
+	 * Returns true if the range [start, end) has been received in its entirety.
+	 *
+	 * @param start
+	 *          the start, inclusive
+	 * @param end
+	 *          the end, exclusive
+	 * @return true, if successful
+	 */
+	public synchronized boolean covers(long start, long end) {
+		if (start >= end) return true;
+
+		Entry<Long, Long> floor = ranges.floorEntry(start);
+
+		return floor != null && floor.getValue() >= end;
+	}
+
+	/**
+	 * Gets the total number of bytes covered by the ranges.
+	 *
+	 * @return the covered length
+	 */
+	public synchronized long getCoveredLength() {
+		return coveredLength;
+	}
+
+	/**
+	 * Returns the number of disjoint ranges held.
+	 *
+	 * @return the int
+	 */
+	public synchronized int size() {
+		return ranges.size();
+	}
+
+	/**
+	 * Clears the ranges.
+	 */
+	public synchronized void clear() {
+		ranges.clear();
+		coveredLength = 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return ranges.toString();
+	}
+
+}
@@ -0,0 +1,318 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.receiver.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.functions.Action1;
+
+import com.github.mrstampy.pprspray.core.receiver.MediaEvent;
+import com.github.mrstampy.pprspray.core.streamer.file.DefaultFileChunk;
+import com.github.mrstampy.pprspray.core.streamer.file.MediaFileStreamer;
+import com.github.mrstampy.pprspray.core.streamer.file.TransferBitmap;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
+
+/**
+ * The Class DiskFileReceiver writes files streamed in windows by the
+ * {@link MediaFileStreamer} directly to disk. Each chunk is written at its
+ * offset in a {@link FileSink} as it arrives and released, no reassembly taking
+ * place in memory; heap use is bounded by the chunks queued on the receiver
+ * rather than by the size of the file. On completion the file is forced to
+ * disk, renamed to its target in the {@link #getDirectory()} and passed to the
+ * {@link #setCompletionListener(Action1)}.<br>
+ * <br>
+ * Transfers interrupted by the loss of the connection or the destruction of
+ * the receiver leave their partial file and bitmap of the blocks received in
+ * the directory. Requests to {@link #resume(int, long)} a transfer answer the
+ * bitmap, the sender then streaming only the missing blocks.<br>
+ * <br>
+ * Chunks not carrying a file offset are aggregated to {@link MediaEvent}s as
+ * by the {@link FileReceiver}.
+ * 
+ * @see DefaultFileChunk#isWindowed()
+ */
+public class DiskFileReceiver extends FileReceiver {
+	private static final Logger log = LoggerFactory.getLogger(DiskFileReceiver.class);
+
+	private final File directory;
+
+	private final ConcurrentMap<Integer, FileSink> sinks = new ConcurrentHashMap<>();
+	private final Map<Integer, FileSink> messages = new ConcurrentHashMap<>();
+	private final Set<Integer> completed = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	private volatile Action1<File> completionListener;
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param mediaHash
+	 *          the media hash
+	 * @param directory
+	 *          the directory in which to write received files
+	 */
+	public DiskFileReceiver(int mediaHash, File directory) {
+		super(mediaHash);
+
+		if (directory == null) throw new IllegalArgumentException("Directory cannot be null");
+
+		this.directory = directory;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.receiver.file.FileReceiver#receiveImpl
+	 * (com.github.mrstampy.pprspray.core.streamer.file.DefaultFileChunk)
+	 */
+	@Override
+	protected void receiveImpl(DefaultFileChunk chunk) {
+		if (!chunk.isWindowed()) {
+			super.receiveImpl(chunk);
+			return;
+		}
+
+		if (!isOpen()) open();
+
+		try {
+			write(chunk);
+		} finally {
+			chunk.release();
+		}
+	}
+
+	private void write(DefaultFileChunk chunk) {
+		int transferId = chunk.getTransferId();
+		if (completed.contains(transferId)) return;
+
+		FileSink sink = getSink(transferId, chunk.getFileLength());
+		if (sink == null) return;
+
+		messages.put(chunk.getMessageHash(), sink);
+
+		try {
+			if (sink.write(chunk.getFileOffset(), chunk.getPayload())) complete(sink);
+		} catch (Exception e) {
+			log.error("Unexpected exception writing transfer {} to {}", transferId, sink.getPartial(), e);
+			abort(sink);
+		}
+	}
+
+	private synchronized FileSink getSink(int transferId, long fileLength) {
+		FileSink sink = sinks.get(transferId);
+		if (sink != null) return sink;
+
+		try {
+			sink = createSink(transferId, fileLength);
+			sinks.put(transferId, sink);
+
+			log.debug("Receiving transfer {}, {} bytes to {}", transferId, fileLength, sink.getPartial());
+
+			return sink;
+		} catch (IOException e) {
+			log.error("Unexpected exception creating sink for transfer {}", transferId, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the bitmap of the blocks of the transfer received, opening the
+	 * transfer's sink to resume it. Returns null if the sink cannot be created or
+	 * the length of the file differs from that of the transfer in progress.
+	 *
+	 * @param transferId
+	 *          the transfer id
+	 * @param fileLength
+	 *          the file length
+	 * @return the transfer bitmap
+	 * @see FileSink#readBitmap(File, int, long)
+	 */
+	public TransferBitmap resume(int transferId, long fileLength) {
+		if (fileLength < 0) return null;
+
+		if (completed.contains(transferId)) return received(transferId, fileLength);
+
+		if (!isOpen()) open();
+
+		FileSink sink = getSink(transferId, fileLength);
+		if (sink == null || sink.getLength() != fileLength) return null;
+
+		if (!sink.isComplete()) return sink.getBitmap();
+
+		complete(sink);
+
+		return received(transferId, fileLength);
+	}
+
+	private TransferBitmap received(int transferId, long fileLength) {
+		TransferBitmap tb = new TransferBitmap(transferId, fileLength);
+		for (int i = 0; i < tb.getBlockCount(); i++) {
+			tb.set(i);
+		}
+
+		return tb;
+	}
+
+	/**
+	 * Creates the {@link FileSink} for the transfer.
+	 *
+	 * @param transferId
+	 *          the transfer id
+	 * @param fileLength
+	 *          the file length
+	 * @return the file sink
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	protected FileSink createSink(int transferId, long fileLength) throws IOException {
+		return new FileSink(transferId, fileLength, getTarget(transferId));
+	}
+
+	/**
+	 * Gets the file to which the transfer is written on completion. Override to
+	 * name files other than by their transfer id.
+	 *
+	 * @param transferId
+	 *          the transfer id
+	 * @return the target
+	 */
+	protected File getTarget(int transferId) {
+		return new File(getDirectory(), "transfer-" + Integer.toHexString(transferId));
+	}
+
+	private void complete(FileSink sink) {
+		if (!remove(sink)) return;
+
+		completed.add(sink.getTransferId());
+
+		File file;
+		try {
+			file = sink.complete();
+		} catch (Exception e) {
+			log.error("Unexpected exception completing transfer {}", sink.getTransferId(), e);
+			return;
+		}
+
+		Action1<File> l = getCompletionListener();
+		if (l == null) return;
+
+		try {
+			l.call(file);
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		}
+	}
+
+	private void abort(FileSink sink) {
+		remove(sink);
+		sink.close();
+	}
+
+	private boolean remove(FileSink sink) {
+		boolean removed = sinks.remove(sink.getTransferId(), sink);
+
+		Iterator<FileSink> it = messages.values().iterator();
+		while (it.hasNext()) {
+			if (it.next() == sink) it.remove();
+		}
+
+		return removed;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.receiver.file.FileReceiver#endOfMessageImpl
+	 * (com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk)
+	 */
+	@Override
+	protected void endOfMessageImpl(MediaFooterChunk eom) {
+		if (messages.remove(eom.getMessageHash()) != null) return;
+
+		super.endOfMessageImpl(eom);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver#destroy()
+	 */
+	@Override
+	public void destroy() {
+		super.destroy();
+
+		for (FileSink sink : sinks.values()) {
+			abort(sink);
+		}
+	}
+
+	/**
+	 * Gets the sink for the transfer, null if none in progress.
+	 *
+	 * @param transferId
+	 *          the transfer id
+	 * @return the sink
+	 */
+	public FileSink getSink(int transferId) {
+		return sinks.get(transferId);
+	}
+
+	/**
+	 * Gets the directory.
+	 *
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Gets the completion listener.
+	 *
+	 * @return the completion listener
+	 */
+	public Action1<File> getCompletionListener() {
+		return completionListener;
+	}
+
+	/**
+	 * Sets the listener invoked with each file received.
+	 *
+	 * @param completionListener
+	 *          the completion listener
+	 */
+	public void setCompletionListener(Action1<File> completionListener) {
+		this.completionListener = completionListener;
+	}
+
+}
@@ -30,6 +30,8 @@ import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
 /**
  * Instances are registered on the {@link ChunkEventBus} and aggregate
  * {@link DefaultFileChunk}s to {@link MediaEvent}s.
+ * 
+ * @see DiskFileReceiver
  */
 public class FileReceiver extends AbstractChunkReceiver<DefaultFileChunk> {
 
@@ -0,0 +1,386 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.receiver.file;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.pprspray.core.streamer.file.TransferBitmap;
+
+/**
+ * The Class FileSink writes the data of a single file transfer directly to
+ * disk. The partial file is preallocated to the length of the file and each
+ * chunk's data written at its offset with positional {@link FileChannel}
+ * writes as it arrives, in any order. Once every byte has been received the
+ * partial file is forced to disk and renamed to the target.<br>
+ * <br>
+ * The blocks received are recorded in a {@link TransferBitmap} persisted
+ * alongside the partial file every {@link #setCheckpointBytes(long)} and when
+ * {@link #close()}d, the partial file being forced to disk first. Should a sink
+ * be created for a transfer of which a partial file and bitmap exist the
+ * transfer resumes, the blocks recorded being considered received.
+ * 
+ * @see DiskFileReceiver
+ */
+public class FileSink {
+	private static final Logger log = LoggerFactory.getLogger(FileSink.class);
+
+	/** The Constant PARTIAL_SUFFIX. */
+	public static final String PARTIAL_SUFFIX = ".part";
+
+	/** The Constant BITMAP_SUFFIX. */
+	public static final String BITMAP_SUFFIX = ".bitmap";
+
+	/** The Constant DEFAULT_CHECKPOINT_BYTES. */
+	public static final long DEFAULT_CHECKPOINT_BYTES = 16 * 1024 * 1024;
+
+	private final int transferId;
+	private final long length;
+	private final File target;
+	private final File partial;
+	private final File bitmapFile;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	private final ByteRangeSet received = new ByteRangeSet();
+	private final TransferBitmap bitmap;
+
+	private volatile long checkpointBytes = DEFAULT_CHECKPOINT_BYTES;
+	private long uncheckpointed;
+
+	private volatile boolean closed;
+
+	/**
+	 * Reads the bitmap persisted alongside the partial file of the target,
+	 * returning null if there is none, if it cannot be read or if it does not
+	 * match the transfer id and length.
+	 *
+	 * @param target
+	 *          the target
+	 * @param transferId
+	 *          the transfer id
+	 * @param length
+	 *          the length
+	 * @return the transfer bitmap
+	 */
+	public static TransferBitmap readBitmap(File target, int transferId, long length) {
+		File partial = new File(target.getPath() + PARTIAL_SUFFIX);
+		File bitmapFile = new File(partial.getPath() + BITMAP_SUFFIX);
+
+		if (!partial.isFile() || !bitmapFile.isFile() || partial.length() != length) return null;
+
+		try {
+			TransferBitmap tb = TransferBitmap.read(Unpooled.wrappedBuffer(Files.readAllBytes(bitmapFile.toPath())));
+
+			return tb.getTransferId() == transferId && tb.getLength() == length ? tb : null;
+		} catch (Exception e) {
+			log.warn("Cannot read bitmap {}", bitmapFile.getAbsolutePath(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param transferId
+	 *          the transfer id
+	 * @param length
+	 *          the length of the file
+	 * @param target
+	 *          the file to create on completion
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public FileSink(int transferId, long length, File target) throws IOException {
+		if (length < 0) throw new IllegalArgumentException("Length must be >= 0, was " + length);
+		if (target == null) throw new IllegalArgumentException("Target cannot be null");
+
+		this.transferId = transferId;
+		this.length = length;
+		this.target = target;
+		this.partial = new File(target.getPath() + PARTIAL_SUFFIX);
+		this.bitmapFile = new File(partial.getPath() + BITMAP_SUFFIX);
+
+		TransferBitmap tb = readBitmap(target, transferId, length);
+		if (tb == null) {
+			tb = new TransferBitmap(transferId, length);
+		} else {
+			log.debug("Resuming transfer {} to {}: {}", transferId, partial, tb);
+		}
+
+		this.bitmap = tb;
+		for (int i = 0; i < tb.getBlockCount(); i++) {
+			if (tb.isReceived(i)) received.add(tb.start(i), tb.end(i));
+		}
+
+		File dir = partial.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create directory " + dir.getAbsolutePath());
+		}
+
+		raf = new RandomAccessFile(partial, "rw");
+		channel = raf.getChannel();
+
+		try {
+			raf.setLength(length);
+		} catch (IOException e) {
+			closeQuietly();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the data at the offset in the file.
+	 *
+	 * @param offset
+	 *          the offset
+	 * @param data
+	 *          the data
+	 * @return true if every byte of the file has been received
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public synchronized boolean write(long offset, ByteBuf data) throws IOException {
+		int size = data.readableBytes();
+
+		if (offset < 0 || offset + size > length) {
+			throw new IllegalArgumentException("Range [" + offset + ", " + (offset + size) + ") outside file of length "
+					+ length);
+		}
+
+		if (closed) throw new IOException("Sink closed for " + partial.getAbsolutePath());
+
+		if (size == 0 || received.covers(offset, offset + size)) return isComplete();
+
+		long position = offset;
+		for (ByteBuffer bb : data.nioBuffers()) {
+			while (bb.hasRemaining()) {
+				position += channel.write(bb, position);
+			}
+		}
+
+		received.add(offset, offset + size);
+
+		mark(offset, offset + size);
+
+		return isComplete();
+	}
+
+	private void mark(long start, long end) throws IOException {
+		int last = bitmap.block(end - 1);
+		for (int i = bitmap.block(start); i <= last; i++) {
+			if (bitmap.isReceived(i) || !received.covers(bitmap.start(i), bitmap.end(i))) continue;
+
+			bitmap.set(i);
+			uncheckpointed += bitmap.end(i) - bitmap.start(i);
+		}
+
+		if (uncheckpointed >= getCheckpointBytes() && !isComplete()) checkpoint();
+	}
+
+	/**
+	 * Forces the partial file to disk and persists the bitmap of the blocks
+	 * received.
+	 *
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		if (closed) return;
+
+		channel.force(false);
+
+		ByteBuf buf = Unpooled.buffer(bitmap.getSerializedLength());
+		bitmap.write(buf);
+
+		try (RandomAccessFile map = new RandomAccessFile(bitmapFile, "rw")) {
+			map.setLength(buf.readableBytes());
+			map.write(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+		}
+
+		uncheckpointed = 0;
+	}
+
+	/**
+	 * Returns true if every byte of the file has been received.
+	 *
+	 * @return true, if checks if is complete
+	 */
+	public boolean isComplete() {
+		return received.getCoveredLength() >= length;
+	}
+
+	/**
+	 * Forces the partial file to disk, closes it and renames it to the target,
+	 * replacing any existing file.
+	 *
+	 * @return the target
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public synchronized File complete() throws IOException {
+		if (!isComplete()) throw new IllegalStateException("Transfer " + transferId + " incomplete");
+
+		try {
+			channel.force(true);
+		} finally {
+			closeQuietly();
+		}
+
+		try {
+			Files.move(partial.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		Files.deleteIfExists(bitmapFile.toPath());
+
+		log.debug("Transfer {} complete, {} bytes written to {}", transferId, length, target.getAbsolutePath());
+
+		return target;
+	}
+
+	/**
+	 * Closes the partial file without completing the transfer, persisting the
+	 * bitmap of the blocks received.
+	 */
+	public synchronized void close() {
+		if (closed) return;
+
+		try {
+			checkpoint();
+		} catch (IOException e) {
+			log.error("Unexpected exception", e);
+		} finally {
+			closeQuietly();
+		}
+	}
+
+	private void closeQuietly() {
+		closed = true;
+		try {
+			raf.close();
+		} catch (IOException e) {
+			log.error("Unexpected exception", e);
+		}
+	}
+
+	/**
+	 * Checks if is closed.
+	 *
+	 * @return true, if checks if is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Gets the transfer id.
+	 *
+	 * @return the transfer id
+	 */
+	public int getTransferId() {
+		return transferId;
+	}
+
+	/**
+	 * Gets the length of the file.
+	 *
+	 * @return the length
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Gets the number of bytes received.
+	 *
+	 * @return the received length
+	 */
+	public long getReceivedLength() {
+		return received.getCoveredLength();
+	}
+
+	/**
+	 * Gets the bitmap of the blocks received.
+	 *
+	 * @return the bitmap
+	 */
+	public TransferBitmap getBitmap() {
+		return bitmap;
+	}
+
+	/**
+	 * Gets the number of bytes of blocks received between checkpoints.
+	 *
+	 * @return the checkpoint bytes
+	 */
+	public long getCheckpointBytes() {
+		return checkpointBytes;
+	}
+
+	/**
+	 * Sets the number of bytes of blocks received between checkpoints. Defaults
+	 * to {@link #DEFAULT_CHECKPOINT_BYTES}.
+	 *
+	 * @param checkpointBytes
+	 *          the checkpoint bytes
+	 * @see #checkpoint()
+	 */
+	public void setCheckpointBytes(long checkpointBytes) {
+		if (checkpointBytes <= 0) throw new IllegalArgumentException("Checkpoint bytes must be > 0, was " + checkpointBytes);
+
+		this.checkpointBytes = checkpointBytes;
+	}
+
+	/**
+	 * Gets the target.
+	 *
+	 * @return the target
+	 */
+	public File getTarget() {
+		return target;
+	}
+
+	/**
+	 * Gets the partial file.
+	 *
+	 * @return the partial
+	 */
+	public File getPartial() {
+		return partial;
+	}
+
+}
@@ -0,0 +1,328 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.receiver.multicast;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.kitchensync.netty.channel.KiSyMulticastChannel;
+import com.github.mrstampy.pprspray.core.handler.NegotiationAckHandler;
+import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.AcceptingNegotationSubscriber;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationChunk;
+import com.github.mrstampy.pprspray.core.streamer.util.StreamerRuntime;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * The Class MulticastMembership manages the receiving side of multicast
+ * streams for {@link KiSyMulticastChannel}s joined to a group. Channels
+ * {@link #join(KiSyMulticastChannel)} and {@link #leave(KiSyMulticastChannel)}
+ * their group at any time; leaving destroys the receivers of the media
+ * accepted on the channel without notifying the sender, who continues to
+ * stream to the remaining members.<br>
+ * <br>
+ * The sender of a multicast stream requires a single affirmative
+ * acknowledgement of its negotiation. To prevent every member responding at
+ * once, acknowledgements are {@link #scheduleAck(KiSyMulticastChannel, NegotiationChunk, byte[])}
+ * d after a random backoff of up to {@link #getAckBackoffMillis()} and are
+ * sent to both the group and the sender. Members observing an acknowledgement
+ * for the same media hash on the group before their backoff expires suppress
+ * their own.
+ * 
+ * @see AbstractMediaStreamer#isMulticast()
+ * @see AcceptingNegotationSubscriber
+ * @see NegotiationAckHandler
+ */
+public class MulticastMembership {
+	private static final Logger log = LoggerFactory.getLogger(MulticastMembership.class);
+
+	/** The Constant DEFAULT_ACK_BACKOFF_MILLIS. */
+	public static final long DEFAULT_ACK_BACKOFF_MILLIS = 250;
+
+	private static final ConcurrentMap<Integer, Set<Integer>> accepted = new ConcurrentHashMap<Integer, Set<Integer>>();
+	private static final ConcurrentMap<Integer, ConcurrentMap<Integer, ScheduledFuture<?>>> pending = new ConcurrentHashMap<Integer, ConcurrentMap<Integer, ScheduledFuture<?>>>();
+
+	private static final AtomicLong sent = new AtomicLong();
+	private static final AtomicLong suppressed = new AtomicLong();
+
+	private static volatile long ackBackoffMillis = DEFAULT_ACK_BACKOFF_MILLIS;
+
+	static {
+		ChunkEventBus.register(new Object() {
+
+			@Subscribe
+			public void terminate(MediaFooterChunk eom) {
+				if (eom.isTerminateMessage(eom.getMediaHash())) release(eom.getMediaHash());
+			}
+		});
+	}
+
+	/**
+	 * Joins the channel's multicast group.
+	 *
+	 * @param channel
+	 *          the channel
+	 * @return true, if successful
+	 */
+	public static boolean join(KiSyMulticastChannel channel) {
+		if (channel == null) throw new IllegalArgumentException("Channel cannot be null");
+
+		boolean joined = channel.joinGroup();
+
+		log.debug("Joined multicast group {} on port {}? {}", channel.getMulticastAddress(), channel.getPort(), joined);
+
+		return joined;
+	}
+
+	/**
+	 * Leaves the channel's multicast group, cancelling any pending
+	 * acknowledgements and destroying the receivers of the media accepted on
+	 * the channel.
+	 *
+	 * @param channel
+	 *          the channel
+	 * @return true, if successful
+	 * @see ChunkEventBus#removeListeners(int)
+	 */
+	public static boolean leave(KiSyMulticastChannel channel) {
+		if (channel == null) throw new IllegalArgumentException("Channel cannot be null");
+
+		boolean left = channel.leaveGroup();
+
+		Set<Integer> hashes = accepted.remove(channel.getPort());
+		if (hashes != null) {
+			for (Integer mediaHash : hashes) {
+				cancelAck(mediaHash, channel.getPort());
+				ChunkEventBus.removeListeners(mediaHash);
+			}
+		}
+
+		log.debug("Left multicast group {} on port {}? {}", channel.getMulticastAddress(), channel.getPort(), left);
+
+		return left;
+	}
+
+	/**
+	 * Records the negotiation as accepted on the channel, returning false if it
+	 * has already been accepted. Multicast senders periodically repeat their
+	 * negotiation for the benefit of members joining late; repeats are to be
+	 * ignored by members already receiving.
+	 *
+	 * @param channel
+	 *          the channel
+	 * @param event
+	 *          the event
+	 * @return true, if the negotiation has not been accepted on the channel
+	 */
+	public static boolean accept(KiSyChannel channel, NegotiationChunk event) {
+		return getAccepted(channel.getPort()).add(event.getMediaHash());
+	}
+
+	/**
+	 * Checks if the media hash has been accepted on the channel.
+	 *
+	 * @param channel
+	 *          the channel
+	 * @param mediaHash
+	 *          the media hash
+	 * @return true, if checks if is accepted
+	 */
+	public static boolean isAccepted(KiSyChannel channel, int mediaHash) {
+		Set<Integer> hashes = accepted.get(channel.getPort());
+
+		return hashes != null && hashes.contains(mediaHash);
+	}
+
+	/**
+	 * Sends the acknowledgement to the group and to the sender of the
+	 * negotiation after a random backoff, unless an acknowledgement of the same
+	 * media hash is {@link #ackObserved(int)} in the meantime.
+	 *
+	 * @param channel
+	 *          the channel
+	 * @param event
+	 *          the event
+	 * @param ack
+	 *          the ack
+	 */
+	public static void scheduleAck(final KiSyMulticastChannel channel, final NegotiationChunk event, final byte[] ack) {
+		final int mediaHash = event.getMediaHash();
+		final int port = channel.getPort();
+
+		long backoff = ackBackoffMillis <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ackBackoffMillis);
+
+		Runnable send = new Runnable() {
+
+			@Override
+			public void run() {
+				if (!removeAck(mediaHash, port)) return;
+
+				sendAck(channel, event.getRemote(), ack);
+			}
+		};
+
+		ConcurrentMap<Integer, ScheduledFuture<?>> acks = getPending(mediaHash);
+		ScheduledFuture<?> existing = acks.put(port, StreamerRuntime.schedule(send, backoff, TimeUnit.MILLISECONDS));
+		if (existing != null) existing.cancel(false);
+	}
+
+	/**
+	 * Invoked when an acknowledgement of the media hash has been received,
+	 * suppressing any pending acknowledgements of it.
+	 *
+	 * @param mediaHash
+	 *          the media hash
+	 * @see NegotiationAckHandler
+	 */
+	public static void ackObserved(int mediaHash) {
+		ConcurrentMap<Integer, ScheduledFuture<?>> acks = pending.remove(mediaHash);
+		if (acks == null) return;
+
+		for (ScheduledFuture<?> sf : acks.values()) {
+			if (sf.cancel(false)) suppressed.incrementAndGet();
+		}
+
+		log.trace("Suppressed {} acknowledgements of media hash {}", acks.size(), mediaHash);
+	}
+
+	/**
+	 * Forgets the media hash on all channels, invoked on receipt of its
+	 * termination.
+	 *
+	 * @param mediaHash
+	 *          the media hash
+	 */
+	public static void release(int mediaHash) {
+		for (Set<Integer> hashes : accepted.values()) {
+			hashes.remove(mediaHash);
+		}
+
+		ConcurrentMap<Integer, ScheduledFuture<?>> acks = pending.remove(mediaHash);
+		if (acks == null) return;
+
+		for (ScheduledFuture<?> sf : acks.values()) {
+			sf.cancel(false);
+		}
+	}
+
+	/**
+	 * Gets the maximum random delay before a member acknowledges a negotiation.
+	 *
+	 * @return the ack backoff millis
+	 */
+	public static long getAckBackoffMillis() {
+		return ackBackoffMillis;
+	}
+
+	/**
+	 * Sets the maximum random delay before a member acknowledges a negotiation,
+	 * zero to acknowledge immediately. The delay should be well above the round
+	 * trip time of the group for suppression to be effective.
+	 *
+	 * @param ackBackoffMillis
+	 *          the ack backoff millis
+	 */
+	public static void setAckBackoffMillis(long ackBackoffMillis) {
+		if (ackBackoffMillis < 0) throw new IllegalArgumentException("Ack backoff must be >= 0, was " + ackBackoffMillis);
+
+		MulticastMembership.ackBackoffMillis = ackBackoffMillis;
+	}
+
+	/**
+	 * Gets the number of acknowledgements sent.
+	 *
+	 * @return the sent count
+	 */
+	public static long getSentCount() {
+		return sent.get();
+	}
+
+	/**
+	 * Gets the number of acknowledgements suppressed.
+	 *
+	 * @return the suppressed count
+	 */
+	public static long getSuppressedCount() {
+		return suppressed.get();
+	}
+
+	private static void sendAck(KiSyMulticastChannel channel, InetSocketAddress sender, byte[] ack) {
+		try {
+			channel.broadcast(ack);
+			if (sender != null) channel.send(ack, sender);
+
+			sent.incrementAndGet();
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		}
+	}
+
+	private static void cancelAck(int mediaHash, int port) {
+		ConcurrentMap<Integer, ScheduledFuture<?>> acks = pending.get(mediaHash);
+		if (acks == null) return;
+
+		ScheduledFuture<?> sf = acks.remove(port);
+		if (sf != null) sf.cancel(false);
+	}
+
+	private static boolean removeAck(int mediaHash, int port) {
+		ConcurrentMap<Integer, ScheduledFuture<?>> acks = pending.get(mediaHash);
+
+		return acks != null && acks.remove(port) != null;
+	}
+
+	private static ConcurrentMap<Integer, ScheduledFuture<?>> getPending(int mediaHash) {
+		ConcurrentMap<Integer, ScheduledFuture<?>> acks = pending.get(mediaHash);
+		if (acks != null) return acks;
+
+		acks = new ConcurrentHashMap<Integer, ScheduledFuture<?>>();
+		ConcurrentMap<Integer, ScheduledFuture<?>> existing = pending.putIfAbsent(mediaHash, acks);
+
+		return existing == null ? acks : existing;
+	}
+
+	private static Set<Integer> getAccepted(int port) {
+		Set<Integer> hashes = accepted.get(port);
+		if (hashes != null) return hashes;
+
+		hashes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		Set<Integer> existing = accepted.putIfAbsent(port, hashes);
+
+		return existing == null ? hashes : existing;
+	}
+
+	private MulticastMembership() {
+	}
+
+}
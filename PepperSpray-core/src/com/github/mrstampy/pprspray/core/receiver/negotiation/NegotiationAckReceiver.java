@@ -22,6 +22,7 @@ package com.github.mrstampy.pprspray.core.receiver.negotiation;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import rx.Scheduler;
 import rx.functions.Action0;
@@ -49,6 +50,8 @@ public abstract class NegotiationAckReceiver extends AbstractChunkReceiver<Negot
 
 	private static final Scheduler SVC = Schedulers.from(Executors.newCachedThreadPool());
 
+	private final AtomicBoolean decided = new AtomicBoolean(false);
+
 	/**
 	 * The Constructor. Once created a 30 second timer is started after which the
 	 * {@link #failed()} method is invoked. If the receiver is still
@@ -78,7 +81,7 @@ public abstract class NegotiationAckReceiver extends AbstractChunkReceiver<Negot
 
 		byte[] failed = NegotiationMessageUtils.getNegotiationAckMessage(getMediaHash(), false).array();
 
-		receiveImpl(new NegotiationAckChunk(failed));
+		decide(new NegotiationAckChunk(failed));
 	}
 
 	/*
@@ -90,6 +93,27 @@ public abstract class NegotiationAckReceiver extends AbstractChunkReceiver<Negot
 	 */
 	@Override
 	protected void receiveImpl(NegotiationAckChunk chunk) {
+		if (isDecisive(chunk)) decide(chunk);
+	}
+
+	/**
+	 * Returns true if the acknowledgement concludes the negotiation, closing
+	 * this receiver and invoking {@link #ackReceived(NegotiationAckChunk)}. All
+	 * acknowledgements are decisive by default; negotiations with several
+	 * remotes can await an affirmative response by returning false for
+	 * rejections. The {@link #failed()} timeout is always decisive.
+	 *
+	 * @param chunk
+	 *          the chunk
+	 * @return true, if checks if is decisive
+	 */
+	protected boolean isDecisive(NegotiationAckChunk chunk) {
+		return true;
+	}
+
+	private void decide(NegotiationAckChunk chunk) {
+		if (!decided.compareAndSet(false, true)) return;
+
 		close();
 		ChunkEventBus.unregister(this);
 
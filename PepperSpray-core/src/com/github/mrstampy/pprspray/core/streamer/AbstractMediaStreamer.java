@@ -25,23 +25,22 @@ import io.netty.channel.ChannelFuture;
 import io.netty.util.concurrent.GenericFutureListener;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import rx.Scheduler;
-import rx.Subscription;
-import rx.functions.Action0;
-import rx.schedulers.Schedulers;
-
 import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
-import com.github.mrstampy.kitchensync.stream.ByteArrayStreamer;
 import com.github.mrstampy.pprspray.core.handler.NegotiationAckHandler;
 import com.github.mrstampy.pprspray.core.handler.NegotiationHandler;
+import com.github.mrstampy.pprspray.core.receiver.multicast.MulticastMembership;
 import com.github.mrstampy.pprspray.core.receiver.negotiation.NegotiationAckReceiver;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor;
 import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
@@ -56,7 +55,11 @@ import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationAckChun
 import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationChunk;
 import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationEventBus;
 import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationMessageUtils;
+import com.github.mrstampy.pprspray.core.streamer.util.BandwidthGovernor;
+import com.github.mrstampy.pprspray.core.streamer.util.EgressScheduler;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
+import com.github.mrstampy.pprspray.core.streamer.util.StreamerRuntime;
+import com.github.mrstampy.pprspray.core.streamer.util.TokenBucket;
 import com.google.common.eventbus.Subscribe;
 
 /**
@@ -65,15 +68,48 @@ import com.google.common.eventbus.Subscribe;
  * {@link #isAutoNegotiate()}, negotiate with the remote site using a unique
  * identifier and will start streaming upon confirmation. Manual negotiations
  * will require a setting of {@link #setNotifyAccepted(boolean)} before
- * streaming can start.
+ * streaming can start.<br>
+ * <br>
+ * Streamers own no threads. Each turn of the streaming loop sends one message
+ * and executes on the shared {@link StreamerRuntime}; the next turn is
+ * scheduled immediately while fewer than {@link #getMaxInFlightMessages()}
+ * messages and {@link #getMaxInFlightBytes()} bytes are in flight, else once a
+ * message has been sent, or when {@link #wakeup()} is invoked should no data
+ * have been available. Each message in flight is streamed by its own
+ * {@link MediaMessageStreamer} carrying the message's hash, drawn from a
+ * per-streamer sequence.<br>
+ * <br>
+ * The chunks sent are paced by the {@link BandwidthGovernor} against the
+ * global, per destination and {@link #setBandwidthLimit(long, long)} limits,
+ * then admitted by the channel's {@link EgressScheduler} by priority of
+ * {@link #getType()}.<br>
+ * <br>
+ * Streamers whose destination is a multicast group {@link #isMulticast()};
+ * each chunk is sent once to the group regardless of the number of members.
+ * Negotiation succeeds on the first affirmative acknowledgement from the group,
+ * rejections from individual members are ignored, per chunk acknowledgements
+ * are disabled and terminations from members leaving the group do not affect
+ * the stream. No capabilities are assumed of the group's members, footers
+ * being sent without chunk counts. While streaming the negotiation is repeated
+ * every {@link #getAnnounceIntervalMillis()} for members joining late.
  * 
  * @see MediaStreamType
+ * @see MulticastMembership
  */
 public abstract class AbstractMediaStreamer {
 	private static final Logger log = LoggerFactory.getLogger(AbstractMediaStreamer.class);
 
 	private static final AtomicInteger ID = new AtomicInteger(0);
 
+	/** The Constant IDLE_POLL_MILLIS. */
+	public static final long IDLE_POLL_MILLIS = 1;
+
+	/** The Constant DEFAULT_MAX_IN_FLIGHT_BYTES. */
+	public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 4 * 1024 * 1024;
+
+	/** The Constant DEFAULT_ANNOUNCE_INTERVAL_MILLIS. */
+	public static final long DEFAULT_ANNOUNCE_INTERVAL_MILLIS = 5000;
+
 	private AtomicBoolean streaming = new AtomicBoolean(false);
 
 	/** The notifying. */
@@ -82,10 +118,50 @@ public abstract class AbstractMediaStreamer {
 	/** The notify accepted. */
 	protected AtomicBoolean notifyAccepted = new AtomicBoolean(false);
 
+	private volatile int peerCapabilities;
+
 	private AtomicBoolean destroyed = new AtomicBoolean(false);
 
-	private Scheduler scheduler = Schedulers.from(Executors.newSingleThreadExecutor());
-	private Subscription sub;
+	private AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private final Runnable turn = new Runnable() {
+
+		@Override
+		public void run() {
+			streamTurn();
+		}
+	};
+
+	private final Runnable waker = new Runnable() {
+
+		@Override
+		public void run() {
+			wakeup();
+		}
+	};
+
+	private final Runnable announcer = new Runnable() {
+
+		@Override
+		public void run() {
+			announce();
+		}
+	};
+
+	private AtomicBoolean announcing = new AtomicBoolean(false);
+	private volatile long announceIntervalMillis = DEFAULT_ANNOUNCE_INTERVAL_MILLIS;
+
+	private final List<MediaMessageStreamer> lanes = new CopyOnWriteArrayList<MediaMessageStreamer>();
+	private final Queue<MediaMessageStreamer> idleLanes = new ConcurrentLinkedQueue<MediaMessageStreamer>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong inFlightBytes = new AtomicLong();
+	private volatile int maxInFlightMessages = 1;
+	private volatile long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+
+	private final AtomicInteger messageId = new AtomicInteger(MediaStreamerUtils.createMessageHash());
+
+	private final TokenBucket bucket = new TokenBucket();
+	private volatile long frameIntervalNanos;
 
 	private AbstractMediaChunkProcessor mediaChunkProcessor;
 	private MediaFooter mediaFooter;
@@ -105,7 +181,7 @@ public abstract class AbstractMediaStreamer {
 	private KiSyChannel channel;
 	private InetSocketAddress destination;
 
-	private ByteArrayStreamer streamer;
+	private MediaMessageStreamer streamer;
 
 	private MediaStreamType type;
 
@@ -150,6 +226,14 @@ public abstract class AbstractMediaStreamer {
 	public void terminate(MediaFooterChunk eom) {
 		if (!eom.isTerminateMessage(getMediaHash())) return;
 
+		if (isMulticast()) {
+			log.trace("Ignoring termination of multicast type {}, hash {} from {}",
+					getType(),
+					getMediaHash(),
+					eom.getRemote());
+			return;
+		}
+
 		log.debug("Received receiver termination for type {}, hash {} from {}", getType(), getMediaHash(), getDestination());
 
 		try {
@@ -206,7 +290,9 @@ public abstract class AbstractMediaStreamer {
 	protected void destroyImpl() {
 		if (isStreaming()) stop();
 
-		streamer.cancel();
+		for (MediaMessageStreamer lane : lanes) {
+			lane.cancel();
+		}
 		unregisterForChunks();
 		notifyDestroyed();
 	}
@@ -233,25 +319,82 @@ public abstract class AbstractMediaStreamer {
 	 */
 	protected void start() {
 		streaming.set(true);
-		if (!streamer.isStreaming()) streamer.stream();
+		for (MediaMessageStreamer lane : lanes) {
+			if (!lane.isStreaming()) lane.stream();
+		}
 		notifyStart();
 
-		sub = scheduler.createWorker().schedulePeriodically(new Action0() {
+		if (isMulticast() && isAutoNegotiate()) scheduleAnnouncement();
 
-			@Override
-			public void call() {
-				try {
-					if (isStreaming()) {
-						stream();
-					} else {
-						unsubscribe();
-					}
-				} catch (Exception e) {
-					log.error("Unexpected exception", e);
-					stop();
-				}
-			}
-		}, 0, 0, TimeUnit.SECONDS);
+		wakeup();
+	}
+
+	private void scheduleAnnouncement() {
+		long interval = getAnnounceIntervalMillis();
+		if (interval <= 0 || !announcing.compareAndSet(false, true)) return;
+
+		StreamerRuntime.schedule(announcer, interval, TimeUnit.MILLISECONDS);
+	}
+
+	private void announce() {
+		announcing.set(false);
+		if (!isStreaming() || destroyed.get()) return;
+
+		log.trace("Announcing type {}, hash {} to {}", getType(), getMediaHash(), getDestination());
+
+		try {
+			ByteBuf buf = NegotiationMessageUtils.getNegotiationMessage(getMediaHash(), getType());
+			getChannel().send(buf.array(), getDestination());
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		}
+
+		scheduleAnnouncement();
+	}
+
+	/**
+	 * Schedules a turn of the streaming loop on the {@link StreamerRuntime}
+	 * unless one is scheduled. Invoke when data becomes available.
+	 */
+	protected void wakeup() {
+		if (isStreaming() && scheduled.compareAndSet(false, true)) StreamerRuntime.execute(turn);
+	}
+
+	private void streamTurn() {
+		boolean sending = false;
+		try {
+			sending = isStreaming() && stream();
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+			stop();
+		}
+
+		scheduled.set(false);
+
+		if (!isStreaming()) return;
+
+		if (sending) {
+			// a full window is reopened by the completion of a message
+			if (hasCapacity()) wakeup();
+		} else if (hasCapacity() && hasBytes()) {
+			StreamerRuntime.schedule(waker, IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private boolean hasCapacity() {
+		return inFlight.get() < getMaxInFlightMessages() && inFlightBytes.get() < getMaxInFlightBytes();
+	}
+
+	/**
+	 * Returns true if {@link #getBytes()} may have data, in which case the
+	 * streaming loop polls every {@link #IDLE_POLL_MILLIS} when no data is
+	 * returned. Implementations returning false must invoke {@link #wakeup()}
+	 * when data becomes available. Defaults to true.
+	 *
+	 * @return true, if checks for bytes
+	 */
+	protected boolean hasBytes() {
+		return true;
 	}
 
 	/**
@@ -285,6 +428,18 @@ public abstract class AbstractMediaStreamer {
 		return notifyAccepted.get();
 	}
 
+	/**
+	 * Gets the capabilities advertised by the remote in its affirmative
+	 * negotiation acknowledgement, zero if none, if negotiated manually or if
+	 * {@link #isMulticast()}.
+	 *
+	 * @return the peer capabilities
+	 * @see NegotiationAckChunk#getCapabilities()
+	 */
+	public int getPeerCapabilities() {
+		return peerCapabilities;
+	}
+
 	/**
 	 * To be set manually when {@link #isAutoNegotiate()} is false, prior to
 	 * calling {@link #connect()}.
@@ -329,8 +484,10 @@ public abstract class AbstractMediaStreamer {
 	 * Stop.
 	 */
 	public void stop() {
-		unsubscribe();
-		streamer.pause();
+		streaming.set(false);
+		for (MediaMessageStreamer lane : lanes) {
+			lane.pause();
+		}
 		notifyStop();
 	}
 
@@ -343,24 +500,74 @@ public abstract class AbstractMediaStreamer {
 		return streamer.getSequence();
 	}
 
-	private ByteArrayStreamer createStreamer() throws Exception {
-		ByteArrayStreamer bas = new ByteArrayStreamer(getChannel(), getDestination(), getStreamerPipeSize());
+	private MediaMessageStreamer createStreamer() throws Exception {
+		MediaMessageStreamer mms = createLane(getMediaFooter());
 
-		bas.setEomOnFinish(true);
-		bas.setProcessChunk(true);
-		bas.setChunkProcessor(getMediaChunkProcessor());
-		bas.setFooter(getMediaFooter());
+		lanes.add(mms);
+		idleLanes.add(mms);
 
-		if (isAckRequired()) bas.ackRequired();
-		if (getChunksPerSecond() > 0) bas.setChunksPerSecond(getChunksPerSecond());
-		if (isFullThrottle()) bas.fullThrottle();
+		notifyAdd();
 
-		bas.setThrottle(getThrottle());
-		bas.setConcurrentThreads(getConcurrentThreads());
+		return mms;
+	}
 
-		notifyAdd();
+	private MediaMessageStreamer createLane(MediaFooter footer) throws Exception {
+		MediaMessageStreamer mms = new MediaMessageStreamer(getChannel(), getDestination(), getStreamerPipeSize());
+
+		mms.setEomOnFinish(footer != null);
+		mms.setProcessChunk(true);
+		mms.setChunkProcessor(getMediaChunkProcessor());
+		mms.setFooter(footer);
 
-		return bas;
+		if (isAckRequired()) mms.ackRequired();
+		if (getChunksPerSecond() > 0) mms.setChunksPerSecond(getChunksPerSecond());
+		if (isFullThrottle()) mms.fullThrottle();
+
+		mms.setThrottle(getThrottle());
+		mms.setConcurrentThreads(getConcurrentThreads());
+
+		mms.setBucket(bucket);
+		mms.setFrameIntervalNanos(getFrameIntervalNanos());
+		mms.setEgressScheduler(getEgressScheduler(), getType(), getId());
+
+		return mms;
+	}
+
+	private MediaMessageStreamer acquireLane() throws Exception {
+		MediaMessageStreamer lane = idleLanes.poll();
+		if (lane != null || lanes.size() >= getMaxInFlightMessages()) return lane;
+
+		lane = createLane(createLaneFooter());
+		lanes.add(lane);
+		if (isStreaming()) lane.stream();
+
+		return lane;
+	}
+
+	private MediaFooter createLaneFooter() {
+		MediaFooter primary = getMediaFooter();
+		if (primary == null) return null;
+
+		MediaFooter footer = new MediaFooter(primary.getType(), primary.getMediaHash());
+		footer.setChunkCounts(primary.isChunkCounts());
+		footer.setChunkProcessor(getMediaChunkProcessor());
+
+		return footer;
+	}
+
+	private void releaseLane(MediaMessageStreamer lane, int length) {
+		inFlightBytes.addAndGet(-length);
+		inFlight.decrementAndGet();
+
+		if (lane == streamer || lanes.indexOf(lane) < getMaxInFlightMessages()) {
+			idleLanes.add(lane);
+		} else {
+			// the window has shrunk
+			lanes.remove(lane);
+			lane.cancel();
+		}
+
+		wakeup();
 	}
 
 	/**
@@ -405,45 +612,93 @@ public abstract class AbstractMediaStreamer {
 	}
 
 	/**
-	 * Stream.
+	 * Sends the next message, if any, on an idle {@link MediaMessageStreamer}
+	 * without awaiting completion of the messages already in flight.
+	 *
+	 * @return true, if a message is being sent
 	 */
-	protected void stream() {
+	protected boolean stream() {
+		if (!hasCapacity()) return false;
+
+		MediaMessageStreamer lane = null;
 		try {
+			lane = acquireLane();
+			if (lane == null) return false;
+
 			byte[] data = getBytes();
 
-			if (data == null || data.length == 0) return;
+			if (data == null || data.length == 0) {
+				idleLanes.add(lane);
+				return false;
+			}
+
+			final MediaMessageStreamer sending = lane;
+			final int length = data.length;
+			lane = null;
+
+			setMessage(sending, data);
+
+			inFlight.incrementAndGet();
+			inFlightBytes.addAndGet(length);
+
+			try {
+				sendData(sending, data).addListener(new GenericFutureListener<ChannelFuture>() {
 
-			setMessageHash(data);
+					@Override
+					public void operationComplete(ChannelFuture future) throws Exception {
+						releaseLane(sending, length);
+					}
+				});
+			} catch (Exception e) {
+				releaseLane(sending, length);
+				throw e;
+			}
 
-			sendData(data);
+			return true;
 		} catch (Exception e) {
-			log.error("Unexpected exception streaming from {} to {}",
-					streamer.getChannel().localAddress(),
-					streamer.getDestination(),
-					e);
+			if (lane != null) idleLanes.add(lane);
+			log.error("Unexpected exception streaming from {} to {}", getChannel().localAddress(), getDestination(), e);
 		}
+
+		return false;
 	}
 
-	private void setMessageHash(byte[] data) {
-		int messageHash = MediaStreamerUtils.createMessageHash();
+	private void setMessage(MediaMessageStreamer lane, byte[] data) {
+		int messageHash = nextMessageHash();
 
 		log.trace("Setting message hash {} for data length {}", messageHash, data.length);
 
-		getMediaChunkProcessor().setMessageHash(messageHash);
-		getMediaFooter().setMessageHash(messageHash);
+		lane.setMessage(messageHash, data.length);
+
+		MediaFooter primary = getMediaFooter();
+		MediaFooter footer = lane.getMediaFooter();
+		if (primary != null && footer != null && footer != primary) footer.setChunkCounts(primary.isChunkCounts());
 	}
 
 	/**
-	 * Send data.
+	 * Returns the hash of the next message, unique within this streamer's media
+	 * hash. The sequence is seeded randomly once per streamer.
 	 *
+	 * @return the int
+	 */
+	protected int nextMessageHash() {
+		return messageId.incrementAndGet() & Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Sends the data on the specified {@link MediaMessageStreamer}, returning
+	 * without awaiting completion.
+	 *
+	 * @param lane
+	 *          the streamer of the message
 	 * @param data
 	 *          the data
+	 * @return the channel future completed once the data has been sent
 	 * @throws Exception
 	 *           the exception
 	 */
-	protected void sendData(byte[] data) throws Exception {
-		ChannelFuture cf = streamer.stream(data);
-		cf.await();
+	protected ChannelFuture sendData(MediaMessageStreamer lane, byte[] data) throws Exception {
+		return lane.stream(data);
 	}
 
 	/**
@@ -460,10 +715,6 @@ public abstract class AbstractMediaStreamer {
 	 */
 	protected abstract byte[] getBytes();
 
-	private void unsubscribe() {
-		if (sub != null) sub.unsubscribe();
-	}
-
 	/**
 	 * Gets the media chunk processor.
 	 *
@@ -481,7 +732,13 @@ public abstract class AbstractMediaStreamer {
 	 */
 	public void setMediaChunkProcessor(AbstractMediaChunkProcessor mediaChunkProcessor) {
 		this.mediaChunkProcessor = mediaChunkProcessor;
-		streamer.setChunkProcessor(mediaChunkProcessor);
+		if (mediaChunkProcessor != null) {
+			mediaChunkProcessor.setFirstChunkFlagged((peerCapabilities & NegotiationMessageUtils.FIRST_CHUNK_FLAG) != 0);
+		}
+		for (MediaMessageStreamer lane : lanes) {
+			lane.setChunkProcessor(mediaChunkProcessor);
+			if (lane.getMediaFooter() != null) lane.getMediaFooter().setChunkProcessor(mediaChunkProcessor);
+		}
 	}
 
 	/**
@@ -503,25 +760,42 @@ public abstract class AbstractMediaStreamer {
 	}
 
 	/**
-	 * Sets the media footer.
+	 * Sets the media footer. If null messages are streamed without a footer, each
+	 * chunk being self contained.
 	 *
 	 * @param mediaFooter
 	 *          the media footer
 	 */
 	public void setMediaFooter(MediaFooter mediaFooter) {
 		this.mediaFooter = mediaFooter;
-		streamer.setFooter(mediaFooter);
+		if (mediaFooter != null) mediaFooter.setChunkProcessor(getMediaChunkProcessor());
+
+		for (MediaMessageStreamer lane : lanes) {
+			lane.setFooter(lane == streamer ? mediaFooter : createLaneFooter());
+			lane.setEomOnFinish(mediaFooter != null);
+		}
 	}
 
 	/**
-	 * Sets the ack required.
+	 * Sets the ack required. Ignored if {@link #isMulticast()}; the
+	 * acknowledgement of each chunk by every member of the group would overwhelm
+	 * the sender.
 	 *
 	 * @param isAckRequired
 	 *          the ack required
 	 */
 	public void setAckRequired(boolean isAckRequired) {
+		if (isAckRequired && isMulticast()) {
+			log.warn("Acknowledgements are not supported by multicast type {}, hash {}", getType(), getMediaHash());
+			return;
+		}
+
 		this.ackRequired = isAckRequired;
-		if (isAckRequired) streamer.ackRequired();
+		if (!isAckRequired) return;
+
+		for (MediaMessageStreamer lane : lanes) {
+			lane.ackRequired();
+		}
 	}
 
 	/**
@@ -541,7 +815,9 @@ public abstract class AbstractMediaStreamer {
 	 */
 	public void setThrottle(int throttle) {
 		this.throttle = throttle;
-		streamer.setThrottle(throttle);
+		for (MediaMessageStreamer lane : lanes) {
+			lane.setThrottle(throttle);
+		}
 	}
 
 	/**
@@ -561,7 +837,9 @@ public abstract class AbstractMediaStreamer {
 	 */
 	public void setChunksPerSecond(int chunksPerSecond) {
 		this.chunksPerSecond = chunksPerSecond;
-		streamer.setChunksPerSecond(chunksPerSecond);
+		for (MediaMessageStreamer lane : lanes) {
+			lane.setChunksPerSecond(chunksPerSecond);
+		}
 	}
 
 	/**
@@ -619,7 +897,9 @@ public abstract class AbstractMediaStreamer {
 	 */
 	public void setConcurrentThreads(int concurrentThreads) {
 		this.concurrentThreads = concurrentThreads;
-		streamer.setConcurrentThreads(concurrentThreads);
+		for (MediaMessageStreamer lane : lanes) {
+			lane.setConcurrentThreads(concurrentThreads);
+		}
 	}
 
 	/**
@@ -641,7 +921,139 @@ public abstract class AbstractMediaStreamer {
 		this.fullThrottle = fullThrottle;
 		if (!fullThrottle) return;
 
-		streamer.fullThrottle();
+		for (MediaMessageStreamer lane : lanes) {
+			lane.fullThrottle();
+		}
+	}
+
+	/**
+	 * Gets the max in flight messages.
+	 *
+	 * @return the max in flight messages
+	 */
+	public int getMaxInFlightMessages() {
+		return maxInFlightMessages;
+	}
+
+	/**
+	 * Sets the maximum number of messages streamed concurrently, default 1. Each
+	 * message in flight is streamed on its own {@link MediaMessageStreamer},
+	 * created on demand.
+	 *
+	 * @param maxInFlightMessages
+	 *          the max in flight messages
+	 */
+	public void setMaxInFlightMessages(int maxInFlightMessages) {
+		if (maxInFlightMessages <= 0) {
+			throw new IllegalArgumentException("Max in flight messages must be > 0, was " + maxInFlightMessages);
+		}
+
+		this.maxInFlightMessages = maxInFlightMessages;
+		wakeup();
+	}
+
+	/**
+	 * Gets the max in flight bytes.
+	 *
+	 * @return the max in flight bytes
+	 */
+	public long getMaxInFlightBytes() {
+		return maxInFlightBytes;
+	}
+
+	/**
+	 * Sets the number of bytes in flight beyond which no further message is
+	 * started until one completes, default {@link #DEFAULT_MAX_IN_FLIGHT_BYTES}.
+	 * A single message larger than the limit is always streamed.
+	 *
+	 * @param maxInFlightBytes
+	 *          the max in flight bytes
+	 */
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		if (maxInFlightBytes <= 0) {
+			throw new IllegalArgumentException("Max in flight bytes must be > 0, was " + maxInFlightBytes);
+		}
+
+		this.maxInFlightBytes = maxInFlightBytes;
+		wakeup();
+	}
+
+	/**
+	 * Sets the limit on the bytes sent by this streamer, effective immediately.
+	 *
+	 * @param bytesPerSecond
+	 *          the bytes per second, unlimited if <= 0
+	 * @param burstBytes
+	 *          the burst bytes
+	 * @see BandwidthGovernor#setGlobalLimit(long, long)
+	 * @see BandwidthGovernor#setDestinationLimit(InetSocketAddress, long, long)
+	 */
+	public void setBandwidthLimit(long bytesPerSecond, long burstBytes) {
+		bucket.setLimit(bytesPerSecond, burstBytes);
+	}
+
+	/**
+	 * Gets the bucket limiting the bytes sent by this streamer.
+	 *
+	 * @return the bandwidth bucket
+	 */
+	public TokenBucket getBandwidthBucket() {
+		return bucket;
+	}
+
+	/**
+	 * Gets the scheduler admitting the chunks sent on {@link #getChannel()}.
+	 *
+	 * @return the egress scheduler
+	 */
+	public EgressScheduler getEgressScheduler() {
+		return EgressScheduler.getScheduler(getChannel());
+	}
+
+	/**
+	 * Gets the frame interval nanos.
+	 *
+	 * @return the frame interval nanos
+	 */
+	public long getFrameIntervalNanos() {
+		return frameIntervalNanos;
+	}
+
+	/**
+	 * Sets the interval across which the chunks of each message are spread
+	 * evenly, ie. the frame interval of video, zero (the default) to send chunks
+	 * as fast as the limits allow.
+	 *
+	 * @param frameIntervalNanos
+	 *          the frame interval nanos
+	 */
+	public void setFrameIntervalNanos(long frameIntervalNanos) {
+		if (frameIntervalNanos < 0) {
+			throw new IllegalArgumentException("Frame interval must be >= 0, was " + frameIntervalNanos);
+		}
+
+		this.frameIntervalNanos = frameIntervalNanos;
+		for (MediaMessageStreamer lane : lanes) {
+			lane.setFrameIntervalNanos(frameIntervalNanos);
+		}
+	}
+
+	/**
+	 * Gets the number of messages in flight.
+	 *
+	 * @return the in flight messages
+	 */
+	public int getInFlightMessages() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Gets the number of bytes in flight.
+	 *
+	 * @return the in flight bytes
+	 */
+	public long getInFlightBytes() {
+		return inFlightBytes.get();
 	}
 
 	/**
@@ -653,6 +1065,40 @@ public abstract class AbstractMediaStreamer {
 		return channel;
 	}
 
+	/**
+	 * Checks if the destination is a multicast group.
+	 *
+	 * @return true, if checks if is multicast
+	 */
+	public boolean isMulticast() {
+		return destination != null && destination.getAddress() != null && destination.getAddress().isMulticastAddress();
+	}
+
+	/**
+	 * Gets the interval at which the negotiation is repeated to the group while
+	 * {@link #isMulticast()} and streaming.
+	 *
+	 * @return the announce interval millis
+	 */
+	public long getAnnounceIntervalMillis() {
+		return announceIntervalMillis;
+	}
+
+	/**
+	 * Sets the interval at which the negotiation is repeated to the group while
+	 * {@link #isMulticast()} and streaming, zero or less to disable. Members
+	 * joining the group late begin receiving on the first announcement after
+	 * joining.
+	 *
+	 * @param announceIntervalMillis
+	 *          the announce interval millis
+	 */
+	public void setAnnounceIntervalMillis(long announceIntervalMillis) {
+		this.announceIntervalMillis = announceIntervalMillis;
+
+		if (isStreaming() && isMulticast() && isAutoNegotiate()) scheduleAnnouncement();
+	}
+
 	/**
 	 * Gets the destination.
 	 *
@@ -724,6 +1170,18 @@ public abstract class AbstractMediaStreamer {
 			super(mediaHash);
 		}
 
+		@Override
+		protected boolean isDecisive(NegotiationAckChunk chunk) {
+			if (chunk.isAccepted() || !isMulticast()) return true;
+
+			log.debug("Ignoring rejection of multicast type {}, hash {} from {}",
+					AbstractMediaStreamer.this.getType(),
+					getMediaHash(),
+					chunk.getRemote());
+
+			return false;
+		}
+
 		@Override
 		protected void ackReceived(NegotiationAckChunk chunk) {
 			notifying.set(false);
@@ -731,6 +1189,16 @@ public abstract class AbstractMediaStreamer {
 			notifyAccepted.set(chunk.isAccepted());
 
 			if (notifyAccepted()) {
+				// members of a multicast group, late joiners included, cannot all be
+				// known to have negotiated a capability
+				peerCapabilities = isMulticast() ? 0 : chunk.getCapabilities();
+				MediaFooter footer = getMediaFooter();
+				if (footer != null) footer.setChunkCounts((peerCapabilities & NegotiationMessageUtils.FOOTER_CHUNK_COUNTS) != 0);
+				AbstractMediaChunkProcessor processor = getMediaChunkProcessor();
+				if (processor != null) {
+					processor.setFirstChunkFlagged((peerCapabilities & NegotiationMessageUtils.FIRST_CHUNK_FLAG) != 0);
+				}
+
 				log.debug("Negotiations with {} for type {}, media hash {} successful",
 						getDestination(),
 						AbstractMediaStreamer.this.getType(),
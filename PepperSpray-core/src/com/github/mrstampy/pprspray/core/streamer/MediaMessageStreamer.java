@@ -0,0 +1,312 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.kitchensync.stream.ByteArrayStreamer;
+import com.github.mrstampy.kitchensync.stream.footer.Footer;
+import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.mrstampy.pprspray.core.streamer.util.BandwidthGovernor;
+import com.github.mrstampy.pprspray.core.streamer.util.EgressScheduler;
+import com.github.mrstampy.pprspray.core.streamer.util.StreamerRuntime;
+import com.github.mrstampy.pprspray.core.streamer.util.TokenBucket;
+
+/**
+ * The Class MediaMessageStreamer is a {@link ByteArrayStreamer} carrying the
+ * context of the message it is streaming: the message hash, length and the
+ * number of chunks sent. An {@link AbstractMediaStreamer} streams each message
+ * in flight on its own instance, allowing the {@link AbstractMediaChunkProcessor}
+ * and {@link MediaFooter} to write the correct context for concurrent messages.<br>
+ * <br>
+ * Each chunk is paced by the {@link BandwidthGovernor} prior to sending and, if
+ * a frame interval is set, the chunks of a message are spread evenly across
+ * the interval. The chunk is then admitted by the channel's
+ * {@link EgressScheduler}.
+ * 
+ * @see AbstractMediaStreamer#setMaxInFlightMessages(int)
+ * @see AbstractMediaStreamer#setBandwidthLimit(long, long)
+ * @see AbstractMediaStreamer#setFrameIntervalNanos(long)
+ */
+public class MediaMessageStreamer extends ByteArrayStreamer {
+
+	private volatile int messageHash;
+	private volatile int messageLength;
+	private final AtomicInteger chunkCount = new AtomicInteger();
+
+	private MediaFooter mediaFooter;
+
+	private volatile TokenBucket bucket;
+	private volatile long frameIntervalNanos;
+	private volatile long messageStart;
+	private volatile long timestamp;
+	private long processedBytes;
+	private long chunkOffset;
+	private long pacedBytes;
+
+	private volatile EgressScheduler egressScheduler;
+	private MediaStreamType type;
+	private int flowKey;
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param channel
+	 *          the channel
+	 * @param destination
+	 *          the destination
+	 * @param pipeSize
+	 *          the pipe size
+	 * @throws Exception
+	 *           the exception
+	 */
+	public MediaMessageStreamer(KiSyChannel channel, InetSocketAddress destination, int pipeSize) throws Exception {
+		super(channel, destination, pipeSize);
+	}
+
+	/**
+	 * Sets the context of the next message to stream.
+	 *
+	 * @param messageHash
+	 *          the message hash
+	 * @param messageLength
+	 *          the message length
+	 */
+	public void setMessage(int messageHash, int messageLength) {
+		this.messageHash = messageHash;
+		this.messageLength = messageLength;
+		chunkCount.set(0);
+		pacedBytes = 0;
+		timestamp = 0;
+		processedBytes = 0;
+		chunkOffset = 0;
+		messageStart = System.nanoTime();
+	}
+
+	/**
+	 * Blocks until the chunk can be sent, invoked by the
+	 * {@link AbstractMediaChunkProcessor} for each chunk of the message. The
+	 * chunk is sent from within the processor, hence the wait cannot be deferred
+	 * to the {@link StreamerRuntime} timer; both waits are managed blocks such
+	 * that the runtime's pool compensates for the paced worker.
+	 *
+	 * @param dataLength
+	 *          the length of the chunk's data
+	 * @param headerLength
+	 *          the length of the chunk's header
+	 * @see BandwidthGovernor#reserve(InetSocketAddress, TokenBucket, long)
+	 */
+	public void pace(int dataLength, int headerLength) {
+		long deadline = System.nanoTime() + BandwidthGovernor.reserve(getDestination(), bucket, dataLength + headerLength);
+
+		long interval = frameIntervalNanos;
+		if (interval > 0 && messageLength > 0) {
+			long slot;
+			synchronized (this) {
+				slot = messageStart + pacedBytes * interval / messageLength;
+				pacedBytes += dataLength;
+			}
+
+			if (slot - deadline > 0) deadline = slot;
+		}
+
+		BandwidthGovernor.awaitDeadline(deadline);
+
+		EgressScheduler es = egressScheduler;
+		if (es != null) es.acquire(type, flowKey, dataLength + headerLength);
+	}
+
+	/**
+	 * Sets the egress scheduler admitting the chunks sent.
+	 *
+	 * @param egressScheduler
+	 *          the egress scheduler, null to send chunks unscheduled
+	 * @param type
+	 *          the type of the stream
+	 * @param flowKey
+	 *          the key identifying the stream
+	 * @see EgressScheduler#acquire(MediaStreamType, int, int)
+	 */
+	public void setEgressScheduler(EgressScheduler egressScheduler, MediaStreamType type, int flowKey) {
+		this.type = type;
+		this.flowKey = flowKey;
+		this.egressScheduler = egressScheduler;
+	}
+
+	/**
+	 * Gets the egress scheduler.
+	 *
+	 * @return the egress scheduler
+	 */
+	public EgressScheduler getEgressScheduler() {
+		return egressScheduler;
+	}
+
+	/**
+	 * Sets the streamer's bucket, shared by all {@link MediaMessageStreamer}s of
+	 * an {@link AbstractMediaStreamer}.
+	 *
+	 * @param bucket
+	 *          the bucket, null if unlimited
+	 */
+	public void setBucket(TokenBucket bucket) {
+		this.bucket = bucket;
+	}
+
+	/**
+	 * Gets the bucket.
+	 *
+	 * @return the bucket
+	 */
+	public TokenBucket getBucket() {
+		return bucket;
+	}
+
+	/**
+	 * Sets the interval across which the chunks of each message are spread, zero
+	 * to send them as fast as the {@link BandwidthGovernor} allows.
+	 *
+	 * @param frameIntervalNanos
+	 *          the frame interval nanos
+	 */
+	public void setFrameIntervalNanos(long frameIntervalNanos) {
+		this.frameIntervalNanos = frameIntervalNanos;
+	}
+
+	/**
+	 * Gets the frame interval nanos.
+	 *
+	 * @return the frame interval nanos
+	 */
+	public long getFrameIntervalNanos() {
+		return frameIntervalNanos;
+	}
+
+	/**
+	 * Gets the message hash.
+	 *
+	 * @return the message hash
+	 */
+	public int getMessageHash() {
+		return messageHash;
+	}
+
+	/**
+	 * Gets the capture timestamp of the current message, zero if not set.
+	 *
+	 * @return the timestamp
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Sets the capture timestamp of the current message, reset by
+	 * {@link #setMessage(int, int)}.
+	 *
+	 * @param timestamp
+	 *          the timestamp
+	 */
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Advances past the data of the chunk being processed, invoked by the
+	 * {@link AbstractMediaChunkProcessor} for each chunk of the message.
+	 *
+	 * @param dataLength
+	 *          the length of the chunk's data
+	 * @see #getChunkOffset()
+	 */
+	public void advance(int dataLength) {
+		chunkOffset = processedBytes;
+		processedBytes += dataLength;
+	}
+
+	/**
+	 * Gets the offset in the current message of the chunk being processed.
+	 *
+	 * @return the chunk offset
+	 */
+	public long getChunkOffset() {
+		return chunkOffset;
+	}
+
+	/**
+	 * Gets the message length.
+	 *
+	 * @return the message length
+	 */
+	public int getMessageLength() {
+		return messageLength;
+	}
+
+	/**
+	 * Gets the number of chunks of the current message processed.
+	 *
+	 * @return the chunk count
+	 */
+	public int getChunkCount() {
+		return chunkCount.get();
+	}
+
+	/**
+	 * Increments the chunk count, invoked by the
+	 * {@link AbstractMediaChunkProcessor}.
+	 *
+	 * @return the int
+	 */
+	public int incrementChunkCount() {
+		return chunkCount.incrementAndGet();
+	}
+
+	/**
+	 * Sets the footer, binding a {@link MediaFooter} to this streamer's message
+	 * context. A {@link MediaFooter} must be set on only one streamer.
+	 *
+	 * @param footer
+	 *          the footer
+	 * @see MediaFooter#setMessageStreamer(MediaMessageStreamer)
+	 */
+	@Override
+	public void setFooter(Footer footer) {
+		if (mediaFooter != null && mediaFooter != footer) mediaFooter.setMessageStreamer(null);
+
+		mediaFooter = footer instanceof MediaFooter ? (MediaFooter) footer : null;
+		if (mediaFooter != null) mediaFooter.setMessageStreamer(this);
+
+		super.setFooter(footer);
+	}
+
+	/**
+	 * Gets the media footer, null if the footer is not a {@link MediaFooter}.
+	 *
+	 * @return the media footer
+	 */
+	public MediaFooter getMediaFooter() {
+		return mediaFooter;
+	}
+
+}
@@ -23,8 +23,6 @@ package com.github.mrstampy.pprspray.core.streamer;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 
-import java.util.Arrays;
-
 import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
 import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
 
@@ -43,6 +41,8 @@ public enum MediaStreamType {
 	NEGOTIATION_ACK;
 	//@formatter:on
 
+	private static final MediaStreamType[] VALUES = values();
+
 	/** The ordinal bytes, used to identify the stream's type. */
 	byte[] ordinalBytes;
 
@@ -100,11 +100,9 @@ public enum MediaStreamType {
 	 * @return the type as header
 	 */
 	public static MediaStreamType getTypeAsHeader(byte[] b) {
-		for (MediaStreamType type : MediaStreamType.values()) {
-			if (Arrays.equals(type.ordinalBytes(), b)) return type;
-		}
+		if (b == null || b.length != 4) return null;
 
-		return null;
+		return fromOrdinal(toInt(b));
 	}
 
 	/**
@@ -115,10 +113,37 @@ public enum MediaStreamType {
 	 * @return the type as footer
 	 */
 	public static MediaStreamType getTypeAsFooter(byte[] b) {
-		for (MediaStreamType type : MediaStreamType.values()) {
-			if (Arrays.equals(type.eomBytes(), b)) return type;
-		}
+		if (b == null || b.length != 4) return null;
+
+		return fromEom(toInt(b));
+	}
+
+	/**
+	 * Returns the type for the ordinal value written in a chunk header, null if
+	 * the value is not a valid ordinal.
+	 *
+	 * @param ordinal
+	 *          the ordinal
+	 * @return the media stream type
+	 */
+	public static MediaStreamType fromOrdinal(int ordinal) {
+		return ordinal >= 0 && ordinal < VALUES.length ? VALUES[ordinal] : null;
+	}
+
+	/**
+	 * Returns the type for the end of message value written in a footer, null if
+	 * the value is not a valid end of message value.
+	 *
+	 * @param eom
+	 *          the eom
+	 * @return the media stream type
+	 * @see #eomBytes()
+	 */
+	public static MediaStreamType fromEom(int eom) {
+		return fromOrdinal(Integer.MAX_VALUE - eom);
+	}
 
-		return null;
+	private static int toInt(byte[] b) {
+		return (b[0] << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
 	}
 }
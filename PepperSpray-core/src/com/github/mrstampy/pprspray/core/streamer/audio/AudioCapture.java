@@ -0,0 +1,351 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.audio;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.functions.Action0;
+
+/**
+ * The Class AudioCapture reads fixed size chunks of audio from an
+ * {@link AudioSource} on a dedicated thread, blocking in
+ * {@link AudioSource#read(byte[], int, int)} rather than polling. Chunks are
+ * read into a fixed pool of preallocated {@link Frame}s; no allocation occurs
+ * while capturing. The listener is invoked as each frame is captured, and once
+ * should the source end.<br>
+ * <br>
+ * Captured frames are taken by {@link #poll()} and must be
+ * {@link Frame#release()}d when no longer required. Should the consumer fall
+ * behind, the oldest captured frame is overwritten and counted as an overrun.
+ * 
+ * @see AudioStreamer
+ */
+public class AudioCapture {
+	private static final Logger log = LoggerFactory.getLogger(AudioCapture.class);
+
+	private static final AtomicInteger ID = new AtomicInteger();
+
+	/** The Constant DEFAULT_FRAME_COUNT. */
+	public static final int DEFAULT_FRAME_COUNT = 16;
+
+	private static final long JOIN_MILLIS = 1000;
+
+	private final AudioSource source;
+	private final int chunkSize;
+	private final Action0 listener;
+
+	private final BlockingQueue<Frame> free;
+	private final BlockingQueue<Frame> full;
+
+	private final AtomicLong captured = new AtomicLong();
+	private final AtomicLong overruns = new AtomicLong();
+
+	private volatile boolean running;
+	private volatile boolean capturing;
+
+	private Thread thread;
+
+	private final Runnable loop = new Runnable() {
+
+		@Override
+		public void run() {
+			capture();
+		}
+	};
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param source
+	 *          the source
+	 * @param chunkSize
+	 *          the chunk size, a multiple of the source's frame size
+	 * @param frameCount
+	 *          the number of frames in the pool
+	 * @param listener
+	 *          the listener
+	 */
+	public AudioCapture(AudioSource source, int chunkSize, int frameCount, Action0 listener) {
+		if (source == null) throw new IllegalArgumentException("Audio source cannot be null");
+		if (listener == null) throw new IllegalArgumentException("Listener cannot be null");
+		if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be > 0, was " + chunkSize);
+		if (frameCount < 2) throw new IllegalArgumentException("Frame count must be > 1, was " + frameCount);
+
+		int frameSize = source.getAudioFormat().getFrameSize();
+		if (frameSize > 0 && chunkSize % frameSize != 0) {
+			throw new IllegalArgumentException("Chunk size " + chunkSize + " is not a multiple of frame size " + frameSize);
+		}
+
+		this.source = source;
+		this.chunkSize = chunkSize;
+		this.listener = listener;
+
+		free = new ArrayBlockingQueue<Frame>(frameCount);
+		full = new ArrayBlockingQueue<Frame>(frameCount);
+
+		for (int i = 0; i < frameCount; i++) {
+			free.add(new Frame(chunkSize));
+		}
+	}
+
+	/**
+	 * Starts the source and the capture thread, discarding any frames captured
+	 * previously.
+	 */
+	public synchronized void start() {
+		if (running) return;
+
+		Frame f;
+		while ((f = full.poll()) != null) {
+			free.offer(f);
+		}
+
+		running = true;
+		capturing = true;
+		source.start();
+
+		thread = new Thread(loop, "Audio Capture " + ID.incrementAndGet());
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops the source and awaits the end of the capture thread.
+	 */
+	public synchronized void stop() {
+		if (!running) return;
+
+		running = false;
+		source.stop();
+
+		Thread t = thread;
+		thread = null;
+		if (t == null || t == Thread.currentThread()) return;
+
+		try {
+			t.join(JOIN_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the oldest captured frame, null if none.
+	 *
+	 * @return the frame
+	 */
+	public Frame poll() {
+		Frame f = full.poll();
+		if (f != null) f.reset();
+
+		return f;
+	}
+
+	/**
+	 * Returns the number of captured frames awaiting {@link #poll()}.
+	 *
+	 * @return the int
+	 */
+	public int available() {
+		return full.size();
+	}
+
+	/**
+	 * Checks if capturing, false once stopped or should the source end.
+	 *
+	 * @return true, if checks if is capturing
+	 */
+	public boolean isCapturing() {
+		return capturing;
+	}
+
+	/**
+	 * Gets the number of frames captured.
+	 *
+	 * @return the captured count
+	 */
+	public long getCapturedCount() {
+		return captured.get();
+	}
+
+	/**
+	 * Gets the number of captured frames overwritten before {@link #poll()}.
+	 *
+	 * @return the overrun count
+	 */
+	public long getOverrunCount() {
+		return overruns.get();
+	}
+
+	/**
+	 * Gets the chunk size.
+	 *
+	 * @return the chunk size
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Gets the source.
+	 *
+	 * @return the source
+	 */
+	public AudioSource getSource() {
+		return source;
+	}
+
+	private void capture() {
+		Frame f = nextFrame();
+
+		try {
+			while (f != null && running) {
+				int read = fill(f);
+
+				if (read < chunkSize) {
+					if (running) log.debug("Audio source {} has ended", source);
+					break;
+				}
+
+				f.timestamp = System.nanoTime();
+				full.offer(f);
+				captured.incrementAndGet();
+
+				listener.call();
+
+				f = nextFrame();
+			}
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		} finally {
+			if (f != null) release(f);
+			capturing = false;
+		}
+
+		if (running) listener.call();
+	}
+
+	private int fill(Frame f) {
+		int off = 0;
+
+		while (off < chunkSize && running) {
+			int read = source.read(f.data, off, chunkSize - off);
+
+			if (read < 0) return -1;
+			if (read == 0 && !source.isActive()) break;
+
+			off += read;
+		}
+
+		return off;
+	}
+
+	private Frame nextFrame() {
+		Frame f = free.poll();
+		if (f != null) return f;
+
+		f = full.poll();
+		if (f != null) {
+			overruns.incrementAndGet();
+			return f;
+		}
+
+		try {
+			while (f == null && running) {
+				f = free.poll(10, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return f;
+	}
+
+	private void release(Frame f) {
+		free.offer(f);
+	}
+
+	/**
+	 * The Class Frame is a preallocated chunk of captured audio.
+	 */
+	public class Frame {
+		private final byte[] data;
+		private final ByteBuf buffer;
+
+		private volatile long timestamp;
+
+		private Frame(int chunkSize) {
+			data = new byte[chunkSize];
+			buffer = Unpooled.wrappedBuffer(data);
+		}
+
+		private void reset() {
+			buffer.setIndex(0, data.length);
+		}
+
+		/**
+		 * Gets the captured audio.
+		 *
+		 * @return the data
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * Gets the captured audio as a {@link ByteBuf} wrapping {@link #getData()}.
+		 *
+		 * @return the buffer
+		 */
+		public ByteBuf getBuffer() {
+			return buffer;
+		}
+
+		/**
+		 * Returns the value of {@link System#nanoTime()} when the frame was
+		 * captured.
+		 *
+		 * @return the timestamp
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * Returns the frame to the pool of its {@link AudioCapture}.
+		 */
+		public void release() {
+			AudioCapture.this.release(this);
+		}
+	}
+
+}
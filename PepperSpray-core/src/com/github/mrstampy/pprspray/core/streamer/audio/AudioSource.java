@@ -0,0 +1,89 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * The Interface AudioSource provides the raw audio captured by an
+ * {@link AudioCapture}. Implementations block in
+ * {@link #read(byte[], int, int)} until data is available, returning early once
+ * {@link #stop()}ped.
+ * 
+ * @see LineAudioSource
+ * @see SyntheticAudioSource
+ * @see AudioStreamer
+ */
+public interface AudioSource {
+
+	/**
+	 * Gets the audio format.
+	 *
+	 * @return the audio format
+	 */
+	AudioFormat getAudioFormat();
+
+	/**
+	 * Opens the source, if not open.
+	 *
+	 * @throws LineUnavailableException
+	 *           the line unavailable exception
+	 */
+	void open() throws LineUnavailableException;
+
+	/**
+	 * Starts the capture of audio.
+	 */
+	void start();
+
+	/**
+	 * Stops the capture of audio, unblocking any
+	 * {@link #read(byte[], int, int)}.
+	 */
+	void stop();
+
+	/**
+	 * Closes the source.
+	 */
+	void close();
+
+	/**
+	 * Reads up to len bytes of whole frames into the array, blocking until all
+	 * are read or the source is stopped.
+	 *
+	 * @param b
+	 *          the b
+	 * @param off
+	 *          the off
+	 * @param len
+	 *          the len
+	 * @return the number of bytes read, -1 if the source is closed
+	 */
+	int read(byte[] b, int off, int len);
+
+	/**
+	 * Checks if the source has been started and not stopped.
+	 *
+	 * @return true, if checks if is active
+	 */
+	boolean isActive();
+}
@@ -20,44 +20,49 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.audio;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.concurrent.GenericFutureListener;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.LineEvent;
-import javax.sound.sampled.LineListener;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.Mixer;
-import javax.sound.sampled.TargetDataLine;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import rx.Scheduler;
-import rx.Subscription;
 import rx.functions.Action0;
-import rx.schedulers.Schedulers;
 
 import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
-import com.github.mrstampy.kitchensync.util.KiSyUtils;
+import com.github.mrstampy.pprspray.core.receiver.audio.AudioReceiver;
 import com.github.mrstampy.pprspray.core.receiver.audio.DefaultAudioProcessor;
 import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.mrstampy.pprspray.core.streamer.util.StreamerRuntime;
 
 /**
- * The Class AudioStreamer streams raw data from the audio subsystem to a remote
- * connection. It is to be considered a reference implementation. Audio streamer
- * implementations should stream a particular encoded audio stream ie. mp3,
- * opus, ogg vorbis.
+ * The Class AudioStreamer streams raw data from an {@link AudioSource} to a
+ * remote connection. It is to be considered a reference implementation. Audio
+ * streamer implementations should stream a particular encoded audio stream ie.
+ * mp3, opus, ogg vorbis.<br>
+ * <br>
+ * Audio is read in chunks of {@link #getAudioChunkSize()} by an
+ * {@link AudioCapture}, each chunk streamed as it is captured. Chunks which the
+ * {@link AudioTransformer} returns as is are streamed without copying and
+ * returned to the capture's pool once sent.<br>
+ * <br>
+ * If {@link #isContinuous()} each chunk is streamed as a self contained,
+ * timestamped frame without a footer and is delivered by the receiver as it
+ * arrives, bounding the latency by the duration of a chunk rather than the size
+ * of a message. The {@link #getAudioChunkSize()} must then fit a single chunk
+ * of the underlying streamer.
  * 
  * @see DefaultAudioProcessor
+ * @see LineAudioSource
+ * @see SyntheticAudioSource
  */
 public class AudioStreamer extends AbstractMediaStreamer {
 	private static final Logger log = LoggerFactory.getLogger(AudioStreamer.class);
@@ -65,20 +70,41 @@ public class AudioStreamer extends AbstractMediaStreamer {
 	private static final int DEFAULT_AUDIO_CHUNK_SIZE = 1024 * 10;
 	private static final int DEFAULT_AUDIO_PIPE_SIZE = 1024 * 2000;
 
-	private AudioFormat audioFormat;
-	private Mixer.Info mixerInfo;
-	private TargetDataLine dataLine;
+	/**
+	 * The Constant DEFAULT_CONTINUOUS_AUDIO_CHUNK_SIZE, 10 milliseconds of 16 bit
+	 * mono audio sampled at 48kHz.
+	 */
+	public static final int DEFAULT_CONTINUOUS_AUDIO_CHUNK_SIZE = 960;
+
+	private AudioSource audioSource;
 
 	private int audioChunkSize;
+	private int frameCount = AudioCapture.DEFAULT_FRAME_COUNT;
 
-	private ByteBuf buf = Unpooled.buffer(10240, 1000 * 10240);
-	private AtomicBoolean streamable = new AtomicBoolean(false);
+	private AudioCapture capture;
+	private AudioCapture.Frame current;
+	private long currentTimestamp;
 
-	private Scheduler scheduler = Schedulers.from(Executors.newFixedThreadPool(1));
-	private Subscription audioSub;
+	private boolean continuous;
 
 	private AudioTransformer transformer;
 
+	private final Action0 captured = new Action0() {
+
+		@Override
+		public void call() {
+			frameCaptured();
+		}
+	};
+
+	private final Runnable stopper = new Runnable() {
+
+		@Override
+		public void run() {
+			if (isStreaming()) stop();
+		}
+	};
+
 	/**
 	 * The Constructor.
 	 *
@@ -95,12 +121,7 @@ public class AudioStreamer extends AbstractMediaStreamer {
 	 */
 	public AudioStreamer(KiSyChannel channel, InetSocketAddress destination, AudioFormat audioFormat, Mixer.Info mixerInfo)
 			throws LineUnavailableException {
-		super(DEFAULT_AUDIO_PIPE_SIZE, channel, destination, MediaStreamType.AUDIO);
-		init(audioFormat, mixerInfo);
-
-		initDefaultChunkProcessorAndFooter();
-		setTransformer(new DefaultAudioTransformer());
-		setAudioChunkSize(DEFAULT_AUDIO_CHUNK_SIZE);
+		this(channel, destination, new LineAudioSource(audioFormat, mixerInfo));
 	}
 
 	/**
@@ -120,6 +141,25 @@ public class AudioStreamer extends AbstractMediaStreamer {
 		this(channel, destination, audioFormat, null);
 	}
 
+	/**
+	 * The Constructor.
+	 *
+	 * @param channel
+	 *          the channel
+	 * @param destination
+	 *          the destination
+	 * @param audioSource
+	 *          the audio source
+	 */
+	public AudioStreamer(KiSyChannel channel, InetSocketAddress destination, AudioSource audioSource) {
+		super(DEFAULT_AUDIO_PIPE_SIZE, channel, destination, MediaStreamType.AUDIO);
+		init(audioSource);
+
+		initDefaultChunkProcessorAndFooter();
+		setTransformer(new DefaultAudioTransformer());
+		setAudioChunkSize(DEFAULT_AUDIO_CHUNK_SIZE);
+	}
+
 	/**
 	 * Inits the.
 	 *
@@ -131,22 +171,23 @@ public class AudioStreamer extends AbstractMediaStreamer {
 	 *           the line unavailable exception
 	 */
 	public void init(AudioFormat audioFormat, Mixer.Info mixerInfo) throws LineUnavailableException {
-		if (isStreaming()) throw new IllegalStateException("Cannot initialize when streaming");
-
-		this.audioFormat = audioFormat;
-		this.mixerInfo = mixerInfo;
-
-		dataLine = AudioSystem.getTargetDataLine(audioFormat, mixerInfo);
+		init(new LineAudioSource(audioFormat, mixerInfo));
+	}
 
-		dataLine.addLineListener(new LineListener() {
+	/**
+	 * Inits the.
+	 *
+	 * @param audioSource
+	 *          the audio source
+	 */
+	public void init(AudioSource audioSource) {
+		if (isStreaming()) throw new IllegalStateException("Cannot initialize when streaming");
+		if (audioSource == null) throw new IllegalArgumentException("Audio source cannot be null");
 
-			@Override
-			public void update(LineEvent event) {
-				streamable.set(event.getType() == LineEvent.Type.START);
+		if (this.audioSource != null && this.audioSource != audioSource) this.audioSource.close();
 
-				if (isStreaming() && !isStreamable()) stop();
-			}
-		});
+		this.audioSource = audioSource;
+		capture = null;
 	}
 
 	/*
@@ -156,20 +197,17 @@ public class AudioStreamer extends AbstractMediaStreamer {
 	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#start()
 	 */
 	protected void start() {
-		buf.clear();
-		buf.readerIndex(0);
-		buf.writerIndex(0);
-
 		try {
-			dataLine.open();
+			audioSource.open();
 		} catch (LineUnavailableException e) {
 			log.error("Unexpected exception", e);
 			throw new IllegalStateException("Cannot open line", e);
 		}
 
-		dataLine.start();
-		log.debug("Starting audio streaming for format {}, info {}", audioFormat, mixerInfo);
-		startAudioReading();
+		if (capture == null) capture = new AudioCapture(audioSource, getAudioChunkSize(), getFrameCount(), captured);
+
+		log.debug("Starting audio streaming for format {}, source {}", getAudioFormat(), audioSource);
+		capture.start();
 		super.start();
 	}
 
@@ -180,50 +218,92 @@ public class AudioStreamer extends AbstractMediaStreamer {
 	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#stop()
 	 */
 	public void stop() {
-		dataLine.stop();
-		log.debug("Stopping audio streaming for format {}, info {}", audioFormat, mixerInfo);
+		if (capture != null) capture.stop();
+		log.debug("Stopping audio streaming for format {}, source {}", getAudioFormat(), audioSource);
 		super.stop();
-		unsubscribe(audioSub);
 	}
 
-	private void unsubscribe(Subscription sub) {
-		if (sub != null) sub.unsubscribe();
+	private void frameCaptured() {
+		if (capture.isCapturing()) {
+			wakeup();
+		} else {
+			StreamerRuntime.execute(stopper);
+		}
 	}
 
-	private void startAudioReading() {
-		audioSub = scheduler.createWorker().schedulePeriodically(new Action0() {
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#isStreamable
+	 * ()
+	 */
+	@Override
+	protected boolean isStreamable() {
+		AudioCapture ac = capture;
 
-			@Override
-			public void call() {
-				if (isStreaming()) readAudio();
-			}
-		}, 0, 10, TimeUnit.MILLISECONDS);
+		return ac != null && ac.isCapturing();
 	}
 
-	private void readAudio() {
-		int available = dataLine.available();
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#getBytes()
+	 */
+	@Override
+	protected byte[] getBytes() {
+		AudioCapture ac = capture;
+		if (!isStreaming() || ac == null) return null;
 
-		if (available < 0) stop();
-		if (available == 0) return;
+		if (getTransformer() == null) throw new IllegalArgumentException("Transformer cannot be null");
 
-		discardSomeIfFull(available);
+		AudioCapture.Frame frame = ac.poll();
+		if (frame == null) return null;
 
-		byte[] b = new byte[available];
+		byte[] b = null;
+		try {
+			currentTimestamp = frame.getTimestamp();
+			b = getTransformer().transform(frame.getBuffer());
+		} finally {
+			if (b != null && b == frame.getData()) {
+				current = frame;
+			} else {
+				frame.release();
+			}
+		}
 
-		dataLine.read(b, 0, b.length);
-		buf.writeBytes(b);
+		return b;
 	}
 
-	private void discardSomeIfFull(int available) {
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#sendData
+	 * (com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer, byte[])
+	 */
+	@Override
+	protected ChannelFuture sendData(MediaMessageStreamer lane, byte[] data) throws Exception {
+		final AudioCapture.Frame frame = current;
+		current = null;
+
+		lane.setTimestamp(currentTimestamp);
+
 		try {
-			int remaining = buf.writableBytes() - available;
-			if (remaining >= 0) return;
+			ChannelFuture cf = super.sendData(lane, data);
+			if (frame != null) cf.addListener(new GenericFutureListener<ChannelFuture>() {
 
-			buf.readerIndex(remaining);
-			buf.discardReadBytes();
-		} catch (IndexOutOfBoundsException ignore) {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					frame.release();
+				}
+			});
+
+			return cf;
 		} catch (Exception e) {
-			log.error("Unexpected exception", e);
+			if (frame != null) frame.release();
+			throw e;
 		}
 	}
 
@@ -231,45 +311,27 @@ public class AudioStreamer extends AbstractMediaStreamer {
 	 * (non-Javadoc)
 	 * 
 	 * @see
-	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#isStreamable
-	 * ()
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#hasBytes()
 	 */
 	@Override
-	protected boolean isStreamable() {
-		return streamable.get();
+	protected boolean hasBytes() {
+		AudioCapture ac = capture;
+
+		return ac != null && ac.available() > 0;
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see
-	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#getBytes()
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#destroyImpl
+	 * ()
 	 */
 	@Override
-	protected byte[] getBytes() {
-		awaitBytes();
-
-		if (!isStreaming()) return null;
-
-		int size = getAudioChunkSize();
-
-		ByteBuf b = buf.readBytes(size);
-
-		buf.discardSomeReadBytes();
-
-		if (getTransformer() == null) throw new IllegalArgumentException("Transformer cannot be null");
-
-		return getTransformer().transform(b);
-	}
-
-	private void awaitBytes() {
-		int writer = buf.writerIndex();
-		int reader = buf.readerIndex();
-		while (isStreaming() && writer - reader < getAudioChunkSize()) {
-			KiSyUtils.snooze(2);
-			writer = buf.writerIndex();
-			reader = buf.readerIndex();
-		}
+	protected void destroyImpl() {
+		super.destroyImpl();
+		if (capture != null) capture.stop();
+		audioSource.close();
 	}
 
 	/**
@@ -278,16 +340,35 @@ public class AudioStreamer extends AbstractMediaStreamer {
 	 * @return the audio format
 	 */
 	public AudioFormat getAudioFormat() {
-		return audioFormat;
+		return audioSource.getAudioFormat();
 	}
 
 	/**
-	 * Gets the mixer info.
+	 * Gets the mixer info, null unless the {@link #getAudioSource()} is a
+	 * {@link LineAudioSource}.
 	 *
 	 * @return the mixer info
 	 */
 	public Mixer.Info getMixerInfo() {
-		return mixerInfo;
+		return audioSource instanceof LineAudioSource ? ((LineAudioSource) audioSource).getMixerInfo() : null;
+	}
+
+	/**
+	 * Gets the audio source.
+	 *
+	 * @return the audio source
+	 */
+	public AudioSource getAudioSource() {
+		return audioSource;
+	}
+
+	/**
+	 * Gets the audio capture, null until first started.
+	 *
+	 * @return the audio capture
+	 */
+	public AudioCapture getAudioCapture() {
+		return capture;
 	}
 
 	/**
@@ -310,6 +391,70 @@ public class AudioStreamer extends AbstractMediaStreamer {
 		if (audioChunkSize <= 0) throw new IllegalArgumentException("Audio chunk size must be > 0");
 
 		this.audioChunkSize = audioChunkSize;
+		capture = null;
+	}
+
+	/**
+	 * Gets the number of chunks preallocated for capture.
+	 *
+	 * @return the frame count
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Sets the number of chunks preallocated for capture, bounding the audio
+	 * captured but not yet streamed.
+	 *
+	 * @param frameCount
+	 *          the frame count
+	 */
+	public void setFrameCount(int frameCount) {
+		if (isStreaming()) throw new IllegalStateException("Cannot set frame count when streaming");
+		if (frameCount < 2) throw new IllegalArgumentException("Frame count must be > 1, was " + frameCount);
+
+		this.frameCount = frameCount;
+		capture = null;
+	}
+
+	/**
+	 * Checks if is continuous.
+	 *
+	 * @return true, if checks if is continuous
+	 */
+	public boolean isContinuous() {
+		return continuous;
+	}
+
+	/**
+	 * If true each chunk of audio is streamed as a self contained, timestamped
+	 * frame without a footer, and the {@link #getAudioChunkSize()} is set to
+	 * {@link #DEFAULT_CONTINUOUS_AUDIO_CHUNK_SIZE}. If false messages are
+	 * streamed with a footer and the audio chunk size is reset to its default.
+	 * Requires a {@link DefaultAudioChunkProcessor}.
+	 *
+	 * @param continuous
+	 *          the continuous
+	 * @see AudioReceiver
+	 */
+	public void setContinuous(boolean continuous) {
+		if (isStreaming()) throw new IllegalStateException("Cannot set continuous when streaming");
+		if (!(getMediaChunkProcessor() instanceof DefaultAudioChunkProcessor)) {
+			throw new IllegalStateException("Continuous audio requires a DefaultAudioChunkProcessor");
+		}
+
+		this.continuous = continuous;
+
+		((DefaultAudioChunkProcessor) getMediaChunkProcessor()).setContinuous(continuous);
+		setMediaFooter(continuous ? null : new MediaFooter(MediaStreamType.AUDIO, getMediaHash()));
+		setAudioChunkSize(continuous ? frameAligned(DEFAULT_CONTINUOUS_AUDIO_CHUNK_SIZE) : DEFAULT_AUDIO_CHUNK_SIZE);
+	}
+
+	private int frameAligned(int size) {
+		int frameSize = getAudioFormat().getFrameSize();
+
+		return frameSize <= 0 || size < frameSize ? size : size - size % frameSize;
 	}
 
 	private void initDefaultChunkProcessorAndFooter() {
@@ -30,7 +30,9 @@ import io.netty.buffer.ByteBuf;
 public interface AudioTransformer {
 
 	/**
-	 * Transform.
+	 * Transform. The buffer wraps a pooled capture frame and is valid for the
+	 * duration of the invocation only, unless its backing array is returned as
+	 * is, in which case the frame is held until the chunk has been sent.
 	 *
 	 * @param buf
 	 *          the buf
@@ -20,18 +20,49 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.audio;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Recycler;
+
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
  * The Class DefaultAudioChunk represents a part of a discrete chunk of audio
- * data, and may be up to 2 kilobytes in size by default.
+ * data, and may be up to 2 kilobytes in size by default. Chunks streamed
+ * {@link #isContinuous()} are self contained frames of audio carrying their
+ * capture timestamp.
+ * 
+ * @see DefaultAudioChunkProcessor#setContinuous(boolean)
  */
 public class DefaultAudioChunk extends AbstractMediaChunk {
 
 	private static final long serialVersionUID = -955150605214590719L;
 
+	private static final Recycler<DefaultAudioChunk> RECYCLER = new Recycler<DefaultAudioChunk>() {
+
+		@Override
+		protected DefaultAudioChunk newObject(Handle handle) {
+			return new DefaultAudioChunk(handle);
+		}
+	};
+
+	/**
+	 * Returns a pooled instance initialized from the message. The data is a
+	 * retained slice of the message; {@link #release()} the chunk once consumed
+	 * to return it to the pool.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the default audio chunk
+	 */
+	public static DefaultAudioChunk newInstance(ByteBuf message) {
+		DefaultAudioChunk chunk = RECYCLER.get();
+		chunk.init(message, MediaStreamType.AUDIO);
+		return chunk;
+	}
+
 	/**
 	 * Only create one of these when
 	 * {@link MediaStreamerUtils#isDefaultAudioChunk(byte[])} returns true. Or
@@ -44,4 +75,50 @@ public class DefaultAudioChunk extends AbstractMediaChunk {
 		super(message, MediaStreamType.AUDIO);
 	}
 
+	/**
+	 * Pooled instance constructor.
+	 *
+	 * @param handle
+	 *          the handle
+	 */
+	protected DefaultAudioChunk(Recycler.Handle handle) {
+		super(handle);
+	}
+
+	/**
+	 * Returns true if the chunk is a self contained, timestamped frame of a
+	 * continuous audio stream which is not followed by a footer.
+	 *
+	 * @return true, if checks if is continuous
+	 */
+	public boolean isContinuous() {
+		return getHeaderLength() == MediaStreamerUtils.DEFAULT_HEADER_LENGTH
+				+ DefaultAudioChunkProcessor.TIMESTAMP_LENGTH;
+	}
+
+	/**
+	 * Gets the value of the sender's {@link System#nanoTime()} when the frame was
+	 * captured, comparable only with the timestamps of the same stream. Returns
+	 * -1 unless {@link #isContinuous()}.
+	 *
+	 * @return the timestamp
+	 */
+	public long getTimestamp() {
+		if (!isContinuous()) return -1;
+
+		return Unpooled.wrappedBuffer(getCustomHeaderChunk()).getLong(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk#recycle
+	 * (io.netty.util.Recycler.Handle)
+	 */
+	@Override
+	protected boolean recycle(Recycler.Handle handle) {
+		return RECYCLER.recycle(this, handle);
+	}
+
 }
@@ -20,23 +20,36 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.audio;
 
+import io.netty.buffer.ByteBuf;
+
 import javax.sound.sampled.AudioFormat;
 
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import com.github.mrstampy.kitchensync.stream.Streamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor;
 
 /**
  * The Class DefaultAudioChunkProcessor prepends the header for each
- * {@link DefaultAudioChunk} sent to the remote client.
+ * {@link DefaultAudioChunk} sent to the remote client. If
+ * {@link #isContinuous()} the capture timestamp of the frame is appended to
+ * the header, identifying the chunk as a self contained frame.
+ * 
+ * @see DefaultAudioChunk#isContinuous()
  */
 public class DefaultAudioChunkProcessor extends AbstractMediaChunkProcessor {
 
+	/** The Constant TIMESTAMP_LENGTH. */
+	public static final int TIMESTAMP_LENGTH = 8;
+
 	private AudioFormat audioFormat;
 
 	private int mediaHash = -1;
 
+	private volatile boolean continuous;
+
 	/**
 	 * The Constructor.
 	 *
@@ -60,6 +73,53 @@ public class DefaultAudioChunkProcessor extends AbstractMediaChunkProcessor {
 		return audioFormat;
 	}
 
+	/**
+	 * Checks if is continuous.
+	 *
+	 * @return true, if checks if is continuous
+	 */
+	public boolean isContinuous() {
+		return continuous;
+	}
+
+	/**
+	 * If true the capture timestamp of each frame is appended to the header.
+	 *
+	 * @param continuous
+	 *          the continuous
+	 */
+	public void setContinuous(boolean continuous) {
+		this.continuous = continuous;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor
+	 * #sizeInBytes(com.github.mrstampy.kitchensync.stream.Streamer)
+	 */
+	@Override
+	public int sizeInBytes(Streamer<?> streamer) {
+		return continuous ? super.sizeInBytes(streamer) + TIMESTAMP_LENGTH : super.sizeInBytes(streamer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor
+	 * #appendToHeader(com.github.mrstampy.kitchensync.stream.Streamer,
+	 * io.netty.buffer.ByteBuf, int)
+	 */
+	@Override
+	protected void appendToHeader(Streamer<?> streamer, ByteBuf buf, int headerLength) {
+		if (headerLength < super.sizeInBytes(streamer) + TIMESTAMP_LENGTH) return;
+
+		long timestamp = streamer instanceof MediaMessageStreamer ? ((MediaMessageStreamer) streamer).getTimestamp() : 0;
+		buf.writeLong(timestamp == 0 ? System.nanoTime() : timestamp);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -0,0 +1,154 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * The Class LineAudioSource captures audio from a {@link TargetDataLine} of the
+ * audio subsystem.
+ */
+public class LineAudioSource implements AudioSource {
+
+	private AudioFormat audioFormat;
+	private Mixer.Info mixerInfo;
+	private TargetDataLine dataLine;
+
+	private volatile boolean started;
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param audioFormat
+	 *          the audio format
+	 * @param mixerInfo
+	 *          the mixer info, null for the default mixer
+	 * @throws LineUnavailableException
+	 *           the line unavailable exception
+	 */
+	public LineAudioSource(AudioFormat audioFormat, Mixer.Info mixerInfo) throws LineUnavailableException {
+		this.audioFormat = audioFormat;
+		this.mixerInfo = mixerInfo;
+
+		dataLine = AudioSystem.getTargetDataLine(audioFormat, mixerInfo);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#getAudioFormat
+	 * ()
+	 */
+	@Override
+	public AudioFormat getAudioFormat() {
+		return audioFormat;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#open()
+	 */
+	@Override
+	public void open() throws LineUnavailableException {
+		if (!dataLine.isOpen()) dataLine.open(audioFormat);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#start()
+	 */
+	@Override
+	public void start() {
+		dataLine.start();
+		started = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#stop()
+	 */
+	@Override
+	public void stop() {
+		started = false;
+		dataLine.stop();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#close()
+	 */
+	@Override
+	public void close() {
+		started = false;
+		dataLine.close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#read(byte[],
+	 * int, int)
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (!dataLine.isOpen()) return -1;
+
+		return dataLine.read(b, off, len);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#isActive()
+	 */
+	@Override
+	public boolean isActive() {
+		return started && dataLine.isOpen();
+	}
+
+	/**
+	 * Gets the mixer info.
+	 *
+	 * @return the mixer info
+	 */
+	public Mixer.Info getMixerInfo() {
+		return mixerInfo;
+	}
+
+	/**
+	 * Gets the data line.
+	 *
+	 * @return the data line
+	 */
+	public TargetDataLine getDataLine() {
+		return dataLine;
+	}
+
+}
@@ -0,0 +1,234 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.audio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+
+/**
+ * The Class SyntheticAudioSource generates a sine tone of 8 or 16 bit PCM in
+ * real time, blocking reads until the requested audio would have been
+ * captured. Useful for testing without audio hardware.
+ */
+public class SyntheticAudioSource implements AudioSource {
+
+	/** The Constant DEFAULT_FREQUENCY. */
+	public static final double DEFAULT_FREQUENCY = 440;
+
+	private final AudioFormat audioFormat;
+	private final double frequency;
+	private final int frameSize;
+	private final int sampleBytes;
+	private final boolean signed;
+	private final double scale;
+	private final double phaseIncrement;
+	private final double nanosPerFrame;
+
+	private double phase;
+	private long framesRead;
+
+	private volatile long startNanos;
+	private volatile boolean open;
+	private volatile boolean started;
+	private volatile Thread reader;
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param audioFormat
+	 *          the audio format
+	 */
+	public SyntheticAudioSource(AudioFormat audioFormat) {
+		this(audioFormat, DEFAULT_FREQUENCY);
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param audioFormat
+	 *          the audio format, 8 or 16 bit PCM
+	 * @param frequency
+	 *          the frequency of the tone in Hz
+	 */
+	public SyntheticAudioSource(AudioFormat audioFormat, double frequency) {
+		if (audioFormat == null) throw new IllegalArgumentException("Audio format cannot be null");
+
+		Encoding encoding = audioFormat.getEncoding();
+		if (!Encoding.PCM_SIGNED.equals(encoding) && !Encoding.PCM_UNSIGNED.equals(encoding)) {
+			throw new IllegalArgumentException("PCM encoding required, was " + encoding);
+		}
+
+		int bits = audioFormat.getSampleSizeInBits();
+		if (bits != 8 && bits != 16) throw new IllegalArgumentException("8 or 16 bit samples required, was " + bits);
+		if (frequency <= 0) throw new IllegalArgumentException("Frequency must be > 0, was " + frequency);
+
+		this.audioFormat = audioFormat;
+		this.frequency = frequency;
+		this.frameSize = audioFormat.getFrameSize();
+		this.sampleBytes = bits / 8;
+		this.signed = Encoding.PCM_SIGNED.equals(encoding);
+		this.scale = (1 << (bits - 1)) - 1;
+		this.phaseIncrement = 2 * Math.PI * frequency / audioFormat.getFrameRate();
+		this.nanosPerFrame = TimeUnit.SECONDS.toNanos(1) / (double) audioFormat.getFrameRate();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#getAudioFormat
+	 * ()
+	 */
+	@Override
+	public AudioFormat getAudioFormat() {
+		return audioFormat;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#open()
+	 */
+	@Override
+	public void open() {
+		open = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#start()
+	 */
+	@Override
+	public void start() {
+		if (started) return;
+
+		framesRead = 0;
+		startNanos = System.nanoTime();
+		started = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#stop()
+	 */
+	@Override
+	public void stop() {
+		started = false;
+
+		Thread t = reader;
+		if (t != null) LockSupport.unpark(t);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#close()
+	 */
+	@Override
+	public void close() {
+		stop();
+		open = false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#read(byte[],
+	 * int, int)
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (!open) return -1;
+
+		int frames = len / frameSize;
+		if (!started || frames == 0) return 0;
+
+		long deadline = startNanos + (long) ((framesRead + frames) * nanosPerFrame);
+
+		reader = Thread.currentThread();
+		try {
+			long wait;
+			while (started && (wait = deadline - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, wait);
+			}
+		} finally {
+			reader = null;
+		}
+
+		if (!started) return 0;
+
+		synthesize(b, off, frames);
+		framesRead += frames;
+
+		return frames * frameSize;
+	}
+
+	private void synthesize(byte[] b, int off, int frames) {
+		int channels = audioFormat.getChannels();
+		boolean bigEndian = audioFormat.isBigEndian();
+
+		int pos = off;
+		for (int f = 0; f < frames; f++) {
+			int sample = (int) Math.round(Math.sin(phase) * scale);
+			if (!signed) sample += scale + 1;
+
+			for (int c = 0; c < channels; c++) {
+				if (sampleBytes == 1) {
+					b[pos++] = (byte) sample;
+				} else if (bigEndian) {
+					b[pos++] = (byte) (sample >> 8);
+					b[pos++] = (byte) sample;
+				} else {
+					b[pos++] = (byte) sample;
+					b[pos++] = (byte) (sample >> 8);
+				}
+			}
+
+			phase += phaseIncrement;
+			if (phase >= 2 * Math.PI) phase -= 2 * Math.PI;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.audio.AudioSource#isActive()
+	 */
+	@Override
+	public boolean isActive() {
+		return open && started;
+	}
+
+	/**
+	 * Gets the frequency of the tone.
+	 *
+	 * @return the frequency
+	 */
+	public double getFrequency() {
+		return frequency;
+	}
+
+}
@@ -20,26 +20,65 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.binary;
 
+import io.netty.channel.ChannelFuture;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+
 import java.net.InetSocketAddress;
-import java.util.concurrent.ArrayBlockingQueue;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import rx.functions.Action1;
 
 import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
 import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.mrstampy.pprspray.core.streamer.util.BoundedMpscQueue;
+import com.github.mrstampy.pprspray.core.streamer.util.OverflowPolicy;
 
 /**
- * Streams byte array data to the specified destination.
+ * Streams byte array data to the specified destination. Each message streamed
+ * returns a future completed once the message has been sent, failed should the
+ * send fail and cancelled should the message be dropped or the streamer
+ * destroyed before sending.<br>
+ * <br>
+ * Messages are queued in a lock free {@link BoundedMpscQueue} of
+ * {@link #DEFAULT_QUEUE_MESSAGES} messages and {@link #DEFAULT_QUEUE_BYTES}
+ * bytes, dropping the oldest message when full unless another
+ * {@link OverflowPolicy} is set.
+ * 
+ * @see #setQueueCapacity(int, long)
+ * @see #setOverflowPolicy(OverflowPolicy)
  */
 public class BinaryStreamer extends AbstractMediaStreamer {
-	private static final Logger log = LoggerFactory.getLogger(BinaryStreamer.class);
 
 	private static final int DEFAULT_BINARY_PIPE_SIZE = 1000 * 1024;
 
-	private ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(100);
+	/** The Constant DEFAULT_QUEUE_MESSAGES. */
+	public static final int DEFAULT_QUEUE_MESSAGES = 100;
+
+	/** The Constant DEFAULT_QUEUE_BYTES. */
+	public static final long DEFAULT_QUEUE_BYTES = 64 * 1024 * 1024;
+
+	private final Action1<PendingMessage> dropped = new Action1<PendingMessage>() {
+
+		@Override
+		public void call(PendingMessage pm) {
+			pm.promise.cancel(false);
+
+			Action1<byte[]> callback = overflowCallback;
+			if (callback != null && getOverflowPolicy() == OverflowPolicy.CALLBACK) callback.call(pm.bytes);
+		}
+	};
+
+	private volatile BoundedMpscQueue<PendingMessage> queue = createQueue(DEFAULT_QUEUE_MESSAGES, DEFAULT_QUEUE_BYTES,
+			OverflowPolicy.DROP_OLDEST);
+
+	private volatile Action1<byte[]> overflowCallback;
+
+	private PendingMessage current;
 
 	/**
 	 * The Constructor.
@@ -90,13 +129,18 @@ public class BinaryStreamer extends AbstractMediaStreamer {
 	 *
 	 * @param bytes
 	 *          the bytes
+	 * @return the future completed once the message has been sent, null if there
+	 *         are no bytes
+	 * @throws IllegalStateException
+	 *           if the queue is full and the policy is
+	 *           {@link OverflowPolicy#FAIL_FAST}
 	 */
-	public void stream(byte[] bytes) {
-		if (bytes == null || bytes.length == 0) return;
+	public Future<Void> stream(byte[] bytes) {
+		if (bytes == null || bytes.length == 0) return null;
 
 		if (!isStreaming()) start();
 
-		add(bytes);
+		return add(bytes);
 	}
 
 	/*
@@ -119,20 +163,63 @@ public class BinaryStreamer extends AbstractMediaStreamer {
 	 */
 	@Override
 	protected byte[] getBytes() {
-		byte[] b = take();
+		PendingMessage pm = queue.poll();
+		if (pm == null) return null;
+
+		current = pm;
 
-		return b;
+		return pm.bytes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#sendData
+	 * (com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer, byte[])
+	 */
+	@Override
+	protected ChannelFuture sendData(MediaMessageStreamer lane, byte[] data) throws Exception {
+		PendingMessage pm = current;
+		current = null;
+
+		try {
+			ChannelFuture cf = super.sendData(lane, data);
+			if (pm != null) cf.addListener(pm);
+
+			return cf;
+		} catch (Exception e) {
+			if (pm != null) pm.promise.tryFailure(e);
+			throw e;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#hasBytes()
+	 */
+	@Override
+	protected boolean hasBytes() {
+		return !queue.isEmpty();
 	}
 
 	/**
-	 * Adds the.
+	 * Adds the bytes, applying the {@link #getOverflowPolicy()} should the queue
+	 * be full.
 	 *
 	 * @param bytes
 	 *          the bytes
+	 * @return the future completed once the message has been sent, cancelled if
+	 *         dropped
 	 */
-	protected void add(byte[] bytes) {
-		if (remainingCapacity() == 0) take();
-		queue.add(bytes);
+	protected Future<Void> add(byte[] bytes) {
+		PendingMessage pm = new PendingMessage(bytes);
+
+		if (queue.offer(pm, bytes.length)) wakeup();
+
+		return pm.promise;
 	}
 
 	/**
@@ -145,18 +232,101 @@ public class BinaryStreamer extends AbstractMediaStreamer {
 	}
 
 	/**
-	 * Take.
+	 * Sets the capacity of the queue in messages and bytes, to be invoked prior
+	 * to streaming.
 	 *
-	 * @return the byte[]
+	 * @param maxMessages
+	 *          the max messages
+	 * @param maxBytes
+	 *          the max bytes
 	 */
-	protected byte[] take() {
-		try {
-			return queue.take();
-		} catch (InterruptedException e) {
-			log.error("Unexpected exception", e);
-		}
+	public void setQueueCapacity(int maxMessages, long maxBytes) {
+		if (!queue.isEmpty()) throw new IllegalStateException("Cannot resize a non empty queue");
 
-		return null;
+		queue = createQueue(maxMessages, maxBytes, getOverflowPolicy());
+	}
+
+	/**
+	 * Gets the overflow policy.
+	 *
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return queue.getPolicy();
+	}
+
+	/**
+	 * Sets the action taken when {@link #stream(byte[])} is invoked with a full
+	 * queue, default {@link OverflowPolicy#DROP_OLDEST}.
+	 *
+	 * @param policy
+	 *          the policy
+	 * @see #setOverflowCallback(Action1)
+	 */
+	public void setOverflowPolicy(OverflowPolicy policy) {
+		queue.setPolicy(policy);
+	}
+
+	/**
+	 * Sets the callback receiving the messages rejected by a full queue when the
+	 * policy is {@link OverflowPolicy#CALLBACK}.
+	 *
+	 * @param overflowCallback
+	 *          the overflow callback
+	 */
+	public void setOverflowCallback(Action1<byte[]> overflowCallback) {
+		this.overflowCallback = overflowCallback;
+	}
+
+	/**
+	 * Gets the number of messages queued.
+	 *
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Gets the bytes queued.
+	 *
+	 * @return the queued bytes
+	 */
+	public long getQueuedBytes() {
+		return queue.getQueuedBytes();
+	}
+
+	/**
+	 * Gets the number of messages dropped.
+	 *
+	 * @return the drop count
+	 */
+	public long getDropCount() {
+		return queue.getDropCount();
+	}
+
+	private BoundedMpscQueue<PendingMessage> createQueue(int maxMessages, long maxBytes, OverflowPolicy policy) {
+		BoundedMpscQueue<PendingMessage> q = new BoundedMpscQueue<PendingMessage>(maxMessages, maxBytes, policy);
+		q.setDropListener(dropped);
+
+		return q;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#destroyImpl
+	 * ()
+	 */
+	@Override
+	protected void destroyImpl() {
+		super.destroyImpl();
+
+		PendingMessage pm;
+		while ((pm = queue.poll()) != null) {
+			pm.promise.cancel(false);
+		}
 	}
 
 	private void initDefaultChunkProcessorAndFooter() {
@@ -166,4 +336,22 @@ public class BinaryStreamer extends AbstractMediaStreamer {
 		setMediaFooter(new MediaFooter(MediaStreamType.BINARY, dbcp.getMediaHash()));
 	}
 
+	private static class PendingMessage implements GenericFutureListener<ChannelFuture> {
+		final byte[] bytes;
+		final Promise<Void> promise = GlobalEventExecutor.INSTANCE.newPromise();
+
+		PendingMessage(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			if (future.isSuccess()) {
+				promise.trySuccess(null);
+			} else {
+				promise.tryFailure(future.cause());
+			}
+		}
+	}
+
 }
@@ -20,6 +20,9 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.binary;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
 
@@ -30,6 +33,29 @@ public class DefaultBinaryChunk extends AbstractMediaChunk {
 
 	private static final long serialVersionUID = 6673282298096278117L;
 
+	private static final Recycler<DefaultBinaryChunk> RECYCLER = new Recycler<DefaultBinaryChunk>() {
+
+		@Override
+		protected DefaultBinaryChunk newObject(Handle handle) {
+			return new DefaultBinaryChunk(handle);
+		}
+	};
+
+	/**
+	 * Returns a pooled instance initialized from the message. The data is a
+	 * retained slice of the message; {@link #release()} the chunk once consumed
+	 * to return it to the pool.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the default binary chunk
+	 */
+	public static DefaultBinaryChunk newInstance(ByteBuf message) {
+		DefaultBinaryChunk chunk = RECYCLER.get();
+		chunk.init(message, MediaStreamType.BINARY);
+		return chunk;
+	}
+
 	/**
 	 * The Constructor.
 	 *
@@ -40,4 +66,26 @@ public class DefaultBinaryChunk extends AbstractMediaChunk {
 		super(message, MediaStreamType.BINARY);
 	}
 
+	/**
+	 * Pooled instance constructor.
+	 *
+	 * @param handle
+	 *          the handle
+	 */
+	protected DefaultBinaryChunk(Recycler.Handle handle) {
+		super(handle);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk#recycle
+	 * (io.netty.util.Recycler.Handle)
+	 */
+	@Override
+	protected boolean recycle(Recycler.Handle handle) {
+		return RECYCLER.recycle(this, handle);
+	}
+
 }
@@ -20,21 +20,34 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.chunk;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Recycler;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
-import java.util.Arrays;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
  * Abstract superclass representing {@link MediaStreamType} data. The
  * {@link #getData()} is to be considered an unprocessed part of a larger
- * message.
+ * message.<br>
+ * <br>
+ * The data is held as a reference counted {@link #getPayload()} which wraps or
+ * slices the received message without copying; {@link #getData()} materializes
+ * a byte array on first use only. Chunks are to be {@link #release()}d once
+ * their data has been consumed, returning pooled instances to their
+ * {@link Recycler}.
  * 
  * @see ChunkEventBus
  * @see AbstractChunkReceiver
@@ -49,14 +62,18 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	private int messageHash;
 	private long sequence;
 	private boolean ackRequired;
+	private boolean firstChunk;
+
+	private static final byte[] NO_CUSTOM_HEADER = new byte[0];
 
 	private byte[] data;
+	private transient ByteBuf payload;
 
 	private byte[] customHeaderChunk;
 
-	private int channelPort;
-	private InetSocketAddress remote;
-	private InetSocketAddress local;
+	private MediaPeerContext peerContext;
+
+	private transient Recycler.Handle handle;
 
 	/**
 	 * Constructor assumes that the message supplied is of the correct media type,
@@ -68,34 +85,86 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 *          the expected
 	 */
 	protected AbstractMediaChunk(byte[] message, MediaStreamType expected) {
-		extractMediaStreamType(message, expected);
-		extractHeaderLength(message);
-		extractMessageHash(message);
-		extractMediaHash(message);
-		extractSequence(message);
+		MediaHeaderFlyweight header = MediaStreamerUtils.getHeader(message);
+
+		extractMediaStreamType(header, expected);
+		extractHeaderLength(header);
+		extractMessageHash(header);
+		extractMediaHash(header);
+		extractSequence(header);
+		extractAckRequired(header);
+		extractFirstChunk(header);
 		extractCustomHeaderChunk(message);
-		extractAckRequired(message);
-		if (message.length > getHeaderLength()) setData(Arrays.copyOfRange(message, getHeaderLength(), message.length));
+		if (message.length > getHeaderLength()) {
+			setPayload(Unpooled.wrappedBuffer(message, getHeaderLength(), message.length - getHeaderLength()));
+		}
 	}
 
 	/**
-	 * Extract message hash.
+	 * Constructor for pooled instances, which are initialized via
+	 * {@link #init(ByteBuf, MediaStreamType)} and returned to the recycler on
+	 * {@link #release()}.
+	 *
+	 * @param handle
+	 *          the recycler handle
+	 */
+	protected AbstractMediaChunk(Recycler.Handle handle) {
+		this.handle = handle;
+	}
+
+	/**
+	 * Initializes a pooled instance from the message. The payload becomes a
+	 * retained slice of the message, released on {@link #release()}.
 	 *
 	 * @param message
 	 *          the message
+	 * @param expected
+	 *          the expected
+	 */
+	protected void init(ByteBuf message, MediaStreamType expected) {
+		MediaHeaderFlyweight header = MediaStreamerUtils.getHeader(message);
+
+		extractMediaStreamType(header, expected);
+		extractHeaderLength(header);
+		extractMessageHash(header);
+		extractMediaHash(header);
+		extractSequence(header);
+		extractAckRequired(header);
+		extractFirstChunk(header);
+		extractCustomHeaderChunk(message);
+
+		int length = header.length() - getHeaderLength();
+		if (length > 0) setPayload(message.slice(message.readerIndex() + getHeaderLength(), length).retain());
+	}
+
+	/**
+	 * Extract message hash.
+	 *
+	 * @param header
+	 *          the header
 	 */
-	protected void extractMessageHash(byte[] message) {
-		setMessageHash(MediaStreamerUtils.getMessageHash(message));
+	protected void extractMessageHash(MediaHeaderFlyweight header) {
+		setMessageHash(header.getMessageHash());
 	}
 
 	/**
 	 * Extract ack required.
 	 *
-	 * @param message
-	 *          the message
+	 * @param header
+	 *          the header
+	 */
+	protected void extractAckRequired(MediaHeaderFlyweight header) {
+		setAckRequired(header.isAckRequired());
+	}
+
+	/**
+	 * Extract first chunk.
+	 *
+	 * @param header
+	 *          the header
 	 */
-	protected void extractAckRequired(byte[] message) {
-		setAckRequired(MediaStreamerUtils.isAckRequired(message));
+	protected void extractFirstChunk(MediaHeaderFlyweight header) {
+		setFirstChunk(header.isFirstChunk());
 	}
 
 	/**
@@ -105,39 +174,59 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 *          the message
 	 */
 	protected void extractCustomHeaderChunk(byte[] message) {
-		setCustomHeaderChunk(MediaStreamerUtils.getCustomHeaderChunk(message, getHeaderLength()));
+		if (getHeaderLength() <= MediaStreamerUtils.DEFAULT_HEADER_LENGTH) {
+			setCustomHeaderChunk(NO_CUSTOM_HEADER);
+		} else {
+			setCustomHeaderChunk(MediaStreamerUtils.getCustomHeaderChunk(message, getHeaderLength()));
+		}
 	}
 
 	/**
-	 * Extract sequence.
+	 * Extract custom header chunk.
 	 *
 	 * @param message
 	 *          the message
 	 */
-	protected void extractSequence(byte[] message) {
-		long sequence = MediaStreamerUtils.getSequence(message);
-		setSequence(sequence);
+	protected void extractCustomHeaderChunk(ByteBuf message) {
+		int length = getHeaderLength() - MediaStreamerUtils.DEFAULT_HEADER_LENGTH;
+		if (length <= 0) {
+			setCustomHeaderChunk(NO_CUSTOM_HEADER);
+			return;
+		}
+
+		byte[] custom = new byte[length];
+		message.getBytes(message.readerIndex() + MediaStreamerUtils.DEFAULT_HEADER_LENGTH, custom);
+		setCustomHeaderChunk(custom);
+	}
+
+	/**
+	 * Extract sequence.
+	 *
+	 * @param header
+	 *          the header
+	 */
+	protected void extractSequence(MediaHeaderFlyweight header) {
+		setSequence(header.getSequence());
 	}
 
 	/**
 	 * Extract media hash.
 	 *
-	 * @param message
-	 *          the message
+	 * @param header
+	 *          the header
 	 */
-	protected void extractMediaHash(byte[] message) {
-		int mediaHash = MediaStreamerUtils.getMediaStreamHash(message);
-		setMediaHash(mediaHash);
+	protected void extractMediaHash(MediaHeaderFlyweight header) {
+		setMediaHash(header.getMediaHash());
 	}
 
 	/**
 	 * Extract header length.
 	 *
-	 * @param message
-	 *          the message
+	 * @param header
+	 *          the header
 	 */
-	protected void extractHeaderLength(byte[] message) {
-		int headerLength = MediaStreamerUtils.getMediaStreamHeaderLength(message);
+	protected void extractHeaderLength(MediaHeaderFlyweight header) {
+		int headerLength = header.getHeaderLength();
 		if (headerLength < MediaStreamerUtils.DEFAULT_HEADER_LENGTH) {
 			throw new IllegalArgumentException("Header length must be > " + MediaStreamerUtils.DEFAULT_HEADER_LENGTH
 					+ ", was " + headerLength);
@@ -149,13 +238,13 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	/**
 	 * Extract media stream type.
 	 *
-	 * @param message
-	 *          the message
+	 * @param header
+	 *          the header
 	 * @param expected
 	 *          the expected
 	 */
-	protected void extractMediaStreamType(byte[] message, MediaStreamType expected) {
-		MediaStreamType type = MediaStreamerUtils.getMediaStreamTypeAsChunkHeader(message);
+	protected void extractMediaStreamType(MediaHeaderFlyweight header, MediaStreamType expected) {
+		MediaStreamType type = header.getMediaStreamType();
 		if (type == null) throw new IllegalArgumentException("Message is not a media type message");
 		if (type != expected) throw new IllegalArgumentException("Expected type " + expected + " but was " + type);
 
@@ -172,7 +261,7 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 */
 	@Override
 	public int compareTo(AbstractMediaChunk o) {
-		return (int) (getSequence() - o.getSequence());
+		return Long.compare(getSequence(), o.getSequence());
 	}
 
 	/**
@@ -207,14 +296,112 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	}
 
 	/**
-	 * Gets the data.
+	 * Gets the data, copying it from the {@link #getPayload()} on first
+	 * invocation. Prefer {@link #getPayload()} to avoid the copy.
 	 *
 	 * @return the data
 	 */
 	public byte[] getData() {
+		if (data == null && payload != null) {
+			byte[] b = new byte[payload.readableBytes()];
+			payload.getBytes(payload.readerIndex(), b);
+			data = b;
+		}
+
 		return data;
 	}
 
+	/**
+	 * Gets the payload, a reference counted view of the data valid until
+	 * {@link #release()}. Readers should use absolute or duplicated indices so as
+	 * not to disturb the payload's reader index.
+	 *
+	 * @return the payload, null if none
+	 */
+	public ByteBuf getPayload() {
+		return payload;
+	}
+
+	/**
+	 * Gets the data length without materializing the data.
+	 *
+	 * @return the data length
+	 */
+	public int getDataLength() {
+		if (payload != null) return payload.readableBytes();
+
+		return data == null ? 0 : data.length;
+	}
+
+	/**
+	 * If this instance was obtained from a {@link Recycler} releases the
+	 * {@link #getPayload()}, clears its state and returns it to the pool; the
+	 * chunk must not be used after this method is invoked. Chunks not pooled
+	 * remain usable: a payload wrapping heap memory is kept, one holding pooled
+	 * memory is copied to {@link #getData()} and released.
+	 */
+	public void release() {
+		if (handle == null) {
+			if (payload != null && payload.alloc() instanceof PooledByteBufAllocator) {
+				getData();
+				releasePayload();
+			}
+
+			return;
+		}
+
+		releasePayload();
+		clear();
+		recycle(handle);
+	}
+
+	/**
+	 * Returns this pooled instance to its recycler. Default implementation does
+	 * nothing, pooled subclasses override.
+	 *
+	 * @param handle
+	 *          the handle
+	 * @return true, if recycled
+	 */
+	protected boolean recycle(Recycler.Handle handle) {
+		return false;
+	}
+
+	/**
+	 * Clears the state of a pooled instance prior to recycling.
+	 */
+	protected void clear() {
+		mediaStreamType = null;
+		headerLength = 0;
+		mediaHash = 0;
+		messageHash = 0;
+		sequence = 0;
+		ackRequired = false;
+		firstChunk = false;
+		data = null;
+		customHeaderChunk = null;
+		peerContext = null;
+	}
+
+	private void releasePayload() {
+		if (payload == null) return;
+
+		ByteBuf b = payload;
+		payload = null;
+		if (b.refCnt() > 0) b.release();
+	}
+
+	/**
+	 * Sets the payload, releasing any previous payload.
+	 *
+	 * @param payload
+	 *          the payload
+	 */
+	protected void setPayload(ByteBuf payload) {
+		releasePayload();
+		this.payload = payload;
+	}
+
 	/**
 	 * Sets the media hash.
 	 *
@@ -242,6 +429,7 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 *          the data
 	 */
 	public void setData(byte[] data) {
+		setPayload(data == null ? null : Unpooled.wrappedBuffer(data));
 		this.data = data;
 	}
 
@@ -288,7 +476,7 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 *
 	 * @return the custom header chunk
 	 * @see AbstractMediaChunkProcessor#writeHeader(com.github.mrstampy.kitchensync.stream.Streamer,
-	 *      io.netty.buffer.ByteBuf, int)
+	 *      io.netty.buffer.ByteBuf, int, boolean)
 	 */
 	protected byte[] getCustomHeaderChunk() {
 		return customHeaderChunk;
@@ -300,7 +488,7 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 * @param customHeaderChunk
 	 *          the custom header chunk
 	 * @see AbstractMediaChunkProcessor#writeHeader(com.github.mrstampy.kitchensync.stream.Streamer,
-	 *      io.netty.buffer.ByteBuf, int)
+	 *      io.netty.buffer.ByteBuf, int, boolean)
 	 */
 	protected void setCustomHeaderChunk(byte[] customHeaderChunk) {
 		this.customHeaderChunk = customHeaderChunk;
@@ -312,7 +500,7 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 * @return the sender
 	 */
 	public InetSocketAddress getRemote() {
-		return remote;
+		return peerContext == null ? null : peerContext.getRemote();
 	}
 
 	/**
@@ -322,7 +510,7 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 *          the sender
 	 */
 	public void setRemote(InetSocketAddress sender) {
-		this.remote = sender;
+		setPeerContext(MediaPeerContext.getContext(getChannelPort(), getLocal(), sender));
 	}
 
 	/**
@@ -331,7 +519,7 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 * @return the channel port
 	 */
 	public int getChannelPort() {
-		return channelPort;
+		return peerContext == null ? 0 : peerContext.getChannelPort();
 	}
 
 	/**
@@ -341,7 +529,7 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 *          the channel port
 	 */
 	public void setChannelPort(int channelPort) {
-		this.channelPort = channelPort;
+		setPeerContext(MediaPeerContext.getContext(channelPort, getLocal(), getRemote()));
 	}
 
 	/**
@@ -350,7 +538,7 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 * @return the receiver
 	 */
 	public InetSocketAddress getLocal() {
-		return local;
+		return peerContext == null ? null : peerContext.getLocal();
 	}
 
 	/**
@@ -360,7 +548,29 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 	 *          the receiver
 	 */
 	public void setLocal(InetSocketAddress receiver) {
-		this.local = receiver;
+		setPeerContext(MediaPeerContext.getContext(getChannelPort(), receiver, getRemote()));
+	}
+
+	/**
+	 * Gets the peer context, shared by all chunks received from the same remote
+	 * on the same channel.
+	 *
+	 * @return the peer context
+	 */
+	public MediaPeerContext getPeerContext() {
+		return peerContext;
+	}
+
+	/**
+	 * Sets the peer context.
+	 *
+	 * @param peerContext
+	 *          the peer context
+	 * @see MediaPeerContext#getContext(com.github.mrstampy.kitchensync.netty.channel.KiSyChannel,
+	 *      InetSocketAddress)
+	 */
+	public void setPeerContext(MediaPeerContext peerContext) {
+		this.peerContext = peerContext;
 	}
 
 	/*
@@ -392,6 +602,25 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 		this.ackRequired = ackRequired;
 	}
 
+	/**
+	 * Checks if is the first chunk of its message.
+	 *
+	 * @return true, if checks if is first chunk
+	 */
+	public boolean isFirstChunk() {
+		return firstChunk;
+	}
+
+	/**
+	 * Sets the first chunk.
+	 *
+	 * @param firstChunk
+	 *          the first chunk
+	 */
+	public void setFirstChunk(boolean firstChunk) {
+		this.firstChunk = firstChunk;
+	}
+
 	/**
 	 * Gets the message hash.
 	 *
@@ -411,4 +640,9 @@ public abstract class AbstractMediaChunk implements Serializable, Comparable<Abs
 		this.messageHash = messageHash;
 	}
 
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		getData();
+		out.defaultWriteObject();
+	}
+
 }
@@ -22,10 +22,14 @@ package com.github.mrstampy.pprspray.core.streamer.chunk;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.github.mrstampy.kitchensync.stream.Streamer;
 import com.github.mrstampy.kitchensync.stream.header.AbstractChunkProcessor;
 import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationMessageUtils;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
@@ -39,6 +43,8 @@ public abstract class AbstractMediaChunkProcessor extends AbstractChunkProcessor
 	private MediaStreamType mediaStreamType;
 	private int mediaHash = Integer.MIN_VALUE;
 	private int messageHash;
+	private AtomicInteger chunkCount = new AtomicInteger();
+	private volatile boolean firstChunkFlagged;
 
 	/**
 	 * The Constructor.
@@ -71,9 +77,19 @@ public abstract class AbstractMediaChunkProcessor extends AbstractChunkProcessor
 	protected ByteBuf processImpl(Streamer<?> streamer, byte[] message) {
 		int headerLength = sizeInBytes(streamer);
 
+		int count;
+		if (streamer instanceof MediaMessageStreamer) {
+			MediaMessageStreamer mms = (MediaMessageStreamer) streamer;
+			mms.pace(message.length, headerLength);
+			mms.advance(message.length);
+			count = mms.incrementChunkCount();
+		} else {
+			count = chunkCount.incrementAndGet();
+		}
+
 		ByteBuf buf = createByteBuf(headerLength + message.length);
 
-		writeHeader(streamer, buf, headerLength);
+		writeHeader(streamer, buf, headerLength, count == 1 && isFirstChunkFlagged());
 		appendToHeader(streamer, buf, headerLength);
 		buf.writeBytes(message);
 
@@ -106,16 +122,19 @@ public abstract class AbstractMediaChunkProcessor extends AbstractChunkProcessor
 	 *          the buf
 	 * @param headerLength
 	 *          the header length
+	 * @param firstChunk
+	 *          true if the first chunk of the message
 	 * @see AbstractMediaChunk#extractCustomHeaderChunk(byte[])
 	 */
-	protected void writeHeader(Streamer<?> streamer, ByteBuf buf, int headerLength) {
+	protected void writeHeader(Streamer<?> streamer, ByteBuf buf, int headerLength, boolean firstChunk) {
 		MediaStreamerUtils.writeHeader(buf,
 				getMediaStreamType(),
 				headerLength,
-				getMessageHash(),
+				getMessageHash(streamer),
 				getMediaHash(),
 				streamer.getSequence(),
-				streamer.isAckRequired());
+				streamer.isAckRequired(),
+				firstChunk);
 	}
 
 	/**
@@ -164,6 +183,19 @@ public abstract class AbstractMediaChunkProcessor extends AbstractChunkProcessor
 		return messageHash;
 	}
 
+	/**
+	 * Gets the message hash of the message being streamed by the streamer, that
+	 * of the {@link MediaMessageStreamer} if applicable.
+	 *
+	 * @param streamer
+	 *          the streamer
+	 * @return the message hash
+	 */
+	protected int getMessageHash(Streamer<?> streamer) {
+		return streamer instanceof MediaMessageStreamer ? ((MediaMessageStreamer) streamer).getMessageHash()
+				: getMessageHash();
+	}
+
 	/**
 	 * Sets the message hash.
 	 *
@@ -172,6 +204,40 @@ public abstract class AbstractMediaChunkProcessor extends AbstractChunkProcessor
 	 */
 	public void setMessageHash(int messageHash) {
 		this.messageHash = messageHash;
+		chunkCount.set(0);
+	}
+
+	/**
+	 * Gets the number of chunks processed since the message hash was last set,
+	 * ie. for the current message.
+	 *
+	 * @return the chunk count
+	 */
+	public int getChunkCount() {
+		return chunkCount.get();
+	}
+
+	/**
+	 * Returns true if the first chunk of each message is flagged in its header,
+	 * false by default. Remotes which have not negotiated the
+	 * {@link NegotiationMessageUtils#FIRST_CHUNK_FLAG} capability test the ack
+	 * byte for equality and would not acknowledge a flagged chunk.
+	 *
+	 * @return true, if checks if is first chunk flagged
+	 */
+	public boolean isFirstChunkFlagged() {
+		return firstChunkFlagged;
+	}
+
+	/**
+	 * Sets whether the first chunk of each message is flagged in its header, set
+	 * by the streamer on negotiation.
+	 *
+	 * @param firstChunkFlagged
+	 *          the first chunk flagged
+	 */
+	public void setFirstChunkFlagged(boolean firstChunkFlagged) {
+		this.firstChunkFlagged = firstChunkFlagged;
 	}
 
 }
@@ -0,0 +1,255 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.chunk;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler;
+
+/**
+ * The immutable Class MediaPeerContext holds the channel port, local and remote
+ * addresses shared by all {@link AbstractMediaChunk}s received from a remote
+ * peer on a local channel. Instances are cached so that each inbound chunk
+ * carries a single shared reference rather than three fields of its own.<br>
+ * <br>
+ * The cache of a channel is discarded when the channel closes and holds at most
+ * {@link #getMaxPeers()} remotes, arbitrary entries being evicted beyond that;
+ * an evicted context is simply recreated should its remote send again.
+ * 
+ * @see AbstractInboundMediaHandler
+ * @see AbstractMediaChunk#setPeerContext(MediaPeerContext)
+ */
+public class MediaPeerContext implements Serializable {
+
+	private static final long serialVersionUID = -3207455620963386197L;
+
+	/** The Constant DEFAULT_MAX_PEERS. */
+	public static final int DEFAULT_MAX_PEERS = 4096;
+
+	private static final ConcurrentMap<Integer, ConcurrentMap<InetSocketAddress, MediaPeerContext>> contexts = new ConcurrentHashMap<Integer, ConcurrentMap<InetSocketAddress, MediaPeerContext>>();
+
+	private static volatile int maxPeers = DEFAULT_MAX_PEERS;
+
+	private final int channelPort;
+	private final InetSocketAddress local;
+	private final InetSocketAddress remote;
+
+	/**
+	 * Returns the cached context for the specified channel and remote address,
+	 * creating it on first use.
+	 *
+	 * @param channel
+	 *          the channel
+	 * @param remote
+	 *          the remote
+	 * @return the media peer context
+	 */
+	public static MediaPeerContext getContext(KiSyChannel channel, InetSocketAddress remote) {
+		ConcurrentMap<InetSocketAddress, MediaPeerContext> peers = contexts.get(channel.getPort());
+		if (peers == null) peers = addPeers(channel);
+
+		MediaPeerContext ctx = remote == null ? null : peers.get(remote);
+		if (ctx != null) return ctx;
+
+		return cache(peers, new MediaPeerContext(channel.getPort(), channel.localAddress(), remote));
+	}
+
+	/**
+	 * Returns the cached context for the channel port and remote address should
+	 * its local address match, else a new context, cached if none is.
+	 *
+	 * @param channelPort
+	 *          the channel port
+	 * @param local
+	 *          the local
+	 * @param remote
+	 *          the remote
+	 * @return the media peer context
+	 */
+	public static MediaPeerContext getContext(int channelPort, InetSocketAddress local, InetSocketAddress remote) {
+		ConcurrentMap<InetSocketAddress, MediaPeerContext> peers = contexts.get(channelPort);
+
+		MediaPeerContext ctx = peers == null || remote == null ? null : peers.get(remote);
+		if (ctx != null && equals(ctx.getLocal(), local)) return ctx;
+
+		ctx = new MediaPeerContext(channelPort, local, remote);
+
+		return peers == null || remote == null ? ctx : cache(peers, ctx);
+	}
+
+	private static boolean equals(InetSocketAddress a, InetSocketAddress b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static MediaPeerContext cache(ConcurrentMap<InetSocketAddress, MediaPeerContext> peers, MediaPeerContext ctx) {
+		if (ctx.getRemote() == null) return ctx;
+
+		evict(peers);
+
+		MediaPeerContext existing = peers.putIfAbsent(ctx.getRemote(), ctx);
+
+		return existing == null ? ctx : existing;
+	}
+
+	private static void evict(ConcurrentMap<InetSocketAddress, MediaPeerContext> peers) {
+		int max = getMaxPeers();
+		if (peers.size() < max) return;
+
+		Iterator<InetSocketAddress> it = peers.keySet().iterator();
+		while (it.hasNext() && peers.size() >= max) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Removes the cached context for the specified channel port and remote
+	 * address.
+	 *
+	 * @param channelPort
+	 *          the channel port
+	 * @param remote
+	 *          the remote
+	 */
+	public static void removeContext(int channelPort, InetSocketAddress remote) {
+		ConcurrentMap<InetSocketAddress, MediaPeerContext> peers = contexts.get(channelPort);
+		if (peers != null) peers.remove(remote);
+	}
+
+	/**
+	 * Removes all cached contexts for the specified channel port, invoke when the
+	 * channel is closed.
+	 *
+	 * @param channelPort
+	 *          the channel port
+	 */
+	public static void removeContexts(int channelPort) {
+		contexts.remove(channelPort);
+	}
+
+	private static ConcurrentMap<InetSocketAddress, MediaPeerContext> addPeers(KiSyChannel channel) {
+		final int channelPort = channel.getPort();
+
+		ConcurrentMap<InetSocketAddress, MediaPeerContext> peers = new ConcurrentHashMap<>();
+		ConcurrentMap<InetSocketAddress, MediaPeerContext> existing = contexts.putIfAbsent(channelPort, peers);
+		if (existing != null) return existing;
+
+		Channel ch = channel.getChannel();
+		if (ch != null) {
+			ch.closeFuture().addListener(new GenericFutureListener<ChannelFuture>() {
+
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					removeContexts(channelPort);
+				}
+			});
+		}
+
+		return peers;
+	}
+
+	/**
+	 * Gets the maximum number of remotes cached per channel.
+	 *
+	 * @return the max peers
+	 */
+	public static int getMaxPeers() {
+		return maxPeers;
+	}
+
+	/**
+	 * Sets the maximum number of remotes cached per channel. Defaults to
+	 * {@link #DEFAULT_MAX_PEERS}.
+	 *
+	 * @param maxPeers
+	 *          the max peers
+	 */
+	public static void setMaxPeers(int maxPeers) {
+		if (maxPeers <= 0) throw new IllegalArgumentException("Max peers must be > 0, was " + maxPeers);
+
+		MediaPeerContext.maxPeers = maxPeers;
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param channelPort
+	 *          the channel port
+	 * @param local
+	 *          the local
+	 * @param remote
+	 *          the remote
+	 */
+	public MediaPeerContext(int channelPort, InetSocketAddress local, InetSocketAddress remote) {
+		this.channelPort = channelPort;
+		this.local = local;
+		this.remote = remote;
+	}
+
+	/**
+	 * Gets the channel port.
+	 *
+	 * @return the channel port
+	 */
+	public int getChannelPort() {
+		return channelPort;
+	}
+
+	/**
+	 * Gets the local.
+	 *
+	 * @return the local
+	 */
+	public InetSocketAddress getLocal() {
+		return local;
+	}
+
+	/**
+	 * Gets the remote.
+	 *
+	 * @return the remote
+	 */
+	public InetSocketAddress getRemote() {
+		return remote;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+}
@@ -20,8 +20,10 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.chunk.event;
 
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
@@ -37,6 +39,7 @@ import com.github.mrstampy.pprspray.core.handler.NegotiationHandler;
 import com.github.mrstampy.pprspray.core.handler.TextMediaHandler;
 import com.github.mrstampy.pprspray.core.handler.WebcamMediaHandler;
 import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.audio.DefaultAudioChunk;
 import com.github.mrstampy.pprspray.core.streamer.binary.DefaultBinaryChunk;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
@@ -48,18 +51,37 @@ import com.github.mrstampy.pprspray.core.streamer.text.DefaultJsonChunk;
 import com.github.mrstampy.pprspray.core.streamer.text.DefaultTextChunk;
 import com.github.mrstampy.pprspray.core.streamer.webcam.DefaultWebcamChunk;
 import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 
 /**
  * {@link AbstractMediaChunk}s are posted to the event bus via
- * {@link AbstractInboundMediaHandler} implementations.
+ * {@link AbstractInboundMediaHandler} implementations. Each chunk is delivered
+ * directly to the {@link MediaChunkListener} registered for its
+ * {@link MediaStreamType} and media hash, typically an
+ * {@link AbstractChunkReceiver}. Objects registered via
+ * {@link #register(Object)} receive {@link MediaFooterChunk}s and, if
+ * {@link #isBroadcastChunks()}, all chunks. Broadcast chunks are posted on the
+ * receiving thread prior to their direct delivery, after which the
+ * {@link MediaChunkListener} may release them.
  */
 public class ChunkEventBus {
 	private static final Logger log = LoggerFactory.getLogger(ChunkEventBus.class);
 
 	private static final AsyncEventBus BUS = new AsyncEventBus("Chunk Arrival Event Bus", Executors.newCachedThreadPool());
 
-	private static Map<Integer, AbstractChunkReceiver<?>> receivers = new ConcurrentHashMap<Integer, AbstractChunkReceiver<?>>();
+	private static final EventBus BROADCAST = new EventBus("Chunk Broadcast Event Bus");
+
+	private static Map<MediaStreamType, ConcurrentMap<Integer, MediaChunkListener<?>>> routes = new EnumMap<MediaStreamType, ConcurrentMap<Integer, MediaChunkListener<?>>>(
+			MediaStreamType.class);
+
+	private static volatile boolean broadcastChunks;
+
+	static {
+		for (MediaStreamType type : MediaStreamType.values()) {
+			routes.put(type, new ConcurrentHashMap<Integer, MediaChunkListener<?>>());
+		}
+	}
 
 	/**
 	 * Post.
@@ -69,7 +91,7 @@ public class ChunkEventBus {
 	 * @see AudioMediaHandler
 	 */
 	public static void post(DefaultAudioChunk chunk) {
-		BUS.post(chunk);
+		dispatch(chunk);
 	}
 
 	/**
@@ -80,7 +102,7 @@ public class ChunkEventBus {
 	 * @see BinaryMediaHandler
 	 */
 	public static void post(DefaultBinaryChunk chunk) {
-		BUS.post(chunk);
+		dispatch(chunk);
 	}
 
 	/**
@@ -91,7 +113,7 @@ public class ChunkEventBus {
 	 * @see FileMediaHandler
 	 */
 	public static void post(DefaultFileChunk chunk) {
-		BUS.post(chunk);
+		dispatch(chunk);
 	}
 
 	/**
@@ -102,7 +124,7 @@ public class ChunkEventBus {
 	 * @see JsonMediaHandler
 	 */
 	public static void post(DefaultJsonChunk chunk) {
-		BUS.post(chunk);
+		dispatch(chunk);
 	}
 
 	/**
@@ -113,7 +135,7 @@ public class ChunkEventBus {
 	 * @see TextMediaHandler
 	 */
 	public static void post(DefaultTextChunk chunk) {
-		BUS.post(chunk);
+		dispatch(chunk);
 	}
 
 	/**
@@ -124,7 +146,7 @@ public class ChunkEventBus {
 	 * @see WebcamMediaHandler
 	 */
 	public static void post(DefaultWebcamChunk chunk) {
-		BUS.post(chunk);
+		dispatch(chunk);
 	}
 
 	/**
@@ -135,7 +157,7 @@ public class ChunkEventBus {
 	 * @see NegotiationHandler
 	 */
 	public static void post(NegotiationChunk chunk) {
-		BUS.post(chunk);
+		dispatch(chunk);
 	}
 
 	/**
@@ -146,7 +168,7 @@ public class ChunkEventBus {
 	 * @see NegotiationAckHandler
 	 */
 	public static void post(NegotiationAckChunk chunk) {
-		BUS.post(chunk);
+		dispatch(chunk);
 	}
 
 	/**
@@ -156,7 +178,7 @@ public class ChunkEventBus {
 	 *          the chunk
 	 */
 	public static void post(AbstractMediaChunk chunk) {
-		BUS.post(chunk);
+		dispatch(chunk);
 	}
 
 	/**
@@ -166,65 +188,186 @@ public class ChunkEventBus {
 	 *          the footer message
 	 */
 	public static void post(MediaFooterChunk footerMessage) {
+		dispatch(footerMessage);
+
 		BUS.post(footerMessage);
 	}
 
+	private static void dispatch(AbstractMediaChunk chunk) {
+		if (isBroadcastChunks()) BROADCAST.post(chunk);
+
+		MediaChunkListener<AbstractMediaChunk> listener = route(chunk.getMediaStreamType(), chunk.getMediaHash());
+
+		if (listener == null) {
+			log.trace("No listener for {}, hash {}", chunk.getMediaStreamType(), chunk.getMediaHash());
+			chunk.release();
+			return;
+		}
+
+		try {
+			listener.receive(chunk);
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		}
+	}
+
+	private static void dispatch(MediaFooterChunk eom) {
+		if (eom.isTerminateMessage(eom.getMediaHash())) {
+			for (ConcurrentMap<Integer, MediaChunkListener<?>> listeners : routes.values()) {
+				endOfMessage(listeners.get(eom.getMediaHash()), eom);
+			}
+		} else {
+			endOfMessage(route(eom.getMediaStreamType(), eom.getMediaHash()), eom);
+		}
+	}
+
+	private static void endOfMessage(MediaChunkListener<?> listener, MediaFooterChunk eom) {
+		if (listener == null) return;
+
+		try {
+			listener.endOfMessage(eom);
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static MediaChunkListener<AbstractMediaChunk> route(MediaStreamType type, int mediaHash) {
+		if (type == null) return null;
+
+		return (MediaChunkListener<AbstractMediaChunk>) routes.get(type).get(mediaHash);
+	}
+
 	/**
 	 * Objects are registering for notification of {@link AbstractMediaChunk}s and
 	 * corresponding {@link MediaFooterMessage}s as specified in the various post
 	 * methods and must implement a method with return of void, accepting a
 	 * subclass of {@link AbstractMediaChunk} object as the only parameter, and
-	 * annotated with {@link Subscribe}.
+	 * annotated with {@link Subscribe}.<br>
+	 * <br>
+	 * {@link MediaFooterChunk}s are always posted to these observers, other
+	 * chunks only if {@link #isBroadcastChunks()}.
 	 *
 	 * @param o
 	 *          the o
+	 * @see #setBroadcastChunks(boolean)
 	 */
 	public static void register(Object o) {
 		BUS.register(o);
+		BROADCAST.register(o);
 	}
 
 	/**
-	 * Objects are registering for notification of {@link AbstractMediaChunk}s and
-	 * corresponding {@link MediaFooterMessage}s as specified in the various post
-	 * methods and must implement a method with return of void, accepting a
-	 * subclass of {@link AbstractMediaChunk} object as the only parameter, and
-	 * annotated with {@link Subscribe}.
+	 * Registers the listener for direct delivery of the {@link AbstractMediaChunk}
+	 * s and {@link MediaFooterChunk}s of its type and media hash, replacing any
+	 * existing listener.
+	 *
+	 * @param listener
+	 *          the listener
+	 */
+	public static void register(MediaChunkListener<?> listener) {
+		MediaChunkListener<?> existing = routes.get(listener.getType()).put(listener.getMediaHash(), listener);
+
+		if (existing != null && existing != listener) {
+			log.warn("Replaced listener for type {}, hash {}", listener.getType(), listener.getMediaHash());
+		}
+	}
+
+	/**
+	 * Gets the listener registered for the type and media hash.
+	 *
+	 * @param type
+	 *          the type
+	 * @param mediaHash
+	 *          the media hash
+	 * @return the media chunk listener<?>
+	 */
+	public static MediaChunkListener<?> get(MediaStreamType type, int mediaHash) {
+		return routes.get(type).get(mediaHash);
+	}
+
+	/**
+	 * Gets the first listener registered for the media hash.
 	 *
-	 * @param receiver
-	 *          the receiver
+	 * @param mediaHash
+	 *          the media hash
+	 * @return the media chunk listener<?>
 	 */
-	public static void register(AbstractChunkReceiver<?> receiver) {
-		BUS.register(receiver);
+	public static MediaChunkListener<?> getListener(int mediaHash) {
+		for (ConcurrentMap<Integer, MediaChunkListener<?>> listeners : routes.values()) {
+			MediaChunkListener<?> listener = listeners.get(mediaHash);
+			if (listener != null) return listener;
+		}
 
-		receivers.put(receiver.getMediaHash(), receiver);
+		return null;
 	}
 
 	/**
-	 * Gets the.
+	 * Gets the first {@link AbstractChunkReceiver} registered for the media
+	 * hash.
 	 *
 	 * @param mediaHash
 	 *          the media hash
-	 * @return the abstract media receiver<?>
+	 * @return the abstract chunk receiver<?>
+	 * @deprecated use {@link #getListener(int)} or
+	 *             {@link #get(MediaStreamType, int)}
 	 */
+	@Deprecated
 	public static AbstractChunkReceiver<?> get(int mediaHash) {
-		return receivers.get(mediaHash);
+		for (ConcurrentMap<Integer, MediaChunkListener<?>> listeners : routes.values()) {
+			MediaChunkListener<?> listener = listeners.get(mediaHash);
+			if (listener instanceof AbstractChunkReceiver) return (AbstractChunkReceiver<?>) listener;
+		}
+
+		return null;
 	}
 
 	/**
-	 * Removes the.
+	 * Removes and {@link MediaChunkListener#destroy()}s all listeners registered
+	 * for the media hash.
 	 *
 	 * @param mediaHash
 	 *          the media hash
-	 * @return the abstract media receiver<?>
+	 * @return the first listener removed, null if none
 	 */
+	public static MediaChunkListener<?> removeListeners(int mediaHash) {
+		MediaChunkListener<?> first = null;
+
+		for (ConcurrentMap<Integer, MediaChunkListener<?>> listeners : routes.values()) {
+			MediaChunkListener<?> listener = listeners.remove(mediaHash);
+
+			if (listener == null) continue;
+
+			if (first == null) first = listener;
+			listener.destroy();
+		}
+
+		return first;
+	}
+
+	/**
+	 * Removes and {@link MediaChunkListener#destroy()}s all listeners registered
+	 * for the media hash.
+	 *
+	 * @param mediaHash
+	 *          the media hash
+	 * @return the first {@link AbstractChunkReceiver} removed, null if none
+	 * @deprecated use {@link #removeListeners(int)}
+	 */
+	@Deprecated
 	public static AbstractChunkReceiver<?> remove(int mediaHash) {
-		AbstractChunkReceiver<?> receiver = receivers.remove(mediaHash);
+		AbstractChunkReceiver<?> first = null;
 
-		if (receiver == null) return null;
+		for (ConcurrentMap<Integer, MediaChunkListener<?>> listeners : routes.values()) {
+			MediaChunkListener<?> listener = listeners.remove(mediaHash);
 
-		receiver.destroy();
+			if (listener == null) continue;
 
-		return receiver;
+			if (first == null && listener instanceof AbstractChunkReceiver) first = (AbstractChunkReceiver<?>) listener;
+			listener.destroy();
+		}
+
+		return first;
 	}
 
 	/**
@@ -235,18 +378,33 @@ public class ChunkEventBus {
 	 * @return true, if contains
 	 */
 	public static boolean contains(int mediaHash) {
-		return receivers.containsKey(mediaHash);
+		return getListener(mediaHash) != null;
+	}
+
+	/**
+	 * Contains.
+	 *
+	 * @param type
+	 *          the type
+	 * @param mediaHash
+	 *          the media hash
+	 * @return true, if contains
+	 */
+	public static boolean contains(MediaStreamType type, int mediaHash) {
+		return get(type, mediaHash) != null;
 	}
 
 	/**
 	 * Clear.
 	 */
 	public static void clear() {
-		for (AbstractChunkReceiver<?> receiver : receivers.values()) {
-			receiver.destroy();
-		}
+		for (ConcurrentMap<Integer, MediaChunkListener<?>> listeners : routes.values()) {
+			for (MediaChunkListener<?> listener : listeners.values()) {
+				listener.destroy();
+			}
 
-		receivers.clear();
+			listeners.clear();
+		}
 	}
 
 	/**
@@ -258,11 +416,52 @@ public class ChunkEventBus {
 	public static void unregister(Object o) {
 		try {
 			BUS.unregister(o);
+			BROADCAST.unregister(o);
 		} catch (Exception e) {
 			log.debug("{} is not registered on the chunk event bus", o, e);
 		}
 	}
 
+	/**
+	 * Unregisters the listener if it is currently registered for its type and
+	 * media hash.
+	 *
+	 * @param listener
+	 *          the listener
+	 */
+	public static void unregister(MediaChunkListener<?> listener) {
+		routes.get(listener.getType()).remove(listener.getMediaHash(), listener);
+	}
+
+	/**
+	 * Checks if chunks are broadcast to the generic observers on a Guava event
+	 * bus in addition to direct delivery to their {@link MediaChunkListener}.
+	 *
+	 * @return true, if checks if is broadcast chunks
+	 * @see #register(Object)
+	 */
+	public static boolean isBroadcastChunks() {
+		return broadcastChunks;
+	}
+
+	/**
+	 * Set to true to post all {@link AbstractMediaChunk}s to objects registered
+	 * via {@link #register(Object)}, ie. for logging or monitoring. Defaults to
+	 * false, as the reflective broadcast to every observer is expensive with many
+	 * concurrent streams.<br>
+	 * <br>
+	 * Broadcast chunks are posted synchronously on the receiving thread prior to
+	 * their direct delivery; observers must not retain them, as the
+	 * {@link MediaChunkListener} may {@link AbstractMediaChunk#release()} them
+	 * once delivered.
+	 *
+	 * @param broadcastChunks
+	 *          the broadcast chunks
+	 */
+	public static void setBroadcastChunks(boolean broadcastChunks) {
+		ChunkEventBus.broadcastChunks = broadcastChunks;
+	}
+
 	private ChunkEventBus() {
 	}
 
@@ -0,0 +1,79 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.chunk.event;
+
+import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
+
+/**
+ * Implementations registered on the {@link ChunkEventBus} receive only those
+ * {@link AbstractMediaChunk}s and {@link MediaFooterChunk}s matching their
+ * {@link #getType()} and {@link #getMediaHash()}. At most one listener can be
+ * registered for a given type and media hash.
+ * 
+ * @param <AMC>
+ *          the generic type
+ * @see ChunkEventBus#register(MediaChunkListener)
+ * @see AbstractChunkReceiver
+ */
+public interface MediaChunkListener<AMC extends AbstractMediaChunk> {
+
+	/**
+	 * Gets the type of chunks routed to this listener.
+	 *
+	 * @return the type
+	 */
+	MediaStreamType getType();
+
+	/**
+	 * Gets the media hash of chunks routed to this listener.
+	 *
+	 * @return the media hash
+	 */
+	int getMediaHash();
+
+	/**
+	 * Invoked for each chunk of {@link #getType()} and {@link #getMediaHash()}.
+	 *
+	 * @param chunk
+	 *          the chunk
+	 */
+	void receive(AMC chunk);
+
+	/**
+	 * Invoked for each footer of {@link #getType()} and {@link #getMediaHash()},
+	 * and for termination footers of {@link #getMediaHash()}.
+	 *
+	 * @param eom
+	 *          the eom
+	 * @see MediaFooterChunk#isTerminateMessage(int)
+	 */
+	void endOfMessage(MediaFooterChunk eom);
+
+	/**
+	 * Invoked when the listener is removed from the {@link ChunkEventBus}.
+	 *
+	 * @see ChunkEventBus#removeListeners(int)
+	 */
+	void destroy();
+}
@@ -0,0 +1,741 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.fanout;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.kitchensync.stream.Streamer;
+import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.MediaChunkListener;
+import com.github.mrstampy.pprspray.core.streamer.fanout.FanOutDestination.State;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationAckChunk;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationMessageUtils;
+import com.github.mrstampy.pprspray.core.streamer.util.BandwidthGovernor;
+import com.github.mrstampy.pprspray.core.streamer.util.EgressScheduler;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
+import com.github.mrstampy.pprspray.core.streamer.util.StreamerRuntime;
+
+/**
+ * The Class AbstractFanOutStreamer sends each message to any number of
+ * destinations. Unlike an {@link AbstractMediaStreamer}, which is bound to one
+ * destination, the message is obtained and transformed once by
+ * {@link #getBytes()}, chunked once by the {@link AbstractMediaChunkProcessor}
+ * and the same chunk buffers, retained, are written to each
+ * {@link State#ACCEPTED} destination.<br>
+ * <br>
+ * Destinations can be added and removed at any time. If
+ * {@link #isAutoNegotiate()} each destination added is negotiated separately
+ * and receives messages once accepted; the footer carries chunk counts and the
+ * first chunk of each message is flagged only if all accepted destinations
+ * support them. A termination footer received from a destination removes it.<br>
+ * <br>
+ * As with {@link AbstractMediaStreamer} the streaming loop owns no threads and
+ * executes on the {@link StreamerRuntime}, the next message being sent once
+ * the previous has been written to all destinations. Each write is paced by the
+ * {@link BandwidthGovernor} and admitted by the channel's
+ * {@link EgressScheduler}.
+ * 
+ * @see FanOutDestination
+ */
+public abstract class AbstractFanOutStreamer {
+	private static final Logger log = LoggerFactory.getLogger(AbstractFanOutStreamer.class);
+
+	/** The Constant NEGOTIATION_TIMEOUT_SECONDS. */
+	public static final long NEGOTIATION_TIMEOUT_SECONDS = 30;
+
+	private final KiSyChannel channel;
+	private final MediaStreamType type;
+	private final int chunkSize;
+
+	private AbstractMediaChunkProcessor mediaChunkProcessor;
+	private MediaFooter mediaFooter;
+
+	private final ConcurrentMap<InetSocketAddress, FanOutDestination> destinations = new ConcurrentHashMap<InetSocketAddress, FanOutDestination>();
+
+	private final AtomicBoolean streaming = new AtomicBoolean(false);
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final AtomicBoolean destroyed = new AtomicBoolean(false);
+
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicInteger messageId = new AtomicInteger(MediaStreamerUtils.createMessageHash());
+
+	private final AckListener ackListener = new AckListener();
+	private final Chunker chunker = new Chunker();
+
+	private volatile boolean autoNegotiate = true;
+
+	private final Runnable turn = new Runnable() {
+
+		@Override
+		public void run() {
+			streamTurn();
+		}
+	};
+
+	private final Runnable waker = new Runnable() {
+
+		@Override
+		public void run() {
+			wakeup();
+		}
+	};
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param chunkSize
+	 *          the maximum number of message bytes per chunk
+	 * @param channel
+	 *          the channel
+	 * @param type
+	 *          the type
+	 */
+	protected AbstractFanOutStreamer(int chunkSize, KiSyChannel channel, MediaStreamType type) {
+		if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be > 0, was " + chunkSize);
+
+		this.chunkSize = chunkSize;
+		this.channel = channel;
+		this.type = type;
+	}
+
+	/**
+	 * Adds the destination, negotiating with it if {@link #isAutoNegotiate()}
+	 * else accepting it immediately. Returns the existing destination if already
+	 * added.
+	 *
+	 * @param address
+	 *          the address
+	 * @return the fan out destination
+	 */
+	public FanOutDestination addDestination(InetSocketAddress address) {
+		if (address == null) throw new IllegalArgumentException("Address cannot be null");
+		if (getMediaChunkProcessor() == null) throw new IllegalStateException("Media chunk processor must be set");
+
+		FanOutDestination destination = new FanOutDestination(address);
+		FanOutDestination existing = destinations.putIfAbsent(address, destination);
+		if (existing != null) return existing;
+
+		if (isAutoNegotiate()) {
+			negotiate(destination);
+		} else {
+			accept(destination, 0);
+		}
+
+		return destination;
+	}
+
+	/**
+	 * Removes the destination, sending it a termination message if it had been
+	 * accepted.
+	 *
+	 * @param address
+	 *          the address
+	 * @return true, if removed
+	 */
+	public boolean removeDestination(InetSocketAddress address) {
+		return remove(address, true);
+	}
+
+	private boolean remove(InetSocketAddress address, boolean terminate) {
+		FanOutDestination destination = address == null ? null : destinations.remove(address);
+		if (destination == null) return false;
+
+		boolean accepted = destination.isAccepted();
+		destination.setState(State.REMOVED);
+		updateCapabilities();
+
+		if (terminate && accepted) {
+			try {
+				MediaStreamerUtils.sendTerminationEvent(getMediaHash(), getChannel(), address);
+			} catch (Exception e) {
+				log.error("Unexpected exception", e);
+			}
+		}
+
+		log.debug("Removed destination {} for type {}, hash {}", address, getType(), getMediaHash());
+		destinationRemoved(destination);
+
+		return true;
+	}
+
+	/**
+	 * Gets the destination.
+	 *
+	 * @param address
+	 *          the address
+	 * @return the destination, null if not added
+	 */
+	public FanOutDestination getDestination(InetSocketAddress address) {
+		return destinations.get(address);
+	}
+
+	/**
+	 * Gets the destinations.
+	 *
+	 * @return the destinations
+	 */
+	public Collection<FanOutDestination> getDestinations() {
+		return Collections.unmodifiableCollection(destinations.values());
+	}
+
+	/**
+	 * Gets the accepted destinations.
+	 *
+	 * @return the accepted destinations
+	 */
+	public List<FanOutDestination> getAcceptedDestinations() {
+		List<FanOutDestination> accepted = new ArrayList<FanOutDestination>(destinations.size());
+		for (FanOutDestination destination : destinations.values()) {
+			if (destination.isAccepted()) accepted.add(destination);
+		}
+
+		return accepted;
+	}
+
+	private void negotiate(final FanOutDestination destination) {
+		log.debug("Negotiating with {} for media hash {}", destination.getAddress(), getMediaHash());
+
+		ByteBuf buf = NegotiationMessageUtils.getNegotiationMessage(getMediaHash(), getType());
+		getChannel().send(buf.array(), destination.getAddress());
+
+		StreamerRuntime.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				if (destination.getState() == State.NEGOTIATING) reject(destination);
+			}
+		}, NEGOTIATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+
+	private void accept(FanOutDestination destination, int capabilities) {
+		destination.setChunkCounts((capabilities & NegotiationMessageUtils.FOOTER_CHUNK_COUNTS) != 0);
+		destination.setFirstChunkFlag((capabilities & NegotiationMessageUtils.FIRST_CHUNK_FLAG) != 0);
+		destination.setState(State.ACCEPTED);
+		updateCapabilities();
+
+		log.debug("Destination {} accepted for type {}, hash {}", destination.getAddress(), getType(), getMediaHash());
+		destinationAccepted(destination);
+
+		wakeup();
+	}
+
+	private void reject(FanOutDestination destination) {
+		destination.setState(State.REJECTED);
+		destinations.remove(destination.getAddress(), destination);
+
+		log.debug("Destination {} rejected for type {}, hash {}", destination.getAddress(), getType(), getMediaHash());
+		destinationRejected(destination);
+	}
+
+	private void updateCapabilities() {
+		boolean accepted = false;
+		boolean counts = true;
+		boolean first = true;
+		for (FanOutDestination destination : destinations.values()) {
+			if (!destination.isAccepted()) continue;
+
+			accepted = true;
+			counts &= destination.isChunkCounts();
+			first &= destination.isFirstChunkFlag();
+		}
+
+		MediaFooter footer = getMediaFooter();
+		if (footer != null) footer.setChunkCounts(accepted && counts);
+
+		AbstractMediaChunkProcessor processor = getMediaChunkProcessor();
+		if (processor != null) processor.setFirstChunkFlagged(accepted && first);
+	}
+
+	/**
+	 * Invoked when a destination has been accepted. Default impl does nothing.
+	 *
+	 * @param destination
+	 *          the destination
+	 */
+	protected void destinationAccepted(FanOutDestination destination) {
+	}
+
+	/**
+	 * Invoked when a destination has rejected the stream or not responded
+	 * within {@link #NEGOTIATION_TIMEOUT_SECONDS}. Default impl does nothing.
+	 *
+	 * @param destination
+	 *          the destination
+	 */
+	protected void destinationRejected(FanOutDestination destination) {
+	}
+
+	/**
+	 * Invoked when a destination has been removed. Default impl does nothing.
+	 *
+	 * @param destination
+	 *          the destination
+	 */
+	protected void destinationRemoved(FanOutDestination destination) {
+	}
+
+	/**
+	 * Starts streaming to the accepted destinations.
+	 */
+	public void start() {
+		if (destroyed.get()) throw new IllegalStateException("Fan out streamer has been destroyed");
+
+		streaming.set(true);
+		wakeup();
+	}
+
+	/**
+	 * Stops streaming.
+	 */
+	public void stop() {
+		streaming.set(false);
+	}
+
+	/**
+	 * Checks if is streaming.
+	 *
+	 * @return true, if checks if is streaming
+	 */
+	public boolean isStreaming() {
+		return streaming.get();
+	}
+
+	/**
+	 * Stops streaming and removes all destinations.
+	 */
+	public void destroy() {
+		if (!destroyed.compareAndSet(false, true)) return;
+
+		stop();
+
+		for (InetSocketAddress address : destinations.keySet()) {
+			remove(address, true);
+		}
+
+		ChunkEventBus.unregister(ackListener);
+	}
+
+	/**
+	 * Schedules a turn of the streaming loop on the {@link StreamerRuntime}
+	 * unless one is scheduled. Invoke when data becomes available.
+	 */
+	protected void wakeup() {
+		if (isStreaming() && scheduled.compareAndSet(false, true)) StreamerRuntime.execute(turn);
+	}
+
+	private void streamTurn() {
+		try {
+			if (isStreaming() && stream()) return;
+		} catch (Exception e) {
+			log.error("Unexpected exception", e);
+			stop();
+		}
+
+		scheduled.set(false);
+
+		if (isStreaming() && hasBytes() && !getAcceptedDestinations().isEmpty()) {
+			StreamerRuntime.schedule(waker, AbstractMediaStreamer.IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Sends the next message, if any, to all accepted destinations. Each chunk
+	 * is paced by the {@link BandwidthGovernor} against the global and per
+	 * destination limits and admitted by the {@link #getEgressScheduler()} prior
+	 * to being written to a destination, and is not written until the channel is
+	 * writable.
+	 *
+	 * @return true, if a message is being sent
+	 */
+	protected boolean stream() {
+		List<FanOutDestination> targets = getAcceptedDestinations();
+		if (targets.isEmpty()) return false;
+
+		byte[] data = getBytes();
+		if (data == null || data.length == 0) return false;
+
+		int messageHash = nextMessageHash();
+
+		getMediaChunkProcessor().setMessageHash(messageHash);
+
+		MediaFooter footer = getMediaFooter();
+		if (footer != null) {
+			footer.setMessageHash(messageHash);
+			footer.setMessageLength(data.length);
+		}
+
+		int chunks = (data.length + chunkSize - 1) / chunkSize;
+		if (footer != null) chunks++;
+
+		Completion completion = new Completion(targets, chunks * targets.size());
+
+		Channel ch = getChannel().getChannel();
+		EgressScheduler es = getEgressScheduler();
+
+		for (int offset = 0; offset < data.length; offset += chunkSize) {
+			byte[] part = Arrays.copyOfRange(data, offset, Math.min(data.length, offset + chunkSize));
+
+			sequence.incrementAndGet();
+			write(ch, es, getMediaChunkProcessor().process(chunker, part), targets, completion);
+		}
+
+		if (footer != null) write(ch, es, Unpooled.wrappedBuffer(footer.createFooter()), targets, completion);
+
+		return true;
+	}
+
+	private void write(Channel ch, EgressScheduler es, ByteBuf buf, List<FanOutDestination> targets,
+			Completion completion) {
+		try {
+			int bytes = buf.readableBytes();
+
+			for (FanOutDestination destination : targets) {
+				InetSocketAddress address = destination.getAddress();
+
+				BandwidthGovernor.awaitDeadline(System.nanoTime() + BandwidthGovernor.reserve(address, null, bytes));
+				es.acquire(getType(), getMediaHash(), bytes);
+
+				ChannelFuture cf = ch.writeAndFlush(new DatagramPacket(buf.duplicate().retain(), address));
+				cf.addListener(completion);
+
+				if (!ch.isWritable()) cf.awaitUninterruptibly();
+			}
+		} finally {
+			buf.release();
+		}
+	}
+
+	/**
+	 * Returns the hash of the next message, unique within this streamer's media
+	 * hash.
+	 *
+	 * @return the int
+	 */
+	protected int nextMessageHash() {
+		return messageId.incrementAndGet() & Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Returns true if {@link #getBytes()} may have data, in which case the
+	 * streaming loop polls every {@link AbstractMediaStreamer#IDLE_POLL_MILLIS}
+	 * when no data is returned. Implementations returning false must invoke
+	 * {@link #wakeup()} when data becomes available. Defaults to true.
+	 *
+	 * @return true, if checks for bytes
+	 */
+	protected boolean hasBytes() {
+		return true;
+	}
+
+	/**
+	 * Gets the bytes of the next message, invoked once per message regardless of
+	 * the number of destinations.
+	 *
+	 * @return the bytes
+	 */
+	protected abstract byte[] getBytes();
+
+	/**
+	 * Gets the media chunk processor.
+	 *
+	 * @return the media chunk processor
+	 */
+	public AbstractMediaChunkProcessor getMediaChunkProcessor() {
+		return mediaChunkProcessor;
+	}
+
+	/**
+	 * Sets the media chunk processor, registering for the negotiation
+	 * acknowledgements and termination messages of its media hash.
+	 *
+	 * @param mediaChunkProcessor
+	 *          the media chunk processor
+	 */
+	public void setMediaChunkProcessor(AbstractMediaChunkProcessor mediaChunkProcessor) {
+		if (this.mediaChunkProcessor != null) ChunkEventBus.unregister(ackListener);
+
+		this.mediaChunkProcessor = mediaChunkProcessor;
+		if (mediaFooter != null) mediaFooter.setChunkProcessor(mediaChunkProcessor);
+		updateCapabilities();
+
+		if (mediaChunkProcessor != null) ChunkEventBus.register(ackListener);
+	}
+
+	/**
+	 * Gets the media footer.
+	 *
+	 * @return the media footer
+	 */
+	public MediaFooter getMediaFooter() {
+		return mediaFooter;
+	}
+
+	/**
+	 * Sets the media footer.
+	 *
+	 * @param mediaFooter
+	 *          the media footer
+	 */
+	public void setMediaFooter(MediaFooter mediaFooter) {
+		this.mediaFooter = mediaFooter;
+		if (mediaFooter != null) mediaFooter.setChunkProcessor(getMediaChunkProcessor());
+		updateCapabilities();
+	}
+
+	/**
+	 * Gets the media hash.
+	 *
+	 * @return the media hash
+	 */
+	public int getMediaHash() {
+		return getMediaChunkProcessor().getMediaHash();
+	}
+
+	/**
+	 * Gets the channel.
+	 *
+	 * @return the channel
+	 */
+	public KiSyChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Gets the scheduler admitting the chunks sent on {@link #getChannel()}.
+	 *
+	 * @return the egress scheduler
+	 */
+	public EgressScheduler getEgressScheduler() {
+		return EgressScheduler.getScheduler(getChannel());
+	}
+
+	/**
+	 * Gets the type.
+	 *
+	 * @return the type
+	 */
+	public MediaStreamType getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the chunk size.
+	 *
+	 * @return the chunk size
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Checks if is auto negotiate.
+	 *
+	 * @return true, if checks if is auto negotiate
+	 */
+	public boolean isAutoNegotiate() {
+		return autoNegotiate;
+	}
+
+	/**
+	 * If false destinations are accepted when added, the encapsulating
+	 * application having negotiated the {@link #getMediaHash()} with them.
+	 * Defaults to true.
+	 *
+	 * @param autoNegotiate
+	 *          the auto negotiate
+	 */
+	public void setAutoNegotiate(boolean autoNegotiate) {
+		this.autoNegotiate = autoNegotiate;
+	}
+
+	private class Completion implements GenericFutureListener<ChannelFuture> {
+		private final List<FanOutDestination> targets;
+		private final AtomicInteger remaining;
+
+		Completion(List<FanOutDestination> targets, int writes) {
+			this.targets = targets;
+			this.remaining = new AtomicInteger(writes);
+		}
+
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			if (!future.isSuccess()) log.debug("Write failed", future.cause());
+
+			if (remaining.decrementAndGet() != 0) return;
+
+			for (FanOutDestination destination : targets) {
+				destination.messageSent();
+			}
+
+			scheduled.set(false);
+			wakeup();
+		}
+	}
+
+	private class AckListener implements MediaChunkListener<NegotiationAckChunk> {
+
+		@Override
+		public MediaStreamType getType() {
+			return MediaStreamType.NEGOTIATION_ACK;
+		}
+
+		@Override
+		public int getMediaHash() {
+			return AbstractFanOutStreamer.this.getMediaHash();
+		}
+
+		@Override
+		public void receive(NegotiationAckChunk chunk) {
+			try {
+				FanOutDestination destination = destinations.get(chunk.getRemote());
+				if (destination == null || destination.getState() != State.NEGOTIATING) return;
+
+				if (chunk.isAccepted()) {
+					accept(destination, chunk.getCapabilities());
+				} else {
+					reject(destination);
+				}
+			} finally {
+				chunk.release();
+			}
+		}
+
+		@Override
+		public void endOfMessage(MediaFooterChunk eom) {
+			if (!eom.isTerminateMessage(AbstractFanOutStreamer.this.getMediaHash())) return;
+
+			log.debug("Received receiver termination for type {}, hash {} from {}",
+					AbstractFanOutStreamer.this.getType(),
+					AbstractFanOutStreamer.this.getMediaHash(),
+					eom.getRemote());
+
+			remove(eom.getRemote(), false);
+		}
+
+		@Override
+		public void destroy() {
+		}
+	}
+
+	private class Chunker implements Streamer<byte[]> {
+
+		@Override
+		public ChannelFuture stream(byte[] message) throws Exception {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ChannelFuture stream() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return AbstractFanOutStreamer.this.isStreaming();
+		}
+
+		@Override
+		public void cancel() {
+		}
+
+		@Override
+		public void pause() {
+		}
+
+		@Override
+		public long getSequence() {
+			return sequence.get();
+		}
+
+		@Override
+		public boolean isAckRequired() {
+			return false;
+		}
+
+		@Override
+		public void ackRequired() {
+		}
+
+		@Override
+		public KiSyChannel getChannel() {
+			return channel;
+		}
+
+		@Override
+		public InetSocketAddress getDestination() {
+			return null;
+		}
+
+		@Override
+		public void setChunksPerSecond(int chunksPerSecond) {
+		}
+
+		@Override
+		public void fullThrottle() {
+		}
+
+		@Override
+		public void setThrottle(int throttle) {
+		}
+
+		@Override
+		public void setConcurrentThreads(int concurrentThreads) {
+		}
+
+		@Override
+		public long size() {
+			return 0;
+		}
+
+		@Override
+		public long sent() {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.fanout;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * The Class FanOutDestination tracks the negotiation state of one destination
+ * of an {@link AbstractFanOutStreamer}. Messages are sent only to
+ * {@link State#ACCEPTED} destinations.
+ * 
+ * @see AbstractFanOutStreamer#addDestination(InetSocketAddress)
+ */
+public class FanOutDestination {
+
+	/**
+	 * The Enum State.
+	 */
+	public enum State {
+		NEGOTIATING, ACCEPTED, REJECTED, REMOVED;
+	}
+
+	private final InetSocketAddress address;
+
+	private volatile State state = State.NEGOTIATING;
+	private volatile boolean chunkCounts;
+	private volatile boolean firstChunkFlag;
+
+	private final AtomicLong messagesSent = new AtomicLong();
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param address
+	 *          the address
+	 */
+	public FanOutDestination(InetSocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * Gets the address.
+	 *
+	 * @return the address
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Gets the state.
+	 *
+	 * @return the state
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Checks if is accepted.
+	 *
+	 * @return true, if checks if is accepted
+	 */
+	public boolean isAccepted() {
+		return state == State.ACCEPTED;
+	}
+
+	/**
+	 * Returns true if the destination supports footers carrying chunk counts.
+	 *
+	 * @return true, if checks if is chunk counts
+	 */
+	public boolean isChunkCounts() {
+		return chunkCounts;
+	}
+
+	/**
+	 * Returns true if the destination accepts the first chunk of a message
+	 * flagged in its header.
+	 *
+	 * @return true, if checks if is first chunk flag
+	 */
+	public boolean isFirstChunkFlag() {
+		return firstChunkFlag;
+	}
+
+	/**
+	 * Gets the number of messages sent to the destination.
+	 *
+	 * @return the messages sent
+	 */
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	void setState(State state) {
+		this.state = state;
+	}
+
+	void setChunkCounts(boolean chunkCounts) {
+		this.chunkCounts = chunkCounts;
+	}
+
+	void setFirstChunkFlag(boolean firstChunkFlag) {
+		this.firstChunkFlag = firstChunkFlag;
+	}
+
+	void messageSent() {
+		messagesSent.incrementAndGet();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+}
@@ -20,17 +20,48 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.file;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Recycler;
+
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
  * The Class DefaultFileChunk represents a part of a file, typically 2
- * kilobytes.
+ * kilobytes. Chunks of files streamed in windows carry the transfer id, file
+ * length and the offset in the file of their data.
+ * 
+ * @see FileWindowReader
  */
 public class DefaultFileChunk extends AbstractMediaChunk {
 
 	private static final long serialVersionUID = -6144053772710957439L;
 
+	private static final Recycler<DefaultFileChunk> RECYCLER = new Recycler<DefaultFileChunk>() {
+
+		@Override
+		protected DefaultFileChunk newObject(Handle handle) {
+			return new DefaultFileChunk(handle);
+		}
+	};
+
+	/**
+	 * Returns a pooled instance initialized from the message. The data is a
+	 * retained slice of the message; {@link #release()} the chunk once consumed
+	 * to return it to the pool.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the default file chunk
+	 */
+	public static DefaultFileChunk newInstance(ByteBuf message) {
+		DefaultFileChunk chunk = RECYCLER.get();
+		chunk.init(message, MediaStreamType.FILE);
+		return chunk;
+	}
+
 	/**
 	 * The Constructor.
 	 *
@@ -41,4 +72,65 @@ public class DefaultFileChunk extends AbstractMediaChunk {
 		super(message, MediaStreamType.FILE);
 	}
 
+	/**
+	 * Pooled instance constructor.
+	 *
+	 * @param handle
+	 *          the handle
+	 */
+	protected DefaultFileChunk(Recycler.Handle handle) {
+		super(handle);
+	}
+
+	/**
+	 * Returns true if the chunk is part of a window of a file.
+	 *
+	 * @return true, if checks if is windowed
+	 * @see DefaultFileChunkProcessor#setWindow(int, int, long, long)
+	 */
+	public boolean isWindowed() {
+		return getHeaderLength() >= MediaStreamerUtils.DEFAULT_HEADER_LENGTH
+				+ DefaultFileChunkProcessor.WINDOW_HEADER_LENGTH;
+	}
+
+	/**
+	 * Gets the id of the transfer of the file, -1 unless {@link #isWindowed()}.
+	 *
+	 * @return the transfer id
+	 */
+	public int getTransferId() {
+		return isWindowed() ? Unpooled.wrappedBuffer(getCustomHeaderChunk()).getInt(0) : -1;
+	}
+
+	/**
+	 * Gets the length of the file, -1 unless {@link #isWindowed()}.
+	 *
+	 * @return the file length
+	 */
+	public long getFileLength() {
+		return isWindowed() ? Unpooled.wrappedBuffer(getCustomHeaderChunk()).getLong(4) : -1;
+	}
+
+	/**
+	 * Gets the offset in the file of the chunk's data, -1 unless
+	 * {@link #isWindowed()}.
+	 *
+	 * @return the file offset
+	 */
+	public long getFileOffset() {
+		return isWindowed() ? Unpooled.wrappedBuffer(getCustomHeaderChunk()).getLong(12) : -1;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk#recycle
+	 * (io.netty.util.Recycler.Handle)
+	 */
+	@Override
+	protected boolean recycle(Recycler.Handle handle) {
+		return RECYCLER.recycle(this, handle);
+	}
+
 }
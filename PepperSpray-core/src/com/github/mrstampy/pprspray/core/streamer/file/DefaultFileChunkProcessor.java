@@ -20,14 +20,31 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.file;
 
+import io.netty.buffer.ByteBuf;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.mrstampy.kitchensync.stream.Streamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor;
 
 /**
- * The Class DefaultFileChunkProcessor.
+ * The Class DefaultFileChunkProcessor. Chunks of messages which are windows of
+ * a file carry the transfer id, the file length and the offset in the file of
+ * the chunk's data in the header.
+ * 
+ * @see #setWindow(int, int, long, long)
+ * @see DefaultFileChunk#isWindowed()
  */
 public class DefaultFileChunkProcessor extends AbstractMediaChunkProcessor {
 
+	/** The Constant WINDOW_HEADER_LENGTH. */
+	public static final int WINDOW_HEADER_LENGTH = 20;
+
+	private final Map<Integer, WindowContext> windows = new ConcurrentHashMap<>();
+
 	/**
 	 * The Constructor.
 	 */
@@ -35,6 +52,67 @@ public class DefaultFileChunkProcessor extends AbstractMediaChunkProcessor {
 		super(MediaStreamType.FILE);
 	}
 
+	/**
+	 * Identifies the message as a window of a file.
+	 *
+	 * @param messageHash
+	 *          the message hash
+	 * @param transferId
+	 *          the transfer id of the file
+	 * @param fileLength
+	 *          the file length
+	 * @param offset
+	 *          the offset of the window in the file
+	 * @see #clearWindow(int)
+	 */
+	public void setWindow(int messageHash, int transferId, long fileLength, long offset) {
+		windows.put(messageHash, new WindowContext(transferId, fileLength, offset));
+	}
+
+	/**
+	 * Clears the window context of the message once sent.
+	 *
+	 * @param messageHash
+	 *          the message hash
+	 */
+	public void clearWindow(int messageHash) {
+		windows.remove(messageHash);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor
+	 * #sizeInBytes(com.github.mrstampy.kitchensync.stream.Streamer)
+	 */
+	@Override
+	public int sizeInBytes(Streamer<?> streamer) {
+		int size = super.sizeInBytes(streamer);
+
+		return windows.containsKey(getMessageHash(streamer)) ? size + WINDOW_HEADER_LENGTH : size;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor
+	 * #appendToHeader(com.github.mrstampy.kitchensync.stream.Streamer,
+	 * io.netty.buffer.ByteBuf, int)
+	 */
+	@Override
+	protected void appendToHeader(Streamer<?> streamer, ByteBuf buf, int headerLength) {
+		WindowContext wc = windows.get(getMessageHash(streamer));
+		if (wc == null || headerLength < super.sizeInBytes(streamer) + WINDOW_HEADER_LENGTH) return;
+
+		long chunkOffset = streamer instanceof MediaMessageStreamer ? ((MediaMessageStreamer) streamer).getChunkOffset() : 0;
+
+		buf.writeInt(wc.transferId);
+		buf.writeLong(wc.fileLength);
+		buf.writeLong(wc.offset + chunkOffset);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -47,4 +125,16 @@ public class DefaultFileChunkProcessor extends AbstractMediaChunkProcessor {
 		return hashCode();
 	}
 
+	private static class WindowContext {
+		final int transferId;
+		final long fileLength;
+		final long offset;
+
+		WindowContext(int transferId, long fileLength, long offset) {
+			this.transferId = transferId;
+			this.fileLength = fileLength;
+			this.offset = offset;
+		}
+	}
+
 }
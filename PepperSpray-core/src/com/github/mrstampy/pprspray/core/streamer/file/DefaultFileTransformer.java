@@ -24,7 +24,10 @@ import java.io.File;
 import java.io.FileInputStream;
 
 /**
- * The Class DefaultFileTransformer.
+ * The Class DefaultFileTransformer reads the file untransformed. The
+ * {@link MediaFileStreamer} reads files in windows rather than invoking it.
+ * 
+ * @see FileWindowReader
  */
 public class DefaultFileTransformer implements FileTransformer {
 
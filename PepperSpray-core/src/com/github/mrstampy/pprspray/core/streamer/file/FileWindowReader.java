@@ -0,0 +1,338 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.functions.Action0;
+
+import com.github.mrstampy.pprspray.core.streamer.util.StreamerRuntime;
+
+/**
+ * The Class FileWindowReader reads a file in fixed size {@link Window}s with
+ * positional {@link FileChannel} reads or, if memory mapped, from a
+ * {@link MappedByteBuffer} of each window. Windows are read into a fixed pool
+ * of preallocated buffers, reading ahead while previously read windows are
+ * being sent; the heap used is bounded by the window size and count regardless
+ * of the size of the file. The listener is invoked as each window is read, and
+ * once should reading end.<br>
+ * <br>
+ * Read windows are taken by {@link #poll()} in file order and must be
+ * {@link Window#release()}d when no longer required. Blocks already received
+ * by the remote can be {@link #skip(TransferBitmap)}ped, windows then being read
+ * from the missing ranges only.
+ * 
+ * @see MediaFileStreamer
+ */
+public class FileWindowReader {
+	private static final Logger log = LoggerFactory.getLogger(FileWindowReader.class);
+
+	/** The Constant DEFAULT_WINDOW_SIZE. */
+	public static final int DEFAULT_WINDOW_SIZE = 1024 * 1024;
+
+	/** The Constant DEFAULT_WINDOW_COUNT. */
+	public static final int DEFAULT_WINDOW_COUNT = 2;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long length;
+	private final boolean memoryMapped;
+	private final Action0 listener;
+
+	private final BlockingQueue<Window> free;
+	private final BlockingQueue<Window> full;
+
+	private final AtomicBoolean reading = new AtomicBoolean(false);
+
+	private volatile long position;
+	private volatile TransferBitmap received;
+	private volatile boolean open = true;
+	private volatile boolean failed;
+
+	private final Runnable reader = new Runnable() {
+
+		@Override
+		public void run() {
+			readAhead();
+		}
+	};
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param file
+	 *          the file
+	 * @param windowSize
+	 *          the window size
+	 * @param windowCount
+	 *          the number of windows in the pool
+	 * @param memoryMapped
+	 *          true to read the file via memory mapping
+	 * @param listener
+	 *          the listener
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public FileWindowReader(File file, int windowSize, int windowCount, boolean memoryMapped, Action0 listener)
+			throws IOException {
+		if (file == null) throw new IllegalArgumentException("File cannot be null");
+		if (listener == null) throw new IllegalArgumentException("Listener cannot be null");
+		if (windowSize <= 0) throw new IllegalArgumentException("Window size must be > 0, was " + windowSize);
+		if (windowCount < 1) throw new IllegalArgumentException("Window count must be > 0, was " + windowCount);
+
+		this.file = file;
+		this.memoryMapped = memoryMapped;
+		this.listener = listener;
+
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		length = channel.size();
+
+		int size = (int) Math.max(1, Math.min(windowSize, length));
+		int count = (int) Math.max(1, Math.min(windowCount, (length + size - 1) / size));
+
+		free = new ArrayBlockingQueue<Window>(count);
+		full = new ArrayBlockingQueue<Window>(count);
+
+		for (int i = 0; i < count; i++) {
+			free.add(new Window(size));
+		}
+	}
+
+	/**
+	 * Skips the blocks of the file marked received in the bitmap. Invoke prior to
+	 * {@link #start()}.
+	 *
+	 * @param received
+	 *          the received
+	 */
+	public void skip(TransferBitmap received) {
+		if (received != null && received.getLength() != length) {
+			throw new IllegalArgumentException("Bitmap length " + received.getLength() + " != file length " + length);
+		}
+
+		this.received = received;
+		position = nextMissing(position);
+	}
+
+	/**
+	 * Starts reading ahead.
+	 */
+	public void start() {
+		scheduleRead();
+	}
+
+	/**
+	 * Returns the next window read, null if none are available.
+	 *
+	 * @return the window
+	 */
+	public Window poll() {
+		return full.poll();
+	}
+
+	/**
+	 * Returns the number of windows read and not yet polled.
+	 *
+	 * @return the int
+	 */
+	public int available() {
+		return full.size();
+	}
+
+	/**
+	 * Returns true if all windows have been read and polled, or if reading
+	 * failed or the reader has been closed.
+	 *
+	 * @return true, if checks if is done
+	 */
+	public boolean isDone() {
+		return !open || failed || (position >= length && full.isEmpty());
+	}
+
+	/**
+	 * Checks if reading failed.
+	 *
+	 * @return true, if checks if is failed
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Closes the file.
+	 */
+	public void close() {
+		if (!open) return;
+		open = false;
+
+		try {
+			raf.close();
+		} catch (IOException e) {
+			log.error("Unexpected exception closing {}", file, e);
+		}
+	}
+
+	private void scheduleRead() {
+		if (open && position < length && !free.isEmpty() && reading.compareAndSet(false, true)) {
+			StreamerRuntime.execute(reader);
+		}
+	}
+
+	private void readAhead() {
+		try {
+			Window w;
+			while (open && position < length && (w = free.poll()) != null) {
+				read(w, position);
+				position = nextMissing(w.offset + w.length);
+
+				full.offer(w);
+				listener.call();
+			}
+		} catch (Exception e) {
+			if (open) {
+				log.error("Unexpected exception reading {}", file, e);
+				failed = true;
+				listener.call();
+			}
+		} finally {
+			reading.set(false);
+		}
+
+		scheduleRead();
+	}
+
+	private long nextMissing(long offset) {
+		TransferBitmap tb = received;
+
+		return tb == null ? offset : tb.nextMissing(offset);
+	}
+
+	private void read(Window w, long offset) throws IOException {
+		TransferBitmap tb = received;
+		long end = tb == null ? length : tb.nextReceived(offset);
+
+		int len = (int) Math.min(w.data.length, end - offset);
+
+		if (memoryMapped) {
+			MappedByteBuffer mbb = channel.map(MapMode.READ_ONLY, offset, len);
+			mbb.get(w.data, 0, len);
+		} else {
+			ByteBuffer bb = ByteBuffer.wrap(w.data, 0, len);
+			while (bb.hasRemaining()) {
+				if (channel.read(bb, offset + bb.position()) < 0) throw new IOException("Unexpected end of " + file);
+			}
+		}
+
+		w.offset = offset;
+		w.length = len;
+	}
+
+	/**
+	 * Gets the file.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the length of the file.
+	 *
+	 * @return the length
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Checks if is memory mapped.
+	 *
+	 * @return true, if checks if is memory mapped
+	 */
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	/**
+	 * The Class Window is a preallocated buffer holding a window of the file.
+	 */
+	public class Window {
+		private final byte[] data;
+		private long offset;
+		private int length;
+
+		private Window(int size) {
+			data = new byte[size];
+		}
+
+		/**
+		 * Gets the window's buffer, of which the first {@link #getLength()} bytes
+		 * are valid.
+		 *
+		 * @return the data
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * Gets the offset of the window in the file.
+		 *
+		 * @return the offset
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Gets the number of bytes read into the window.
+		 *
+		 * @return the length
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Returns the window to the pool, reading ahead into it.
+		 */
+		public void release() {
+			free.offer(this);
+			scheduleRead();
+		}
+	}
+
+}
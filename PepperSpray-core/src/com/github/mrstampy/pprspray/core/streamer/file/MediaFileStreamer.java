@@ -20,34 +20,95 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.file;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.concurrent.GenericFutureListener;
+
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import rx.Scheduler;
+import rx.Scheduler.Worker;
 import rx.functions.Action0;
-import rx.schedulers.Schedulers;
 
 import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.pprspray.core.receiver.file.DiskFileReceiver;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.binary.BinaryStreamer;
+import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.MediaChunkListener;
 import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationAckChunk;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationMessageUtils;
+import com.github.mrstampy.pprspray.core.streamer.util.StreamerRuntime;
 
 /**
- * A subclass of the {@link BinaryStreamer} for files.
+ * A subclass of the {@link BinaryStreamer} for files. Unless a custom
+ * {@link FileTransformer} has been set files are read by a
+ * {@link FileWindowReader} and streamed as successive messages of up to
+ * {@link #getWindowSize()} bytes, each a window of the file identified by its
+ * transfer id and offset; the heap used is bounded by the window size and count
+ * rather than the size of the file. Files no larger than the window size are
+ * streamed as a single message. Custom transformers receive the whole file as
+ * before.<br>
+ * <br>
+ * If {@link #isResumable()} and the remote advertised
+ * {@link NegotiationMessageUtils#RESUMABLE_TRANSFERS} the blocks of each file
+ * already received by the remote, as from an interrupted transfer, are
+ * requested before the file is read and only the missing blocks are streamed.
+ * Should no answer be received within the {@link #getResumeTimeoutMillis()} the
+ * file is streamed in its entirety.
+ * 
+ * @see DefaultFileChunk#isWindowed()
+ * @see DiskFileReceiver
  */
 public class MediaFileStreamer extends BinaryStreamer {
 	private static final Logger log = LoggerFactory.getLogger(MediaFileStreamer.class);
 
 	private static final int DEFAULT_FILE_PIPE_SIZE = 1024 * 4000;
 
+	/** The Constant DEFAULT_RESUME_TIMEOUT_MILLIS. */
+	public static final long DEFAULT_RESUME_TIMEOUT_MILLIS = 5000;
+
 	private FileTransformer fileTransformer;
 
-	private Scheduler svc = Schedulers.from(Executors.newSingleThreadExecutor());
+	private Worker worker = StreamerRuntime.getScheduler().createWorker();
+
+	private final Queue<File> files = new ConcurrentLinkedQueue<File>();
+
+	private volatile FileWindowReader reader;
+	private int transferId;
+
+	private FileWindowReader.Window window;
+	private long windowFileLength;
+
+	private int windowSize = FileWindowReader.DEFAULT_WINDOW_SIZE;
+	private int windowCount = FileWindowReader.DEFAULT_WINDOW_COUNT;
+	private boolean memoryMapped;
+
+	private volatile boolean resumable = true;
+	private volatile long resumeTimeoutMillis = DEFAULT_RESUME_TIMEOUT_MILLIS;
+	private volatile ResumeListener resume;
+
+	private final Action0 windowRead = new Action0() {
+
+		@Override
+		public void call() {
+			wakeup();
+		}
+	};
 
 	/**
 	 * The Constructor.
@@ -81,7 +142,17 @@ public class MediaFileStreamer extends BinaryStreamer {
 
 		if (ft == null) throw new IllegalStateException("FileTransformer cannot be null");
 
-		svc.createWorker().schedule(new Action0() {
+		if (ft.getClass() == DefaultFileTransformer.class) {
+			if (!file.isFile() || !file.canRead()) throw new IOException("Cannot read file " + file.getAbsolutePath());
+
+			files.add(file);
+			if (!isStreaming()) start();
+			wakeup();
+
+			return;
+		}
+
+		worker.schedule(new Action0() {
 
 			@Override
 			public void call() {
@@ -95,6 +166,283 @@ public class MediaFileStreamer extends BinaryStreamer {
 		});
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.binary.BinaryStreamer#getBytes()
+	 */
+	@Override
+	protected byte[] getBytes() {
+		FileWindowReader r = nextReader();
+		if (r == null) return super.getBytes();
+
+		FileWindowReader.Window w = r.poll();
+		if (w == null) return null;
+
+		window = w;
+		windowFileLength = r.getLength();
+
+		byte[] b = w.getData();
+
+		return w.getLength() == b.length ? b : Arrays.copyOf(b, w.getLength());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.binary.BinaryStreamer#sendData
+	 * (com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer, byte[])
+	 */
+	@Override
+	protected ChannelFuture sendData(MediaMessageStreamer lane, byte[] data) throws Exception {
+		final FileWindowReader.Window w = window;
+		window = null;
+
+		if (w == null) return super.sendData(lane, data);
+
+		final int messageHash = lane.getMessageHash();
+		final DefaultFileChunkProcessor dfcp = getFileChunkProcessor();
+
+		if (dfcp != null) dfcp.setWindow(messageHash, transferId, windowFileLength, w.getOffset());
+
+		try {
+			ChannelFuture cf = super.sendData(lane, data);
+			cf.addListener(new GenericFutureListener<ChannelFuture>() {
+
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					if (dfcp != null) dfcp.clearWindow(messageHash);
+					w.release();
+				}
+			});
+
+			return cf;
+		} catch (Exception e) {
+			if (dfcp != null) dfcp.clearWindow(messageHash);
+			w.release();
+			throw e;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.binary.BinaryStreamer#hasBytes()
+	 */
+	@Override
+	protected boolean hasBytes() {
+		FileWindowReader r = reader;
+
+		return super.hasBytes() || !files.isEmpty() || (r != null && r.available() > 0);
+	}
+
+	private DefaultFileChunkProcessor getFileChunkProcessor() {
+		AbstractMediaChunkProcessor amcp = getMediaChunkProcessor();
+
+		return amcp instanceof DefaultFileChunkProcessor ? (DefaultFileChunkProcessor) amcp : null;
+	}
+
+	private FileWindowReader nextReader() {
+		FileWindowReader r = reader;
+		if (r != null && !r.isDone()) return r;
+
+		if (r != null) finish(r);
+
+		File file;
+		while ((file = files.poll()) != null) {
+			try {
+				r = new FileWindowReader(file, getWindowSize(), getWindowCount(), isMemoryMapped(), windowRead);
+				if (r.getLength() == 0) {
+					log.debug("Skipping empty file {}", file.getAbsolutePath());
+					r.close();
+					continue;
+				}
+
+				transferId = createTransferId(file);
+				reader = r;
+
+				if (isResumeSupported()) {
+					requestResume(r, transferId);
+				} else {
+					r.start();
+				}
+
+				return r;
+			} catch (IOException e) {
+				log.error("Unexpected exception streaming file {}", file.getAbsolutePath(), e);
+			}
+		}
+
+		return null;
+	}
+
+	private boolean isResumeSupported() {
+		int required = NegotiationMessageUtils.RESUMABLE_TRANSFERS;
+
+		return isResumable() && !isMulticast() && (getPeerCapabilities() & required) == required;
+	}
+
+	private void requestResume(FileWindowReader r, int transferId) {
+		log.debug("Requesting blocks received of transfer {} of file {}", transferId, r.getFile().getAbsolutePath());
+
+		ResumeListener rl = new ResumeListener(r, transferId);
+		resume = rl;
+		ChunkEventBus.register(rl);
+
+		StreamerRuntime.schedule(rl, getResumeTimeoutMillis(), TimeUnit.MILLISECONDS);
+
+		ByteBuf buf = NegotiationMessageUtils.getResumeMessage(getMediaHash(), transferId, r.getLength());
+		getChannel().send(buf.array(), getDestination());
+	}
+
+	private void finish(FileWindowReader r) {
+		reader = null;
+		r.close();
+
+		ResumeListener rl = resume;
+		if (rl != null) rl.resolve(null);
+
+		if (r.isFailed()) {
+			log.warn("Streaming of file {} failed", r.getFile().getAbsolutePath());
+		} else {
+			log.debug("Streamed file {}, {} bytes", r.getFile().getAbsolutePath(), r.getLength());
+		}
+	}
+
+	/**
+	 * Creates the id identifying the transfer of the file to the receiver,
+	 * derived from the file's path, length and last modification time.
+	 *
+	 * @param file
+	 *          the file
+	 * @return the transfer id
+	 */
+	protected int createTransferId(File file) {
+		//@formatter:off
+		return new HashCodeBuilder()
+				.append(file.getAbsolutePath())
+				.append(file.length())
+				.append(file.lastModified())
+				.toHashCode();
+		//@formatter:on
+	}
+
+	/**
+	 * Gets the size of the windows in which files are read.
+	 *
+	 * @return the window size
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Sets the size of the windows in which files are read, applied to the files
+	 * subsequently streamed. Defaults to
+	 * {@link FileWindowReader#DEFAULT_WINDOW_SIZE}.
+	 *
+	 * @param windowSize
+	 *          the window size
+	 */
+	public void setWindowSize(int windowSize) {
+		if (windowSize <= 0) throw new IllegalArgumentException("Window size must be > 0, was " + windowSize);
+
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Gets the number of windows read ahead.
+	 *
+	 * @return the window count
+	 */
+	public int getWindowCount() {
+		return windowCount;
+	}
+
+	/**
+	 * Sets the number of windows of each file held in memory, at least one more
+	 * than the {@link #getMaxInFlightMessages()} to read ahead while sending.
+	 * Defaults to {@link FileWindowReader#DEFAULT_WINDOW_COUNT}.
+	 *
+	 * @param windowCount
+	 *          the window count
+	 */
+	public void setWindowCount(int windowCount) {
+		if (windowCount < 1) throw new IllegalArgumentException("Window count must be > 0, was " + windowCount);
+
+		this.windowCount = windowCount;
+	}
+
+	/**
+	 * Checks if files are read via memory mapping.
+	 *
+	 * @return true, if checks if is memory mapped
+	 */
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	/**
+	 * If true files are read via memory mapping, else with positional reads.
+	 *
+	 * @param memoryMapped
+	 *          the memory mapped
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	/**
+	 * Checks if interrupted transfers are resumed.
+	 *
+	 * @return true, if checks if is resumable
+	 */
+	public boolean isResumable() {
+		return resumable;
+	}
+
+	/**
+	 * If true, the default, the blocks of each file already received by the
+	 * remote are requested prior to streaming and skipped. Applies only should
+	 * the remote have advertised
+	 * {@link NegotiationMessageUtils#RESUMABLE_TRANSFERS} and not to multicast
+	 * destinations.
+	 *
+	 * @param resumable
+	 *          the resumable
+	 */
+	public void setResumable(boolean resumable) {
+		this.resumable = resumable;
+	}
+
+	/**
+	 * Gets the time awaited for the answer to a resume request.
+	 *
+	 * @return the resume timeout millis
+	 */
+	public long getResumeTimeoutMillis() {
+		return resumeTimeoutMillis;
+	}
+
+	/**
+	 * Sets the time awaited for the answer to a resume request, after which the
+	 * file is streamed in its entirety. Defaults to
+	 * {@link #DEFAULT_RESUME_TIMEOUT_MILLIS}.
+	 *
+	 * @param resumeTimeoutMillis
+	 *          the resume timeout millis
+	 */
+	public void setResumeTimeoutMillis(long resumeTimeoutMillis) {
+		if (resumeTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("Resume timeout must be > 0, was " + resumeTimeoutMillis);
+		}
+
+		this.resumeTimeoutMillis = resumeTimeoutMillis;
+	}
+
 	/**
 	 * Gets the file transformer.
 	 *
@@ -114,6 +462,104 @@ public class MediaFileStreamer extends BinaryStreamer {
 		this.fileTransformer = fileTransformer;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#destroyImpl
+	 * ()
+	 */
+	@Override
+	protected void destroyImpl() {
+		worker.unsubscribe();
+		files.clear();
+
+		FileWindowReader r = reader;
+		if (r != null) finish(r);
+
+		super.destroyImpl();
+	}
+
+	/**
+	 * Awaits the answer to a resume request, starting the reader once received
+	 * or on timeout.
+	 */
+	private class ResumeListener implements MediaChunkListener<NegotiationAckChunk>, Runnable {
+		private final FileWindowReader reader;
+		private final int transferId;
+		private final AtomicBoolean resolved = new AtomicBoolean(false);
+
+		public ResumeListener(FileWindowReader reader, int transferId) {
+			this.reader = reader;
+			this.transferId = transferId;
+		}
+
+		@Override
+		public MediaStreamType getType() {
+			return MediaStreamType.NEGOTIATION_ACK;
+		}
+
+		@Override
+		public int getMediaHash() {
+			return MediaFileStreamer.this.getMediaHash();
+		}
+
+		@Override
+		public void receive(NegotiationAckChunk chunk) {
+			try {
+				if (!chunk.isResume() || chunk.getTransferId() != transferId) return;
+
+				TransferBitmap tb = chunk.getTransferBitmap();
+				if (tb != null && tb.getLength() != reader.getLength()) {
+					log.warn("Ignoring {} for file of length {}", tb, reader.getLength());
+					tb = null;
+				}
+
+				resolve(tb);
+			} catch (Exception e) {
+				log.error("Unexpected exception", e);
+				resolve(null);
+			} finally {
+				chunk.release();
+			}
+		}
+
+		/**
+		 * Timeout.
+		 */
+		@Override
+		public void run() {
+			if (resolved.get()) return;
+
+			log.debug("No answer to resume request for transfer {}, streaming in full", transferId);
+			resolve(null);
+		}
+
+		public void resolve(TransferBitmap received) {
+			if (!resolved.compareAndSet(false, true)) return;
+
+			ChunkEventBus.unregister(this);
+			if (resume == this) resume = null;
+
+			if (received != null) {
+				log.debug("Resuming transfer {}: {}", transferId, received);
+				reader.skip(received);
+			}
+
+			reader.start();
+			wakeup();
+		}
+
+		@Override
+		public void endOfMessage(MediaFooterChunk eom) {
+		}
+
+		@Override
+		public void destroy() {
+			resolve(null);
+		}
+	}
+
 	private void initDefaultChunkProcessorAndFooter() {
 		DefaultFileChunkProcessor dfcp = new DefaultFileChunkProcessor();
 
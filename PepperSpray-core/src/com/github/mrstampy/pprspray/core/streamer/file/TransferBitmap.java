@@ -0,0 +1,314 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.file;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The Class TransferBitmap records which fixed size blocks of a file transfer
+ * have been received. The block size is derived from the length of the file
+ * such that the bitmap of even a very large file fits in a single datagram,
+ * allowing it to be exchanged during negotiation to resume an interrupted
+ * transfer.
+ * 
+ * @see MediaFileStreamer#setResumable(boolean)
+ * @see FileWindowReader#skip(TransferBitmap)
+ */
+public class TransferBitmap {
+
+	/** The Constant MIN_BLOCK_SIZE. */
+	public static final int MIN_BLOCK_SIZE = 64 * 1024;
+
+	/** The Constant MAX_BLOCKS, bounding the bitmap to 1 kilobyte. */
+	public static final int MAX_BLOCKS = 8192;
+
+	/** The Constant HEADER_LENGTH, the transfer id, length and block size. */
+	public static final int HEADER_LENGTH = 16;
+
+	private final int transferId;
+	private final long length;
+	private final int blockSize;
+	private final int blockCount;
+	private final BitSet blocks;
+
+	/**
+	 * Returns the block size for a file of the given length, the smallest power
+	 * of two no less than {@link #MIN_BLOCK_SIZE} for which the file has no more
+	 * than {@link #MAX_BLOCKS}.
+	 *
+	 * @param length
+	 *          the length
+	 * @return the block size
+	 */
+	public static int blockSize(long length) {
+		long size = MIN_BLOCK_SIZE;
+		while (size * MAX_BLOCKS < length) {
+			size <<= 1;
+		}
+
+		return (int) Math.min(size, 1 << 30);
+	}
+
+	/**
+	 * Reads the bitmap written by {@link #write(ByteBuf)}, consuming the
+	 * remainder of the buffer.
+	 *
+	 * @param buf
+	 *          the buf
+	 * @return the transfer bitmap
+	 */
+	public static TransferBitmap read(ByteBuf buf) {
+		if (buf.readableBytes() < HEADER_LENGTH) {
+			throw new IllegalArgumentException("Transfer bitmap must be >= " + HEADER_LENGTH + " bytes, was "
+					+ buf.readableBytes());
+		}
+
+		int transferId = buf.readInt();
+		long length = buf.readLong();
+		int blockSize = buf.readInt();
+
+		if (length < 0 || blockSize != blockSize(length)) {
+			throw new IllegalArgumentException("Invalid transfer bitmap, length " + length + ", block size " + blockSize);
+		}
+
+		byte[] bits = new byte[buf.readableBytes()];
+		buf.readBytes(bits);
+
+		TransferBitmap bitmap = new TransferBitmap(transferId, length);
+		BitSet read = BitSet.valueOf(bits);
+		read.clear(bitmap.blockCount, Math.max(bitmap.blockCount, read.length()));
+		bitmap.blocks.or(read);
+
+		return bitmap;
+	}
+
+	/**
+	 * The Constructor, no blocks received.
+	 *
+	 * @param transferId
+	 *          the transfer id
+	 * @param length
+	 *          the length of the file
+	 */
+	public TransferBitmap(int transferId, long length) {
+		if (length < 0) throw new IllegalArgumentException("Length must be >= 0, was " + length);
+
+		this.transferId = transferId;
+		this.length = length;
+		this.blockSize = blockSize(length);
+		this.blockCount = (int) ((length + blockSize - 1) / blockSize);
+		this.blocks = new BitSet(blockCount);
+	}
+
+	/**
+	 * Writes the transfer id, length, block size and the bitmap to the buffer.
+	 *
+	 * @param buf
+	 *          the buf
+	 * @see #read(ByteBuf)
+	 */
+	public synchronized void write(ByteBuf buf) {
+		buf.writeInt(transferId);
+		buf.writeLong(length);
+		buf.writeInt(blockSize);
+		buf.writeBytes(Arrays.copyOf(blocks.toByteArray(), getBitmapLength()));
+	}
+
+	/**
+	 * Returns the number of bytes written by {@link #write(ByteBuf)}.
+	 *
+	 * @return the serialized length
+	 */
+	public int getSerializedLength() {
+		return HEADER_LENGTH + getBitmapLength();
+	}
+
+	private int getBitmapLength() {
+		return (blockCount + 7) / 8;
+	}
+
+	/**
+	 * Marks the block received.
+	 *
+	 * @param block
+	 *          the block
+	 */
+	public synchronized void set(int block) {
+		checkBlock(block);
+
+		blocks.set(block);
+	}
+
+	/**
+	 * Checks if the block has been received.
+	 *
+	 * @param block
+	 *          the block
+	 * @return true, if checks if is received
+	 */
+	public synchronized boolean isReceived(int block) {
+		checkBlock(block);
+
+		return blocks.get(block);
+	}
+
+	/**
+	 * Returns true if all blocks have been received.
+	 *
+	 * @return true, if checks if is complete
+	 */
+	public synchronized boolean isComplete() {
+		return blocks.cardinality() == blockCount;
+	}
+
+	/**
+	 * Returns the number of blocks received.
+	 *
+	 * @return the received count
+	 */
+	public synchronized int getReceivedCount() {
+		return blocks.cardinality();
+	}
+
+	/**
+	 * Returns the offset of the first byte at or after the offset not within a
+	 * received block, the length of the file if none.
+	 *
+	 * @param offset
+	 *          the offset
+	 * @return the next missing offset
+	 */
+	public synchronized long nextMissing(long offset) {
+		if (offset >= length) return length;
+
+		int block = blocks.nextClearBit(block(offset));
+		if (block >= blockCount) return length;
+
+		return Math.max(offset, start(block));
+	}
+
+	/**
+	 * Returns the offset of the first byte at or after the offset within a
+	 * received block, the length of the file if none.
+	 *
+	 * @param offset
+	 *          the offset
+	 * @return the next received offset
+	 */
+	public synchronized long nextReceived(long offset) {
+		if (offset >= length) return length;
+
+		int block = blocks.nextSetBit(block(offset));
+		if (block < 0) return length;
+
+		return Math.max(offset, start(block));
+	}
+
+	/**
+	 * Returns the block containing the offset.
+	 *
+	 * @param offset
+	 *          the offset
+	 * @return the int
+	 */
+	public int block(long offset) {
+		return (int) (offset / blockSize);
+	}
+
+	/**
+	 * Returns the offset of the first byte of the block.
+	 *
+	 * @param block
+	 *          the block
+	 * @return the long
+	 */
+	public long start(int block) {
+		return (long) block * blockSize;
+	}
+
+	/**
+	 * Returns the offset following the last byte of the block.
+	 *
+	 * @param block
+	 *          the block
+	 * @return the long
+	 */
+	public long end(int block) {
+		return Math.min(length, start(block) + blockSize);
+	}
+
+	private void checkBlock(int block) {
+		if (block < 0 || block >= blockCount) {
+			throw new IllegalArgumentException("Block must be >= 0 and < " + blockCount + ", was " + block);
+		}
+	}
+
+	/**
+	 * Gets the transfer id.
+	 *
+	 * @return the transfer id
+	 */
+	public int getTransferId() {
+		return transferId;
+	}
+
+	/**
+	 * Gets the length of the file.
+	 *
+	 * @return the length
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Gets the block size.
+	 *
+	 * @return the block size
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Gets the block count.
+	 *
+	 * @return the block count
+	 */
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "TransferBitmap [transferId=" + transferId + ", length=" + length + ", blocks=" + blocks.cardinality()
+				+ "/" + blockCount + "]";
+	}
+
+}
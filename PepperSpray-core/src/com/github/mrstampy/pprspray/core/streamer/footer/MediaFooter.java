@@ -27,8 +27,12 @@ import com.github.mrstampy.kitchensync.stream.footer.Footer;
 import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
 import com.github.mrstampy.pprspray.core.receiver.MediaEvent;
 import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
+import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunkProcessor;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationAckChunk;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationMessageUtils;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
@@ -36,14 +40,26 @@ import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
  * remote {@link AbstractChunkReceiver} to reconstitute and process the data
  * received in {@link AbstractMediaChunk}s into a {@link MediaEvent}.
  * 
+ * If {@link #isChunkCounts()} the footer also carries the number of chunks and
+ * the length in bytes of the message, allowing the receiver to finalize the
+ * message as soon as all chunks are present. This is only enabled once the
+ * remote peer has acknowledged support during negotiation.
+ * 
  * @see AbstractMediaStreamer#setMediaFooter(Footer)
+ * @see NegotiationMessageUtils#FOOTER_CHUNK_COUNTS
  */
 public class MediaFooter implements Footer {
 
 	private MediaStreamType type;
 	private int mediaHash;
 	private int messageHash;
-	private byte[] footer;
+	private volatile byte[] footer;
+	private volatile int footerHash;
+
+	private volatile boolean chunkCounts;
+	private int messageLength;
+	private AbstractMediaChunkProcessor chunkProcessor;
+	private volatile MediaMessageStreamer messageStreamer;
 
 	/**
 	 * The Constructor.
@@ -75,9 +91,28 @@ public class MediaFooter implements Footer {
 	 */
 	@Override
 	public byte[] createFooter() {
-		if (footer == null) footer = buildFooter();
+		if (isChunkCounts() && (messageStreamer != null || chunkProcessor != null)) return buildCountingFooter();
+
+		byte[] b = footer;
+		if (b == null || getMessageHash() != footerHash) {
+			b = buildFooter();
+			footer = b;
+			footerHash = getMessageHash();
+		}
+
+		return b;
+	}
+
+	private byte[] buildCountingFooter() {
+		ByteBuf buf = Unpooled.buffer(MediaStreamerUtils.EXTENDED_FOOTER_LENGTH);
 
-		return footer;
+		buf.writeBytes(getType().eomBytes());
+		buf.writeInt(getMessageHash());
+		buf.writeInt(getMediaHash());
+		buf.writeInt(messageStreamer == null ? chunkProcessor.getChunkCount() : messageStreamer.getChunkCount());
+		buf.writeInt(getMessageLength());
+
+		return buf.array();
 	}
 
 	private byte[] buildFooter() {
@@ -143,7 +178,7 @@ public class MediaFooter implements Footer {
 	 * @return the message hash
 	 */
 	public int getMessageHash() {
-		return messageHash;
+		return messageStreamer == null ? messageHash : messageStreamer.getMessageHash();
 	}
 
 	/**
@@ -157,4 +192,68 @@ public class MediaFooter implements Footer {
 		footer = null;
 	}
 
+	/**
+	 * Checks if the footer carries chunk counts.
+	 *
+	 * @return true, if checks if is chunk counts
+	 */
+	public boolean isChunkCounts() {
+		return chunkCounts;
+	}
+
+	/**
+	 * Set to true to include the chunk count and message length in the footer.
+	 * Only enable if the receiving peer supports it.
+	 *
+	 * @param chunkCounts
+	 *          the chunk counts
+	 * @see NegotiationAckChunk#hasCapability(int)
+	 */
+	public void setChunkCounts(boolean chunkCounts) {
+		this.chunkCounts = chunkCounts;
+	}
+
+	/**
+	 * Gets the message length.
+	 *
+	 * @return the message length
+	 */
+	public int getMessageLength() {
+		return messageStreamer == null ? messageLength : messageStreamer.getMessageLength();
+	}
+
+	/**
+	 * Sets the length in bytes of the message being sent.
+	 *
+	 * @param messageLength
+	 *          the message length
+	 */
+	public void setMessageLength(int messageLength) {
+		this.messageLength = messageLength;
+	}
+
+	/**
+	 * Sets the chunk processor from which the chunk count of the message is
+	 * obtained.
+	 *
+	 * @param chunkProcessor
+	 *          the chunk processor
+	 */
+	public void setChunkProcessor(AbstractMediaChunkProcessor chunkProcessor) {
+		this.chunkProcessor = chunkProcessor;
+	}
+
+	/**
+	 * Binds the footer to the message context of the streamer, from which the
+	 * message hash, length and chunk count are then obtained. Invoked by
+	 * {@link MediaMessageStreamer#setFooter(com.github.mrstampy.kitchensync.stream.footer.Footer)}
+	 * .
+	 *
+	 * @param messageStreamer
+	 *          the message streamer, null to unbind
+	 */
+	public void setMessageStreamer(MediaMessageStreamer messageStreamer) {
+		this.messageStreamer = messageStreamer;
+	}
+
 }
@@ -20,13 +20,9 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.footer;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-
-import java.util.Arrays;
-
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
@@ -37,6 +33,9 @@ public class MediaFooterChunk extends AbstractMediaChunk {
 
 	private static final long serialVersionUID = -2298381545581713528L;
 
+	private int chunkCount = -1;
+	private int messageLength = -1;
+
 	/**
 	 * The Constructor.
 	 *
@@ -45,46 +44,74 @@ public class MediaFooterChunk extends AbstractMediaChunk {
 	 */
 	public MediaFooterChunk(byte[] message) {
 		super(message, null);
+
+		MediaHeaderFlyweight header = MediaStreamerUtils.getHeader(message);
+		if (!header.hasFooterCounts()) return;
+
+		chunkCount = header.getFooterChunkCount();
+		messageLength = header.getFooterMessageLength();
+	}
+
+	/**
+	 * Returns true if the footer carries the chunk count and message length of
+	 * the message, allowing the message to be finalized as soon as all chunks
+	 * have been received.
+	 *
+	 * @return true, if checks for counts
+	 */
+	public boolean hasCounts() {
+		return chunkCount >= 0 && messageLength >= 0;
+	}
+
+	/**
+	 * Gets the number of chunks in the message, -1 if unknown.
+	 *
+	 * @return the chunk count
+	 */
+	public int getChunkCount() {
+		return chunkCount;
+	}
+
+	/**
+	 * Gets the length in bytes of the message, -1 if unknown.
+	 *
+	 * @return the message length
+	 */
+	public int getMessageLength() {
+		return messageLength;
 	}
 
 	/**
 	 * Extract media hash.
 	 *
-	 * @param message
-	 *          the message
+	 * @param header
+	 *          the header
 	 */
-	protected void extractMediaHash(byte[] message) {
-		setMediaHash(extractInt(message, 8, 12));
+	protected void extractMediaHash(MediaHeaderFlyweight header) {
+		setMediaHash(header.getFooterMediaHash());
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk#
-	 * extractMessageHash(byte[])
+	 * extractMessageHash
+	 * (com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight)
 	 */
-	protected void extractMessageHash(byte[] message) {
-		setMessageHash(extractInt(message, 4, 8));
-	}
-
-	private int extractInt(byte[] message, int start, int end) {
-		byte[] hash = Arrays.copyOfRange(message, start, end);
-
-		ByteBuf buf = Unpooled.copiedBuffer(hash);
-
-		return buf.getInt(0);
+	protected void extractMessageHash(MediaHeaderFlyweight header) {
+		setMessageHash(header.getFooterMessageHash());
 	}
 
 	/**
 	 * Extract media stream type.
 	 *
-	 * @param message
-	 *          the message
+	 * @param header
+	 *          the header
 	 * @param expected
 	 *          the expected
 	 */
-	protected void extractMediaStreamType(byte[] message, MediaStreamType expected) {
-		MediaStreamType type = MediaStreamerUtils.getMediaStreamTypeAsFooter(message);
+	protected void extractMediaStreamType(MediaHeaderFlyweight header, MediaStreamType expected) {
+		MediaStreamType type = header.getFooterType();
 		if (type == null) throw new IllegalArgumentException("Message is not a media type message");
 
 		setMediaStreamType(type);
@@ -93,29 +120,40 @@ public class MediaFooterChunk extends AbstractMediaChunk {
 	/**
 	 * Extract header length.
 	 *
-	 * @param message
-	 *          the message
+	 * @param header
+	 *          the header
 	 */
-	protected void extractHeaderLength(byte[] message) {
+	protected void extractHeaderLength(MediaHeaderFlyweight header) {
 		setHeaderLength(MediaStreamerUtils.FOOTER_LENGTH);
 	}
 
 	/**
 	 * Extract sequence.
 	 *
-	 * @param message
-	 *          the message
+	 * @param header
+	 *          the header
+	 */
+	protected void extractSequence(MediaHeaderFlyweight header) {
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk#
+	 * extractAckRequired
+	 * (com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight)
 	 */
-	protected void extractSequence(byte[] message) {
+	protected void extractAckRequired(MediaHeaderFlyweight header) {
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk#
-	 * extractAckRequired(byte[])
+	 * extractFirstChunk
+	 * (com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight)
 	 */
-	protected void extractAckRequired(byte[] message) {
+	protected void extractFirstChunk(MediaHeaderFlyweight header) {
 	}
 
 	/**
@@ -20,16 +20,24 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.negotiation;
 
+import io.netty.buffer.ByteBuf;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
 import com.github.mrstampy.pprspray.core.handler.NegotiationAckHandler;
 import com.github.mrstampy.pprspray.core.handler.NegotiationHandler;
 import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
 import com.github.mrstampy.pprspray.core.receiver.MediaEventBus;
 import com.github.mrstampy.pprspray.core.receiver.MediaProcessor;
+import com.github.mrstampy.pprspray.core.receiver.file.DiskFileReceiver;
 import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.MediaChunkListener;
+import com.github.mrstampy.pprspray.core.streamer.file.TransferBitmap;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 import com.google.common.eventbus.Subscribe;
 
 /**
@@ -38,7 +46,11 @@ import com.google.common.eventbus.Subscribe;
  * streaming media of the specified type. If the negotiation is affirmative an
  * appropriate {@link AbstractChunkReceiver} and {@link MediaProcessor} must be
  * created and registered on the corresponding event buses and a
- * {@link NegotiationAckChunk} message must be sent back to the requester.
+ * {@link NegotiationAckChunk} message must be sent back to the requester.<br>
+ * <br>
+ * Requests to resume a file transfer, {@link NegotiationChunk#isResumeRequest()}
+ * , are answered by {@link #resumeRequested(NegotiationChunk)} with the blocks
+ * received by the {@link DiskFileReceiver} registered for the media hash.
  * 
  * @see ChunkEventBus
  * @see MediaEventBus
@@ -106,12 +118,44 @@ public abstract class AbstractNegotiationSubscriber {
 	@Subscribe
 	public final void negotiationRequested(NegotiationChunk event) {
 		try {
-			negotiationRequestedImpl(event);
+			if (event.isResumeRequest()) {
+				resumeRequested(event);
+			} else {
+				negotiationRequestedImpl(event);
+			}
 		} catch (Exception e) {
 			log.error("Unexpected exception", e);
 		}
 	}
 
+	/**
+	 * Answers the request to resume a file transfer with the blocks received by
+	 * the {@link DiskFileReceiver} registered for the media hash, rejecting the
+	 * request if there is none.
+	 *
+	 * @param event
+	 *          the event
+	 * @see DiskFileReceiver#resume(int, long)
+	 */
+	protected void resumeRequested(NegotiationChunk event) {
+		int mediaHash = event.getMediaHash();
+		int transferId = event.getTransferId();
+
+		MediaChunkListener<?> listener = ChunkEventBus.get(MediaStreamType.FILE, mediaHash);
+
+		TransferBitmap bitmap = null;
+		if (listener instanceof DiskFileReceiver) {
+			bitmap = ((DiskFileReceiver) listener).resume(transferId, event.getFileLength());
+		}
+
+		log.debug("Resuming transfer {} for media hash {}: {}", transferId, mediaHash, bitmap);
+
+		ByteBuf ack = NegotiationMessageUtils.getResumeAckMessage(mediaHash, transferId, bitmap);
+
+		KiSyChannel channel = MediaStreamerUtils.getChannel(event.getLocal());
+		channel.send(ack.array(), event.getRemote());
+	}
+
 	/**
 	 * Negotiation requested impl.
 	 *
@@ -22,28 +22,43 @@ package com.github.mrstampy.pprspray.core.streamer.negotiation;
 
 import io.netty.buffer.ByteBuf;
 
+import java.io.File;
+
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.Mixer;
 
 import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.kitchensync.netty.channel.KiSyMulticastChannel;
 import com.github.mrstampy.pprspray.core.receiver.MediaEventBus;
 import com.github.mrstampy.pprspray.core.receiver.MediaProcessor;
 import com.github.mrstampy.pprspray.core.receiver.audio.AudioReceiver;
 import com.github.mrstampy.pprspray.core.receiver.audio.DefaultAudioProcessor;
 import com.github.mrstampy.pprspray.core.receiver.binary.BinaryReceiver;
+import com.github.mrstampy.pprspray.core.receiver.file.DiskFileReceiver;
 import com.github.mrstampy.pprspray.core.receiver.file.FileReceiver;
+import com.github.mrstampy.pprspray.core.receiver.multicast.MulticastMembership;
 import com.github.mrstampy.pprspray.core.receiver.text.TextReceiver;
 import com.github.mrstampy.pprspray.core.receiver.webcam.WebcamReceiver;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
  * The Class AcceptingNegotationSubscriber accepts all requests for connections.
- * It should be considered as a reference implementation - experimental.
+ * It should be considered as a reference implementation - experimental.<br>
+ * <br>
+ * Negotiations received on a multicast channel are accepted once per media
+ * hash and acknowledged as per
+ * {@link MulticastMembership#scheduleAck(KiSyMulticastChannel, NegotiationChunk, byte[])}
+ * .<br>
+ * <br>
+ * Should a {@link #setFileDirectory(File)} be set files are received by a
+ * {@link DiskFileReceiver} writing to the directory, allowing interrupted
+ * transfers to be resumed.
  */
 public class AcceptingNegotationSubscriber extends AbstractNegotiationSubscriber {
 
 	private AudioFormat audioFormat;
 	private Mixer.Info mixerInfo;
+	private volatile File fileDirectory;
 
 	/**
 	 * The Constructor. The audio format object is used by
@@ -85,13 +100,21 @@ public class AcceptingNegotationSubscriber extends AbstractNegotiationSubscriber
 	protected void negotiationRequestedImpl(NegotiationChunk event) {
 		KiSyChannel channel = MediaStreamerUtils.getChannel(event.getLocal());
 
+		boolean multicast = channel.isMulticastChannel();
+		if (multicast && !MulticastMembership.accept(channel, event)) return;
+
 		createReceiver(event);
 
 		registerMediaProcessor(event);
 
-		ByteBuf ack = NegotiationMessageUtils.getNegotiationAckMessage(event.getMediaHash(), true);
+		ByteBuf ack = NegotiationMessageUtils.getNegotiationAckMessage(event.getMediaHash(), true,
+				NegotiationMessageUtils.SUPPORTED_CAPABILITIES);
 
-		channel.send(ack.array(), event.getRemote());
+		if (multicast) {
+			MulticastMembership.scheduleAck((KiSyMulticastChannel) channel, event, ack.array());
+		} else {
+			channel.send(ack.array(), event.getRemote());
+		}
 
 		postNegotiationEvent(true, event);
 	}
@@ -146,7 +169,12 @@ public class AcceptingNegotationSubscriber extends AbstractNegotiationSubscriber
 			new BinaryReceiver(mediaHash);
 			break;
 		case FILE:
-			new FileReceiver(mediaHash);
+			File dir = getFileDirectory();
+			if (dir == null) {
+				new FileReceiver(mediaHash);
+			} else {
+				new DiskFileReceiver(mediaHash, dir);
+			}
 			break;
 		case TEXT:
 			new TextReceiver(mediaHash);
@@ -159,4 +187,26 @@ public class AcceptingNegotationSubscriber extends AbstractNegotiationSubscriber
 		}
 	}
 
+	/**
+	 * Gets the directory to which files are received, null if received in
+	 * memory.
+	 *
+	 * @return the file directory
+	 */
+	public File getFileDirectory() {
+		return fileDirectory;
+	}
+
+	/**
+	 * Sets the directory to which files are received by a
+	 * {@link DiskFileReceiver}. If null, the default, files are received in
+	 * memory by a {@link FileReceiver}.
+	 *
+	 * @param fileDirectory
+	 *          the file directory
+	 */
+	public void setFileDirectory(File fileDirectory) {
+		this.fileDirectory = fileDirectory;
+	}
+
 }
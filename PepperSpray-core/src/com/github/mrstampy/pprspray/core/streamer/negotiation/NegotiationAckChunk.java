@@ -20,12 +20,16 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.negotiation;
 
+import io.netty.buffer.ByteBuf;
+
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
+import com.github.mrstampy.pprspray.core.streamer.file.TransferBitmap;
 
 /**
  * The Class NegotiationAckChunk represents an acknowledgement to a negotiation
- * request.
+ * request. Acknowledgements of resume requests carry the transfer id and, if
+ * accepted, the {@link TransferBitmap} of the blocks received.
  * 
  * @see NegotiationChunk
  */
@@ -49,7 +53,64 @@ public class NegotiationAckChunk extends AbstractMediaChunk {
 	 * @return true, if checks if is accepted
 	 */
 	public boolean isAccepted() {
-		return getData()[0] == 1;
+		return getPayload().getByte(getPayload().readerIndex()) == 1;
+	}
+
+	/**
+	 * Gets the capabilities advertised by the acknowledging peer, zero if none.
+	 *
+	 * @return the capabilities
+	 * @see NegotiationMessageUtils#SUPPORTED_CAPABILITIES
+	 */
+	public int getCapabilities() {
+		ByteBuf payload = getPayload();
+
+		return payload.readableBytes() >= 5 ? payload.getInt(payload.readerIndex() + 1) : 0;
+	}
+
+	/**
+	 * Returns true if this acknowledges a resume request.
+	 *
+	 * @return true, if checks if is resume
+	 * @see NegotiationChunk#isResumeRequest()
+	 */
+	public boolean isResume() {
+		return getPayload().readableBytes() >= 9;
+	}
+
+	/**
+	 * Gets the transfer id of a resume acknowledgement, zero if not.
+	 *
+	 * @return the transfer id
+	 */
+	public int getTransferId() {
+		ByteBuf payload = getPayload();
+
+		return isResume() ? payload.getInt(payload.readerIndex() + 5) : 0;
+	}
+
+	/**
+	 * Gets the bitmap of the blocks received of an accepted resume
+	 * acknowledgement, null if none.
+	 *
+	 * @return the transfer bitmap
+	 */
+	public TransferBitmap getTransferBitmap() {
+		ByteBuf payload = getPayload();
+		if (!isAccepted() || payload.readableBytes() < 5 + TransferBitmap.HEADER_LENGTH) return null;
+
+		return TransferBitmap.read(payload.slice(payload.readerIndex() + 5, payload.readableBytes() - 5));
+	}
+
+	/**
+	 * Checks for capability.
+	 *
+	 * @param capability
+	 *          the capability
+	 * @return true, if the peer advertised the capability
+	 */
+	public boolean hasCapability(int capability) {
+		return (getCapabilities() & capability) == capability;
 	}
 
 }
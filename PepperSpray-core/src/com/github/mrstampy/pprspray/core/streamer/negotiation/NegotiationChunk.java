@@ -20,12 +20,22 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.negotiation;
 
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
+import com.github.mrstampy.pprspray.core.streamer.file.MediaFileStreamer;
 
 /**
  * The Class NegotiationChunk represents a request by a remote connection to
- * establish a specific {@link MediaStreamType} connection.
+ * establish a specific {@link MediaStreamType} connection, or for
+ * {@link MediaStreamType#FILE} connections a request to resume the transfer of
+ * a file.
+ * 
+ * @see NegotiationMessageUtils#getResumeMessage(int, int, long)
+ * @see MediaFileStreamer#setResumable(boolean)
  */
 public class NegotiationChunk extends AbstractMediaChunk {
 
@@ -42,7 +52,41 @@ public class NegotiationChunk extends AbstractMediaChunk {
 	public NegotiationChunk(byte[] message) {
 		super(message, MediaStreamType.NEGOTIATION);
 
-		requestedType = MediaStreamType.getTypeAsHeader(getData());
+		byte[] data = getData();
+		requestedType = MediaStreamType.getTypeAsHeader(data == null || data.length < 4 ? data : Arrays.copyOf(data, 4));
+	}
+
+	/**
+	 * Returns true if this is a request to resume the transfer of a file.
+	 *
+	 * @return true, if checks if is resume request
+	 * @see #getTransferId()
+	 * @see #getFileLength()
+	 */
+	public boolean isResumeRequest() {
+		return requestedType == MediaStreamType.FILE && getPayload().readableBytes() >= 16;
+	}
+
+	/**
+	 * Gets the transfer id of a resume request, zero if not.
+	 *
+	 * @return the transfer id
+	 */
+	public int getTransferId() {
+		ByteBuf payload = getPayload();
+
+		return isResumeRequest() ? payload.getInt(payload.readerIndex() + 4) : 0;
+	}
+
+	/**
+	 * Gets the file length of a resume request, -1 if not.
+	 *
+	 * @return the file length
+	 */
+	public long getFileLength() {
+		ByteBuf payload = getPayload();
+
+		return isResumeRequest() ? payload.getLong(payload.readerIndex() + 8) : -1;
 	}
 
 	/**
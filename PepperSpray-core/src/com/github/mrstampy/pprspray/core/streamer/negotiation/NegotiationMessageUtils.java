@@ -24,6 +24,10 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.file.MediaFileStreamer;
+import com.github.mrstampy.pprspray.core.streamer.file.TransferBitmap;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight;
 import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
 
 /**
@@ -32,6 +36,33 @@ import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
  */
 public class NegotiationMessageUtils {
 
+	/**
+	 * Capability flag indicating that the receiver accepts footers carrying the
+	 * chunk count and message length.
+	 * 
+	 * @see MediaFooter#setChunkCounts(boolean)
+	 */
+	public static final int FOOTER_CHUNK_COUNTS = 1;
+
+	/**
+	 * Capability flag indicating that the receiver answers requests to resume
+	 * file transfers.
+	 * 
+	 * @see MediaFileStreamer#setResumable(boolean)
+	 */
+	public static final int RESUMABLE_TRANSFERS = 2;
+
+	/**
+	 * Capability flag indicating that the receiver accepts the first chunk of a
+	 * message flagged in the header's ack byte.
+	 * 
+	 * @see MediaHeaderFlyweight#FIRST_CHUNK_FLAG
+	 */
+	public static final int FIRST_CHUNK_FLAG = 4;
+
+	/** The capabilities of this implementation, sent in acknowledgements. */
+	public static final int SUPPORTED_CAPABILITIES = FOOTER_CHUNK_COUNTS | RESUMABLE_TRANSFERS | FIRST_CHUNK_FLAG;
+
 	/**
 	 * Gets the negotiation message.
 	 *
@@ -74,6 +105,90 @@ public class NegotiationMessageUtils {
 		return buf;
 	}
 
+	/**
+	 * Gets the negotiation ack message advertising the receiver's capabilities.
+	 * Peers unaware of capabilities ignore the trailing bytes.
+	 *
+	 * @param mediaHash
+	 *          the media hash
+	 * @param accepted
+	 *          the accepted
+	 * @param capabilities
+	 *          the capabilities
+	 * @return the negotiation ack message
+	 * @see NegotiationAckChunk#getCapabilities()
+	 */
+	public static ByteBuf getNegotiationAckMessage(int mediaHash, boolean accepted, int capabilities) {
+		int headerLength = MediaStreamerUtils.DEFAULT_HEADER_LENGTH;
+
+		ByteBuf buf = Unpooled.buffer(headerLength + 5);
+
+		MediaStreamerUtils.writeHeader(buf, MediaStreamType.NEGOTIATION_ACK, headerLength, 0, mediaHash, 0, false);
+
+		buf.writeBoolean(accepted);
+		buf.writeInt(capabilities);
+
+		return buf;
+	}
+
+	/**
+	 * Gets the message requesting the blocks received of the transfer of a file.
+	 *
+	 * @param mediaHash
+	 *          the media hash
+	 * @param transferId
+	 *          the transfer id
+	 * @param fileLength
+	 *          the file length
+	 * @return the resume message
+	 * @see NegotiationChunk#isResumeRequest()
+	 */
+	public static ByteBuf getResumeMessage(int mediaHash, int transferId, long fileLength) {
+		int headerLength = MediaStreamerUtils.DEFAULT_HEADER_LENGTH;
+
+		ByteBuf buf = Unpooled.buffer(headerLength + 16);
+
+		MediaStreamerUtils.writeHeader(buf, MediaStreamType.NEGOTIATION, headerLength, 0, mediaHash, 0, false);
+
+		buf.writeBytes(MediaStreamType.FILE.ordinalBytes());
+		buf.writeInt(transferId);
+		buf.writeLong(fileLength);
+
+		return buf;
+	}
+
+	/**
+	 * Gets the acknowledgement of a resume request. If the bitmap is null the
+	 * request is rejected and the file is to be sent in its entirety.
+	 *
+	 * @param mediaHash
+	 *          the media hash
+	 * @param transferId
+	 *          the transfer id
+	 * @param bitmap
+	 *          the bitmap of blocks received, or null
+	 * @return the resume ack message
+	 * @see NegotiationAckChunk#getTransferBitmap()
+	 */
+	public static ByteBuf getResumeAckMessage(int mediaHash, int transferId, TransferBitmap bitmap) {
+		int headerLength = MediaStreamerUtils.DEFAULT_HEADER_LENGTH;
+
+		ByteBuf buf = Unpooled.buffer(headerLength + 5 + (bitmap == null ? 4 : bitmap.getSerializedLength()));
+
+		MediaStreamerUtils.writeHeader(buf, MediaStreamType.NEGOTIATION_ACK, headerLength, 0, mediaHash, 0, false);
+
+		buf.writeBoolean(bitmap != null);
+		buf.writeInt(SUPPORTED_CAPABILITIES);
+
+		if (bitmap == null) {
+			buf.writeInt(transferId);
+		} else {
+			bitmap.write(buf);
+		}
+
+		return buf;
+	}
+
 	private NegotiationMessageUtils() {
 	}
 
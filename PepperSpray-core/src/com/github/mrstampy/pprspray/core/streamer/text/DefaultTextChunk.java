@@ -20,6 +20,9 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.text;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
 
@@ -31,6 +34,29 @@ public class DefaultTextChunk extends AbstractMediaChunk {
 
 	private static final long serialVersionUID = 4457914587657355435L;
 
+	private static final Recycler<DefaultTextChunk> RECYCLER = new Recycler<DefaultTextChunk>() {
+
+		@Override
+		protected DefaultTextChunk newObject(Handle handle) {
+			return new DefaultTextChunk(handle);
+		}
+	};
+
+	/**
+	 * Returns a pooled instance initialized from the message. The data is a
+	 * retained slice of the message; {@link #release()} the chunk once consumed
+	 * to return it to the pool.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the default text chunk
+	 */
+	public static DefaultTextChunk newInstance(ByteBuf message) {
+		DefaultTextChunk chunk = RECYCLER.get();
+		chunk.init(message, MediaStreamType.TEXT);
+		return chunk;
+	}
+
 	/**
 	 * The Constructor.
 	 *
@@ -41,6 +67,28 @@ public class DefaultTextChunk extends AbstractMediaChunk {
 		super(message, MediaStreamType.TEXT);
 	}
 
+	/**
+	 * Pooled instance constructor.
+	 *
+	 * @param handle
+	 *          the handle
+	 */
+	protected DefaultTextChunk(Recycler.Handle handle) {
+		super(handle);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk#recycle
+	 * (io.netty.util.Recycler.Handle)
+	 */
+	@Override
+	protected boolean recycle(Recycler.Handle handle) {
+		return RECYCLER.recycle(this, handle);
+	}
+
 	/**
 	 * Gets the message.
 	 *
@@ -21,20 +21,19 @@
 package com.github.mrstampy.pprspray.core.streamer.text;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import rx.Scheduler;
+import rx.Scheduler.Worker;
 import rx.functions.Action0;
-import rx.schedulers.Schedulers;
 
 import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.binary.BinaryStreamer;
 import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.mrstampy.pprspray.core.streamer.util.StreamerRuntime;
 
 /**
  * The Class TextStreamer for streaming string data to a remote destination.
@@ -46,7 +45,7 @@ public class TextStreamer extends BinaryStreamer {
 
 	private TextTransformer transformer;
 
-	private Scheduler svc = Schedulers.from(Executors.newSingleThreadExecutor());
+	private Worker worker = StreamerRuntime.getScheduler().createWorker();
 
 	/**
 	 * The Constructor.
@@ -78,7 +77,7 @@ public class TextStreamer extends BinaryStreamer {
 
 		if (tt == null) throw new IllegalStateException("TextTransformer cannot be null");
 
-		svc.createWorker().schedule(new Action0() {
+		worker.schedule(new Action0() {
 
 			@Override
 			public void call() {
@@ -110,6 +109,19 @@ public class TextStreamer extends BinaryStreamer {
 		this.transformer = transformer;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer#destroyImpl
+	 * ()
+	 */
+	@Override
+	protected void destroyImpl() {
+		worker.unsubscribe();
+		super.destroyImpl();
+	}
+
 	private void initDefaultChunkProcessorAndFooter() {
 		DefaultTextChunkProcessor dtcp = new DefaultTextChunkProcessor();
 
@@ -0,0 +1,200 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
+
+/**
+ * The Class BandwidthGovernor paces the chunks sent by all
+ * {@link AbstractMediaStreamer}s through a hierarchy of {@link TokenBucket}s:
+ * one global, one per destination and one per streamer. A chunk is sent once
+ * all three admit it. All limits are unlimited by default and can be changed
+ * while streaming.
+ * 
+ * @see MediaMessageStreamer#pace(int)
+ * @see AbstractMediaStreamer#setBandwidthLimit(long, long)
+ */
+public class BandwidthGovernor {
+
+	/**
+	 * The Constant SPIN_NANOS, the period before a deadline spent yielding
+	 * rather than parking for accuracy.
+	 */
+	public static final long SPIN_NANOS = 50000;
+
+	private static final TokenBucket GLOBAL = new TokenBucket();
+
+	private static final ConcurrentMap<InetSocketAddress, TokenBucket> DESTINATIONS = new ConcurrentHashMap<InetSocketAddress, TokenBucket>();
+
+	/**
+	 * Sets the limit on the bytes sent by all streamers.
+	 *
+	 * @param bytesPerSecond
+	 *          the bytes per second, unlimited if <= 0
+	 * @param burstBytes
+	 *          the burst bytes
+	 */
+	public static void setGlobalLimit(long bytesPerSecond, long burstBytes) {
+		GLOBAL.setLimit(bytesPerSecond, burstBytes);
+	}
+
+	/**
+	 * Gets the global bucket.
+	 *
+	 * @return the global bucket
+	 */
+	public static TokenBucket getGlobalBucket() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Sets the limit on the bytes sent by all streamers to the destination.
+	 *
+	 * @param destination
+	 *          the destination
+	 * @param bytesPerSecond
+	 *          the bytes per second, unlimited if <= 0
+	 * @param burstBytes
+	 *          the burst bytes
+	 */
+	public static void setDestinationLimit(InetSocketAddress destination, long bytesPerSecond, long burstBytes) {
+		if (destination == null) throw new IllegalArgumentException("Destination cannot be null");
+
+		if (bytesPerSecond <= 0) {
+			DESTINATIONS.remove(destination);
+			return;
+		}
+
+		TokenBucket bucket = DESTINATIONS.get(destination);
+		if (bucket == null) {
+			bucket = new TokenBucket(bytesPerSecond, burstBytes);
+			TokenBucket existing = DESTINATIONS.putIfAbsent(destination, bucket);
+			if (existing != null) bucket = existing;
+		}
+
+		bucket.setLimit(bytesPerSecond, burstBytes);
+	}
+
+	/**
+	 * Gets the destination bucket, null if the destination is unlimited.
+	 *
+	 * @param destination
+	 *          the destination
+	 * @return the destination bucket
+	 */
+	public static TokenBucket getDestinationBucket(InetSocketAddress destination) {
+		return DESTINATIONS.get(destination);
+	}
+
+	/**
+	 * Reserves the bytes to be sent to the destination at all levels, returning
+	 * the nanoseconds to wait before sending them.
+	 *
+	 * @param destination
+	 *          the destination
+	 * @param streamerBucket
+	 *          the streamer's bucket, may be null
+	 * @param bytes
+	 *          the bytes
+	 * @return the nanoseconds to wait
+	 */
+	public static long reserve(InetSocketAddress destination, TokenBucket streamerBucket, long bytes) {
+		long wait = GLOBAL.reserve(bytes);
+
+		TokenBucket bucket = destination == null || DESTINATIONS.isEmpty() ? null : DESTINATIONS.get(destination);
+		if (bucket != null) wait = Math.max(wait, bucket.reserve(bytes));
+
+		if (streamerBucket != null) wait = Math.max(wait, streamerBucket.reserve(bytes));
+
+		return wait;
+	}
+
+	/**
+	 * Blocks the current thread until {@link System#nanoTime()} reaches the
+	 * deadline, parking until {@link #SPIN_NANOS} before it. Returns early if the
+	 * thread is interrupted. The wait is a {@link ManagedBlocker} such that a
+	 * {@link ForkJoinPool} executing the sender compensates for the blocked
+	 * worker.
+	 *
+	 * @param deadline
+	 *          the deadline, in {@link System#nanoTime()}
+	 */
+	public static void awaitDeadline(long deadline) {
+		if (deadline - System.nanoTime() <= 0) return;
+
+		try {
+			ForkJoinPool.managedBlock(new Deadline(deadline));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private BandwidthGovernor() {
+	}
+
+	private static class Deadline implements ManagedBlocker {
+		private final long deadline;
+
+		Deadline(long deadline) {
+			this.deadline = deadline;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.ForkJoinPool.ManagedBlocker#isReleasable()
+		 */
+		@Override
+		public boolean isReleasable() {
+			return deadline - System.nanoTime() <= 0 || Thread.currentThread().isInterrupted();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.ForkJoinPool.ManagedBlocker#block()
+		 */
+		@Override
+		public boolean block() {
+			long remaining;
+			while ((remaining = deadline - System.nanoTime()) > 0) {
+				if (Thread.currentThread().isInterrupted()) break;
+
+				if (remaining > SPIN_NANOS) {
+					LockSupport.parkNanos(remaining - SPIN_NANOS);
+				} else {
+					Thread.yield();
+				}
+			}
+
+			return true;
+		}
+	}
+
+}
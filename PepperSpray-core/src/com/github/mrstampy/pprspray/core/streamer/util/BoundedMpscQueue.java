@@ -0,0 +1,336 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.functions.Action1;
+
+/**
+ * The Class BoundedMpscQueue is a lock free, multiple producer single consumer
+ * queue of messages bounded by both a message count and a total byte size,
+ * backed by an {@link MpscRingBuffer}. When full, the queue applies its
+ * {@link OverflowPolicy}; messages discarded are passed to the drop listener.
+ * {@link OverflowPolicy#DROP_OLDEST} discards the oldest messages from within
+ * {@link #offer(Object, int)} until the offered message fits, the producer
+ * taking the consumer's lock to do so; the offered message is discarded only
+ * should no message be available to evict. The lock is uncontended unless the
+ * queue overflows.
+ * 
+ * @param <E>
+ *          the element type
+ */
+public class BoundedMpscQueue<E> {
+	private static final Logger log = LoggerFactory.getLogger(BoundedMpscQueue.class);
+
+	private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final MpscRingBuffer<Entry<E>> ring;
+	private final int maxMessages;
+	private final long maxBytes;
+
+	private final AtomicInteger count = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong drops = new AtomicLong();
+
+	private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+	private final ReentrantLock consumer = new ReentrantLock();
+
+	private volatile OverflowPolicy policy;
+	private volatile Action1<? super E> dropListener;
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param maxMessages
+	 *          the max messages
+	 * @param maxBytes
+	 *          the max bytes
+	 * @param policy
+	 *          the policy
+	 */
+	public BoundedMpscQueue(int maxMessages, long maxBytes, OverflowPolicy policy) {
+		if (maxMessages <= 0 || maxMessages > (1 << 29)) {
+			throw new IllegalArgumentException("Max messages must be > 0 and <= 2^29, was " + maxMessages);
+		}
+		if (maxBytes <= 0) throw new IllegalArgumentException("Max bytes must be > 0, was " + maxBytes);
+
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.ring = new MpscRingBuffer<Entry<E>>(maxMessages * 2);
+
+		setPolicy(policy);
+	}
+
+	/**
+	 * Offers the message of the specified size, returning true if queued. A
+	 * message larger than {@link #getMaxBytes()} is admitted only to an empty
+	 * queue. Safe for use by multiple producers.
+	 *
+	 * @param e
+	 *          the e
+	 * @param size
+	 *          the size in bytes
+	 * @return true, if queued
+	 * @throws IllegalStateException
+	 *           if the queue is full and the policy is
+	 *           {@link OverflowPolicy#FAIL_FAST}
+	 */
+	public boolean offer(E e, int size) {
+		if (e == null) throw new IllegalArgumentException("Element cannot be null");
+
+		Entry<E> entry = new Entry<E>(e, size);
+
+		if (tryReserve(size)) return publish(entry);
+
+		switch (getPolicy()) {
+		case BLOCK:
+			return block(entry);
+		case DROP_OLDEST:
+			return evict(entry);
+		case FAIL_FAST:
+			throw new IllegalStateException("Queue full, " + size() + " messages of " + getQueuedBytes() + " bytes");
+		default:
+			drop(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Removes and returns the next message, null if none.
+	 *
+	 * @return the e
+	 */
+	public E poll() {
+		Entry<E> entry = take();
+		if (entry == null) return null;
+
+		release(entry.size);
+
+		return entry.e;
+	}
+
+	private Entry<E> take() {
+		consumer.lock();
+		try {
+			return ring.poll();
+		} finally {
+			consumer.unlock();
+		}
+	}
+
+	private boolean evict(Entry<E> entry) {
+		do {
+			Entry<E> oldest = take();
+			if (oldest == null) {
+				// reservations of other producers not yet published
+				drop(entry.e);
+				return false;
+			}
+
+			release(oldest.size);
+			drop(oldest.e);
+		} while (!tryReserve(entry.size));
+
+		return publish(entry);
+	}
+
+	private boolean tryReserve(int size) {
+		while (true) {
+			int c = count.get();
+			if (c >= maxMessages) return false;
+
+			if (count.compareAndSet(c, c + 1)) break;
+		}
+
+		long b = bytes.addAndGet(size);
+		if (b - size == 0 || b <= maxBytes) return true;
+
+		release(size);
+
+		return false;
+	}
+
+	private void release(int size) {
+		count.decrementAndGet();
+		bytes.addAndGet(-size);
+
+		Thread waiter = waiters.peek();
+		if (waiter != null) LockSupport.unpark(waiter);
+	}
+
+	private boolean publish(Entry<E> entry) {
+		if (ring.offer(entry)) return true;
+
+		release(entry.size);
+		drop(entry.e);
+
+		return false;
+	}
+
+	private boolean block(Entry<E> entry) {
+		Thread t = Thread.currentThread();
+		waiters.add(t);
+
+		try {
+			while (!tryReserve(entry.size)) {
+				if (t.isInterrupted()) {
+					drop(entry.e);
+					return false;
+				}
+
+				LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+			}
+		} finally {
+			waiters.remove(t);
+		}
+
+		return publish(entry);
+	}
+
+	private void drop(E e) {
+		drops.incrementAndGet();
+
+		Action1<? super E> listener = dropListener;
+		if (listener == null) return;
+
+		try {
+			listener.call(e);
+		} catch (Exception ex) {
+			log.error("Unexpected exception", ex);
+		}
+	}
+
+	/**
+	 * Gets the number of messages queued.
+	 *
+	 * @return the int
+	 */
+	public int size() {
+		return Math.max(0, count.get());
+	}
+
+	/**
+	 * Checks if is empty.
+	 *
+	 * @return true, if checks if is empty
+	 */
+	public boolean isEmpty() {
+		return ring.isEmpty();
+	}
+
+	/**
+	 * Gets the bytes queued.
+	 *
+	 * @return the queued bytes
+	 */
+	public long getQueuedBytes() {
+		return Math.max(0, bytes.get());
+	}
+
+	/**
+	 * Gets the number of messages discarded.
+	 *
+	 * @return the drop count
+	 */
+	public long getDropCount() {
+		return drops.get();
+	}
+
+	/**
+	 * Gets the number of messages which can be queued before overflowing.
+	 *
+	 * @return the int
+	 */
+	public int remainingCapacity() {
+		return Math.max(0, maxMessages - count.get());
+	}
+
+	/**
+	 * Gets the max messages.
+	 *
+	 * @return the max messages
+	 */
+	public int getMaxMessages() {
+		return maxMessages;
+	}
+
+	/**
+	 * Gets the max bytes.
+	 *
+	 * @return the max bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Gets the policy.
+	 *
+	 * @return the policy
+	 */
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Sets the policy.
+	 *
+	 * @param policy
+	 *          the policy
+	 */
+	public void setPolicy(OverflowPolicy policy) {
+		if (policy == null) throw new IllegalArgumentException("Policy cannot be null");
+
+		this.policy = policy;
+	}
+
+	/**
+	 * Sets the listener receiving each message discarded.
+	 *
+	 * @param dropListener
+	 *          the drop listener
+	 */
+	public void setDropListener(Action1<? super E> dropListener) {
+		this.dropListener = dropListener;
+	}
+
+	private static class Entry<E> {
+		final E e;
+		final int size;
+
+		Entry(E e, int size) {
+			this.e = e;
+			this.size = size;
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+
+/**
+ * The Class DefaultEgressPolicy prioritizes negotiation and audio, then video,
+ * then text and lastly binary and file transfers, with a quantum of
+ * {@link #DEFAULT_QUANTUM} bytes for all types.
+ */
+public class DefaultEgressPolicy implements EgressPolicy {
+
+	/** The Constant DEFAULT_QUANTUM. */
+	public static final int DEFAULT_QUANTUM = 64 * 1024;
+
+	private final int quantum;
+
+	/**
+	 * The Constructor.
+	 */
+	public DefaultEgressPolicy() {
+		this(DEFAULT_QUANTUM);
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param quantum
+	 *          the quantum
+	 */
+	public DefaultEgressPolicy(int quantum) {
+		if (quantum <= 0) throw new IllegalArgumentException("Quantum must be > 0, was " + quantum);
+
+		this.quantum = quantum;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.util.EgressPolicy#getClassCount()
+	 */
+	@Override
+	public int getClassCount() {
+		return 4;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.util.EgressPolicy#getPriorityClass
+	 * (com.github.mrstampy.pprspray.core.streamer.MediaStreamType)
+	 */
+	@Override
+	public int getPriorityClass(MediaStreamType type) {
+		switch (type) {
+		case AUDIO:
+		case NEGOTIATION:
+		case NEGOTIATION_ACK:
+			return 0;
+		case VIDEO:
+			return 1;
+		case TEXT:
+			return 2;
+		default:
+			return 3;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.util.EgressPolicy#getQuantum(com
+	 * .github.mrstampy.pprspray.core.streamer.MediaStreamType)
+	 */
+	@Override
+	public int getQuantum(MediaStreamType type) {
+		return quantum;
+	}
+
+}
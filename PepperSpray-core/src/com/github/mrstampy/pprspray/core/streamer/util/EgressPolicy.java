@@ -0,0 +1,61 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+
+/**
+ * Implementations determine the priority class and deficit round robin quantum
+ * of each {@link MediaStreamType} scheduled by an {@link EgressScheduler}.
+ * 
+ * @see DefaultEgressPolicy
+ * @see EgressScheduler#setPolicy(EgressPolicy)
+ */
+public interface EgressPolicy {
+
+	/**
+	 * Gets the number of priority classes.
+	 *
+	 * @return the class count
+	 */
+	int getClassCount();
+
+	/**
+	 * Gets the priority class of the type, 0 (highest) to
+	 * {@link #getClassCount()} - 1 (lowest). Classes are served in strict
+	 * priority order.
+	 *
+	 * @param type
+	 *          the type
+	 * @return the priority class
+	 */
+	int getPriorityClass(MediaStreamType type);
+
+	/**
+	 * Gets the number of bytes a stream of the type may send per round within
+	 * its priority class.
+	 *
+	 * @param type
+	 *          the type
+	 * @return the quantum
+	 */
+	int getQuantum(MediaStreamType type);
+}
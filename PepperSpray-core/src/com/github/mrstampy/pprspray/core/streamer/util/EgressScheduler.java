@@ -0,0 +1,533 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+
+/**
+ * The Class EgressScheduler orders the chunks sent on a channel by all
+ * {@link AbstractMediaStreamer}s once the channel's
+ * {@link #setBytesPerSecond(long)} capacity is set. Chunks are admitted one at
+ * a time at the capacity, by strict priority of the {@link EgressPolicy}'s
+ * classes and by deficit round robin between the streams of a class, such that
+ * a bulk transfer cannot starve audio sharing the channel. The sending thread
+ * blocks in {@link #acquire(MediaStreamType, int, int)} until its chunk is
+ * admitted, as a {@link ManagedBlocker} such that a {@link ForkJoinPool}
+ * executing the sender compensates for the blocked worker. Without a capacity
+ * (the default) chunks are admitted immediately.
+ * 
+ * @see MediaMessageStreamer#pace(int, int)
+ * @see DefaultEgressPolicy
+ */
+public class EgressScheduler {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private static final long MIN_PARK_NANOS = 10000;
+
+	private static final ConcurrentMap<Integer, EgressScheduler> SCHEDULERS = new ConcurrentHashMap<Integer, EgressScheduler>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private EgressPolicy policy = new DefaultEgressPolicy();
+	private PriorityClass[] classes = createClasses(policy);
+
+	private volatile long bytesPerSecond;
+	private long nextSend = System.nanoTime();
+	private int pending;
+
+	/**
+	 * Returns the scheduler for the channel, creating it on first use.
+	 *
+	 * @param channel
+	 *          the channel
+	 * @return the scheduler
+	 */
+	public static EgressScheduler getScheduler(KiSyChannel channel) {
+		int port = channel.getPort();
+
+		EgressScheduler scheduler = SCHEDULERS.get(port);
+		if (scheduler != null) return scheduler;
+
+		scheduler = new EgressScheduler();
+		EgressScheduler existing = SCHEDULERS.putIfAbsent(port, scheduler);
+
+		return existing == null ? scheduler : existing;
+	}
+
+	/**
+	 * Removes the scheduler for the channel port, invoke when the channel is
+	 * closed.
+	 *
+	 * @param channelPort
+	 *          the channel port
+	 */
+	public static void removeScheduler(int channelPort) {
+		EgressScheduler scheduler = SCHEDULERS.remove(channelPort);
+		if (scheduler != null) scheduler.setBytesPerSecond(0);
+	}
+
+	/**
+	 * Blocks until the chunk is admitted. Returns early, leaving the thread's
+	 * interrupt status set, if interrupted.
+	 *
+	 * @param type
+	 *          the type of the stream
+	 * @param flowKey
+	 *          the key identifying the stream
+	 * @param bytes
+	 *          the bytes of the chunk
+	 */
+	public void acquire(MediaStreamType type, int flowKey, int bytes) {
+		if (!isLimited()) return;
+
+		Request r = new Request(Thread.currentThread(), bytes);
+
+		lock.lock();
+		try {
+			enqueue(r, type, flowKey);
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+
+		if (r.granted) return;
+
+		try {
+			ForkJoinPool.managedBlock(new Admission(r));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (!r.granted) cancel(r);
+	}
+
+	private void enqueue(Request r, MediaStreamType type, int flowKey) {
+		int idx = Math.max(0, Math.min(classes.length - 1, policy.getPriorityClass(type)));
+		PriorityClass pc = classes[idx];
+
+		Flow flow = pc.flows.get(flowKey);
+		if (flow == null) {
+			flow = new Flow(flowKey, type, Math.max(1, policy.getQuantum(type)));
+			pc.flows.put(flowKey, flow);
+		}
+
+		r.flow = flow;
+		r.priorityClass = pc;
+		r.enqueued = System.nanoTime();
+
+		flow.queue.add(r);
+		if (!flow.active) {
+			flow.active = true;
+			pc.active.add(flow);
+		}
+
+		pc.depth++;
+		pending++;
+	}
+
+	private void dispatch() {
+		long now = System.nanoTime();
+
+		while (pending > 0 && (!isLimited() || now - nextSend >= 0)) {
+			Request r = next();
+			grant(r, now);
+
+			long rate = bytesPerSecond;
+			if (rate > 0) nextSend = Math.max(nextSend, now) + r.bytes * NANOS_PER_SECOND / rate;
+		}
+	}
+
+	private Request next() {
+		for (PriorityClass pc : classes) {
+			if (pc.active.isEmpty()) continue;
+
+			while (true) {
+				Flow flow = pc.active.peekFirst();
+				Request r = flow.queue.peekFirst();
+
+				if (!flow.credited) {
+					flow.deficit += flow.quantum;
+					flow.credited = true;
+				}
+
+				if (r.bytes <= flow.deficit) {
+					flow.deficit -= r.bytes;
+					flow.queue.pollFirst();
+					if (flow.queue.isEmpty()) deactivate(pc, flow);
+
+					return r;
+				}
+
+				pc.active.pollFirst();
+				flow.credited = false;
+				pc.active.addLast(flow);
+			}
+		}
+
+		throw new IllegalStateException("No pending requests");
+	}
+
+	private void grant(Request r, long now) {
+		PriorityClass pc = r.priorityClass;
+
+		long latency = now - r.enqueued;
+		pc.granted++;
+		pc.totalLatency += latency;
+		if (latency > pc.maxLatency) pc.maxLatency = latency;
+
+		pc.depth--;
+		pending--;
+
+		r.granted = true;
+		if (r.thread != Thread.currentThread()) LockSupport.unpark(r.thread);
+	}
+
+	private void cancel(Request r) {
+		lock.lock();
+		try {
+			if (r.granted || !r.flow.queue.remove(r)) return;
+
+			if (r.flow.queue.isEmpty()) deactivate(r.priorityClass, r.flow);
+
+			r.priorityClass.depth--;
+			pending--;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void deactivate(PriorityClass pc, Flow flow) {
+		pc.active.remove(flow);
+		pc.flows.remove(flow.key);
+		flow.active = false;
+		flow.credited = false;
+		flow.deficit = 0;
+	}
+
+	private static PriorityClass[] createClasses(EgressPolicy policy) {
+		int count = policy.getClassCount();
+		if (count <= 0) throw new IllegalArgumentException("Class count must be > 0, was " + count);
+
+		PriorityClass[] classes = new PriorityClass[count];
+		for (int i = 0; i < count; i++) {
+			classes[i] = new PriorityClass();
+		}
+
+		return classes;
+	}
+
+	/**
+	 * Checks if is limited.
+	 *
+	 * @return true, if checks if is limited
+	 */
+	public boolean isLimited() {
+		return bytesPerSecond > 0;
+	}
+
+	/**
+	 * Gets the bytes per second.
+	 *
+	 * @return the bytes per second
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Sets the capacity of the channel at which chunks are admitted, effective
+	 * immediately. Zero or less admits all chunks immediately.
+	 *
+	 * @param bytesPerSecond
+	 *          the bytes per second
+	 */
+	public void setBytesPerSecond(long bytesPerSecond) {
+		lock.lock();
+		try {
+			this.bytesPerSecond = Math.max(0, bytesPerSecond);
+			nextSend = System.nanoTime();
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the policy.
+	 *
+	 * @return the policy
+	 */
+	public EgressPolicy getPolicy() {
+		lock.lock();
+		try {
+			return policy;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the policy, requeueing pending chunks by its classes. Statistics are
+	 * reset.
+	 *
+	 * @param policy
+	 *          the policy
+	 */
+	public void setPolicy(EgressPolicy policy) {
+		if (policy == null) throw new IllegalArgumentException("Policy cannot be null");
+
+		lock.lock();
+		try {
+			List<Request> requeue = new ArrayList<Request>(pending);
+			for (PriorityClass pc : classes) {
+				for (Flow flow : pc.active) {
+					requeue.addAll(flow.queue);
+				}
+			}
+
+			this.policy = policy;
+			classes = createClasses(policy);
+			pending = 0;
+
+			for (Request r : requeue) {
+				long enqueued = r.enqueued;
+				enqueue(r, r.flow.type, r.flow.key);
+				r.enqueued = enqueued;
+			}
+
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of chunks awaiting admission.
+	 *
+	 * @return the pending count
+	 */
+	public int getPendingCount() {
+		lock.lock();
+		try {
+			return pending;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of chunks of the priority class awaiting admission.
+	 *
+	 * @param priorityClass
+	 *          the priority class
+	 * @return the queue depth
+	 */
+	public int getQueueDepth(int priorityClass) {
+		lock.lock();
+		try {
+			return priorityClass(priorityClass).depth;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of chunks of the priority class admitted.
+	 *
+	 * @param priorityClass
+	 *          the priority class
+	 * @return the granted count
+	 */
+	public long getGrantedCount(int priorityClass) {
+		lock.lock();
+		try {
+			return priorityClass(priorityClass).granted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the mean nanoseconds the chunks of the priority class awaited
+	 * admission.
+	 *
+	 * @param priorityClass
+	 *          the priority class
+	 * @return the mean latency nanos
+	 */
+	public long getMeanLatencyNanos(int priorityClass) {
+		lock.lock();
+		try {
+			PriorityClass pc = priorityClass(priorityClass);
+
+			return pc.granted == 0 ? 0 : pc.totalLatency / pc.granted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the maximum nanoseconds a chunk of the priority class awaited
+	 * admission.
+	 *
+	 * @param priorityClass
+	 *          the priority class
+	 * @return the max latency nanos
+	 */
+	public long getMaxLatencyNanos(int priorityClass) {
+		lock.lock();
+		try {
+			return priorityClass(priorityClass).maxLatency;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Resets the admission counts and latencies of all priority classes.
+	 */
+	public void resetStatistics() {
+		lock.lock();
+		try {
+			for (PriorityClass pc : classes) {
+				pc.granted = 0;
+				pc.totalLatency = 0;
+				pc.maxLatency = 0;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private PriorityClass priorityClass(int priorityClass) {
+		if (priorityClass < 0 || priorityClass >= classes.length) {
+			throw new IllegalArgumentException("Priority class must be >= 0 and < " + classes.length + ", was "
+					+ priorityClass);
+		}
+
+		return classes[priorityClass];
+	}
+
+	private static class PriorityClass {
+		final Map<Integer, Flow> flows = new HashMap<Integer, Flow>();
+		final ArrayDeque<Flow> active = new ArrayDeque<Flow>();
+
+		int depth;
+		long granted;
+		long totalLatency;
+		long maxLatency;
+	}
+
+	private static class Flow {
+		final int key;
+		final MediaStreamType type;
+		final int quantum;
+		final ArrayDeque<Request> queue = new ArrayDeque<Request>();
+
+		int deficit;
+		boolean active;
+		boolean credited;
+
+		Flow(int key, MediaStreamType type, int quantum) {
+			this.key = key;
+			this.type = type;
+			this.quantum = quantum;
+		}
+	}
+
+	private class Admission implements ManagedBlocker {
+		private final Request r;
+
+		Admission(Request r) {
+			this.r = r;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.ForkJoinPool.ManagedBlocker#isReleasable()
+		 */
+		@Override
+		public boolean isReleasable() {
+			return r.granted || Thread.currentThread().isInterrupted();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.ForkJoinPool.ManagedBlocker#block()
+		 */
+		@Override
+		public boolean block() {
+			while (!isReleasable()) {
+				long wait;
+
+				lock.lock();
+				try {
+					dispatch();
+					wait = nextSend - System.nanoTime();
+				} finally {
+					lock.unlock();
+				}
+
+				if (isReleasable()) break;
+
+				LockSupport.parkNanos(EgressScheduler.this, Math.max(wait, MIN_PARK_NANOS));
+			}
+
+			return true;
+		}
+	}
+
+	private static class Request {
+		final Thread thread;
+		final int bytes;
+
+		Flow flow;
+		PriorityClass priorityClass;
+		long enqueued;
+
+		volatile boolean granted;
+
+		Request(Thread thread, int bytes) {
+			this.thread = thread;
+			this.bytes = bytes;
+		}
+	}
+
+}
@@ -0,0 +1,462 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+
+/**
+ * The Class MediaHeaderFlyweight is a reusable view over the header of a
+ * message which reads the header fields in place with absolute big endian gets.
+ * Nothing is copied and nothing is allocated once the flyweight exists. The
+ * message may be a byte array, a {@link ByteBuf} (from its reader index) or a
+ * {@link ByteBuffer} (from its position). The wire layout is that written by
+ * {@link MediaStreamerUtils#writeHeader(ByteBuf, MediaStreamType, int, int, int, long, boolean, boolean)}
+ * for chunks and by {@link MediaFooter} for footers.<br>
+ * <br>
+ * 
+ * Instances are not thread safe; wrap and read on the same thread.
+ * 
+ * @see MediaStreamerUtils#getHeader(byte[])
+ */
+public class MediaHeaderFlyweight {
+
+	/** The Constant MEDIA_TYPE_OFFSET. */
+	public static final int MEDIA_TYPE_OFFSET = 0;
+
+	/** The Constant HEADER_LENGTH_OFFSET. */
+	public static final int HEADER_LENGTH_OFFSET = 4;
+
+	/** The Constant MESSAGE_HASH_OFFSET. */
+	public static final int MESSAGE_HASH_OFFSET = 6;
+
+	/** The Constant MEDIA_HASH_OFFSET. */
+	public static final int MEDIA_HASH_OFFSET = 10;
+
+	/** The Constant SEQUENCE_OFFSET. */
+	public static final int SEQUENCE_OFFSET = 14;
+
+	/** The Constant ACK_REQ_OFFSET, the offset of the flags byte. */
+	public static final int ACK_REQ_OFFSET = 22;
+
+	/** The Constant ACK_REQUIRED_FLAG. */
+	public static final int ACK_REQUIRED_FLAG = 1;
+
+	/** The Constant FIRST_CHUNK_FLAG, set on the first chunk of a message. */
+	public static final int FIRST_CHUNK_FLAG = 2;
+
+	/** The Constant FOOTER_MESSAGE_HASH_OFFSET. */
+	public static final int FOOTER_MESSAGE_HASH_OFFSET = 4;
+
+	/** The Constant FOOTER_MEDIA_HASH_OFFSET. */
+	public static final int FOOTER_MEDIA_HASH_OFFSET = 8;
+
+	/** The Constant FOOTER_CHUNK_COUNT_OFFSET. */
+	public static final int FOOTER_CHUNK_COUNT_OFFSET = 12;
+
+	/** The Constant FOOTER_MESSAGE_LENGTH_OFFSET. */
+	public static final int FOOTER_MESSAGE_LENGTH_OFFSET = 16;
+
+	private byte[] array;
+	private ByteBuf buf;
+	private ByteBuffer buffer;
+
+	private int offset;
+	private int length;
+
+	/**
+	 * Wrap the specified message.
+	 *
+	 * @param message
+	 *          the message
+	 * @return this
+	 */
+	public MediaHeaderFlyweight wrap(byte[] message) {
+		clear();
+
+		array = message;
+		length = message == null ? 0 : message.length;
+
+		return this;
+	}
+
+	/**
+	 * Wrap the readable bytes of the specified buffer. The reader index is not
+	 * modified.
+	 *
+	 * @param message
+	 *          the message
+	 * @return this
+	 */
+	public MediaHeaderFlyweight wrap(ByteBuf message) {
+		clear();
+
+		if (message == null) return this;
+
+		buf = message;
+		offset = message.readerIndex();
+		length = message.readableBytes();
+
+		return this;
+	}
+
+	/**
+	 * Wrap the remaining bytes of the specified buffer. The position is not
+	 * modified.
+	 *
+	 * @param message
+	 *          the message
+	 * @return this
+	 */
+	public MediaHeaderFlyweight wrap(ByteBuffer message) {
+		clear();
+
+		if (message == null) return this;
+
+		buffer = message;
+		offset = message.position();
+		length = message.remaining();
+
+		return this;
+	}
+
+	/**
+	 * Releases the reference to the wrapped message.
+	 */
+	public void clear() {
+		array = null;
+		buf = null;
+		buffer = null;
+		offset = 0;
+		length = 0;
+	}
+
+	/**
+	 * Returns the number of bytes in the wrapped message.
+	 *
+	 * @return the int
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns true if the message is at least as long as the default header.
+	 *
+	 * @return true, if checks for header
+	 */
+	public boolean hasHeader() {
+		return length >= MediaStreamerUtils.DEFAULT_HEADER_LENGTH;
+	}
+
+	/**
+	 * Returns true if the message is a well formed chunk: a known
+	 * {@link MediaStreamType} and a header length between the default header
+	 * length and the length of the message. Never throws.
+	 *
+	 * @return true, if checks if is valid chunk
+	 */
+	public boolean isValidChunk() {
+		if (getMediaStreamType() == null) return false;
+
+		int headerLength = getHeaderLength();
+
+		return headerLength >= MediaStreamerUtils.DEFAULT_HEADER_LENGTH && headerLength <= length;
+	}
+
+	/**
+	 * Returns true if the message is a well formed footer. Never throws.
+	 *
+	 * @return true, if checks if is valid footer
+	 */
+	public boolean isValidFooter() {
+		return isFooterLength() && isFooter();
+	}
+
+	/**
+	 * Returns true if the message is a footer carrying the chunk count and
+	 * message length.
+	 *
+	 * @return true, if checks for footer counts
+	 * @see #getFooterChunkCount()
+	 * @see #getFooterMessageLength()
+	 */
+	public boolean hasFooterCounts() {
+		return length == MediaStreamerUtils.EXTENDED_FOOTER_LENGTH && isFooter();
+	}
+
+	private boolean isFooterLength() {
+		return length == MediaStreamerUtils.FOOTER_LENGTH || length == MediaStreamerUtils.EXTENDED_FOOTER_LENGTH;
+	}
+
+	/**
+	 * Gets the media stream type of a chunk, null if the message is not a chunk.
+	 *
+	 * @return the media stream type
+	 */
+	public MediaStreamType getMediaStreamType() {
+		return hasHeader() ? MediaStreamType.fromOrdinal(getInt(MEDIA_TYPE_OFFSET)) : null;
+	}
+
+	/**
+	 * Gets the media stream type of a footer, null if the message is not a
+	 * footer.
+	 *
+	 * @return the footer type
+	 */
+	public MediaStreamType getFooterType() {
+		return length >= MediaStreamerUtils.FOOTER_LENGTH ? MediaStreamType.fromEom(getInt(MEDIA_TYPE_OFFSET)) : null;
+	}
+
+	/**
+	 * Checks if is media type.
+	 *
+	 * @param type
+	 *          the type
+	 * @return true, if checks if is media type
+	 */
+	public boolean isMediaType(MediaStreamType type) {
+		return type != null && type == getMediaStreamType();
+	}
+
+	/**
+	 * Checks if is footer.
+	 *
+	 * @return true, if checks if is footer
+	 */
+	public boolean isFooter() {
+		return getFooterType() != null;
+	}
+
+	/**
+	 * Returns true if the message is exactly a footer of the specified type and
+	 * media hash.
+	 *
+	 * @param type
+	 *          the type
+	 * @param mediaHash
+	 *          the media hash
+	 * @return true, if checks if is footer
+	 */
+	public boolean isFooter(MediaStreamType type, int mediaHash) {
+		if (!isFooterLength()) return false;
+
+		return type != null && type == getFooterType() && mediaHash == getFooterMediaHash();
+	}
+
+	/**
+	 * Gets the header length.
+	 *
+	 * @return the header length
+	 */
+	public int getHeaderLength() {
+		return getShort(HEADER_LENGTH_OFFSET);
+	}
+
+	/**
+	 * Gets the message hash.
+	 *
+	 * @return the message hash
+	 */
+	public int getMessageHash() {
+		return getInt(MESSAGE_HASH_OFFSET);
+	}
+
+	/**
+	 * Gets the media hash.
+	 *
+	 * @return the media hash
+	 */
+	public int getMediaHash() {
+		return getInt(MEDIA_HASH_OFFSET);
+	}
+
+	/**
+	 * Gets the sequence.
+	 *
+	 * @return the sequence
+	 */
+	public long getSequence() {
+		return getLong(SEQUENCE_OFFSET);
+	}
+
+	/**
+	 * Checks if is ack required.
+	 *
+	 * @return true, if checks if is ack required
+	 */
+	public boolean isAckRequired() {
+		return (getByte(ACK_REQ_OFFSET) & ACK_REQUIRED_FLAG) != 0;
+	}
+
+	/**
+	 * Checks if is the first chunk of its message.
+	 *
+	 * @return true, if checks if is first chunk
+	 */
+	public boolean isFirstChunk() {
+		return (getByte(ACK_REQ_OFFSET) & FIRST_CHUNK_FLAG) != 0;
+	}
+
+	/**
+	 * Gets the footer message hash.
+	 *
+	 * @return the footer message hash
+	 */
+	public int getFooterMessageHash() {
+		return getInt(FOOTER_MESSAGE_HASH_OFFSET);
+	}
+
+	/**
+	 * Gets the footer media hash.
+	 *
+	 * @return the footer media hash
+	 */
+	public int getFooterMediaHash() {
+		return getInt(FOOTER_MEDIA_HASH_OFFSET);
+	}
+
+	/**
+	 * Gets the number of chunks in the message, -1 if the footer does not carry
+	 * counts.
+	 *
+	 * @return the footer chunk count
+	 * @see #hasFooterCounts()
+	 */
+	public int getFooterChunkCount() {
+		return hasFooterCounts() ? getInt(FOOTER_CHUNK_COUNT_OFFSET) : -1;
+	}
+
+	/**
+	 * Gets the length in bytes of the message, -1 if the footer does not carry
+	 * counts.
+	 *
+	 * @return the footer message length
+	 * @see #hasFooterCounts()
+	 */
+	public int getFooterMessageLength() {
+		return hasFooterCounts() ? getInt(FOOTER_MESSAGE_LENGTH_OFFSET) : -1;
+	}
+
+	/**
+	 * Returns true if the custom header immediately following the default header
+	 * starts with the specified key.
+	 *
+	 * @param key
+	 *          the key
+	 * @return true, if checks if is custom header
+	 */
+	public boolean isCustomHeader(byte[] key) {
+		int minLength = MediaStreamerUtils.DEFAULT_HEADER_LENGTH + key.length;
+
+		if (length <= minLength) return false;
+
+		for (int i = 0; i < key.length; i++) {
+			if (getByte(MediaStreamerUtils.DEFAULT_HEADER_LENGTH + i) != key[i]) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the byte at the specified index relative to the start of the message.
+	 *
+	 * @param index
+	 *          the index
+	 * @return the byte
+	 */
+	public byte getByte(int index) {
+		checkIndex(index, 1);
+
+		if (array != null) return array[index];
+		if (buf != null) return buf.getByte(offset + index);
+
+		return buffer.get(offset + index);
+	}
+
+	/**
+	 * Gets the big endian short at the specified index relative to the start of
+	 * the message.
+	 *
+	 * @param index
+	 *          the index
+	 * @return the short
+	 */
+	public short getShort(int index) {
+		checkIndex(index, 2);
+
+		if (buf != null) return buf.getShort(offset + index);
+
+		return (short) ((byteAt(index) << 8) | (byteAt(index + 1) & 0xff));
+	}
+
+	/**
+	 * Gets the big endian int at the specified index relative to the start of the
+	 * message.
+	 *
+	 * @param index
+	 *          the index
+	 * @return the int
+	 */
+	public int getInt(int index) {
+		checkIndex(index, 4);
+
+		if (buf != null) return buf.getInt(offset + index);
+
+		//@formatter:off
+		return (byteAt(index) << 24) 
+				| ((byteAt(index + 1) & 0xff) << 16) 
+				| ((byteAt(index + 2) & 0xff) << 8) 
+				| (byteAt(index + 3) & 0xff);
+		//@formatter:on
+	}
+
+	/**
+	 * Gets the big endian long at the specified index relative to the start of
+	 * the message.
+	 *
+	 * @param index
+	 *          the index
+	 * @return the long
+	 */
+	public long getLong(int index) {
+		checkIndex(index, 8);
+
+		if (buf != null) return buf.getLong(offset + index);
+
+		return ((long) getInt(index) << 32) | (getInt(index + 4) & 0xffffffffL);
+	}
+
+	private int byteAt(int index) {
+		return array != null ? array[index] : buffer.get(offset + index);
+	}
+
+	private void checkIndex(int index, int size) {
+		if (index < 0 || index + size > length) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size + " exceeds length " + length);
+		}
+	}
+
+}
@@ -21,10 +21,10 @@
 package com.github.mrstampy.pprspray.core.streamer.util;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
@@ -48,6 +48,12 @@ public class MediaStreamerUtils {
 	/** The Constant FOOTER_LENGTH. */
 	public static final int FOOTER_LENGTH = 12;
 
+	/**
+	 * The Constant EXTENDED_FOOTER_LENGTH, the length of a footer carrying the
+	 * chunk count and message length.
+	 */
+	public static final int EXTENDED_FOOTER_LENGTH = 20;
+
 	/** The Constant MEDIA_TYPE_CHUNK. */
 	protected static final Chunk MEDIA_TYPE_CHUNK = new Chunk(0, 4);
 
@@ -68,6 +74,51 @@ public class MediaStreamerUtils {
 
 	private static SecureRandom rand = new SecureRandom();
 
+	private static final ThreadLocal<MediaHeaderFlyweight> HEADER = new ThreadLocal<MediaHeaderFlyweight>() {
+		protected MediaHeaderFlyweight initialValue() {
+			return new MediaHeaderFlyweight();
+		}
+	};
+
+	/**
+	 * Returns this thread's {@link MediaHeaderFlyweight} wrapping the specified
+	 * message. The flyweight is reused by every subsequent call on the same
+	 * thread and must not be retained.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the header
+	 */
+	public static MediaHeaderFlyweight getHeader(byte[] message) {
+		return HEADER.get().wrap(message);
+	}
+
+	/**
+	 * Returns this thread's {@link MediaHeaderFlyweight} wrapping the readable
+	 * bytes of the specified buffer.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the header
+	 * @see #getHeader(byte[])
+	 */
+	public static MediaHeaderFlyweight getHeader(ByteBuf message) {
+		return HEADER.get().wrap(message);
+	}
+
+	/**
+	 * Returns this thread's {@link MediaHeaderFlyweight} wrapping the remaining
+	 * bytes of the specified buffer.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the header
+	 * @see #getHeader(byte[])
+	 */
+	public static MediaHeaderFlyweight getHeader(ByteBuffer message) {
+		return HEADER.get().wrap(message);
+	}
+
 	/**
 	 * Creates the marshalling class name hash.
 	 *
@@ -196,9 +247,9 @@ public class MediaStreamerUtils {
 	 * @return true, if checks if is media type
 	 */
 	public static boolean isMediaType(byte[] message, MediaStreamType type, int mediaHash) {
-		if (message == null || message.length < DEFAULT_HEADER_LENGTH) return false;
+		MediaHeaderFlyweight header = getHeader(message);
 
-		return isMediaType(message, type) && isMediaHash(message, mediaHash);
+		return header.isMediaType(type) && header.getMediaHash() == mediaHash;
 	}
 
 	/**
@@ -211,11 +262,7 @@ public class MediaStreamerUtils {
 	 * @return true, if checks if is media type
 	 */
 	public static boolean isMediaType(byte[] message, MediaStreamType type) {
-		if (message == null || message.length < DEFAULT_HEADER_LENGTH) return false;
-
-		byte[] b = getChunk(message, MEDIA_TYPE_CHUNK);
-
-		return Arrays.equals(b, type.ordinalBytes());
+		return getHeader(message).isMediaType(type);
 	}
 
 	/**
@@ -228,11 +275,7 @@ public class MediaStreamerUtils {
 	 * @return true, if checks if is media type
 	 */
 	public static boolean isMediaTypeFooter(byte[] message, MediaStreamType type) {
-		if (message == null || message.length < FOOTER_LENGTH) return false;
-
-		byte[] b = getChunk(message, MEDIA_TYPE_CHUNK);
-
-		return Arrays.equals(b, type.eomBytes());
+		return type != null && type == getHeader(message).getFooterType();
 	}
 
 	/**
@@ -247,12 +290,7 @@ public class MediaStreamerUtils {
 	 * @return true, if checks if is media footer
 	 */
 	public static boolean isMediaFooter(byte[] message, MediaStreamType type, int mediaHash) {
-		if (message == null || message.length != FOOTER_LENGTH) return false;
-
-		ByteBuf buf = Unpooled.buffer(8);
-		buf.writeBytes(message);
-
-		return Integer.MAX_VALUE - type.ordinal() == buf.getInt(0) && mediaHash == buf.getInt(4);
+		return getHeader(message).isFooter(type, mediaHash);
 	}
 
 	/**
@@ -276,9 +314,7 @@ public class MediaStreamerUtils {
 	 * @return the media stream type as chunk header
 	 */
 	public static MediaStreamType getMediaStreamTypeAsChunkHeader(byte[] message) {
-		byte[] b = getChunk(message, MEDIA_TYPE_CHUNK);
-
-		return MediaStreamType.getTypeAsHeader(b);
+		return getHeader(message).getMediaStreamType();
 	}
 
 	/**
@@ -289,9 +325,7 @@ public class MediaStreamerUtils {
 	 * @return the media stream type as footer
 	 */
 	public static MediaStreamType getMediaStreamTypeAsFooter(byte[] message) {
-		byte[] b = getChunk(message, MEDIA_TYPE_CHUNK);
-
-		return MediaStreamType.getTypeAsFooter(b);
+		return getHeader(message).getFooterType();
 	}
 
 	/**
@@ -302,7 +336,7 @@ public class MediaStreamerUtils {
 	 * @return the media stream hash
 	 */
 	public static int getMediaStreamHash(byte[] message) {
-		return getIntegerChunk(getChunk(message, MEDIA_HASH_CHUNK));
+		return getHeader(message).getMediaHash();
 	}
 
 	/**
@@ -313,7 +347,7 @@ public class MediaStreamerUtils {
 	 * @return the media stream hash
 	 */
 	public static int getMessageHash(byte[] message) {
-		return getIntegerChunk(getChunk(message, MESSAGE_HASH_CHUNK));
+		return getHeader(message).getMessageHash();
 	}
 
 	/**
@@ -333,7 +367,7 @@ public class MediaStreamerUtils {
 	 * @return the media stream hash
 	 */
 	public static int getMediaStreamHeaderLength(byte[] message) {
-		return getShortChunk(getChunk(message, HEADER_LENGTH_CHUNK));
+		return getHeader(message).getHeaderLength();
 	}
 
 	/**
@@ -344,7 +378,7 @@ public class MediaStreamerUtils {
 	 * @return the sequence
 	 */
 	public static long getSequence(byte[] message) {
-		return getLongChunk(getChunk(message, SEQUENCE_CHUNK));
+		return getHeader(message).getSequence();
 	}
 
 	/**
@@ -355,7 +389,7 @@ public class MediaStreamerUtils {
 	 * @return true, if checks if is ack required
 	 */
 	public static boolean isAckRequired(byte[] message) {
-		return Arrays.copyOfRange(message, ACK_REQ_CHUNK.start, ACK_REQ_CHUNK.end)[0] == 1;
+		return getHeader(message).isAckRequired();
 	}
 
 	/**
@@ -396,7 +430,13 @@ public class MediaStreamerUtils {
 	 * @return true, if checks if is text only message
 	 */
 	public static boolean isTextOnlyMessage(byte[] message) {
-		return isTextChunk(message) && !isJsonMessage(message) && !isXmlMessage(message);
+		MediaHeaderFlyweight header = getHeader(message);
+
+		//@formatter:off
+		return header.isMediaType(MediaStreamType.TEXT) 
+				&& !header.isCustomHeader(DefaultJsonChunkProcessor.JSON_KEY_BYTES) 
+				&& !header.isCustomHeader(DefaultXmlChunkProcessor.XML_KEY_BYTES);
+		//@formatter:on
 	}
 
 	/**
@@ -409,10 +449,7 @@ public class MediaStreamerUtils {
 	 * @return the marshalling class hash
 	 */
 	public static int getMarshallingClassHash(byte[] message, int keyLength) {
-		int start = DEFAULT_HEADER_LENGTH + keyLength;
-		int end = start + 4;
-
-		return getIntegerChunk(getChunk(message, new Chunk(start, end)));
+		return getHeader(message).getInt(DEFAULT_HEADER_LENGTH + keyLength);
 	}
 
 	/**
@@ -436,13 +473,7 @@ public class MediaStreamerUtils {
 	 * @return true, if checks if is custom header message
 	 */
 	public static boolean isCustomHeaderMessage(byte[] message, byte[] headerBytes) {
-		int minLength = DEFAULT_HEADER_LENGTH + headerBytes.length;
-
-		if (message == null || message.length <= minLength) return false;
-
-		byte[] b = getChunk(message, new Chunk(DEFAULT_HEADER_LENGTH, minLength));
-
-		return Arrays.equals(b, headerBytes);
+		return getHeader(message).isCustomHeader(headerBytes);
 	}
 
 	/**
@@ -453,9 +484,7 @@ public class MediaStreamerUtils {
 	 * @return the integer chunk
 	 */
 	protected static int getIntegerChunk(byte[] chunk) {
-		ByteBuf buf = Unpooled.copiedBuffer(chunk);
-
-		return buf.getInt(0);
+		return HEADER.get().wrap(chunk).getInt(0);
 	}
 
 	/**
@@ -466,9 +495,7 @@ public class MediaStreamerUtils {
 	 * @return the short chunk
 	 */
 	protected static int getShortChunk(byte[] chunk) {
-		ByteBuf buf = Unpooled.copiedBuffer(chunk);
-
-		return buf.getShort(0);
+		return HEADER.get().wrap(chunk).getShort(0);
 	}
 
 	/**
@@ -479,9 +506,7 @@ public class MediaStreamerUtils {
 	 * @return the long chunk
 	 */
 	protected static long getLongChunk(byte[] chunk) {
-		ByteBuf buf = Unpooled.copiedBuffer(chunk);
-
-		return buf.getLong(0);
+		return HEADER.get().wrap(chunk).getLong(0);
 	}
 
 	/**
@@ -517,12 +542,41 @@ public class MediaStreamerUtils {
 	 */
 	public static void writeHeader(ByteBuf buf, MediaStreamType type, int headerLength, int messageHash, int mediaHash,
 			long sequence, boolean ackRequired) {
+		writeHeader(buf, type, headerLength, messageHash, mediaHash, sequence, ackRequired, false);
+	}
+
+	/**
+	 * Write header.
+	 *
+	 * @param buf
+	 *          the buf
+	 * @param type
+	 *          the type
+	 * @param headerLength
+	 *          the header length
+	 * @param messageHash
+	 *          the message hash
+	 * @param mediaHash
+	 *          the media hash
+	 * @param sequence
+	 *          the sequence
+	 * @param ackRequired
+	 *          the ack required
+	 * @param firstChunk
+	 *          true if the first chunk of the message
+	 * @see MediaHeaderFlyweight#isFirstChunk()
+	 */
+	public static void writeHeader(ByteBuf buf, MediaStreamType type, int headerLength, int messageHash, int mediaHash,
+			long sequence, boolean ackRequired, boolean firstChunk) {
+		int flags = (ackRequired ? MediaHeaderFlyweight.ACK_REQUIRED_FLAG : 0)
+				| (firstChunk ? MediaHeaderFlyweight.FIRST_CHUNK_FLAG : 0);
+
 		buf.writeBytes(type.ordinalBytes());
 		buf.writeShort(headerLength);
 		buf.writeInt(messageHash);
 		buf.writeInt(mediaHash);
 		buf.writeLong(sequence);
-		buf.writeBoolean(ackRequired);
+		buf.writeByte(flags);
 	}
 
 	/**
@@ -0,0 +1,166 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import rx.functions.Action1;
+
+/**
+ * The Class MpscRingBuffer is a bounded, lock free, multiple producer single
+ * consumer queue. Producers claim a slot by advancing the tail and publish the
+ * element into it; the single consumer takes elements in claim order. The
+ * consumer methods {@link #poll()}, {@link #peek()} and
+ * {@link #drain(Action1, int)} must only be invoked by one thread at a time.
+ * 
+ * @param <E>
+ *          the element type
+ */
+public class MpscRingBuffer<E> {
+
+	private final AtomicReferenceArray<E> buffer;
+	private final int mask;
+	private final int capacity;
+
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * The Constructor. The capacity is rounded up to the next power of two.
+	 *
+	 * @param capacity
+	 *          the capacity
+	 */
+	public MpscRingBuffer(int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Capacity must be > 0 and <= 2^30, was " + capacity);
+		}
+
+		this.capacity = capacity < 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.buffer = new AtomicReferenceArray<E>(this.capacity);
+	}
+
+	/**
+	 * Adds the element if there is room, safe for use by multiple producers.
+	 *
+	 * @param e
+	 *          the e
+	 * @return true, if added
+	 */
+	public boolean offer(E e) {
+		if (e == null) throw new IllegalArgumentException("Element cannot be null");
+
+		while (true) {
+			long t = tail.get();
+			if (t - head.get() >= capacity) return false;
+
+			if (tail.compareAndSet(t, t + 1)) {
+				buffer.lazySet(index(t), e);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Removes and returns the next element, null if empty or if the next
+	 * producer has claimed but not yet published its slot. Consumer only.
+	 *
+	 * @return the e
+	 */
+	public E poll() {
+		long h = head.get();
+		int idx = index(h);
+
+		E e = buffer.get(idx);
+		if (e == null) return null;
+
+		buffer.lazySet(idx, null);
+		head.lazySet(h + 1);
+
+		return e;
+	}
+
+	/**
+	 * Returns the next element without removing it. Consumer only.
+	 *
+	 * @return the e
+	 */
+	public E peek() {
+		return buffer.get(index(head.get()));
+	}
+
+	/**
+	 * Removes up to limit elements, passing each to the action. Consumer only.
+	 *
+	 * @param action
+	 *          the action
+	 * @param limit
+	 *          the limit
+	 * @return the number of elements drained
+	 */
+	public int drain(Action1<? super E> action, int limit) {
+		int i = 0;
+		for (; i < limit; i++) {
+			E e = poll();
+			if (e == null) break;
+
+			action.call(e);
+		}
+
+		return i;
+	}
+
+	/**
+	 * Returns the approximate number of elements in the buffer.
+	 *
+	 * @return the int
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+
+		return (int) Math.max(0, Math.min(size, capacity));
+	}
+
+	/**
+	 * Checks if is empty.
+	 *
+	 * @return true, if checks if is empty
+	 */
+	public boolean isEmpty() {
+		return tail.get() == head.get();
+	}
+
+	/**
+	 * Gets the capacity.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	private int index(long sequence) {
+		return (int) (sequence & mask);
+	}
+
+}
@@ -0,0 +1,34 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+/**
+ * The Enum OverflowPolicy defines the action taken by a
+ * {@link BoundedMpscQueue} when a message is offered to a full queue.
+ * {@link #BLOCK} blocks the producer until there is room,
+ * {@link #DROP_OLDEST} discards the oldest messages to make room,
+ * {@link #DROP_NEWEST} discards the offered message, {@link #FAIL_FAST} throws
+ * an {@link IllegalStateException} and {@link #CALLBACK} discards the offered
+ * message, passing it to the owner's overflow callback.
+ */
+public enum OverflowPolicy {
+	BLOCK, DROP_OLDEST, DROP_NEWEST, FAIL_FAST, CALLBACK;
+}
@@ -0,0 +1,142 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+import com.github.mrstampy.pprspray.core.streamer.AbstractMediaStreamer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The Class StreamerRuntime is the shared, bounded runtime on which all
+ * {@link AbstractMediaStreamer}s execute. Streamers do not own threads; each
+ * turn of a streamer's loop is a task on a work stealing pool sized to the
+ * number of processors, in FIFO order, such that any number of streamers are
+ * multiplexed fairly over a fixed number of threads. Delayed tasks are handed
+ * to the pool by a single timer thread.<br>
+ * <br>
+ * If {@link VirtualThreads#isEnabled()} each task executes on a new virtual
+ * thread and the number of concurrent streamers is not bounded by the number of
+ * threads.
+ * 
+ * @see AbstractMediaStreamer#wakeup()
+ */
+public class StreamerRuntime {
+
+	private static final ExecutorService POOL = VirtualThreads.isEnabled() ? VirtualThreads.newExecutor()
+			: new ForkJoinPool(Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+					null, true);
+
+	private static final ScheduledExecutorService TIMER = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+					.setNameFormat("Streamer Runtime Timer").build());
+
+	private static final Scheduler SCHEDULER = Schedulers.from(POOL);
+
+	/**
+	 * Executes the task on the runtime.
+	 *
+	 * @param task
+	 *          the task
+	 */
+	public static void execute(Runnable task) {
+		POOL.execute(task);
+	}
+
+	/**
+	 * Executes the task on the runtime after the delay.
+	 *
+	 * @param task
+	 *          the task
+	 * @param delay
+	 *          the delay
+	 * @param unit
+	 *          the unit
+	 * @return the scheduled future
+	 */
+	public static ScheduledFuture<?> schedule(final Runnable task, long delay, TimeUnit unit) {
+		return TIMER.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				POOL.execute(task);
+			}
+		}, delay, unit);
+	}
+
+	/**
+	 * Gets the runtime as a {@link Scheduler}. Actions scheduled on a single
+	 * {@link Scheduler.Worker} execute serially, in order.
+	 *
+	 * @return the scheduler
+	 */
+	public static Scheduler getScheduler() {
+		return SCHEDULER;
+	}
+
+	/**
+	 * Gets the number of threads executing tasks, -1 if a virtual thread executes
+	 * each task.
+	 *
+	 * @return the parallelism
+	 */
+	public static int getParallelism() {
+		return isPooled() ? ((ForkJoinPool) POOL).getParallelism() : -1;
+	}
+
+	/**
+	 * Gets the approximate number of tasks awaiting execution, zero if a virtual
+	 * thread executes each task.
+	 *
+	 * @return the queued task count
+	 */
+	public static long getQueuedTaskCount() {
+		if (!isPooled()) return 0;
+
+		ForkJoinPool pool = (ForkJoinPool) POOL;
+
+		return pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+	}
+
+	private static boolean isPooled() {
+		return POOL instanceof ForkJoinPool;
+	}
+
+	/**
+	 * Shuts down the runtime. No streamer can execute afterwards.
+	 */
+	public static void shutdown() {
+		TIMER.shutdown();
+		POOL.shutdown();
+	}
+
+	private StreamerRuntime() {
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ *
+ * Copyright (C) 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The Class StripedExecutor executes tasks on one of a fixed number of single
+ * threaded stripes selected by key. Tasks submitted with the same key execute
+ * in submission order on the same thread; the number of threads is bounded by
+ * the number of stripes.
+ *
+ * @see AbstractInboundMediaHandler#setExecutor(StripedExecutor)
+ */
+public class StripedExecutor {
+
+	private final ExecutorService[] stripes;
+
+	/**
+	 * The Constructor, the stripes executing on named daemon threads.
+	 *
+	 * @param stripeCount
+	 *          the number of stripes
+	 */
+	public StripedExecutor(int stripeCount) {
+		this(stripeCount, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Striped Executor %d").build());
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param stripeCount
+	 *          the number of stripes
+	 * @param threadFactory
+	 *          the factory of the stripes' threads
+	 */
+	public StripedExecutor(int stripeCount, ThreadFactory threadFactory) {
+		if (stripeCount <= 0) throw new IllegalArgumentException("Stripe count must be > 0, was " + stripeCount);
+		if (threadFactory == null) throw new IllegalArgumentException("Thread factory cannot be null");
+
+		stripes = new ExecutorService[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = Executors.newSingleThreadExecutor(threadFactory);
+		}
+	}
+
+	/**
+	 * Executes the task on the stripe for the key.
+	 *
+	 * @param key
+	 *          the key
+	 * @param task
+	 *          the task
+	 */
+	public void execute(int key, Runnable task) {
+		stripes[stripe(key)].execute(task);
+	}
+
+	/**
+	 * Returns the stripe for the key, key mod stripe count.
+	 *
+	 * @param key
+	 *          the key
+	 * @return the int
+	 */
+	public int stripe(int key) {
+		return (key & Integer.MAX_VALUE) % stripes.length;
+	}
+
+	/**
+	 * Gets the stripe count.
+	 *
+	 * @return the stripe count
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * Shuts down all stripes.
+	 */
+	public void shutdown() {
+		for (ExecutorService svc : stripes) {
+			svc.shutdown();
+		}
+	}
+
+}
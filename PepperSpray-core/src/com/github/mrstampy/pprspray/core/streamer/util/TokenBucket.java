@@ -0,0 +1,134 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class TokenBucket limits the rate of bytes sent to
+ * {@link #getBytesPerSecond()}, allowing bursts of up to
+ * {@link #getBurstBytes()}. Implemented as a virtual scheduling (GCRA) bucket
+ * at nanosecond resolution: each {@link #reserve(long)} admits its bytes
+ * immediately, returning the nanoseconds to wait before sending such that the
+ * long term rate does not exceed the limit. A bytes per second of zero or less
+ * is unlimited. The limit can be changed at any time.
+ * 
+ * @see BandwidthGovernor
+ */
+public class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private long bytesPerSecond;
+	private long burstBytes;
+	private long burstNanos;
+
+	private long theoreticalArrival = Long.MIN_VALUE;
+
+	/**
+	 * The Constructor for an unlimited bucket.
+	 */
+	public TokenBucket() {
+		this(0, 0);
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param bytesPerSecond
+	 *          the bytes per second, unlimited if <= 0
+	 * @param burstBytes
+	 *          the burst bytes
+	 */
+	public TokenBucket(long bytesPerSecond, long burstBytes) {
+		setLimit(bytesPerSecond, burstBytes);
+	}
+
+	/**
+	 * Sets the limit, effective immediately.
+	 *
+	 * @param bytesPerSecond
+	 *          the bytes per second, unlimited if <= 0
+	 * @param burstBytes
+	 *          the burst bytes
+	 */
+	public synchronized void setLimit(long bytesPerSecond, long burstBytes) {
+		if (burstBytes < 0) throw new IllegalArgumentException("Burst bytes must be >= 0, was " + burstBytes);
+
+		this.bytesPerSecond = Math.max(0, bytesPerSecond);
+		this.burstBytes = burstBytes;
+		this.burstNanos = isLimited() ? toNanos(burstBytes) : 0;
+	}
+
+	/**
+	 * Reserves the bytes, returning the nanoseconds to wait before sending them.
+	 *
+	 * @param bytes
+	 *          the bytes
+	 * @return the nanoseconds to wait, zero if the bytes can be sent immediately
+	 */
+	public synchronized long reserve(long bytes) {
+		if (!isLimited()) return 0;
+
+		long now = System.nanoTime();
+
+		long earliest = now - burstNanos;
+		if (theoreticalArrival == Long.MIN_VALUE || theoreticalArrival - earliest < 0) theoreticalArrival = earliest;
+
+		long wait = Math.max(0, theoreticalArrival - now);
+
+		theoreticalArrival += toNanos(bytes);
+
+		return wait;
+	}
+
+	private long toNanos(long bytes) {
+		return bytes * NANOS_PER_SECOND / bytesPerSecond;
+	}
+
+	/**
+	 * Checks if is limited.
+	 *
+	 * @return true, if checks if is limited
+	 */
+	public synchronized boolean isLimited() {
+		return bytesPerSecond > 0;
+	}
+
+	/**
+	 * Gets the bytes per second.
+	 *
+	 * @return the bytes per second
+	 */
+	public synchronized long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Gets the burst bytes.
+	 *
+	 * @return the burst bytes
+	 */
+	public synchronized long getBurstBytes() {
+		return burstBytes;
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler;
+import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
+
+/**
+ * The Class VirtualThreads enables the execution of {@link StreamerRuntime}
+ * tasks, {@link AbstractChunkReceiver} delivery and finalization and
+ * {@link AbstractInboundMediaHandler} processing on virtual threads when the
+ * system property {@link #VIRTUAL_THREADS_PROPERTY} is true and the JVM
+ * supports them. The property must be set before any of these classes are
+ * loaded. Virtual threads are created reflectively; on JVMs without support
+ * platform threads are used.
+ */
+public class VirtualThreads {
+	private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+	/** The Constant VIRTUAL_THREADS_PROPERTY. */
+	public static final String VIRTUAL_THREADS_PROPERTY = "pprspray.virtual.threads";
+
+	private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+	private static final Method NEW_VIRTUAL_EXECUTOR = method(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+	private static final boolean ENABLED = initEnabled();
+
+	private static Method method(Class<?> clazz, String name, Class<?>... types) {
+		try {
+			return clazz.getMethod(name, types);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static boolean initEnabled() {
+		if (!Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) return false;
+
+		if (!isAvailable()) {
+			log.warn("Virtual threads are not available in Java {}, using platform threads",
+					System.getProperty("java.version"));
+			return false;
+		}
+
+		log.info("Using virtual threads");
+		return true;
+	}
+
+	/**
+	 * Returns true if the JVM supports virtual threads.
+	 *
+	 * @return true, if checks if is available
+	 */
+	public static boolean isAvailable() {
+		return OF_VIRTUAL != null && NEW_VIRTUAL_EXECUTOR != null;
+	}
+
+	/**
+	 * Returns true if virtual threads are available and the
+	 * {@link #VIRTUAL_THREADS_PROPERTY} is true.
+	 *
+	 * @return true, if checks if is enabled
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * Returns an executor starting a new virtual thread for each task.
+	 *
+	 * @return the executor service
+	 * @throws IllegalStateException
+	 *           if virtual threads are not available
+	 */
+	public static ExecutorService newExecutor() {
+		if (!isAvailable()) throw new IllegalStateException("Virtual threads are not available");
+
+		try {
+			return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot create virtual thread executor", e);
+		}
+	}
+
+	/**
+	 * Returns a factory of virtual threads named with the prefix and a counter.
+	 *
+	 * @param prefix
+	 *          the prefix
+	 * @return the thread factory
+	 * @throws IllegalStateException
+	 *           if virtual threads are not available
+	 */
+	public static ThreadFactory newThreadFactory(String prefix) {
+		if (!isAvailable()) throw new IllegalStateException("Virtual threads are not available");
+
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot create virtual thread factory", e);
+		}
+	}
+
+	private VirtualThreads() {
+	}
+
+}
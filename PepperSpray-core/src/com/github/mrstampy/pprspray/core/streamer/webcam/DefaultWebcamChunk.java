@@ -20,6 +20,9 @@
  */
 package com.github.mrstampy.pprspray.core.streamer.webcam;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+
 import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
 import com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk;
 
@@ -31,6 +34,29 @@ public class DefaultWebcamChunk extends AbstractMediaChunk {
 
 	private static final long serialVersionUID = 5591244461781503095L;
 
+	private static final Recycler<DefaultWebcamChunk> RECYCLER = new Recycler<DefaultWebcamChunk>() {
+
+		@Override
+		protected DefaultWebcamChunk newObject(Handle handle) {
+			return new DefaultWebcamChunk(handle);
+		}
+	};
+
+	/**
+	 * Returns a pooled instance initialized from the message. The data is a
+	 * retained slice of the message; {@link #release()} the chunk once consumed
+	 * to return it to the pool.
+	 *
+	 * @param message
+	 *          the message
+	 * @return the default webcam chunk
+	 */
+	public static DefaultWebcamChunk newInstance(ByteBuf message) {
+		DefaultWebcamChunk chunk = RECYCLER.get();
+		chunk.init(message, MediaStreamType.VIDEO);
+		return chunk;
+	}
+
 	/**
 	 * The Constructor.
 	 *
@@ -41,4 +67,26 @@ public class DefaultWebcamChunk extends AbstractMediaChunk {
 		super(message, MediaStreamType.VIDEO);
 	}
 
+	/**
+	 * Pooled instance constructor.
+	 *
+	 * @param handle
+	 *          the handle
+	 */
+	protected DefaultWebcamChunk(Recycler.Handle handle) {
+		super(handle);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.chunk.AbstractMediaChunk#recycle
+	 * (io.netty.util.Recycler.Handle)
+	 */
+	@Override
+	protected boolean recycle(Recycler.Handle handle) {
+		return RECYCLER.recycle(this, handle);
+	}
+
 }
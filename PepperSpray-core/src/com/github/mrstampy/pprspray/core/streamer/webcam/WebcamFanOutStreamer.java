@@ -0,0 +1,151 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.streamer.webcam;
+
+import java.awt.image.BufferedImage;
+
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.fanout.AbstractFanOutStreamer;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.sarxos.webcam.Webcam;
+
+/**
+ * The Class WebcamFanOutStreamer sends the images of a webcam to any number of
+ * destinations, acquiring and transforming each image once regardless of the
+ * number of destinations.
+ * 
+ * @see WebcamStreamer
+ */
+public class WebcamFanOutStreamer extends AbstractFanOutStreamer {
+
+	/** The Constant DEFAULT_VIDEO_CHUNK_SIZE, fitting a single datagram. */
+	public static final int DEFAULT_VIDEO_CHUNK_SIZE = 60 * 1024;
+
+	private Webcam webcam;
+
+	private WebcamImageTransformer transformer;
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param webcam
+	 *          the webcam
+	 * @param channel
+	 *          the channel
+	 */
+	public WebcamFanOutStreamer(Webcam webcam, KiSyChannel channel) {
+		this(webcam, channel, DEFAULT_VIDEO_CHUNK_SIZE);
+	}
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param webcam
+	 *          the webcam
+	 * @param channel
+	 *          the channel
+	 * @param chunkSize
+	 *          the chunk size
+	 */
+	public WebcamFanOutStreamer(Webcam webcam, KiSyChannel channel, int chunkSize) {
+		super(chunkSize, channel, MediaStreamType.VIDEO);
+
+		this.webcam = webcam;
+
+		initDefaultChunkProcessorAndFooter();
+		setTransformer(new DefaultWebcamImageTransformer());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.fanout.AbstractFanOutStreamer
+	 * #start()
+	 */
+	@Override
+	public void start() {
+		if (isStreaming()) return;
+
+		webcam.open();
+		super.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.fanout.AbstractFanOutStreamer
+	 * #stop()
+	 */
+	@Override
+	public void stop() {
+		if (!isStreaming()) return;
+
+		super.stop();
+		webcam.close();
+	}
+
+	/**
+	 * Gets the transformer.
+	 *
+	 * @return the transformer
+	 */
+	public WebcamImageTransformer getTransformer() {
+		return transformer;
+	}
+
+	/**
+	 * Sets the transformer.
+	 *
+	 * @param transformer
+	 *          the transformer
+	 */
+	public void setTransformer(WebcamImageTransformer transformer) {
+		this.transformer = transformer;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.pprspray.core.streamer.fanout.AbstractFanOutStreamer
+	 * #getBytes()
+	 */
+	@Override
+	protected byte[] getBytes() {
+		BufferedImage image = webcam.getImage();
+		if (image == null) return null;
+
+		if (getTransformer() == null) throw new IllegalStateException("Transformer cannot be null");
+
+		return getTransformer().transform(image);
+	}
+
+	private void initDefaultChunkProcessorAndFooter() {
+		DefaultWebcamChunkProcessor dwcp = new DefaultWebcamChunkProcessor(webcam);
+
+		setMediaChunkProcessor(dwcp);
+		setMediaFooter(new MediaFooter(MediaStreamType.VIDEO, dwcp.getMediaHash()));
+	}
+
+}
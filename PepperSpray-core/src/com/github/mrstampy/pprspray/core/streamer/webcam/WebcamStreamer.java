@@ -22,6 +22,7 @@ package com.github.mrstampy.pprspray.core.streamer.webcam;
 
 import java.awt.image.BufferedImage;
 import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
@@ -33,7 +34,10 @@ import com.github.sarxos.webcam.WebcamEvent;
 import com.github.sarxos.webcam.WebcamListener;
 
 /**
- * The Class WebcamStreamer.
+ * The Class WebcamStreamer. Unless set the frame interval is that of the
+ * webcam's frame rate on start, spreading the chunks of each image across it.
+ * 
+ * @see #setFrameIntervalNanos(long)
  */
 public class WebcamStreamer extends AbstractMediaStreamer {
 
@@ -78,6 +82,7 @@ public class WebcamStreamer extends AbstractMediaStreamer {
 		if (isStreaming()) return;
 
 		webcam.open();
+		if (getFrameIntervalNanos() == 0) initFrameInterval();
 		super.start();
 	}
 
@@ -155,6 +160,11 @@ public class WebcamStreamer extends AbstractMediaStreamer {
 		return open.get();
 	}
 
+	private void initFrameInterval() {
+		double fps = webcam.getFPS();
+		if (fps > 0) setFrameIntervalNanos((long) (TimeUnit.SECONDS.toNanos(1) / fps));
+	}
+
 	private void camClosed() {
 		open.set(false);
 		stop();
@@ -0,0 +1,100 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test;
+
+/**
+ * AbstractCheck, common to the self checking classes run from their main
+ * method. A failed check throws an {@link AssertionError}, terminating the run
+ * with a non zero exit status.
+ */
+public abstract class AbstractCheck {
+
+	/**
+	 * Executes the checks, printing the name of the check on success.
+	 *
+	 * @throws Exception
+	 *           the exception
+	 */
+	protected void run() throws Exception {
+		execute();
+
+		System.out.println(getClass().getSimpleName() + " passed");
+	}
+
+	/**
+	 * Implement to perform the checks.
+	 *
+	 * @throws Exception
+	 *           the exception
+	 */
+	protected abstract void execute() throws Exception;
+
+	/**
+	 * Fails if the condition is false.
+	 *
+	 * @param condition
+	 *          the condition
+	 * @param description
+	 *          the description of the check
+	 */
+	protected static void check(boolean condition, String description) {
+		if (!condition) throw new AssertionError(description);
+	}
+
+	/**
+	 * Fails unless the actual value equals the expected value.
+	 *
+	 * @param expected
+	 *          the expected
+	 * @param actual
+	 *          the actual
+	 * @param description
+	 *          the description of the check
+	 */
+	protected static void checkEquals(Object expected, Object actual, String description) {
+		if (expected == null ? actual == null : expected.equals(actual)) return;
+
+		throw new AssertionError(description + ": expected " + expected + ", was " + actual);
+	}
+
+	/**
+	 * Fails unless the runnable throws an exception of the specified type.
+	 *
+	 * @param type
+	 *          the type
+	 * @param runnable
+	 *          the runnable
+	 * @param description
+	 *          the description of the check
+	 */
+	protected static void checkThrows(Class<? extends Exception> type, Runnable runnable, String description) {
+		try {
+			runnable.run();
+		} catch (Exception e) {
+			if (type.isInstance(e)) return;
+
+			throw new AssertionError(description + ": expected " + type.getSimpleName() + ", was " + e);
+		}
+
+		throw new AssertionError(description + ": expected " + type.getSimpleName());
+	}
+
+}
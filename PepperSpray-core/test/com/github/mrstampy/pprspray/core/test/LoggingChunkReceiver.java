@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 
 import com.github.mrstampy.pprspray.core.streamer.audio.DefaultAudioChunk;
 import com.github.mrstampy.pprspray.core.streamer.binary.DefaultBinaryChunk;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
 import com.github.mrstampy.pprspray.core.streamer.file.DefaultFileChunk;
 import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
 import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationAckChunk;
@@ -36,7 +37,8 @@ import com.google.common.eventbus.Subscribe;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class LoggingChunkReceiver.
+ * The Class LoggingChunkReceiver. Chunks other than footers are only received
+ * if {@link ChunkEventBus#setBroadcastChunks(boolean)} is set to true.
  */
 public class LoggingChunkReceiver {
 	private final Logger log = LoggerFactory.getLogger(LoggingChunkReceiver.class);
@@ -77,6 +77,7 @@ public class AudioTest extends AbstractTest {
 
 	private void execute() throws LineUnavailableException {
 		// enable this to see the chunks arrive on channel2
+		// ChunkEventBus.setBroadcastChunks(true);
 		// ChunkEventBus.register(new LoggingChunkReceiver());
 
 		audioStreamer.connect();
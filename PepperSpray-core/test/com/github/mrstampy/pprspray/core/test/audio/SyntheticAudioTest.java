@@ -0,0 +1,110 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
+import com.github.mrstampy.pprspray.core.handler.AudioMediaHandler;
+import com.github.mrstampy.pprspray.core.handler.MediaDatagramDispatcher;
+import com.github.mrstampy.pprspray.core.handler.MediaFooterHandler;
+import com.github.mrstampy.pprspray.core.handler.NegotiationAckHandler;
+import com.github.mrstampy.pprspray.core.handler.NegotiationHandler;
+import com.github.mrstampy.pprspray.core.streamer.audio.AudioCapture;
+import com.github.mrstampy.pprspray.core.streamer.audio.AudioStreamer;
+import com.github.mrstampy.pprspray.core.streamer.audio.DefaultAudioTransformer;
+import com.github.mrstampy.pprspray.core.streamer.audio.SyntheticAudioSource;
+import com.github.mrstampy.pprspray.core.test.AbstractTest;
+import com.github.mrstampy.pprspray.core.test.TestNegotiationSubscriber;
+
+/**
+ * As {@link AudioTest}, streaming a 440Hz tone generated by a
+ * {@link SyntheticAudioSource} in place of the audio subsystem's line. Once
+ * streaming the capture and overrun counts of the {@link AudioStreamer}'s
+ * capture are logged every second.
+ * 
+ * @see DefaultAudioTransformer
+ */
+public class SyntheticAudioTest extends AbstractTest {
+	private static final Logger log = LoggerFactory.getLogger(SyntheticAudioTest.class);
+
+	private AudioStreamer audioStreamer;
+
+	/**
+	 * The Constructor.
+	 */
+	public SyntheticAudioTest() {
+		super();
+
+		audioStreamer = new AudioStreamer(getChannel1(), getChannel2().localAddress(), new SyntheticAudioSource(
+				TestNegotiationSubscriber.AUDIO_FORMAT));
+	}
+
+	private void execute() throws InterruptedException {
+		audioStreamer.connect();
+
+		for (int i = 0; i < 10; i++) {
+			Thread.sleep(1000);
+
+			AudioCapture capture = audioStreamer.getAudioCapture();
+			if (capture == null) continue;
+
+			log.debug("Captured {}, overruns {}", capture.getCapturedCount(), capture.getOverrunCount());
+		}
+
+		audioStreamer.destroy();
+	}
+
+	/**
+	 * These are the classes which deal with inbound messages.
+	 * 
+	 * @see AudioMediaHandler
+	 * @see NegotiationHandler
+	 * @see NegotiationAckHandler
+	 * @see MediaFooterHandler
+	 * @see MediaDatagramDispatcher
+	 * @see ByteArrayInboundMessageManager
+	 */
+	protected void initInboundManager() {
+		//@formatter:off
+		ByteArrayInboundMessageManager.INSTANCE.addMessageHandlers(
+				new MediaDatagramDispatcher(
+						new AudioMediaHandler(),
+						new NegotiationHandler(), 
+						new NegotiationAckHandler(),
+						new MediaFooterHandler()));
+		//@formatter:on
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new SyntheticAudioTest().execute();
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.channel;
+
+import io.netty.channel.socket.nio.NioDatagramChannel;
+
+import java.net.NetworkInterface;
+import java.net.UnknownHostException;
+
+import com.github.mrstampy.kitchensync.netty.channel.AbstractKiSyMulticastChannel;
+import com.github.mrstampy.kitchensync.netty.channel.initializer.ByteArrayMessageInitializer;
+import com.github.mrstampy.kitchensync.netty.channel.payload.ByteArrayByteBufCreator;
+
+/**
+ * The Class ByteArrayMulticastChannel.
+ */
+public class ByteArrayMulticastChannel extends
+		AbstractKiSyMulticastChannel<ByteArrayByteBufCreator, ByteArrayMessageInitializer, NioDatagramChannel> {
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param multicastAddress
+	 *          the multicast group address
+	 * @param port
+	 *          the port
+	 * @param networkInterface
+	 *          the network interface
+	 * @throws UnknownHostException
+	 *           the unknown host exception
+	 */
+	public ByteArrayMulticastChannel(String multicastAddress, int port, NetworkInterface networkInterface)
+			throws UnknownHostException {
+		super(multicastAddress, port, networkInterface);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.kitchensync.netty.channel.AbstractKiSyChannel#initializer
+	 * ()
+	 */
+	@Override
+	protected ByteArrayMessageInitializer initializer() {
+		return new ByteArrayMessageInitializer();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.kitchensync.netty.channel.AbstractKiSyChannel#
+	 * getChannelClass()
+	 */
+	@Override
+	protected Class<NioDatagramChannel> getChannelClass() {
+		return NioDatagramChannel.class;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.kitchensync.netty.channel.AbstractKiSyChannel#
+	 * initByteBufCreator()
+	 */
+	@Override
+	protected ByteArrayByteBufCreator initByteBufCreator() {
+		return new ByteArrayByteBufCreator();
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.file;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import com.github.mrstampy.pprspray.core.receiver.file.ByteRangeSet;
+import com.github.mrstampy.pprspray.core.test.AbstractCheck;
+
+/**
+ * Checks the merging of adjacent, overlapping and duplicate ranges by the
+ * {@link ByteRangeSet}, then compares it against a {@link BitSet} of the bytes
+ * received over many random ranges.
+ */
+public class ByteRangeSetCheck extends AbstractCheck {
+
+	private static final int MODEL_LENGTH = 4096;
+	private static final int RANDOM_RANGES = 20000;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.test.AbstractCheck#execute()
+	 */
+	@Override
+	protected void execute() throws Exception {
+		checkArguments();
+		checkMerges();
+		checkAgainstModel(new Random(1));
+	}
+
+	private void checkArguments() {
+		final ByteRangeSet set = new ByteRangeSet();
+
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				set.add(-1, 10);
+			}
+		}, "negative start");
+
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				set.add(10, 9);
+			}
+		}, "end before start");
+
+		set.add(5, 5);
+		checkEquals(0, set.size(), "empty range ignored");
+		check(set.covers(7, 7), "empty range covered");
+	}
+
+	private void checkMerges() {
+		ByteRangeSet set = new ByteRangeSet();
+
+		set.add(0, 10);
+		set.add(10, 20);
+		checkRanges(set, 1, 20, "adjacent after");
+
+		set.add(30, 40);
+		checkRanges(set, 2, 30, "disjoint");
+
+		set.add(25, 30);
+		checkRanges(set, 2, 35, "adjacent before");
+
+		set.add(5, 15);
+		checkRanges(set, 2, 35, "duplicate within");
+
+		set.add(0, 20);
+		checkRanges(set, 2, 35, "duplicate exact");
+
+		set.add(15, 27);
+		checkRanges(set, 1, 40, "bridging overlap");
+
+		set.add(50, 60);
+		set.add(70, 80);
+		set.add(90, 100);
+		checkRanges(set, 4, 70, "several disjoint");
+
+		set.add(45, 95);
+		checkRanges(set, 2, 95, "spanning several");
+
+		check(set.covers(0, 40) && set.covers(45, 100) && set.covers(60, 70), "covers");
+		check(!set.covers(39, 41) && !set.covers(40, 45) && !set.covers(99, 101), "gaps not covered");
+
+		set.clear();
+		checkRanges(set, 0, 0, "cleared");
+		check(!set.covers(0, 1), "cleared not covered");
+	}
+
+	private void checkAgainstModel(Random random) {
+		ByteRangeSet set = new ByteRangeSet();
+		BitSet model = new BitSet(MODEL_LENGTH);
+
+		for (int i = 0; i < RANDOM_RANGES; i++) {
+			int start = random.nextInt(MODEL_LENGTH);
+			int end = Math.min(MODEL_LENGTH, start + random.nextInt(64));
+
+			set.add(start, end);
+			model.set(start, end);
+
+			checkEquals((long) model.cardinality(), set.getCoveredLength(), "covered length after " + i);
+			checkEquals(runs(model), set.size(), "ranges after " + i);
+
+			int from = random.nextInt(MODEL_LENGTH);
+			int to = Math.min(MODEL_LENGTH, from + 1 + random.nextInt(128));
+			checkEquals(model.nextClearBit(from) >= to, set.covers(from, to), "covers [" + from + ", " + to + ")");
+
+			if (model.cardinality() == MODEL_LENGTH) {
+				set.clear();
+				model.clear();
+			}
+		}
+	}
+
+	private int runs(BitSet model) {
+		int runs = 0;
+		for (int i = model.nextSetBit(0); i >= 0; i = model.nextSetBit(model.nextClearBit(i))) {
+			runs++;
+		}
+
+		return runs;
+	}
+
+	private void checkRanges(ByteRangeSet set, int size, long covered, String description) {
+		checkEquals(size, set.size(), description + " ranges");
+		checkEquals(covered, set.getCoveredLength(), description + " covered length");
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new ByteRangeSetCheck().run();
+	}
+
+}
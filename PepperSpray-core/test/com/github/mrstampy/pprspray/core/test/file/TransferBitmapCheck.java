@@ -0,0 +1,225 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.file;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Random;
+
+import com.github.mrstampy.pprspray.core.streamer.file.TransferBitmap;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationAckChunk;
+import com.github.mrstampy.pprspray.core.streamer.negotiation.NegotiationMessageUtils;
+import com.github.mrstampy.pprspray.core.test.AbstractCheck;
+
+/**
+ * Checks the block sizing of the {@link TransferBitmap}, its serialization
+ * round trip both directly and within a resume {@link NegotiationAckChunk},
+ * and the rejection of malformed bitmaps.
+ */
+public class TransferBitmapCheck extends AbstractCheck {
+
+	private static final int TRANSFER_ID = 0x7a69;
+	private static final int MEDIA_HASH = 31;
+
+	private static final long MAX_MIN_LENGTH = (long) TransferBitmap.MIN_BLOCK_SIZE * TransferBitmap.MAX_BLOCKS;
+
+	private static final long[] LENGTHS = { 0, 1, TransferBitmap.MIN_BLOCK_SIZE - 1, TransferBitmap.MIN_BLOCK_SIZE,
+			TransferBitmap.MIN_BLOCK_SIZE + 1, MAX_MIN_LENGTH - 1, MAX_MIN_LENGTH, MAX_MIN_LENGTH + 1, 9441505,
+			10L * 1024 * 1024 * 1024, 1L << 40 };
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.test.AbstractCheck#execute()
+	 */
+	@Override
+	protected void execute() throws Exception {
+		Random random = new Random(1);
+
+		for (long length : LENGTHS) {
+			checkBlocks(length);
+			checkRoundTrip(length, random);
+		}
+
+		checkOffsets();
+		checkTrailingBits();
+		checkMalformed();
+		checkResumeAck(random);
+	}
+
+	private void checkBlocks(long length) {
+		TransferBitmap bitmap = new TransferBitmap(TRANSFER_ID, length);
+
+		int blockSize = bitmap.getBlockSize();
+		check(blockSize >= TransferBitmap.MIN_BLOCK_SIZE, "block size >= minimum for " + length);
+		check(Integer.bitCount(blockSize) == 1, "block size a power of two for " + length);
+		check(bitmap.getBlockCount() <= TransferBitmap.MAX_BLOCKS, "block count <= maximum for " + length);
+		check(blockSize == TransferBitmap.MIN_BLOCK_SIZE || (long) (blockSize / 2) * TransferBitmap.MAX_BLOCKS < length,
+				"smallest block size for " + length);
+		check(bitmap.getBlockCount() == 0 || bitmap.end(bitmap.getBlockCount() - 1) == length, "last block ends at "
+				+ length);
+		check(bitmap.getSerializedLength() <= TransferBitmap.HEADER_LENGTH + TransferBitmap.MAX_BLOCKS / 8,
+				"serialized length bounded for " + length);
+	}
+
+	private void checkRoundTrip(long length, Random random) {
+		TransferBitmap bitmap = randomBitmap(length, random);
+
+		ByteBuf buf = Unpooled.buffer();
+		bitmap.write(buf);
+		checkEquals(bitmap.getSerializedLength(), buf.readableBytes(), "serialized length for " + length);
+
+		TransferBitmap read = TransferBitmap.read(buf);
+		checkEquals(0, buf.readableBytes(), "buffer consumed for " + length);
+		checkEqual(bitmap, read, "round trip of " + length);
+	}
+
+	private void checkOffsets() {
+		int size = TransferBitmap.MIN_BLOCK_SIZE;
+		TransferBitmap bitmap = new TransferBitmap(TRANSFER_ID, 4L * size + 10);
+		checkEquals(5, bitmap.getBlockCount(), "block count");
+
+		bitmap.set(1);
+		bitmap.set(2);
+		bitmap.set(4);
+
+		checkEquals(5L, bitmap.nextMissing(5), "missing within the first block");
+		checkEquals(3L * size, bitmap.nextMissing(size), "missing after received blocks");
+		checkEquals(4L * size, bitmap.nextReceived(3L * size), "received after a missing block");
+		checkEquals((long) size, bitmap.nextReceived(0), "first received");
+		checkEquals(bitmap.getLength(), bitmap.nextMissing(4L * size), "nothing missing in the last block");
+		checkEquals(bitmap.getLength(), bitmap.nextReceived(bitmap.getLength()), "received at the end");
+		checkEquals(4L * size + 10, bitmap.end(4), "end of the last block");
+		check(!bitmap.isComplete(), "incomplete");
+
+		bitmap.set(0);
+		bitmap.set(3);
+		check(bitmap.isComplete(), "complete");
+		checkEquals(bitmap.getLength(), bitmap.nextMissing(0), "nothing missing once complete");
+	}
+
+	private void checkTrailingBits() {
+		TransferBitmap bitmap = new TransferBitmap(TRANSFER_ID, 3L * TransferBitmap.MIN_BLOCK_SIZE);
+		bitmap.set(1);
+
+		ByteBuf buf = Unpooled.buffer();
+		bitmap.write(buf);
+		buf.setByte(buf.writerIndex() - 1, 0xff);
+		buf.writeByte(0xff);
+
+		TransferBitmap read = TransferBitmap.read(buf);
+		checkEquals(3, read.getReceivedCount(), "bits beyond the block count ignored");
+		check(read.isComplete(), "complete despite trailing bits");
+	}
+
+	private void checkMalformed() {
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				TransferBitmap.read(Unpooled.buffer().writeZero(TransferBitmap.HEADER_LENGTH - 1));
+			}
+		}, "short bitmap");
+
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				ByteBuf buf = Unpooled.buffer();
+				buf.writeInt(TRANSFER_ID).writeLong(MAX_MIN_LENGTH + 1).writeInt(TransferBitmap.MIN_BLOCK_SIZE);
+				TransferBitmap.read(buf);
+			}
+		}, "block size not derived from the length");
+
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				ByteBuf buf = Unpooled.buffer();
+				buf.writeInt(TRANSFER_ID).writeLong(-1).writeInt(TransferBitmap.MIN_BLOCK_SIZE);
+				TransferBitmap.read(buf);
+			}
+		}, "negative length");
+
+		final TransferBitmap bitmap = new TransferBitmap(TRANSFER_ID, 10);
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				bitmap.set(1);
+			}
+		}, "block beyond the count");
+	}
+
+	private void checkResumeAck(Random random) {
+		TransferBitmap bitmap = randomBitmap(9441505, random);
+
+		byte[] message = NegotiationMessageUtils.getResumeAckMessage(MEDIA_HASH, TRANSFER_ID, bitmap).array();
+		NegotiationAckChunk chunk = new NegotiationAckChunk(message);
+
+		check(chunk.isResume(), "resume ack");
+		checkEquals(TRANSFER_ID, chunk.getTransferId(), "resume ack transfer id");
+		check(chunk.hasCapability(NegotiationMessageUtils.RESUMABLE_TRANSFERS), "resume ack capability");
+		checkEqual(bitmap, chunk.getTransferBitmap(), "resume ack bitmap");
+
+		message = NegotiationMessageUtils.getResumeAckMessage(MEDIA_HASH, TRANSFER_ID, null).array();
+		chunk = new NegotiationAckChunk(message);
+		check(chunk.getTransferBitmap() == null, "resume ack without bitmap");
+	}
+
+	private TransferBitmap randomBitmap(long length, Random random) {
+		TransferBitmap bitmap = new TransferBitmap(TRANSFER_ID, length);
+		for (int block = 0; block < bitmap.getBlockCount(); block++) {
+			if (random.nextBoolean()) bitmap.set(block);
+		}
+
+		if (bitmap.getBlockCount() > 0) bitmap.set(bitmap.getBlockCount() - 1);
+
+		return bitmap;
+	}
+
+	private void checkEqual(TransferBitmap expected, TransferBitmap actual, String description) {
+		check(actual != null, description + " read");
+		checkEquals(expected.getTransferId(), actual.getTransferId(), description + " transfer id");
+		checkEquals(expected.getLength(), actual.getLength(), description + " length");
+		checkEquals(expected.getBlockSize(), actual.getBlockSize(), description + " block size");
+		checkEquals(expected.getBlockCount(), actual.getBlockCount(), description + " block count");
+		checkEquals(expected.getReceivedCount(), actual.getReceivedCount(), description + " received count");
+
+		for (int block = 0; block < expected.getBlockCount(); block++) {
+			checkEquals(expected.isReceived(block), actual.isReceived(block), description + " block " + block);
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new TransferBitmapCheck().run();
+	}
+
+}
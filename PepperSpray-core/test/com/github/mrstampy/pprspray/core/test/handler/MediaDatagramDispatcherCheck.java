@@ -0,0 +1,212 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import com.github.mrstampy.pprspray.core.handler.AbstractInboundMediaHandler;
+import com.github.mrstampy.pprspray.core.handler.AudioMediaHandler;
+import com.github.mrstampy.pprspray.core.handler.BinaryMediaHandler;
+import com.github.mrstampy.pprspray.core.handler.FileMediaHandler;
+import com.github.mrstampy.pprspray.core.handler.JsonMediaHandler;
+import com.github.mrstampy.pprspray.core.handler.MediaDatagramDispatcher;
+import com.github.mrstampy.pprspray.core.handler.MediaFooterHandler;
+import com.github.mrstampy.pprspray.core.handler.NegotiationAckHandler;
+import com.github.mrstampy.pprspray.core.handler.NegotiationHandler;
+import com.github.mrstampy.pprspray.core.handler.TextMediaHandler;
+import com.github.mrstampy.pprspray.core.handler.WebcamMediaHandler;
+import com.github.mrstampy.pprspray.core.handler.XmlMediaHandler;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.mrstampy.pprspray.core.streamer.text.DefaultJsonChunkProcessor;
+import com.github.mrstampy.pprspray.core.streamer.text.DefaultXmlChunkProcessor;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
+import com.github.mrstampy.pprspray.core.test.AbstractCheck;
+
+/**
+ * Checks that the {@link MediaDatagramDispatcher} routes each datagram to the
+ * handler which would have accepted it had the handlers been registered
+ * individually, including the JSON and XML keyed text handlers and footers,
+ * and that malformed datagrams are rejected without throwing.
+ */
+public class MediaDatagramDispatcherCheck extends AbstractCheck {
+
+	private static final int MESSAGE_HASH = 0x1234;
+	private static final int MEDIA_HASH = 0x5678;
+	private static final int DATA_LENGTH = 8;
+
+	private final AudioMediaHandler audio = new AudioMediaHandler();
+	private final BinaryMediaHandler binary = new BinaryMediaHandler();
+	private final FileMediaHandler file = new FileMediaHandler();
+	private final TextMediaHandler text = new TextMediaHandler();
+	private final JsonMediaHandler json = new JsonMediaHandler();
+	private final XmlMediaHandler xml = new XmlMediaHandler();
+	private final WebcamMediaHandler webcam = new WebcamMediaHandler();
+	private final NegotiationHandler negotiation = new NegotiationHandler();
+	private final NegotiationAckHandler negotiationAck = new NegotiationAckHandler();
+	private final MediaFooterHandler footer = new MediaFooterHandler();
+
+	private final RoutingDispatcher dispatcher = new RoutingDispatcher(audio, binary, file, text, json, xml, webcam,
+			negotiation, negotiationAck, footer);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.test.AbstractCheck#execute()
+	 */
+	@Override
+	protected void execute() throws Exception {
+		checkChunks();
+		checkCustomHeaders();
+		checkFooter();
+		checkMalformed();
+		checkUnhandled();
+		checkReplacement();
+	}
+
+	private void checkChunks() {
+		checkRoute(chunk(MediaStreamType.AUDIO, null), audio, "audio");
+		checkRoute(chunk(MediaStreamType.BINARY, null), binary, "binary");
+		checkRoute(chunk(MediaStreamType.FILE, null), file, "file");
+		checkRoute(chunk(MediaStreamType.TEXT, null), text, "text");
+		checkRoute(chunk(MediaStreamType.VIDEO, null), webcam, "video");
+		checkRoute(chunk(MediaStreamType.NEGOTIATION, null), negotiation, "negotiation");
+		checkRoute(chunk(MediaStreamType.NEGOTIATION_ACK, null), negotiationAck, "negotiation ack");
+	}
+
+	private void checkCustomHeaders() {
+		checkRoute(chunk(MediaStreamType.TEXT, DefaultJsonChunkProcessor.JSON_KEY_BYTES), json, "json");
+		checkRoute(chunk(MediaStreamType.TEXT, DefaultXmlChunkProcessor.XML_KEY_BYTES), xml, "xml");
+
+		// a key on a type without keyed handlers is carried as a custom header
+		checkRoute(chunk(MediaStreamType.BINARY, DefaultJsonChunkProcessor.JSON_KEY_BYTES), binary, "keyed binary");
+	}
+
+	private void checkFooter() {
+		MediaFooter mf = new MediaFooter(MediaStreamType.AUDIO, MEDIA_HASH);
+		mf.setMessageHash(MESSAGE_HASH);
+		checkRoute(mf.createFooter(), footer, "footer");
+
+		mf.setChunkCounts(true);
+		mf.setMessageLength(100);
+		checkRoute(mf.createFooter(), footer, "counted footer");
+	}
+
+	private void checkMalformed() throws Exception {
+		checkRejected(null, "null");
+		checkRejected(new byte[0], "empty");
+		checkRejected(new byte[] { 1, 2, 3 }, "short");
+		checkRejected(new byte[MediaStreamerUtils.DEFAULT_HEADER_LENGTH + DATA_LENGTH], "zeros");
+
+		byte[] foreign = "a datagram foreign to the media protocol".getBytes();
+		checkRejected(foreign, "foreign");
+
+		byte[] truncated = chunk(MediaStreamType.AUDIO, null);
+		Unpooled.wrappedBuffer(truncated).setShort(4, truncated.length + 1);
+		checkRejected(truncated, "header longer than message");
+
+		byte[] undersized = chunk(MediaStreamType.AUDIO, null);
+		Unpooled.wrappedBuffer(undersized).setShort(4, MediaStreamerUtils.DEFAULT_HEADER_LENGTH - 1);
+		checkRejected(undersized, "header shorter than default");
+	}
+
+	private void checkUnhandled() {
+		RoutingDispatcher audioOnly = new RoutingDispatcher(new AudioMediaHandler());
+
+		check(audioOnly.canHandleMessage(chunk(MediaStreamType.AUDIO, null)), "audio only handles audio");
+		check(!audioOnly.canHandleMessage(chunk(MediaStreamType.BINARY, null)), "audio only rejects binary");
+		check(!audioOnly.canHandleMessage(new MediaFooter(MediaStreamType.AUDIO, MEDIA_HASH).createFooter()),
+				"audio only rejects footers");
+	}
+
+	private void checkReplacement() {
+		RoutingDispatcher replacing = new RoutingDispatcher(new AudioMediaHandler(), new JsonMediaHandler());
+
+		AudioMediaHandler replacement = new AudioMediaHandler();
+		replacing.addHandler(replacement);
+		checkEquals(replacement, replacing.routeOf(chunk(MediaStreamType.AUDIO, null)), "replaced audio handler");
+
+		JsonMediaHandler keyed = new JsonMediaHandler();
+		replacing.addHandler(keyed);
+		checkEquals(keyed, replacing.routeOf(chunk(MediaStreamType.TEXT, DefaultJsonChunkProcessor.JSON_KEY_BYTES)),
+				"replaced json handler");
+
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				dispatcher.addHandler(null);
+			}
+		}, "null handler");
+	}
+
+	private void checkRoute(byte[] message, AbstractInboundMediaHandler<?> expected, String description) {
+		check(dispatcher.canHandleMessage(message), description + " can be handled");
+		checkEquals(expected, dispatcher.routeOf(message), description + " routed");
+		check(expected.canHandleMessage(message), description + " accepted by the handler routed to");
+	}
+
+	private void checkRejected(byte[] message, String description) throws Exception {
+		check(!dispatcher.canHandleMessage(message), description + " rejected");
+		checkEquals(null, dispatcher.routeOf(message), description + " not routed");
+
+		// discarded without a chunk being created
+		dispatcher.messageReceived(message, null, null);
+	}
+
+	private static byte[] chunk(MediaStreamType type, byte[] key) {
+		int headerLength = MediaStreamerUtils.DEFAULT_HEADER_LENGTH + (key == null ? 0 : key.length);
+
+		ByteBuf buf = Unpooled.buffer(headerLength + DATA_LENGTH);
+		MediaStreamerUtils.writeHeader(buf, type, headerLength, MESSAGE_HASH, MEDIA_HASH, 1, false, true);
+		if (key != null) buf.writeBytes(key);
+		buf.writeZero(DATA_LENGTH);
+
+		return buf.array();
+	}
+
+	private static class RoutingDispatcher extends MediaDatagramDispatcher {
+
+		private static final long serialVersionUID = 1L;
+
+		RoutingDispatcher(AbstractInboundMediaHandler<?>... handlers) {
+			super(handlers);
+		}
+
+		AbstractInboundMediaHandler<?> routeOf(byte[] message) {
+			return route(message);
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new MediaDatagramDispatcherCheck().run();
+	}
+
+}
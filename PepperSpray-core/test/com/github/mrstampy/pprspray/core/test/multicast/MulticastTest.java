@@ -0,0 +1,138 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.multicast;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+
+import com.github.mrstampy.kitchensync.message.inbound.ByteArrayInboundMessageManager;
+import com.github.mrstampy.kitchensync.netty.channel.KiSyMulticastChannel;
+import com.github.mrstampy.pprspray.core.handler.BinaryMediaHandler;
+import com.github.mrstampy.pprspray.core.handler.MediaDatagramDispatcher;
+import com.github.mrstampy.pprspray.core.handler.MediaFooterHandler;
+import com.github.mrstampy.pprspray.core.handler.NegotiationAckHandler;
+import com.github.mrstampy.pprspray.core.handler.NegotiationHandler;
+import com.github.mrstampy.pprspray.core.receiver.multicast.MulticastMembership;
+import com.github.mrstampy.pprspray.core.streamer.binary.BinaryStreamer;
+import com.github.mrstampy.pprspray.core.test.AbstractTest;
+import com.github.mrstampy.pprspray.core.test.LoggingProcessor;
+import com.github.mrstampy.pprspray.core.test.TestNegotiationSubscriber;
+import com.github.mrstampy.pprspray.core.test.channel.ByteArrayMulticastChannel;
+
+/**
+ * Streams binary messages from channel1 to a multicast group on the loopback
+ * interface. The member joins the group before negotiation, leaves it while
+ * streaming and rejoins, receiving again from the next announcement of the
+ * stream. The {@link LoggingProcessor} created by the
+ * {@link TestNegotiationSubscriber} writes the messages received by the member
+ * to the log at debug level.<br>
+ * <br>
+ * Members sharing a JVM share the event buses; run further members in their
+ * own JVMs to observe acknowledgement suppression.
+ * 
+ * @see MulticastMembership
+ */
+public class MulticastTest extends AbstractTest {
+
+	private static final String GROUP = "239.255.27.1";
+	private static final int PORT = 57227;
+
+	private BinaryStreamer streamer;
+
+	private KiSyMulticastChannel member;
+
+	/**
+	 * The Constructor.
+	 *
+	 * @throws Exception
+	 *           the exception
+	 */
+	public MulticastTest() throws Exception {
+		super();
+
+		NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+
+		member = new ByteArrayMulticastChannel(GROUP, PORT, loopback);
+		member.bind();
+
+		streamer = new BinaryStreamer(getChannel1(), new InetSocketAddress(GROUP, PORT));
+		streamer.setAnnounceIntervalMillis(1000);
+	}
+
+	private void execute() throws Exception {
+		MulticastMembership.join(member);
+
+		streamer.connect();
+		stream("joined");
+
+		MulticastMembership.leave(member);
+		stream("left");
+
+		MulticastMembership.join(member);
+		Thread.sleep(2000);
+		stream("rejoined");
+
+		streamer.destroy();
+		MulticastMembership.leave(member);
+	}
+
+	private void stream(String state) throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			streamer.stream(("Message " + i + ", member " + state).getBytes());
+			Thread.sleep(100);
+		}
+	}
+
+	/**
+	 * These are the classes which deal with inbound messages.
+	 * 
+	 * @see BinaryMediaHandler
+	 * @see NegotiationHandler
+	 * @see NegotiationAckHandler
+	 * @see MediaFooterHandler
+	 * @see MediaDatagramDispatcher
+	 * @see ByteArrayInboundMessageManager
+	 */
+	protected void initInboundManager() {
+		//@formatter:off
+		ByteArrayInboundMessageManager.INSTANCE.addMessageHandlers(
+				new MediaDatagramDispatcher(
+						new BinaryMediaHandler(),
+						new NegotiationHandler(), 
+						new NegotiationAckHandler(),
+						new MediaFooterHandler()));
+		//@formatter:on
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new MulticastTest().execute();
+	}
+
+}
@@ -0,0 +1,237 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.receiver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.functions.Action1;
+
+import com.github.mrstampy.pprspray.core.receiver.ChunkReassemblyBuffer;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.binary.DefaultBinaryChunk;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
+import com.github.mrstampy.pprspray.core.test.AbstractCheck;
+
+/**
+ * Checks the insertion, duplicate detection, growth in either direction,
+ * draining and {@link ChunkReassemblyBuffer#MAX_SPAN} bound of the
+ * {@link ChunkReassemblyBuffer}.
+ */
+public class ChunkReassemblyBufferCheck extends AbstractCheck {
+
+	private static final int MESSAGE_HASH = 7;
+	private static final int MEDIA_HASH = 9;
+	private static final int DATA_LENGTH = 10;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.test.AbstractCheck#execute()
+	 */
+	@Override
+	protected void execute() throws Exception {
+		checkAdd();
+		checkPrepend();
+		checkDrain();
+		checkAssumeFirst();
+		checkMaxSpan();
+		checkClose();
+	}
+
+	private void checkAdd() {
+		ChunkReassemblyBuffer<DefaultBinaryChunk> buffer = new ChunkReassemblyBuffer<>();
+
+		for (long seq = 100; seq < 140; seq++) {
+			check(buffer.add(chunk(seq, false)), "add " + seq);
+		}
+
+		check(!buffer.add(chunk(120, false)), "duplicate rejected");
+		checkEquals(40, buffer.size(), "size");
+		checkEquals(40 * DATA_LENGTH, buffer.getDataLength(), "data length");
+		checkEquals(100L, buffer.getFirstSequence(), "first sequence");
+		checkEquals(139L, buffer.getLastSequence(), "last sequence");
+		checkEquals(0, buffer.getMissingCount(), "missing");
+		checkEquals(MESSAGE_HASH, buffer.getMessageHash(), "message hash");
+		check(buffer.contains(139) && !buffer.contains(140) && !buffer.contains(99), "contains");
+
+		buffer.expect(41, 41 * DATA_LENGTH);
+		check(!buffer.isComplete(), "incomplete with a chunk outstanding");
+		check(buffer.add(chunk(140, false)), "add last");
+		check(buffer.isComplete(), "complete");
+
+		checkOrder(buffer, 100, 141);
+	}
+
+	private void checkPrepend() {
+		ChunkReassemblyBuffer<DefaultBinaryChunk> buffer = new ChunkReassemblyBuffer<>(2);
+
+		check(buffer.add(chunk(1000, false)), "add 1000");
+		check(buffer.add(chunk(1003, false)), "add 1003");
+		check(buffer.add(chunk(998, false)), "prepend 998");
+		check(buffer.add(chunk(10, false)), "prepend 10 beyond capacity");
+		check(!buffer.add(chunk(998, false)), "duplicate rejected after prepend");
+
+		checkEquals(10L, buffer.getFirstSequence(), "first sequence after prepend");
+		checkEquals(1003L, buffer.getLastSequence(), "last sequence after prepend");
+		checkEquals(4, buffer.size(), "size after prepend");
+		checkEquals(994 - 4, buffer.getMissingCount(), "missing after prepend");
+		check(buffer.contains(10) && buffer.contains(998) && buffer.contains(1000) && buffer.contains(1003),
+				"contains after prepend");
+		check(!buffer.contains(999) && !buffer.contains(11), "gaps after prepend");
+
+		for (long seq = 11; seq < 1003; seq++) {
+			if (seq != 998 && seq != 1000) check(buffer.add(chunk(seq, false)), "fill " + seq);
+		}
+
+		checkEquals(0, buffer.getMissingCount(), "missing once filled");
+		check(buffer.getMaxReorderDepth() > 0, "reorder depth");
+		checkOrder(buffer, 10, 1004);
+	}
+
+	private void checkDrain() {
+		ChunkReassemblyBuffer<DefaultBinaryChunk> buffer = new ChunkReassemblyBuffer<>();
+		List<Long> drained = new ArrayList<>();
+
+		check(buffer.add(chunk(51, false)), "add 51");
+		check(buffer.add(chunk(53, false)), "add 53");
+		checkEquals(0, buffer.drain(collector(drained)), "nothing drained before the first chunk");
+
+		check(buffer.add(chunk(50, true)), "add first");
+		check(buffer.isFirstReceived(), "first received");
+		checkEquals(2, buffer.drain(collector(drained)), "drained to the gap");
+		checkEquals(2, buffer.getDrainedCount(), "drained count");
+		checkEquals(2L * DATA_LENGTH, buffer.getDrainedLength(), "drained length");
+		checkEquals(1, buffer.size(), "held after drain");
+		checkEquals(52L, buffer.getFirstSequence(), "first sequence after drain");
+
+		check(!buffer.add(chunk(49, false)), "sequence before the first rejected");
+		check(!buffer.add(chunk(50, false)), "drained sequence rejected");
+
+		check(buffer.add(chunk(52, false)), "fill gap");
+		checkEquals(2, buffer.drain(collector(drained)), "drained the rest");
+		checkEquals(0, buffer.size(), "empty");
+		checkEquals(0, buffer.getDataLength(), "no data held");
+
+		buffer.expect(4, 4 * DATA_LENGTH);
+		check(buffer.isComplete(), "complete once drained");
+
+		checkEquals(4, drained.size(), "drained chunks");
+		for (int i = 0; i < drained.size(); i++) {
+			checkEquals(50L + i, drained.get(i), "drain order");
+		}
+	}
+
+	private void checkAssumeFirst() {
+		ChunkReassemblyBuffer<DefaultBinaryChunk> buffer = new ChunkReassemblyBuffer<>();
+		List<Long> drained = new ArrayList<>();
+
+		check(!buffer.assumeFirstReceived(), "nothing to assume when empty");
+
+		check(buffer.add(chunk(21, false)), "add 21");
+		check(buffer.add(chunk(20, false)), "add 20");
+		checkEquals(0, buffer.drain(collector(drained)), "unflagged chunks not drained");
+
+		check(buffer.assumeFirstReceived(), "first assumed");
+		check(!buffer.assumeFirstReceived(), "first assumed once");
+		checkEquals(2, buffer.drain(collector(drained)), "drained once assumed");
+		checkEquals(20L, drained.get(0), "lowest sequence first");
+	}
+
+	private void checkMaxSpan() {
+		int max = ChunkReassemblyBuffer.MAX_SPAN;
+
+		ChunkReassemblyBuffer<DefaultBinaryChunk> buffer = new ChunkReassemblyBuffer<>();
+		check(buffer.add(chunk(0, false)), "add 0");
+		check(buffer.add(chunk(max - 1, false)), "add at the span");
+		check(!buffer.add(chunk(max, false)), "add beyond the span rejected");
+		checkEquals(2, buffer.size(), "size at the span");
+		buffer.release();
+
+		buffer = new ChunkReassemblyBuffer<>();
+		check(buffer.add(chunk(max, false)), "add " + max);
+		check(!buffer.add(chunk(0, false)), "prepend beyond the span rejected");
+		check(buffer.add(chunk(1, false)), "prepend at the span");
+		checkEquals(1L, buffer.getFirstSequence(), "first sequence at the span");
+		checkEquals(max - 2, buffer.getMissingCount(), "missing at the span");
+		buffer.release();
+	}
+
+	private void checkClose() {
+		ChunkReassemblyBuffer<DefaultBinaryChunk> buffer = new ChunkReassemblyBuffer<>();
+		List<Long> drained = new ArrayList<>();
+
+		check(buffer.add(chunk(0, true)), "add first");
+		buffer.close();
+
+		check(buffer.isClosed(), "closed");
+		check(!buffer.add(chunk(1, false)), "add once closed rejected");
+		checkEquals(0, buffer.drain(collector(drained)), "nothing drained once closed");
+
+		buffer.release();
+		checkEquals(0, buffer.size(), "empty once released");
+		checkEquals(0, buffer.getDataLength(), "no data once released");
+	}
+
+	private void checkOrder(ChunkReassemblyBuffer<DefaultBinaryChunk> buffer, long from, long to) {
+		long expected = from;
+		for (DefaultBinaryChunk chunk : buffer) {
+			checkEquals(expected++, chunk.getSequence(), "iteration order");
+		}
+
+		checkEquals(to, expected, "iterated to");
+	}
+
+	private static Action1<DefaultBinaryChunk> collector(final List<Long> drained) {
+		return new Action1<DefaultBinaryChunk>() {
+
+			@Override
+			public void call(DefaultBinaryChunk chunk) {
+				drained.add(chunk.getSequence());
+			}
+		};
+	}
+
+	private static DefaultBinaryChunk chunk(long sequence, boolean firstChunk) {
+		ByteBuf buf = Unpooled.buffer(MediaStreamerUtils.DEFAULT_HEADER_LENGTH + DATA_LENGTH);
+		MediaStreamerUtils.writeHeader(buf, MediaStreamType.BINARY, MediaStreamerUtils.DEFAULT_HEADER_LENGTH,
+				MESSAGE_HASH, MEDIA_HASH, sequence, false, firstChunk);
+		buf.writeZero(DATA_LENGTH);
+
+		return new DefaultBinaryChunk(buf.array());
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new ChunkReassemblyBufferCheck().run();
+	}
+
+}
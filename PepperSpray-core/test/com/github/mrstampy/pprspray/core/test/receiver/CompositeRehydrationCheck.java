@@ -0,0 +1,362 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.receiver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
+import com.github.mrstampy.pprspray.core.receiver.AbstractMediaProcessor;
+import com.github.mrstampy.pprspray.core.receiver.BufferMediaTransformer;
+import com.github.mrstampy.pprspray.core.receiver.MediaEvent;
+import com.github.mrstampy.pprspray.core.receiver.MediaEventBus;
+import com.github.mrstampy.pprspray.core.receiver.event.ReceiverEventBus;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.binary.DefaultBinaryChunk;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
+import com.github.mrstampy.pprspray.core.test.AbstractCheck;
+
+/**
+ * Checks that a message received out of order by an
+ * {@link AbstractChunkReceiver} with composite rehydration is passed to its
+ * {@link BufferMediaTransformer} and posted as a {@link MediaEvent} holding the
+ * chunks' pooled payloads in order without copying, and that the payloads are
+ * freed once the event is released, flattened by
+ * {@link MediaEvent#getContiguous()} or replaced by the transformer.
+ */
+public class CompositeRehydrationCheck extends AbstractCheck {
+
+	private static final int MESSAGE_HASH = 0x2468;
+	private static final int CHUNKS = 4;
+	private static final int DATA_LENGTH = 16;
+	private static final long[] ARRIVAL = { 2, 0, 3, 1 };
+
+	private int mediaHash = 0x13570;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.test.AbstractCheck#execute()
+	 */
+	@Override
+	protected void execute() throws Exception {
+		checkReleased();
+		checkContiguous();
+		checkTransformed();
+	}
+
+	private void checkReleased() throws Exception {
+		int hash = ++mediaHash;
+		final ByteBuf[] messages = messages(hash);
+
+		Inspector inspector = receive(messages, new Inspector(hash) {
+
+			@Override
+			protected void inspect(MediaEvent event) {
+				check(event.isBuffered(), "event is buffered");
+				checkEquals(MESSAGE_HASH, event.getMessageHash(), "message hash");
+
+				ByteBuf buf = event.getBuffer();
+				check(buf == returned, "transformed buffer posted");
+				check(buf instanceof CompositeByteBuf, "buffer is composite");
+				checkEquals(CHUNKS, ((CompositeByteBuf) buf).numComponents(), "components");
+				check(Arrays.equals(expected(), bytes(buf)), "buffer bytes in sequence order");
+
+				// the event owns the composite, which retains the chunks' payloads;
+				// the chunks themselves are released once the event is posted
+				checkEquals(1, buf.refCnt(), "composite owned by the event");
+				checkRefCnt(messages, 1, 2, "payloads retained by the composite");
+
+				check(Arrays.equals(expected(), event.getProcessed()), "processed bytes");
+				check(event.getBuffer() == buf, "processed copied without replacing the composite");
+				checkEquals(1, buf.refCnt(), "composite owned after copy");
+			}
+		});
+
+		checkEquals(1, inspector.transformed, "transformed once");
+		check(inspector.composite, "transformer received a composite");
+
+		awaitRefCnt(messages, "payloads freed once the event is released");
+
+		final MediaEvent event = inspector.event;
+		check(Arrays.equals(expected(), event.getProcessed()), "processed bytes retained after release");
+		checkThrows(IllegalStateException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				event.getBuffer();
+			}
+		}, "buffer unavailable after release");
+	}
+
+	private void checkContiguous() throws Exception {
+		int hash = ++mediaHash;
+		final ByteBuf[] messages = messages(hash);
+		final ByteBuf[] flat = new ByteBuf[1];
+
+		receive(messages, new Inspector(hash) {
+
+			@Override
+			protected void inspect(MediaEvent event) {
+				ByteBuf composite = event.getBuffer();
+
+				ByteBuf contiguous = event.getContiguous();
+				flat[0] = contiguous;
+
+				check(!(contiguous instanceof CompositeByteBuf), "contiguous is not composite");
+				check(contiguous != composite, "composite replaced");
+				checkEquals(1, contiguous.refCnt(), "contiguous owned by the event");
+				checkEquals(expected().length, contiguous.capacity(), "contiguous capacity");
+				check(Arrays.equals(expected(), bytes(contiguous)), "contiguous bytes");
+
+				checkEquals(0, composite.refCnt(), "composite released on flattening");
+
+				check(event.getBuffer() == contiguous, "buffer is the contiguous");
+				check(event.getContiguous() == contiguous, "flattened once");
+				checkEquals(expected().length, event.getByteBuffer().remaining(), "byte buffer");
+			}
+		});
+
+		awaitRefCnt(messages, "payloads freed once flattened");
+		awaitRefCnt(flat, "contiguous freed once the event is released");
+	}
+
+	private void checkTransformed() throws Exception {
+		int hash = ++mediaHash;
+		final ByteBuf[] messages = messages(hash);
+
+		Inspector inspector = new Inspector(hash) {
+
+			@Override
+			public ByteBuf transform(ByteBuf data, int mediaHash) {
+				super.transform(data, mediaHash);
+
+				returned = Unpooled.copiedBuffer(data);
+
+				return returned;
+			}
+
+			@Override
+			protected void inspect(MediaEvent event) {
+				checkEquals(0, input.refCnt(), "composite released when the transformer returns a copy");
+				check(event.getBuffer() == returned, "copy posted");
+				check(Arrays.equals(expected(), event.getProcessed()), "copied bytes");
+			}
+		};
+
+		receive(messages, inspector);
+
+		awaitRefCnt(messages, "payloads freed once transformed");
+		awaitRefCnt(new ByteBuf[] { inspector.returned }, "copy released with the event");
+	}
+
+	private Inspector receive(ByteBuf[] messages, Inspector inspector) throws Exception {
+		AbstractChunkReceiver<DefaultBinaryChunk> receiver = new AbstractChunkReceiver<DefaultBinaryChunk>(
+				MediaStreamType.BINARY, inspector.getMediaHash()) {
+
+			@Override
+			protected void receiveImpl(DefaultBinaryChunk chunk) {
+				add(chunk);
+			}
+
+			@Override
+			protected void endOfMessageImpl(MediaFooterChunk eom) {
+				finalizeMessage(eom);
+			}
+		};
+
+		receiver.setCompositeRehydration(true);
+		receiver.setTransformer(inspector);
+
+		try {
+			for (long sequence : ARRIVAL) {
+				ByteBuf message = messages[(int) sequence];
+
+				DefaultBinaryChunk chunk = DefaultBinaryChunk.newInstance(message);
+				checkEquals(2, message.refCnt(), "payload retained by chunk " + sequence);
+
+				message.release();
+				ChunkEventBus.post(chunk);
+			}
+
+			ChunkEventBus.post(new MediaFooterChunk(footer(inspector.getMediaHash())));
+
+			check(inspector.processed.await(5, TimeUnit.SECONDS), "event received");
+			if (inspector.failure != null) throw inspector.failure;
+
+			return inspector;
+		} finally {
+			receiver.destroy();
+			inspector.destroy();
+		}
+	}
+
+	private ByteBuf[] messages(int mediaHash) {
+		ByteBuf[] messages = new ByteBuf[CHUNKS];
+
+		for (int i = 0; i < CHUNKS; i++) {
+			int headerLength = MediaStreamerUtils.DEFAULT_HEADER_LENGTH;
+
+			ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(headerLength + DATA_LENGTH);
+			MediaStreamerUtils.writeHeader(buf, MediaStreamType.BINARY, headerLength, MESSAGE_HASH, mediaHash, i, false,
+					i == 0);
+			buf.writeBytes(expected(), i * DATA_LENGTH, DATA_LENGTH);
+
+			messages[i] = buf;
+		}
+
+		return messages;
+	}
+
+	private byte[] footer(int mediaHash) {
+		ByteBuf buf = Unpooled.buffer(MediaStreamerUtils.EXTENDED_FOOTER_LENGTH);
+
+		buf.writeBytes(MediaStreamType.BINARY.eomBytes());
+		buf.writeInt(MESSAGE_HASH);
+		buf.writeInt(mediaHash);
+		buf.writeInt(CHUNKS);
+		buf.writeInt(CHUNKS * DATA_LENGTH);
+
+		return buf.array();
+	}
+
+	private static byte[] expected() {
+		byte[] b = new byte[CHUNKS * DATA_LENGTH];
+
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) i;
+		}
+
+		return b;
+	}
+
+	private static byte[] bytes(ByteBuf buf) {
+		byte[] b = new byte[buf.readableBytes()];
+		buf.getBytes(buf.readerIndex(), b);
+
+		return b;
+	}
+
+	private static void checkRefCnt(ByteBuf[] bufs, int min, int max, String description) {
+		for (int i = 0; i < bufs.length; i++) {
+			int refCnt = bufs[i].refCnt();
+			check(refCnt >= min && refCnt <= max, description + " " + i + ", was " + refCnt);
+		}
+	}
+
+	private static void awaitRefCnt(ByteBuf[] bufs, String description) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+		for (ByteBuf buf : bufs) {
+			while (buf.refCnt() != 0 && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+		}
+
+		checkRefCnt(bufs, 0, 0, description);
+	}
+
+	/**
+	 * Transforms and processes the message, recording its inspection.
+	 */
+	private abstract static class Inspector extends AbstractMediaProcessor implements BufferMediaTransformer {
+
+		final CountDownLatch processed = new CountDownLatch(1);
+
+		volatile int transformed;
+		volatile boolean composite;
+		volatile ByteBuf input;
+		volatile ByteBuf returned;
+		volatile MediaEvent event;
+		volatile Error failure;
+
+		Inspector(int mediaHash) {
+			super(mediaHash, null, null);
+		}
+
+		@Override
+		public ByteBuf transform(ByteBuf data, int mediaHash) {
+			transformed++;
+			composite = data instanceof CompositeByteBuf;
+			input = data;
+			returned = data;
+
+			return data;
+		}
+
+		@Override
+		public byte[] transform(byte[] data, int mediaHash) {
+			return data;
+		}
+
+		@Override
+		protected void mediaEventImpl(MediaEvent event) throws Exception {
+			try {
+				inspect(event);
+			} catch (Error e) {
+				failure = e;
+			} finally {
+				this.event = event;
+				processed.countDown();
+			}
+		}
+
+		protected abstract void inspect(MediaEvent event);
+
+		// unbound to a channel, there is no remote to notify
+		@Override
+		public void destroy() {
+			MediaEventBus.unregister(this);
+			ReceiverEventBus.unregister(this);
+		}
+
+		@Override
+		protected boolean openImpl() {
+			return true;
+		}
+
+		@Override
+		protected boolean closeImpl() {
+			return true;
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new CompositeRehydrationCheck().run();
+	}
+
+}
@@ -0,0 +1,259 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.receiver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.github.mrstampy.pprspray.core.receiver.AbstractChunkReceiver;
+import com.github.mrstampy.pprspray.core.receiver.event.ReceiverEvent;
+import com.github.mrstampy.pprspray.core.receiver.event.ReceiverEventBus;
+import com.github.mrstampy.pprspray.core.receiver.event.ReceiverEventType;
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.binary.DefaultBinaryChunk;
+import com.github.mrstampy.pprspray.core.streamer.chunk.event.ChunkEventBus;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooterChunk;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
+import com.github.mrstampy.pprspray.core.test.AbstractCheck;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * Checks that incomplete messages held by {@link AbstractChunkReceiver}s are
+ * evicted, oldest first, beyond the receiver's maximum pending bytes, once
+ * older than the partial message ttl and, across receivers, by eviction
+ * priority beyond the global maximum, each eviction being counted and posted
+ * as a {@link ReceiverEventType#EVICT} event, late chunks of evicted messages
+ * being discarded and the pending bytes returning to zero.
+ */
+public class EvictionCheck extends AbstractCheck {
+
+	private static final int DATA_LENGTH = 10;
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	private final Queue<ReceiverEvent> evictions = new ConcurrentLinkedQueue<>();
+
+	private final List<AbstractChunkReceiver<?>> receivers = new ArrayList<>();
+
+	private int mediaHash = 0x24680;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.test.AbstractCheck#execute()
+	 */
+	@Override
+	protected void execute() throws Exception {
+		ReceiverEventBus.register(this);
+
+		try {
+			checkEquals(0L, AbstractChunkReceiver.getGlobalPendingBytes(), "no pending bytes initially");
+			long globalEvictions = AbstractChunkReceiver.getGlobalEvictionCount();
+
+			checkMaxPendingBytes();
+			destroyReceivers();
+
+			checkTtl();
+			destroyReceivers();
+
+			checkGlobalBudget();
+			destroyReceivers();
+
+			checkEquals(globalEvictions + 3, AbstractChunkReceiver.getGlobalEvictionCount(), "global eviction count");
+		} finally {
+			ReceiverEventBus.unregister(this);
+			destroyReceivers();
+		}
+	}
+
+	private void checkMaxPendingBytes() throws Exception {
+		AbstractChunkReceiver<DefaultBinaryChunk> receiver = receiver();
+		receiver.setMaxPendingBytes(3 * DATA_LENGTH - 1);
+
+		post(receiver, 1, 1);
+		post(receiver, 1, 2);
+		awaitPending(receiver, 2 * DATA_LENGTH);
+		Thread.sleep(2);
+
+		post(receiver, 2, 1);
+		awaitEvictions(1);
+
+		checkEvicted(receiver, 1, 2 * DATA_LENGTH, "oldest message evicted beyond the maximum");
+		checkEquals(1L, receiver.getEvictionCount(), "eviction count");
+		awaitPending(receiver, DATA_LENGTH);
+
+		// late chunks of the evicted message are discarded
+		post(receiver, 1, 3);
+		post(receiver, 2, 2);
+		awaitPending(receiver, 2 * DATA_LENGTH);
+		checkEquals(1L, receiver.getEvictionCount(), "late chunk not evicting");
+		check(evictions.isEmpty(), "no further evictions");
+	}
+
+	private void checkTtl() throws Exception {
+		AbstractChunkReceiver<DefaultBinaryChunk> receiver = receiver();
+		receiver.setPartialMessageTtlMillis(100);
+		receiver.setMaxFinalizeMillis(0);
+
+		post(receiver, 5, 1);
+		awaitPending(receiver, DATA_LENGTH);
+
+		// evicted by the sweep, every AbstractChunkReceiver.EVICTION_SWEEP_MILLIS
+		awaitEvictions(1);
+
+		checkEvicted(receiver, 5, DATA_LENGTH, "expired message evicted");
+		checkEquals(1L, receiver.getEvictionCount(), "expired eviction count");
+		checkEquals(0L, receiver.getPendingBytes(), "no pending bytes once expired");
+	}
+
+	private void checkGlobalBudget() throws Exception {
+		long globalMax = AbstractChunkReceiver.getGlobalMaxPendingBytes();
+
+		AbstractChunkReceiver<DefaultBinaryChunk> high = receiver();
+		high.setEvictionPriority(1);
+
+		AbstractChunkReceiver<DefaultBinaryChunk> low = receiver();
+
+		long pending = AbstractChunkReceiver.getGlobalPendingBytes();
+
+		AbstractChunkReceiver.setGlobalMaxPendingBytes(pending + 3 * DATA_LENGTH);
+		try {
+			post(high, 7, 1);
+			post(high, 7, 2);
+			awaitPending(high, 2 * DATA_LENGTH);
+			Thread.sleep(2);
+
+			// the newer message of the lower priority receiver is evicted first
+			post(low, 8, 1);
+			post(low, 8, 2);
+			awaitEvictions(1);
+
+			checkEvicted(low, 8, 2 * DATA_LENGTH, "lower priority evicted first");
+			checkEquals(0L, high.getEvictionCount(), "higher priority retained");
+			checkEquals(2L * DATA_LENGTH, high.getPendingBytes(), "higher priority pending");
+			awaitPending(low, 0);
+			checkEquals(pending + 2 * DATA_LENGTH, AbstractChunkReceiver.getGlobalPendingBytes(),
+					"within the global budget");
+		} finally {
+			AbstractChunkReceiver.setGlobalMaxPendingBytes(globalMax);
+		}
+	}
+
+	private void destroyReceivers() {
+		for (AbstractChunkReceiver<?> receiver : receivers) {
+			receiver.destroy();
+		}
+
+		receivers.clear();
+
+		checkEquals(0L, AbstractChunkReceiver.getGlobalPendingBytes(), "no pending bytes once destroyed");
+	}
+
+	private void checkEvicted(AbstractChunkReceiver<?> receiver, int messageHash, int bytes, String description) {
+		ReceiverEvent event = evictions.poll();
+
+		check(event != null, description);
+		checkEquals(ReceiverEventType.EVICT, event.getType(), description + ", type");
+		checkEquals(receiver.getMediaHash(), event.getMediaHash(), description + ", media hash");
+		checkEquals(messageHash, event.getMessageHash(), description + ", message hash");
+		checkEquals(bytes, event.getBytes(), description + ", bytes");
+	}
+
+	/**
+	 * Receiver event.
+	 *
+	 * @param event
+	 *          the event
+	 */
+	@Subscribe
+	public void receiverEvent(ReceiverEvent event) {
+		if (event.getType() == ReceiverEventType.EVICT) evictions.add(event);
+	}
+
+	private AbstractChunkReceiver<DefaultBinaryChunk> receiver() {
+		AbstractChunkReceiver<DefaultBinaryChunk> receiver = new AbstractChunkReceiver<DefaultBinaryChunk>(
+				MediaStreamType.BINARY, ++mediaHash) {
+
+			@Override
+			protected void receiveImpl(DefaultBinaryChunk chunk) {
+				add(chunk);
+			}
+
+			@Override
+			protected void endOfMessageImpl(MediaFooterChunk eom) {
+				finalizeMessage(eom);
+			}
+		};
+
+		receiver.setPartialMessageTtlMillis(TimeUnit.MINUTES.toMillis(1));
+		receivers.add(receiver);
+
+		return receiver;
+	}
+
+	private void post(AbstractChunkReceiver<?> receiver, int messageHash, long sequence) {
+		int headerLength = MediaStreamerUtils.DEFAULT_HEADER_LENGTH;
+
+		// chunks after the first, held until the first arrives
+		ByteBuf buf = Unpooled.buffer(headerLength + DATA_LENGTH);
+		MediaStreamerUtils.writeHeader(buf, MediaStreamType.BINARY, headerLength, messageHash, receiver.getMediaHash(),
+				sequence, false, false);
+		buf.writeZero(DATA_LENGTH);
+
+		ChunkEventBus.post(new DefaultBinaryChunk(buf.array()));
+	}
+
+	private void awaitPending(AbstractChunkReceiver<?> receiver, long expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (receiver.getPendingBytes() != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+
+		checkEquals(expected, receiver.getPendingBytes(), "pending bytes");
+	}
+
+	private void awaitEvictions(int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (evictions.size() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+
+		checkEquals(expected, evictions.size(), "evictions");
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new EvictionCheck().run();
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.runtime;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.github.mrstampy.kitchensync.netty.channel.KiSyChannel;
+import com.github.mrstampy.pprspray.core.streamer.MediaMessageStreamer;
+import com.github.mrstampy.pprspray.core.streamer.binary.BinaryStreamer;
+import com.github.mrstampy.pprspray.core.streamer.util.StreamerRuntime;
+import com.github.mrstampy.pprspray.core.streamer.util.VirtualThreads;
+import com.github.mrstampy.pprspray.core.test.channel.ByteArrayChannel;
+
+/**
+ * Compares the platform and virtual thread modes of the
+ * {@link StreamerRuntime} by streaming messages from a large number of
+ * {@link BinaryStreamer}s between two local channels. Run once as is and once
+ * with -D{@value VirtualThreads#VIRTUAL_THREADS_PROPERTY}=true on a JVM
+ * supporting virtual threads, comparing the elapsed time and peak thread
+ * count.<br>
+ * <br>
+ * Arguments, all optional: number of streams (10000), messages per stream (10)
+ * and message size (1024).
+ */
+public class StreamerRuntimeBenchmark {
+
+	private static final int PIPE_SIZE = 8 * 1024;
+
+	private final int streams;
+	private final int messages;
+	private final int size;
+
+	private final CountDownLatch sent;
+
+	private final GenericFutureListener<ChannelFuture> counter = new GenericFutureListener<ChannelFuture>() {
+
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			sent.countDown();
+		}
+	};
+
+	/**
+	 * The Constructor.
+	 *
+	 * @param streams
+	 *          the streams
+	 * @param messages
+	 *          the messages per stream
+	 * @param size
+	 *          the message size
+	 */
+	public StreamerRuntimeBenchmark(int streams, int messages, int size) {
+		this.streams = streams;
+		this.messages = messages;
+		this.size = size;
+
+		sent = new CountDownLatch(streams * messages);
+	}
+
+	private void execute() throws Exception {
+		KiSyChannel channel1 = initChannel();
+		KiSyChannel channel2 = initChannel();
+
+		CountingStreamer[] streamers = new CountingStreamer[streams];
+		for (int i = 0; i < streams; i++) {
+			streamers[i] = new CountingStreamer(channel1, channel2.localAddress());
+		}
+
+		byte[] message = new byte[size];
+
+		long start = System.nanoTime();
+		for (int m = 0; m < messages; m++) {
+			for (CountingStreamer streamer : streamers) {
+				streamer.stream(message);
+			}
+		}
+
+		boolean complete = sent.await(5, TimeUnit.MINUTES);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		System.out.println("Mode:          " + (VirtualThreads.isEnabled() ? "virtual" : "platform"));
+		System.out.println("Streams:       " + streams);
+		System.out.println("Messages:      " + (streams * messages - sent.getCount()) + (complete ? "" : " (incomplete)"));
+		System.out.println("Elapsed ms:    " + elapsed);
+		System.out.println("Messages/s:    " + (elapsed == 0 ? "-" : (streams * messages - sent.getCount()) * 1000 / elapsed));
+		System.out.println("Peak threads:  " + ManagementFactory.getThreadMXBean().getPeakThreadCount());
+
+		System.exit(0);
+	}
+
+	private KiSyChannel initChannel() {
+		ByteArrayChannel channel = new ByteArrayChannel();
+
+		channel.bind();
+
+		return channel;
+	}
+
+	private class CountingStreamer extends BinaryStreamer {
+
+		public CountingStreamer(KiSyChannel channel, InetSocketAddress destination) {
+			super(PIPE_SIZE, channel, destination);
+			setAutoNegotiate(false);
+			setNotifyAccepted(true);
+		}
+
+		@Override
+		protected ChannelFuture sendData(MediaMessageStreamer lane, byte[] data) throws Exception {
+			return super.sendData(lane, data).addListener(counter);
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int streams = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int messages = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int size = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+		new StreamerRuntimeBenchmark(streams, messages, size).execute();
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.functions.Action1;
+
+import com.github.mrstampy.pprspray.core.streamer.util.BoundedMpscQueue;
+import com.github.mrstampy.pprspray.core.streamer.util.OverflowPolicy;
+import com.github.mrstampy.pprspray.core.test.AbstractCheck;
+
+/**
+ * Checks the message and byte bounds of the {@link BoundedMpscQueue} under each
+ * {@link OverflowPolicy}, and that no message is lost or duplicated with
+ * several producers offering concurrently.
+ */
+public class BoundedMpscQueueCheck extends AbstractCheck {
+
+	private static final int PRODUCERS = 4;
+	private static final int PER_PRODUCER = 100000;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.test.AbstractCheck#execute()
+	 */
+	@Override
+	protected void execute() throws Exception {
+		checkArguments();
+		checkDropNewest();
+		checkDropOldest();
+		checkOversized();
+		checkFailFast();
+		checkBlock();
+		checkConcurrent(OverflowPolicy.DROP_OLDEST);
+		checkConcurrent(OverflowPolicy.DROP_NEWEST);
+		checkConcurrent(OverflowPolicy.BLOCK);
+	}
+
+	private void checkArguments() {
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				new BoundedMpscQueue<Integer>(0, 1, OverflowPolicy.DROP_NEWEST);
+			}
+		}, "zero messages");
+
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				new BoundedMpscQueue<Integer>(1, 0, OverflowPolicy.DROP_NEWEST);
+			}
+		}, "zero bytes");
+
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				new BoundedMpscQueue<Integer>(1, 1, null);
+			}
+		}, "null policy");
+	}
+
+	private void checkDropNewest() {
+		for (OverflowPolicy policy : new OverflowPolicy[] { OverflowPolicy.DROP_NEWEST, OverflowPolicy.CALLBACK }) {
+			BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(4, 1000, policy);
+			List<Integer> dropped = listen(queue);
+
+			for (int i = 0; i < 6; i++) {
+				checkEquals(i < 4, queue.offer(i, 100), policy + " offer " + i);
+			}
+
+			checkEquals(4, queue.size(), policy + " size");
+			checkEquals(400L, queue.getQueuedBytes(), policy + " bytes");
+			checkEquals(0, queue.remainingCapacity(), policy + " remaining");
+			checkContents(queue, dropped, new int[] { 0, 1, 2, 3 }, new int[] { 4, 5 }, policy.toString());
+		}
+
+		BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(100, 250, OverflowPolicy.DROP_NEWEST);
+		check(queue.offer(1, 100) && queue.offer(2, 100), "within the byte bound");
+		check(!queue.offer(3, 100), "beyond the byte bound rejected");
+		check(queue.offer(4, 50), "to the byte bound");
+		checkEquals(250L, queue.getQueuedBytes(), "bytes at the bound");
+	}
+
+	private void checkDropOldest() {
+		BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(4, 1000, OverflowPolicy.DROP_OLDEST);
+		List<Integer> dropped = listen(queue);
+
+		for (int i = 0; i < 6; i++) {
+			check(queue.offer(i, 100), "offer " + i);
+			check(queue.size() <= 4, "message bound after offer " + i);
+		}
+
+		checkContents(queue, dropped, new int[] { 2, 3, 4, 5 }, new int[] { 0, 1 }, "message bound");
+
+		queue = new BoundedMpscQueue<Integer>(100, 250, OverflowPolicy.DROP_OLDEST);
+		dropped = listen(queue);
+
+		int[] sizes = { 100, 100, 100, 200, 50 };
+		for (int i = 0; i < sizes.length; i++) {
+			check(queue.offer(i, sizes[i]), "offer " + i);
+			check(queue.getQueuedBytes() <= 250, "byte bound after offer " + i + ", was " + queue.getQueuedBytes());
+		}
+
+		checkContents(queue, dropped, new int[] { 3, 4 }, new int[] { 0, 1, 2 }, "byte bound");
+	}
+
+	private void checkOversized() {
+		BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(10, 100, OverflowPolicy.DROP_NEWEST);
+		check(queue.offer(1, 10), "offer");
+		check(!queue.offer(2, 1000), "oversized rejected by a queue not empty");
+		checkEquals(1, queue.poll(), "poll");
+		check(queue.offer(3, 1000), "oversized admitted to an empty queue");
+		checkEquals(1000L, queue.getQueuedBytes(), "oversized bytes");
+		checkEquals(3, queue.poll(), "poll oversized");
+
+		queue = new BoundedMpscQueue<Integer>(10, 100, OverflowPolicy.DROP_OLDEST);
+		List<Integer> dropped = listen(queue);
+		check(queue.offer(1, 10) && queue.offer(2, 10), "offer");
+		check(queue.offer(3, 1000), "oversized admitted once the queue is emptied");
+		checkContents(queue, dropped, new int[] { 3 }, new int[] { 1, 2 }, "oversized");
+	}
+
+	private void checkFailFast() {
+		final BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(2, 1000, OverflowPolicy.FAIL_FAST);
+		check(queue.offer(1, 1) && queue.offer(2, 1), "offer");
+
+		checkThrows(IllegalStateException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				queue.offer(3, 1);
+			}
+		}, "full queue");
+
+		checkEquals(2, queue.size(), "size unchanged");
+		checkEquals(0L, queue.getDropCount(), "nothing dropped");
+	}
+
+	private void checkBlock() throws Exception {
+		final BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(2, 1000, OverflowPolicy.BLOCK);
+		check(queue.offer(1, 1) && queue.offer(2, 1), "offer");
+
+		final AtomicBoolean offered = new AtomicBoolean();
+		Thread producer = new Thread() {
+			public void run() {
+				offered.set(queue.offer(3, 1));
+			}
+		};
+		producer.start();
+
+		producer.join(100);
+		check(producer.isAlive(), "producer blocked while full");
+		checkEquals(2, queue.size(), "size while blocked");
+
+		checkEquals(1, queue.poll(), "poll");
+		producer.join(TimeUnit.SECONDS.toMillis(5));
+		check(!producer.isAlive() && offered.get(), "producer admitted once polled");
+
+		checkEquals(2, queue.poll(), "poll");
+		checkEquals(3, queue.poll(), "poll");
+		check(queue.poll() == null && queue.isEmpty(), "empty");
+	}
+
+	private void checkConcurrent(final OverflowPolicy policy) throws Exception {
+		final BoundedMpscQueue<Long> queue = new BoundedMpscQueue<Long>(64, 64 * 100, policy);
+		final AtomicLong droppedSum = new AtomicLong();
+		final AtomicLong droppedCount = new AtomicLong();
+		queue.setDropListener(new Action1<Long>() {
+
+			@Override
+			public void call(Long t) {
+				droppedSum.addAndGet(t);
+				droppedCount.incrementAndGet();
+			}
+		});
+
+		final CountDownLatch done = new CountDownLatch(PRODUCERS);
+		for (int p = 0; p < PRODUCERS; p++) {
+			final long base = (long) p * PER_PRODUCER;
+			new Thread() {
+				public void run() {
+					for (long i = 1; i <= PER_PRODUCER; i++) {
+						queue.offer(base + i, 1 + (int) (i % 100));
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+
+		long polledSum = 0;
+		long polledCount = 0;
+		while (done.getCount() > 0 || !queue.isEmpty()) {
+			Long e = queue.poll();
+			if (e == null) continue;
+
+			polledSum += e;
+			polledCount++;
+		}
+
+		long n = (long) PRODUCERS * PER_PRODUCER;
+		checkEquals(n, polledCount + droppedCount.get(), policy + " messages accounted for");
+		checkEquals(n * (n + 1) / 2, polledSum + droppedSum.get(), policy + " no message duplicated");
+		checkEquals(droppedCount.get(), queue.getDropCount(), policy + " drop count");
+		checkEquals(0, queue.size(), policy + " size once drained");
+		checkEquals(0L, queue.getQueuedBytes(), policy + " bytes once drained");
+		if (policy == OverflowPolicy.BLOCK) checkEquals(0L, droppedCount.get(), policy + " nothing dropped");
+	}
+
+	private List<Integer> listen(BoundedMpscQueue<Integer> queue) {
+		final List<Integer> dropped = new ArrayList<Integer>();
+		queue.setDropListener(new Action1<Integer>() {
+
+			@Override
+			public void call(Integer t) {
+				dropped.add(t);
+			}
+		});
+
+		return dropped;
+	}
+
+	private void checkContents(BoundedMpscQueue<Integer> queue, List<Integer> dropped, int[] polled, int[] drops,
+			String description) {
+		for (int e : polled) {
+			checkEquals(e, queue.poll(), description + " polled");
+		}
+		check(queue.poll() == null, description + " emptied");
+
+		checkEquals(drops.length, dropped.size(), description + " dropped count");
+		for (int i = 0; i < drops.length; i++) {
+			checkEquals(drops[i], dropped.get(i), description + " dropped");
+		}
+
+		checkEquals((long) drops.length, queue.getDropCount(), description + " drop count");
+		checkEquals(0L, queue.getQueuedBytes(), description + " bytes once emptied");
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new BoundedMpscQueueCheck().run();
+	}
+
+}
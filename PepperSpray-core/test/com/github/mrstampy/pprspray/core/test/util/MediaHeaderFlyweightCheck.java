@@ -0,0 +1,195 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+
+import com.github.mrstampy.pprspray.core.streamer.MediaStreamType;
+import com.github.mrstampy.pprspray.core.streamer.footer.MediaFooter;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaHeaderFlyweight;
+import com.github.mrstampy.pprspray.core.streamer.util.MediaStreamerUtils;
+import com.github.mrstampy.pprspray.core.test.AbstractCheck;
+
+/**
+ * Checks that the {@link MediaHeaderFlyweight} decodes headers and footers
+ * written by {@link MediaStreamerUtils} and {@link MediaFooter} identically
+ * from arrays, offset {@link ByteBuf}s and positioned {@link ByteBuffer}s, and
+ * that malformed messages are rejected without throwing.
+ */
+public class MediaHeaderFlyweightCheck extends AbstractCheck {
+
+	private static final int MESSAGE_HASH = 0x12345678;
+	private static final int MEDIA_HASH = -42;
+	private static final long SEQUENCE = 0x1122334455667788L;
+	private static final byte[] CUSTOM_KEY = { 'C', 'H', 'K' };
+	private static final int PREFIX = 5;
+
+	private final MediaHeaderFlyweight flyweight = new MediaHeaderFlyweight();
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.test.AbstractCheck#execute()
+	 */
+	@Override
+	protected void execute() throws Exception {
+		checkFlags(false, false);
+		checkFlags(true, false);
+		checkFlags(false, true);
+		checkFlags(true, true);
+
+		checkFooters();
+		checkMalformed();
+	}
+
+	private void checkFlags(boolean ackRequired, boolean firstChunk) {
+		int headerLength = MediaStreamerUtils.DEFAULT_HEADER_LENGTH + CUSTOM_KEY.length;
+
+		ByteBuf buf = Unpooled.buffer();
+		MediaStreamerUtils.writeHeader(buf, MediaStreamType.AUDIO, headerLength, MESSAGE_HASH, MEDIA_HASH, SEQUENCE,
+				ackRequired, firstChunk);
+		buf.writeBytes(CUSTOM_KEY);
+		buf.writeBytes(new byte[] { 1, 2, 3 });
+
+		byte[] message = new byte[buf.readableBytes()];
+		buf.getBytes(0, message);
+
+		// remotes not negotiating the first chunk flag test the ack byte for equality
+		int flags = (ackRequired ? MediaHeaderFlyweight.ACK_REQUIRED_FLAG : 0)
+				| (firstChunk ? MediaHeaderFlyweight.FIRST_CHUNK_FLAG : 0);
+		checkEquals(flags, (int) message[MediaHeaderFlyweight.ACK_REQ_OFFSET], "ack byte");
+
+		checkChunk(flyweight.wrap(message), ackRequired, firstChunk, "array");
+		checkChunk(flyweight.wrap(offset(message)), ackRequired, firstChunk, "ByteBuf");
+		checkChunk(flyweight.wrap(position(message)), ackRequired, firstChunk, "ByteBuffer");
+	}
+
+	private void checkChunk(MediaHeaderFlyweight f, boolean ackRequired, boolean firstChunk, String source) {
+		check(f.isValidChunk(), source + " valid chunk");
+		check(!f.isFooter(), source + " not a footer");
+		checkEquals(MediaStreamType.AUDIO, f.getMediaStreamType(), source + " type");
+		check(f.isMediaType(MediaStreamType.AUDIO), source + " is media type");
+		checkEquals(MediaStreamerUtils.DEFAULT_HEADER_LENGTH + CUSTOM_KEY.length, f.getHeaderLength(), source
+				+ " header length");
+		checkEquals(MESSAGE_HASH, f.getMessageHash(), source + " message hash");
+		checkEquals(MEDIA_HASH, f.getMediaHash(), source + " media hash");
+		checkEquals(SEQUENCE, f.getSequence(), source + " sequence");
+		checkEquals(ackRequired, f.isAckRequired(), source + " ack required");
+		checkEquals(firstChunk, f.isFirstChunk(), source + " first chunk");
+		check(f.isCustomHeader(CUSTOM_KEY), source + " custom header");
+		check(!f.isCustomHeader(new byte[] { 'X' }), source + " other custom header");
+	}
+
+	private void checkFooters() {
+		MediaFooter footer = new MediaFooter(MediaStreamType.FILE, MEDIA_HASH);
+		footer.setMessageHash(MESSAGE_HASH);
+
+		byte[] message = footer.createFooter();
+		checkEquals(MediaStreamerUtils.FOOTER_LENGTH, message.length, "footer length");
+
+		for (MediaHeaderFlyweight f : new MediaHeaderFlyweight[] { flyweight.wrap(message),
+				new MediaHeaderFlyweight().wrap(offset(message)), new MediaHeaderFlyweight().wrap(position(message)) }) {
+			check(f.isValidFooter(), "valid footer");
+			check(f.isFooter(MediaStreamType.FILE, MEDIA_HASH), "footer of type and hash");
+			check(!f.isFooter(MediaStreamType.FILE, MEDIA_HASH + 1), "footer of another hash");
+			check(!f.isFooter(MediaStreamType.AUDIO, MEDIA_HASH), "footer of another type");
+			check(!f.hasFooterCounts(), "footer without counts");
+			checkEquals(MESSAGE_HASH, f.getFooterMessageHash(), "footer message hash");
+			checkEquals(MEDIA_HASH, f.getFooterMediaHash(), "footer media hash");
+			checkEquals(-1, f.getFooterChunkCount(), "footer chunk count");
+			checkEquals(-1, f.getFooterMessageLength(), "footer message length");
+		}
+
+		ByteBuf counted = Unpooled.buffer(MediaStreamerUtils.EXTENDED_FOOTER_LENGTH);
+		counted.writeBytes(MediaStreamType.FILE.eomBytes());
+		counted.writeInt(MESSAGE_HASH);
+		counted.writeInt(MEDIA_HASH);
+		counted.writeInt(17);
+		counted.writeInt(12345);
+
+		MediaHeaderFlyweight f = flyweight.wrap(counted.array());
+		check(f.isValidFooter(), "valid counted footer");
+		check(f.hasFooterCounts(), "counted footer");
+		checkEquals(17, f.getFooterChunkCount(), "counted footer chunk count");
+		checkEquals(12345, f.getFooterMessageLength(), "counted footer message length");
+	}
+
+	private void checkMalformed() {
+		final MediaHeaderFlyweight f = flyweight.wrap(new byte[MediaStreamerUtils.DEFAULT_HEADER_LENGTH - 1]);
+		check(!f.hasHeader(), "short message has no header");
+		check(!f.isValidChunk(), "short message not a chunk");
+		check(f.getMediaStreamType() == null, "short message has no type");
+
+		checkThrows(IndexOutOfBoundsException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				f.getByte(MediaHeaderFlyweight.ACK_REQ_OFFSET);
+			}
+		}, "read past the end");
+
+		ByteBuf buf = Unpooled.buffer();
+		MediaStreamerUtils.writeHeader(buf, MediaStreamType.AUDIO, 1000, MESSAGE_HASH, MEDIA_HASH, SEQUENCE, false);
+		check(!flyweight.wrap(buf).isValidChunk(), "header length exceeding message");
+
+		byte[] unknown = new byte[MediaStreamerUtils.DEFAULT_HEADER_LENGTH];
+		Unpooled.wrappedBuffer(unknown).setInt(0, 0x7f00ff00);
+		check(!flyweight.wrap(unknown).isValidChunk(), "unknown type");
+		check(!flyweight.wrap(unknown).isValidFooter(), "unknown footer");
+
+		check(!flyweight.wrap((byte[]) null).hasHeader(), "null message");
+		checkEquals(0, flyweight.length(), "null message length");
+	}
+
+	private static ByteBuf offset(byte[] message) {
+		ByteBuf buf = Unpooled.buffer(PREFIX + message.length);
+		buf.writeZero(PREFIX);
+		buf.writeBytes(message);
+		buf.readerIndex(PREFIX);
+
+		return buf;
+	}
+
+	private static ByteBuffer position(byte[] message) {
+		ByteBuffer buffer = ByteBuffer.allocate(PREFIX + message.length);
+		buffer.position(PREFIX);
+		buffer.put(message);
+		buffer.position(PREFIX);
+
+		return buffer;
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new MediaHeaderFlyweightCheck().run();
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * PepperSpray-core, Encrypted Secure Communications Library
+ * 
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.pprspray.core.test.util;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.mrstampy.pprspray.core.streamer.util.TokenBucket;
+import com.github.mrstampy.pprspray.core.test.AbstractCheck;
+
+/**
+ * Checks the waits returned by the {@link TokenBucket}: unlimited buckets never
+ * wait, reservations are spaced at the limit, bursts are admitted immediately
+ * and idle time accrues no more than the burst.
+ */
+public class TokenBucketCheck extends AbstractCheck {
+
+	/** The tolerance for the time elapsed between reservations. */
+	private static final long TOLERANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.pprspray.core.test.AbstractCheck#execute()
+	 */
+	@Override
+	protected void execute() throws Exception {
+		checkUnlimited();
+		checkSpacing();
+		checkBurst();
+		checkIdleCredit();
+		checkRate();
+	}
+
+	private void checkUnlimited() {
+		TokenBucket bucket = new TokenBucket();
+		check(!bucket.isLimited(), "default unlimited");
+		for (int i = 0; i < 1000; i++) {
+			checkEquals(0L, bucket.reserve(1 << 20), "unlimited wait");
+		}
+
+		bucket = new TokenBucket(-1, 0);
+		check(!bucket.isLimited(), "negative rate unlimited");
+		checkEquals(0L, bucket.reserve(1 << 20), "negative rate wait");
+
+		final TokenBucket limited = new TokenBucket(1000, 0);
+		checkThrows(IllegalArgumentException.class, new Runnable() {
+
+			@Override
+			public void run() {
+				limited.setLimit(1000, -1);
+			}
+		}, "negative burst");
+
+		limited.setLimit(0, 0);
+		check(!limited.isLimited(), "limit removed");
+	}
+
+	private void checkSpacing() {
+		TokenBucket bucket = new TokenBucket(1000, 0);
+
+		checkEquals(0L, bucket.reserve(100), "first reservation");
+		checkWait(100, bucket.reserve(300), "second reservation");
+		checkWait(400, bucket.reserve(1), "third reservation");
+	}
+
+	private void checkBurst() {
+		TokenBucket bucket = new TokenBucket(1000, 500);
+
+		checkEquals(0L, bucket.reserve(250), "first of burst");
+		checkEquals(0L, bucket.reserve(250), "second of burst");
+		checkWait(0, bucket.reserve(500), "burst exhausted");
+		checkWait(500, bucket.reserve(1), "after burst");
+	}
+
+	private void checkIdleCredit() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(10000, 100);
+
+		checkEquals(0L, bucket.reserve(100), "first reservation");
+		Thread.sleep(100);
+
+		checkEquals(0L, bucket.reserve(100), "burst after idle");
+		checkWait(0, bucket.reserve(100), "idle credit capped");
+		checkWait(10, bucket.reserve(1), "no credit beyond the burst");
+	}
+
+	private void checkRate() {
+		TokenBucket bucket = new TokenBucket(1000000, 0);
+
+		long wait = 0;
+		for (int i = 0; i < 1000; i++) {
+			wait = bucket.reserve(1000);
+		}
+
+		checkWait(999, wait, "long term rate");
+	}
+
+	private void checkWait(long expectedMillis, long wait, String description) {
+		long expected = TimeUnit.MILLISECONDS.toNanos(expectedMillis);
+
+		check(wait <= expected && wait >= expected - TOLERANCE_NANOS, description + ": expected " + expected
+				+ " ns less up to " + TOLERANCE_NANOS + ", was " + wait);
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the args
+	 * @throws Exception
+	 *           the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new TokenBucketCheck().run();
+	}
+
+}
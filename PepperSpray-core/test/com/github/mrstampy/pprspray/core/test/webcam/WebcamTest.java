@@ -69,6 +69,7 @@ public class WebcamTest extends AbstractTest {
 	 */
 	public void stream() {
 		// enable this to see the chunks arrive on channel2
+		// ChunkEventBus.setBroadcastChunks(true);
 		// ChunkEventBus.register(new LoggingChunkReceiver());
 
 		streamer.connect();